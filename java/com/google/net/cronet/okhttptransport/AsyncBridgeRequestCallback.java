@@ -0,0 +1,337 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import android.util.Log;
+import java.io.IOException;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+import okhttp3.Call;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.chromium.net.CronetException;
+import org.chromium.net.UrlRequest;
+import org.chromium.net.UrlResponseInfo;
+
+/**
+ * A {@link UrlRequest.Callback} pushing the response to an {@link AsyncResponseCallback}.
+ *
+ * <p>As opposed to {@link OkHttpBridgeRequestCallback}, nothing ever waits for Cronet. Each
+ * Cronet callback is translated to a task invoking the response callback on the callback
+ * executor, and the next read is only issued once the response callback asks for it. A single
+ * buffer is borrowed from the pool for the lifetime of the response and reused for all reads.
+ *
+ * <p>Like on the blocking path, the read timeout bounds each read of the body: the request is
+ * canceled and the call fails with a {@link CronetTimeoutException} if Cronet doesn't complete a
+ * requested read in time.
+ */
+final class AsyncBridgeRequestCallback extends UrlRequest.Callback {
+  private static final String TAG = "AsyncBridgeCallback";
+
+  private final Call call;
+  private final Request request;
+  private final AsyncResponseCallback responseCallback;
+
+  /** Invokes the response callback, one task at a time. */
+  private final Executor callbackExecutor;
+
+  private final ResponseConverter responseConverter;
+  private final RedirectStrategy redirectStrategy;
+  private final ResponseBodyBufferPool bufferPool;
+  private final int readTimeoutMillis;
+
+  /** Schedules the read timeouts, null if there's no read timeout. */
+  @Nullable private final ScheduledExecutorService timeoutScheduler;
+
+  private final AsyncResponseBody body = new AsyncResponseBody(this);
+
+  /** The previous responses as reported to {@link #onRedirectReceived}, from oldest to newest. */
+  private final List<UrlResponseInfo> urlResponseInfoChain = new ArrayList<>();
+
+  /** How long each of the redirects in {@link #urlResponseInfoChain} took. */
+  private final List<Long> redirectDurationsMillis = new ArrayList<>();
+
+  /** When the current hop of the redirect chain started, only accessed by Cronet's thread. */
+  private long hopStartNanos = System.nanoTime();
+
+  private final AtomicBoolean readInFlight = new AtomicBoolean();
+
+  /** The number of reads Cronet completed, only written by Cronet's thread. */
+  private volatile int completedReadCount;
+
+  /** The timeout of the read in flight, if any. */
+  @Nullable private volatile ScheduledFuture<?> readTimeout;
+
+  /** Set once the outcome of the call is determined, only the first outcome is reported. */
+  private final AtomicBoolean finished = new AtomicBoolean();
+
+  /** The request being processed, set when the response starts. */
+  @Nullable private volatile UrlRequest urlRequest;
+
+  /** The buffer Cronet reads the body to, borrowed when the response starts. */
+  @Nullable private volatile ByteBuffer buffer;
+
+  /**
+   * Set if the response is an unfollowed redirect. Cronet doesn't expose redirect bodies, the
+   * body is reported as empty.
+   */
+  private volatile boolean emptyBody;
+
+  AsyncBridgeRequestCallback(
+      Call call,
+      Request request,
+      AsyncResponseCallback responseCallback,
+      Executor callbackExecutor,
+      ResponseConverter responseConverter,
+      RedirectStrategy redirectStrategy,
+      ResponseBodyBufferPool bufferPool,
+      int readTimeoutMillis,
+      @Nullable ScheduledExecutorService timeoutScheduler) {
+    checkArgument(
+        readTimeoutMillis == 0 || timeoutScheduler != null,
+        "A scheduler is required to enforce the read timeout!");
+    this.call = call;
+    this.request = request;
+    this.responseCallback = responseCallback;
+    this.callbackExecutor = callbackExecutor;
+    this.responseConverter = responseConverter;
+    this.redirectStrategy = redirectStrategy;
+    this.bufferPool = bufferPool;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.timeoutScheduler = timeoutScheduler;
+  }
+
+  @Override
+  public void onRedirectReceived(
+      UrlRequest urlRequest, UrlResponseInfo urlResponseInfo, String nextUrl) {
+    // We shouldn't follow redirects - pass the given UrlResponseInfo as the ultimate result
+    if (!redirectStrategy.followRedirects()) {
+      returnRedirect(urlRequest, urlResponseInfo);
+      return;
+    }
+
+    // Cap reached - fail and cancel the request. Exception crafted to match OkHttp.
+    if (urlResponseInfo.getUrlChain().size() > redirectStrategy.numberOfRedirectsToFollow()) {
+      finish(
+          new ProtocolException(
+              "Too many follow-up requests: "
+                  + (redirectStrategy.numberOfRedirectsToFollow() + 1)));
+      urlRequest.cancel();
+      return;
+    }
+
+    long nowNanos = System.nanoTime();
+    long hopDurationMillis = NANOSECONDS.toMillis(nowNanos - hopStartNanos);
+    switch (
+        redirectStrategy.decide(
+            new RedirectStrategy.Redirect(urlResponseInfo, nextUrl, hopDurationMillis))) {
+      case FOLLOW:
+        urlResponseInfoChain.add(urlResponseInfo);
+        redirectDurationsMillis.add(hopDurationMillis);
+        hopStartNanos = nowNanos;
+        urlRequest.followRedirect();
+        return;
+      case STOP:
+        returnRedirect(urlRequest, urlResponseInfo);
+        return;
+      case REFUSE:
+        finish(new ProtocolException("Redirect refused by the redirect policy"));
+        urlRequest.cancel();
+        return;
+    }
+  }
+
+  /** Passes the redirect response as the ultimate result. */
+  private void returnRedirect(UrlRequest urlRequest, UrlResponseInfo urlResponseInfo) {
+    emptyBody = true;
+    deliverResponse(urlResponseInfo);
+    // The cancellation below isn't a failure of the call.
+    finished.set(true);
+    urlRequest.cancel();
+  }
+
+  @Override
+  public void onResponseStarted(UrlRequest urlRequest, UrlResponseInfo urlResponseInfo) {
+    this.urlRequest = urlRequest;
+    buffer = bufferPool.acquire();
+    deliverResponse(urlResponseInfo);
+  }
+
+  @Override
+  public void onReadCompleted(
+      UrlRequest urlRequest, UrlResponseInfo urlResponseInfo, ByteBuffer byteBuffer) {
+    completedReadCount++;
+    cancelReadTimeout();
+    if (finished.get()) {
+      // The read timed out, the failure has already been reported.
+      return;
+    }
+    byteBuffer.flip();
+    dispatch(
+        () -> {
+          // Only now, the buffer mustn't be reused by a concurrent read() before the chunk is
+          // delivered.
+          readInFlight.set(false);
+          responseCallback.onBodyChunk(call, body, byteBuffer);
+        });
+  }
+
+  @Override
+  public void onSucceeded(UrlRequest urlRequest, UrlResponseInfo urlResponseInfo) {
+    finish(null);
+  }
+
+  @Override
+  public void onFailed(UrlRequest urlRequest, UrlResponseInfo urlResponseInfo, CronetException e) {
+    finish(e);
+  }
+
+  @Override
+  public void onCanceled(UrlRequest urlRequest, UrlResponseInfo responseInfo) {
+    finish(new IOException("Canceled"));
+  }
+
+  /** See {@link AsyncResponseBody#read()}. */
+  void read() {
+    checkState(!readInFlight.getAndSet(true), "The previous chunk hasn't been delivered yet!");
+
+    if (emptyBody) {
+      readInFlight.set(false);
+      dispatch(() -> responseCallback.onBodyComplete(call));
+      return;
+    }
+
+    ByteBuffer localBuffer = buffer;
+    UrlRequest localUrlRequest = urlRequest;
+    if (localBuffer == null || localUrlRequest == null || finished.get()) {
+      // The outcome of the call is being reported, there's nothing more to read.
+      return;
+    }
+    localBuffer.clear();
+    scheduleReadTimeout(localUrlRequest);
+    try {
+      localUrlRequest.read(localBuffer);
+    } catch (IllegalStateException e) {
+      // Cronet refuses reads of finished requests, which can happen if the call is canceled
+      // concurrently. The cancellation is reported separately.
+      if (!call.isCanceled()) {
+        throw e;
+      }
+    }
+  }
+
+  /** Fails the call and cancels the request unless Cronet completes the next read in time. */
+  private void scheduleReadTimeout(UrlRequest urlRequest) {
+    if (readTimeoutMillis == 0) {
+      return;
+    }
+    int readNumber = completedReadCount;
+    readTimeout =
+        timeoutScheduler.schedule(
+            () -> {
+              if (completedReadCount != readNumber || !finished.compareAndSet(false, true)) {
+                return;
+              }
+              dispatch(() -> responseCallback.onFailure(call, new CronetTimeoutException()));
+              // Cronet might still write to the buffer, it's returned once Cronet confirms the
+              // cancellation.
+              urlRequest.cancel();
+            },
+            readTimeoutMillis,
+            MILLISECONDS);
+  }
+
+  private void cancelReadTimeout() {
+    ScheduledFuture<?> localReadTimeout = readTimeout;
+    if (localReadTimeout != null) {
+      localReadTimeout.cancel(/* mayInterruptIfRunning= */ false);
+    }
+  }
+
+  private void deliverResponse(UrlResponseInfo urlResponseInfo) {
+    Response response;
+    try {
+      response =
+          responseConverter.toResponse(
+              request, urlResponseInfo, urlResponseInfoChain, redirectDurationsMillis, null);
+    } catch (IOException e) {
+      call.cancel();
+      finish(e);
+      return;
+    }
+    dispatch(() -> responseCallback.onResponse(call, response, body));
+  }
+
+  /** Reports the outcome of the call, unless already reported, and returns the buffer. */
+  private void finish(@Nullable IOException failure) {
+    cancelReadTimeout();
+    if (!finished.compareAndSet(false, true)) {
+      releaseBuffer();
+      return;
+    }
+    if (failure == null) {
+      dispatch(() -> responseCallback.onBodyComplete(call));
+    } else {
+      dispatch(() -> responseCallback.onFailure(call, failure));
+    }
+    releaseBuffer();
+  }
+
+  private void releaseBuffer() {
+    // Goes through the executor so that the buffer isn't reused while the response callback is
+    // still processing the last chunk.
+    dispatch(
+        () -> {
+          ByteBuffer localBuffer = buffer;
+          buffer = null;
+          if (localBuffer != null) {
+            bufferPool.release(localBuffer);
+          }
+        });
+  }
+
+  private void dispatch(Runnable task) {
+    try {
+      callbackExecutor.execute(
+          () -> {
+            try {
+              task.run();
+            } catch (RuntimeException e) {
+              // Consistent with OkHttp, which logs failures of response callbacks. Don't leave the
+              // call hanging, the callback is unlikely to ask for more data.
+              Log.i(TAG, "Callback failure for call to " + request.url().redact(), e);
+              call.cancel();
+            }
+          });
+    } catch (RejectedExecutionException e) {
+      Log.w(TAG, "Unable to deliver the response of call to " + request.url().redact(), e);
+      call.cancel();
+    }
+  }
+}
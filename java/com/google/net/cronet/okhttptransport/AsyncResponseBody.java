@@ -0,0 +1,39 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+/**
+ * The body of a response delivered to an {@link AsyncResponseCallback}. The body is pushed to the
+ * callback one chunk at a time, each chunk has to be requested using {@link #read()}.
+ */
+public final class AsyncResponseBody {
+  private final AsyncBridgeRequestCallback bridge;
+
+  AsyncResponseBody(AsyncBridgeRequestCallback bridge) {
+    this.bridge = bridge;
+  }
+
+  /**
+   * Requests the next chunk of the body. The chunk is delivered to {@link
+   * AsyncResponseCallback#onBodyChunk}, or {@link AsyncResponseCallback#onBodyComplete} is called
+   * if there's no more data. Can be called from any thread.
+   *
+   * @throws IllegalStateException if the previously requested chunk hasn't been delivered yet
+   */
+  public void read() {
+    bridge.read();
+  }
+}
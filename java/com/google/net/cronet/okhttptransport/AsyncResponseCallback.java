@@ -0,0 +1,70 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import okhttp3.Call;
+import okhttp3.Response;
+
+/**
+ * Receives the response of a call enqueued with {@link CronetCallFactory#enqueue(okhttp3.Request,
+ * AsyncResponseCallback)}, with the body pushed in chunks as Cronet reads it.
+ *
+ * <p>Unlike with {@link okhttp3.Callback}, no thread is blocked while waiting for the body. The
+ * body is read one chunk at a time, and the next chunk is only read from the network once the
+ * callback asks for it using {@link AsyncResponseBody#read()}. Not asking for more pauses the
+ * transfer, which provides flow control for slow consumers.
+ *
+ * <pre>
+ *   callFactory.enqueue(request, new AsyncResponseCallback() {
+ *     public void onResponse(Call call, Response response, AsyncResponseBody body) {
+ *       body.read();
+ *     }
+ *
+ *     public void onBodyChunk(Call call, AsyncResponseBody body, ByteBuffer chunk) {
+ *       consume(chunk);
+ *       body.read();
+ *     }
+ *     ...
+ *   });
+ * </pre>
+ *
+ * <p>The methods are invoked on the call factory's callback executor, one at a time and in order.
+ * After {@link #onBodyComplete} or {@link #onFailure} no more methods are invoked.
+ */
+public interface AsyncResponseCallback {
+
+  /**
+   * Called once the response headers are available. The response doesn't have a body, the body
+   * is delivered to {@link #onBodyChunk} once requested with {@link AsyncResponseBody#read()}.
+   */
+  void onResponse(Call call, Response response, AsyncResponseBody body);
+
+  /**
+   * Called with the next chunk of the body, positioned at the chunk's data.
+   *
+   * <p>The buffer is reused for the next chunk, it must not be accessed once {@link
+   * AsyncResponseBody#read()} is called again or after the call finished.
+   */
+  void onBodyChunk(Call call, AsyncResponseBody body, ByteBuffer chunk);
+
+  /** Called after the last body chunk was delivered. */
+  void onBodyComplete(Call call);
+
+  /** Called if the call fails, including if it's canceled, before or while reading the body. */
+  void onFailure(Call call, IOException e);
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import javax.annotation.Nullable;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * The response body created by the bridge. Unlike bodies created by {@link ResponseBody#create},
+ * it keeps track of the raw body source so that the body can also be read without going through
+ * Okio's buffers.
+ */
+final class BridgedResponseBody extends ResponseBody {
+
+  @Nullable private final MediaType contentType;
+  private final long contentLength;
+  private final Source rawSource;
+  private final BufferedSource bufferedSource;
+
+  BridgedResponseBody(@Nullable MediaType contentType, long contentLength, Source rawSource) {
+    this.contentType = contentType;
+    this.contentLength = contentLength;
+    this.rawSource = rawSource;
+    this.bufferedSource = Okio.buffer(rawSource);
+  }
+
+  @Nullable
+  @Override
+  public MediaType contentType() {
+    return contentType;
+  }
+
+  @Override
+  public long contentLength() {
+    return contentLength;
+  }
+
+  @Override
+  public BufferedSource source() {
+    return bufferedSource;
+  }
+
+  /**
+   * Returns a channel reading the body. Any bytes already buffered by {@link #source()} are served
+   * first. Afterwards, if the raw source supports it, reads go straight to the raw source, which
+   * lets Cronet fill direct buffers provided by the caller without an intermediate copy.
+   */
+  ReadableByteChannel byteChannel() {
+    if (!(rawSource instanceof ReadableByteChannel)) {
+      return bufferedSource;
+    }
+    ReadableByteChannel rawChannel = (ReadableByteChannel) rawSource;
+    return new ReadableByteChannel() {
+      @Override
+      public int read(ByteBuffer dst) throws IOException {
+        // buffer() rather than getBuffer() for Okio 1.x compatibility
+        @SuppressWarnings("deprecation")
+        Buffer buffered = bufferedSource.buffer();
+        if (buffered.size() > 0) {
+          return buffered.read(dst);
+        }
+        return rawChannel.read(dst);
+      }
+
+      @Override
+      public boolean isOpen() {
+        return bufferedSource.isOpen();
+      }
+
+      @Override
+      public void close() throws IOException {
+        bufferedSource.close();
+      }
+    };
+  }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import android.util.Log;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import okhttp3.HttpUrl;
+import org.chromium.net.CronetEngine;
+import org.chromium.net.CronetException;
+import org.chromium.net.UrlRequest;
+import org.chromium.net.UrlResponseInfo;
+
+/**
+ * Warms up connections to origins before the first real requests, and tracks which origins are
+ * ready.
+ *
+ * <p>Cronet has no public API for opening connections without a request, so an origin is warmed up
+ * with a HEAD request to its root, which goes through DNS resolution, the TCP or QUIC handshake and
+ * TLS. The request is canceled as soon as its response headers arrive, Cronet then keeps the
+ * connection around for the requests which follow. Any response, including an error status, means
+ * the connection is ready. Servers see these HEAD requests, make sure they're cheap to answer.
+ *
+ * <p>Origins are warmed up through {@link CronetCallFactory#warmUp} and {@link
+ * CronetInterceptor#warmUp}, or when the call factory or interceptor is built (see {@code
+ * setWarmUpOrigins}). Origins which are ready or being warmed up aren't requested again, failed
+ * ones are.
+ */
+public final class ConnectionWarmUp {
+  private static final String TAG = "ConnectionWarmUp";
+
+  /** The state of an origin. */
+  public enum State {
+    /** The warm-up request is in flight. */
+    PENDING,
+    /** A response was received, the connection is ready. */
+    READY,
+    /** The warm-up request failed, for example because the host couldn't be resolved. */
+    FAILED
+  }
+
+  private final CronetEngine cronetEngine;
+  private final Map<String, OriginWarmUp> origins = new ConcurrentHashMap<>();
+
+  ConnectionWarmUp(CronetEngine cronetEngine) {
+    this.cronetEngine = cronetEngine;
+  }
+
+  /**
+   * Starts warming up the origins which aren't ready or being warmed up yet.
+   *
+   * @param origins origins such as {@code https://www.example.com}, or any URL of the origin
+   * @throws IllegalArgumentException if an origin isn't a valid HTTP or HTTPS URL
+   */
+  void start(List<String> origins) {
+    for (String origin : origins) {
+      start(origin);
+    }
+  }
+
+  private void start(String originOrUrl) {
+    HttpUrl url = HttpUrl.parse(originOrUrl);
+    checkArgument(url != null, "Not a valid HTTP or HTTPS URL: %s", originOrUrl);
+    HttpUrl root = url.newBuilder().encodedPath("/").query(null).fragment(null).build();
+    String origin = toOrigin(root);
+
+    OriginWarmUp warmUp;
+    synchronized (this) {
+      OriginWarmUp existing = origins.get(origin);
+      if (existing != null && existing.state != State.FAILED) {
+        return;
+      }
+      warmUp = new OriginWarmUp(origin);
+      origins.put(origin, warmUp);
+    }
+
+    // The callback only records the state and cancels, avoid the thread hop.
+    UrlRequest request =
+        cronetEngine
+            .newUrlRequestBuilder(root.toString(), warmUp, MoreExecutors.directExecutor())
+            .allowDirectExecutor()
+            .setHttpMethod("HEAD")
+            .disableCache()
+            .build();
+    request.start();
+  }
+
+  /** Returns the state of the origin, or null if it wasn't warmed up. */
+  @Nullable
+  public State getState(String origin) {
+    OriginWarmUp warmUp = origins.get(normalize(origin));
+    return warmUp == null ? null : warmUp.state;
+  }
+
+  /** Returns the states of all the origins warmed up so far. */
+  public Map<String, State> getStates() {
+    Map<String, State> states = new HashMap<>();
+    for (OriginWarmUp warmUp : origins.values()) {
+      states.put(warmUp.origin, warmUp.state);
+    }
+    return Collections.unmodifiableMap(states);
+  }
+
+  /**
+   * Waits until the warm-up of the origin finished, at most for the given time, and returns
+   * whether the origin is ready. Returns false straight away for origins which weren't warmed up.
+   */
+  public boolean awaitReady(String origin, long timeout, TimeUnit unit)
+      throws InterruptedException {
+    OriginWarmUp warmUp = origins.get(normalize(origin));
+    if (warmUp == null) {
+      return false;
+    }
+    warmUp.done.await(timeout, unit);
+    return warmUp.state == State.READY;
+  }
+
+  private static String normalize(String originOrUrl) {
+    HttpUrl url = HttpUrl.parse(originOrUrl);
+    return url == null ? originOrUrl : toOrigin(url);
+  }
+
+  /** Returns the origin, with the port only if it isn't the default one of the scheme. */
+  private static String toOrigin(HttpUrl url) {
+    String origin = url.scheme() + "://" + url.host();
+    return url.port() == HttpUrl.defaultPort(url.scheme()) ? origin : origin + ":" + url.port();
+  }
+
+  /** The warm-up of a single origin, doubling as the callback of its request. */
+  private static final class OriginWarmUp extends UrlRequest.Callback {
+    private final String origin;
+    private final CountDownLatch done = new CountDownLatch(1);
+    private volatile State state = State.PENDING;
+
+    OriginWarmUp(String origin) {
+      this.origin = origin;
+    }
+
+    @Override
+    public void onRedirectReceived(
+        UrlRequest request, UrlResponseInfo info, String newLocationUrl) {
+      // The connection to the origin is established, no need to follow.
+      finish(State.READY);
+      request.cancel();
+    }
+
+    @Override
+    public void onResponseStarted(UrlRequest request, UrlResponseInfo info) {
+      finish(State.READY);
+      request.cancel();
+    }
+
+    @Override
+    public void onReadCompleted(UrlRequest request, UrlResponseInfo info, ByteBuffer byteBuffer) {
+      request.cancel();
+    }
+
+    @Override
+    public void onSucceeded(UrlRequest request, UrlResponseInfo info) {
+      finish(State.READY);
+    }
+
+    @Override
+    public void onFailed(UrlRequest request, UrlResponseInfo info, CronetException error) {
+      Log.i(TAG, "Unable to warm up the connection to " + origin, error);
+      finish(State.FAILED);
+    }
+
+    @Override
+    public void onCanceled(UrlRequest request, UrlResponseInfo info) {
+      // Unless canceled after the response, the engine is likely shutting down.
+      finish(State.FAILED);
+    }
+
+    private void finish(State finalState) {
+      if (state == State.PENDING) {
+        state = finalState;
+        done.countDown();
+      }
+    }
+  }
+}
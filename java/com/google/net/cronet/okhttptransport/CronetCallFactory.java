@@ -22,39 +22,57 @@ import static com.google.common.base.Preconditions.checkState;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import android.util.Log;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.util.concurrent.FutureCallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.net.cronet.okhttptransport.RequestResponseConverter.CronetRequestAndOkHttpResponse;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
 import okhttp3.Call;
 import okhttp3.Callback;
+import okhttp3.EventListener;
 import okhttp3.Request;
 import okhttp3.Response;
 import okio.AsyncTimeout;
 import okio.Timeout;
 import org.chromium.net.CronetEngine;
+import org.chromium.net.UrlRequest;
 
-/** A {@link Call.Factory} implementation using Cronet as the transport layer. */
-public final class CronetCallFactory implements Call.Factory {
+/**
+ * A {@link Call.Factory} implementation using Cronet as the transport layer.
+ *
+ * <p>The factory should be {@linkplain #close() closed} once it's no longer used to release the
+ * threads backing it.
+ */
+public final class CronetCallFactory implements Call.Factory, AutoCloseable {
 
   private static final String TAG = "CronetCallFactory";
 
   private final RequestResponseConverter converter;
-  private final ExecutorService responseCallbackExecutor;
+  /** Resolved on the first enqueued call, so that building the factory doesn't start a pool. */
+  private final Supplier<ExecutorService> responseCallbackExecutor;
   private final int readTimeoutMillis;
   private final int writeTimeoutMillis;
   private final int callTimeoutMillis;
+  @Nullable private final EventListener.Factory eventListenerFactory;
+  @Nullable private final RequestCoalescer requestCoalescer;
+  @Nullable private final CronetHttpCache cache;
 
   private CronetCallFactory(
       RequestResponseConverter converter,
-      ExecutorService responseCallbackExecutor,
+      Supplier<ExecutorService> responseCallbackExecutor,
       int readTimeoutMillis,
       int writeTimeoutMillis,
-      int callTimeoutMillis) {
+      int callTimeoutMillis,
+      @Nullable EventListener.Factory eventListenerFactory,
+      boolean requestCoalescingEnabled,
+      @Nullable CronetHttpCache cache) {
     checkArgument(readTimeoutMillis >= 0, "Read timeout mustn't be negative!");
     checkArgument(writeTimeoutMillis >= 0, "Write timeout mustn't be negative!");
     checkArgument(callTimeoutMillis >= 0, "Call timeout mustn't be negative!");
@@ -64,6 +82,12 @@ public final class CronetCallFactory implements Call.Factory {
     this.readTimeoutMillis = readTimeoutMillis;
     this.writeTimeoutMillis = writeTimeoutMillis;
     this.callTimeoutMillis = callTimeoutMillis;
+    this.eventListenerFactory = eventListenerFactory;
+    this.requestCoalescer =
+        requestCoalescingEnabled
+            ? new RequestCoalescer(converter, readTimeoutMillis, writeTimeoutMillis)
+            : null;
+    this.cache = cache;
   }
 
   public static Builder newBuilder(CronetEngine cronetEngine) {
@@ -72,7 +96,54 @@ public final class CronetCallFactory implements Call.Factory {
 
   @Override
   public Call newCall(Request request) {
-    return new CronetCall(request, this, converter, responseCallbackExecutor);
+    return new CronetCall(request, this, converter);
+  }
+
+  /**
+   * Creates a call for the request and enqueues it, pushing the response body to the callback in
+   * chunks instead of exposing it as a blocking stream. No thread is blocked while the call is in
+   * flight, which makes this suitable for large numbers of concurrent, long-lived responses. See
+   * {@link AsyncResponseCallback} for details.
+   *
+   * <p>The callback is invoked on the {@linkplain Builder#setCallbackExecutorService callback
+   * executor}. The returned call can be used to cancel the request, but can't be executed again.
+   */
+  public Call enqueue(Request request, AsyncResponseCallback responseCallback) {
+    checkNotNull(responseCallback);
+    CronetCall call = new CronetCall(request, this, converter);
+    call.enqueue(responseCallback);
+    return call;
+  }
+
+  /**
+   * Starts warming up connections to the given origins, such as {@code https://www.example.com},
+   * so that the first calls to them don't pay for DNS resolution and connection setup. See {@link
+   * ConnectionWarmUp} for details.
+   *
+   * @return the warm-up reporting the readiness of each origin
+   */
+  public ConnectionWarmUp warmUp(List<String> origins) {
+    ConnectionWarmUp connectionWarmUp = converter.getConnectionWarmUp();
+    connectionWarmUp.start(origins);
+    return connectionWarmUp;
+  }
+
+  /**
+   * Returns the warm-up reporting the readiness of the origins warmed up so far, including the
+   * ones set with {@code setWarmUpOrigins} on the builder.
+   */
+  public ConnectionWarmUp getConnectionWarmUp() {
+    return converter.getConnectionWarmUp();
+  }
+
+  /**
+   * Releases the executors backing the factory. Calls already in flight can finish, but new calls
+   * are likely to fail. A {@linkplain Builder#setCallbackExecutorService custom callback executor}
+   * isn't shut down.
+   */
+  @Override
+  public void close() {
+    converter.close();
   }
 
   private static class CronetCall implements Call {
@@ -80,23 +151,22 @@ public final class CronetCallFactory implements Call.Factory {
     private final Request okHttpRequest;
     private final CronetCallFactory motherFactory;
     private final RequestResponseConverter converter;
-    private final ExecutorService responseCallbackExecutor;
 
     private final AtomicBoolean executed = new AtomicBoolean();
     private final AtomicBoolean canceled = new AtomicBoolean();
-    private final AtomicReference<CronetRequestAndOkHttpResponse> convertedRequestAndResponse =
+    private final AtomicReference<UrlRequest> convertedRequest = new AtomicReference<>();
+    private final AtomicReference<RequestCoalescer.Subscriber> coalescedRequest =
         new AtomicReference<>();
     private final AsyncTimeout timeout;
+    @Nullable private final EventListener eventListener;
 
     private CronetCall(
         Request okHttpRequest,
         CronetCallFactory motherFactory,
-        RequestResponseConverter converter,
-        ExecutorService responseCallbackExecutor) {
+        RequestResponseConverter converter) {
       this.okHttpRequest = okHttpRequest;
       this.motherFactory = motherFactory;
       this.converter = converter;
-      this.responseCallbackExecutor = responseCallbackExecutor;
 
       this.timeout =
           new AsyncTimeout() {
@@ -106,6 +176,11 @@ public final class CronetCallFactory implements Call.Factory {
             }
           };
       timeout.timeout(motherFactory.callTimeoutMillis, MILLISECONDS);
+
+      this.eventListener =
+          motherFactory.eventListenerFactory == null
+              ? null
+              : motherFactory.eventListenerFactory.create(this);
     }
 
     @Override
@@ -116,21 +191,55 @@ public final class CronetCallFactory implements Call.Factory {
     @Override
     public Response execute() throws IOException {
       evaluateExecutionPreconditions();
+      Response memoryCacheResponse = converter.getCachedResponse(okHttpRequest);
+      if (memoryCacheResponse != null) {
+        return serveFromCache(memoryCacheResponse);
+      }
+      CronetHttpCache.Lookup cacheLookup =
+          motherFactory.cache == null ? null : motherFactory.cache.lookUp(okHttpRequest);
+      if (cacheLookup != null && cacheLookup.getNetworkRequest() == null) {
+        return serveFromCache(cacheLookup.getCacheResponse());
+      }
+      Request networkRequest =
+          cacheLookup == null ? okHttpRequest : cacheLookup.getNetworkRequest();
       try {
         timeout.enter();
-        CronetRequestAndOkHttpResponse requestAndOkHttpResponse =
-            converter.convert(
-                request(), motherFactory.readTimeoutMillis, motherFactory.writeTimeoutMillis);
-        convertedRequestAndResponse.set(requestAndOkHttpResponse);
-
-        startRequestIfNotCanceled();
-
-        return toCronetCallFactoryResponse(this, requestAndOkHttpResponse.getResponse());
+        Response response =
+            shouldCoalesce(networkRequest)
+                ? subscribeIfNotCanceled(networkRequest).getResponse()
+                : executeOnNetwork(networkRequest);
+        if (cacheLookup != null) {
+          response = motherFactory.cache.onNetworkResponse(cacheLookup, response);
+        }
+        return toCronetCallFactoryResponse(this, response);
       } catch (RuntimeException | IOException e) {
         // If the request finished successfully don't exit the timeout yet. Reading the body also
         // needs to be considered and the body object will take care of exiting it. See
         // toCronetCallFactoryResponse() for details.
         timeout.exit();
+        if (cacheLookup != null) {
+          cacheLookup.close();
+        }
+        throw e;
+      }
+    }
+
+    private Response executeOnNetwork(Request networkRequest) throws IOException {
+      RequestFinishedEventReplayer eventReplayer = startEventReporting();
+      try {
+        CronetRequestAndOkHttpResponse requestAndOkHttpResponse =
+            converter.convert(
+                networkRequest,
+                motherFactory.readTimeoutMillis,
+                motherFactory.writeTimeoutMillis,
+                eventReplayer);
+        convertedRequest.set(requestAndOkHttpResponse.getRequest());
+
+        startRequestIfNotCanceled();
+
+        return requestAndOkHttpResponse.getResponse();
+      } catch (IOException e) {
+        reportFailureBeforeStart(e);
         throw e;
       }
     }
@@ -140,44 +249,188 @@ public final class CronetCallFactory implements Call.Factory {
       try {
         timeout.enter();
         evaluateExecutionPreconditions();
-        CronetRequestAndOkHttpResponse requestAndOkHttpResponse =
-            converter.convert(
-                request(), motherFactory.readTimeoutMillis, motherFactory.writeTimeoutMillis);
-        convertedRequestAndResponse.set(requestAndOkHttpResponse);
-        CronetCall call = this;
+        Response memoryCacheResponse = converter.getCachedResponse(okHttpRequest);
+        if (memoryCacheResponse != null) {
+          timeout.exit();
+          responseCallbackExecutor().execute(
+              () -> deliverFromCache(memoryCacheResponse, responseCallback));
+          return;
+        }
+        if (motherFactory.cache != null) {
+          // Looking up the cache reads from disk, keep it off the calling thread.
+          responseCallbackExecutor().execute(() -> enqueueWithCache(responseCallback));
+          return;
+        }
+        enqueueOnNetwork(okHttpRequest, /* cacheLookup= */ null, responseCallback);
+      } catch (IOException e) {
+        // If the request finished successfully don't exit the timeout yet. Reading the body also
+        // needs to be considered and the body object will take care of exiting it. See
+        // toCronetCallFactoryResponse() for details.
+        timeout.exit();
+        reportFailureBeforeStart(e);
+        responseCallback.onFailure(this, e);
+      }
+    }
+
+    /**
+     * Looks up the cache and serves the response from it or from the network. Runs on the callback
+     * executor, so all failures must be reported to the callback, nobody else would.
+     */
+    private void enqueueWithCache(Callback responseCallback) {
+      CronetHttpCache.Lookup cacheLookup;
+      try {
+        cacheLookup = motherFactory.cache.lookUp(okHttpRequest);
+      } catch (RuntimeException e) {
+        failBeforeStart(new IOException("Unable to look up the cache", e), responseCallback);
+        return;
+      }
+      if (cacheLookup.getNetworkRequest() == null) {
+        timeout.exit();
+        deliverFromCache(cacheLookup.getCacheResponse(), responseCallback);
+        return;
+      }
+      try {
+        enqueueOnNetwork(cacheLookup.getNetworkRequest(), cacheLookup, responseCallback);
+      } catch (IOException | RuntimeException e) {
+        cacheLookup.close();
+        failBeforeStart(
+            e instanceof IOException ? (IOException) e : new IOException(e), responseCallback);
+      }
+    }
 
+    private void failBeforeStart(IOException e, Callback responseCallback) {
+      timeout.exit();
+      reportFailureBeforeStart(e);
+      responseCallback.onFailure(this, e);
+    }
+
+    private void enqueueOnNetwork(
+        Request networkRequest,
+        @Nullable CronetHttpCache.Lookup cacheLookup,
+        Callback responseCallback)
+        throws IOException {
+      if (shouldCoalesce(networkRequest)) {
         Futures.addCallback(
-            requestAndOkHttpResponse.getResponseAsync(),
-            new FutureCallback<Response>() {
-              @Override
-              public void onSuccess(Response result) {
-                try {
-                  responseCallback.onResponse(call, toCronetCallFactoryResponse(call, result));
-                } catch (IOException e) {
-                  // The call factory doesn't really mind this - the application code
-                  // threw an exception while handling the response, they should have taken care
-                  // of it. Just logging the error is consistent with plain OkHttp implementation.
-                  Log.i(TAG, "Callback failure for " + toLoggableString(), e);
-                }
-              }
+            subscribeIfNotCanceled(networkRequest).getResponseFuture(),
+            toFutureCallback(responseCallback, cacheLookup),
+            responseCallbackExecutor());
+        return;
+      }
+      RequestFinishedEventReplayer eventReplayer = startEventReporting();
+      CronetRequestAndOkHttpResponse requestAndOkHttpResponse =
+          converter.convert(
+              networkRequest,
+              motherFactory.readTimeoutMillis,
+              motherFactory.writeTimeoutMillis,
+              eventReplayer);
+      convertedRequest.set(requestAndOkHttpResponse.getRequest());
+
+      Futures.addCallback(
+          requestAndOkHttpResponse.getResponseAsync(),
+          toFutureCallback(responseCallback, cacheLookup),
+          responseCallbackExecutor());
+
+      startRequestIfNotCanceled();
+    }
 
-              @Override
-              public void onFailure(Throwable t) {
-                if (t instanceof IOException) {
-                  responseCallback.onFailure(call, (IOException) t);
-                } else {
-                  responseCallback.onFailure(call, new IOException(t));
-                }
-              }
-            },
-            responseCallbackExecutor);
+    private FutureCallback<Response> toFutureCallback(
+        Callback responseCallback, @Nullable CronetHttpCache.Lookup cacheLookup) {
+      CronetCall call = this;
+      return new FutureCallback<Response>() {
+        @Override
+        public void onSuccess(Response result) {
+          Response response =
+              cacheLookup == null
+                  ? result
+                  : motherFactory.cache.onNetworkResponse(cacheLookup, result);
+          try {
+            responseCallback.onResponse(call, toCronetCallFactoryResponse(call, response));
+          } catch (IOException e) {
+            // The call factory doesn't really mind this - the application code
+            // threw an exception while handling the response, they should have taken care
+            // of it. Just logging the error is consistent with plain OkHttp implementation.
+            Log.i(TAG, "Callback failure for " + toLoggableString(), e);
+          }
+        }
+
+        @Override
+        public void onFailure(Throwable t) {
+          if (cacheLookup != null) {
+            cacheLookup.close();
+          }
+          if (t instanceof IOException) {
+            responseCallback.onFailure(call, (IOException) t);
+          } else {
+            responseCallback.onFailure(call, new IOException(t));
+          }
+        }
+      };
+    }
+
+    /**
+     * Reports the call to the event listener, if any, and returns the response served by a cache.
+     * No Cronet request is made, so only the start and the end of the call are reported.
+     */
+    private Response serveFromCache(Response cacheResponse) {
+      if (eventListener != null) {
+        eventListener.callStart(this);
+        eventListener.callEnd(this);
+      }
+      return toCronetCallFactoryResponse(this, cacheResponse);
+    }
+
+    private void deliverFromCache(Response cacheResponse, Callback responseCallback) {
+      try {
+        responseCallback.onResponse(this, serveFromCache(cacheResponse));
+      } catch (IOException e) {
+        // See toFutureCallback().
+        Log.i(TAG, "Callback failure for " + toLoggableString(), e);
+      }
+    }
+
+    /**
+     * Returns whether the call should share its Cronet request with identical calls in flight.
+     * Calls reporting to an event listener don't, as the events of a shared request can't be
+     * attributed to the individual calls.
+     */
+    private boolean shouldCoalesce(Request networkRequest) {
+      return motherFactory.requestCoalescer != null
+          && eventListener == null
+          && RequestCoalescer.canCoalesce(networkRequest);
+    }
+
+    /** Same as {@link #startRequestIfNotCanceled()}, for coalesced calls. */
+    private RequestCoalescer.Subscriber subscribeIfNotCanceled(Request networkRequest)
+        throws IOException {
+      RequestCoalescer.Subscriber subscriber =
+          motherFactory.requestCoalescer.subscribe(networkRequest);
+      coalescedRequest.set(subscriber);
+      if (canceled.get()) {
+        subscriber.cancel();
+      }
+      return subscriber;
+    }
+
+    /** See {@link CronetCallFactory#enqueue(Request, AsyncResponseCallback)}. */
+    void enqueue(AsyncResponseCallback responseCallback) {
+      try {
+        timeout.enter();
+        evaluateExecutionPreconditions();
+        RequestFinishedEventReplayer eventReplayer = startEventReporting();
+        convertedRequest.set(
+            converter.convertAsync(
+                request(),
+                motherFactory.readTimeoutMillis,
+                motherFactory.writeTimeoutMillis,
+                this,
+                new TimeoutExitingCallback(responseCallback, timeout),
+                responseCallbackExecutor(),
+                eventReplayer));
 
         startRequestIfNotCanceled();
       } catch (IOException e) {
-        // If the request finished successfully don't exit the timeout yet. Reading the body also
-        // needs to be considered and the body object will take care of exiting it. See
-        // toCronetCallFactoryResponse() for details.
         timeout.exit();
+        reportFailureBeforeStart(e);
         responseCallback.onFailure(this, e);
       }
     }
@@ -193,9 +446,12 @@ public final class CronetCallFactory implements Call.Factory {
         // already canceled
         return;
       }
-      CronetRequestAndOkHttpResponse localConverted = convertedRequestAndResponse.get();
+      UrlRequest localConverted = convertedRequest.get();
+      RequestCoalescer.Subscriber localCoalesced = coalescedRequest.get();
       if (localConverted != null) {
-        localConverted.getRequest().cancel();
+        localConverted.cancel();
+      } else if (localCoalesced != null) {
+        localCoalesced.cancel();
       } // else the cancel signal will be picked up by the execute() / enqueue() methods.
     }
 
@@ -214,6 +470,35 @@ public final class CronetCallFactory implements Call.Factory {
       return timeout;
     }
 
+    /**
+     * Reports the start of the call to the event listener, if any, and returns the replayer
+     * reporting the rest of the events once Cronet finished the request.
+     */
+    @Nullable
+    private RequestFinishedEventReplayer startEventReporting() {
+      if (eventListener == null) {
+        return null;
+      }
+      eventListener.callStart(this);
+      return new RequestFinishedEventReplayer(this, eventListener, /* reportCallEvents= */ true);
+    }
+
+    /**
+     * Reports a failure to the event listener unless the Cronet request was created, in which case
+     * Cronet reports the outcome.
+     */
+    private void reportFailureBeforeStart(IOException e) {
+      if (eventListener != null
+          && executed.get()
+          && convertedRequest.get() == null) {
+        eventListener.callFailed(this, e);
+      }
+    }
+
+    private ExecutorService responseCallbackExecutor() {
+      return motherFactory.responseCallbackExecutor.get();
+    }
+
     private String toLoggableString() {
       return "call to " + request().url().redact();
     }
@@ -232,8 +517,8 @@ public final class CronetCallFactory implements Call.Factory {
     }
 
     private void startRequestIfNotCanceled() {
-      CronetRequestAndOkHttpResponse requestAndOkHttpResponse = convertedRequestAndResponse.get();
-      checkState(requestAndOkHttpResponse != null, "convertedRequestAndResponse must be set!");
+      UrlRequest request = convertedRequest.get();
+      checkState(request != null, "convertedRequest must be set!");
 
       // There might be a race between the execution and cancellation
       // evaluateExecutionPreconditions check didn't capture and cancel() might have missed that
@@ -248,13 +533,46 @@ public final class CronetCallFactory implements Call.Factory {
       // convertedRequest?.cancel()         | convertedRequest = convert(request)
       //                                    | if (canceled) convertedRequest.cancel()
       if (canceled.get()) {
-        requestAndOkHttpResponse.getRequest().cancel();
+        request.cancel();
       } else {
-        requestAndOkHttpResponse.getRequest().start();
+        request.start();
       }
     }
   }
 
+  /** Exits the call timeout once the outcome of the call is known. */
+  private static final class TimeoutExitingCallback implements AsyncResponseCallback {
+    private final AsyncResponseCallback delegate;
+    private final AsyncTimeout timeout;
+
+    TimeoutExitingCallback(AsyncResponseCallback delegate, AsyncTimeout timeout) {
+      this.delegate = delegate;
+      this.timeout = timeout;
+    }
+
+    @Override
+    public void onResponse(Call call, Response response, AsyncResponseBody body) {
+      delegate.onResponse(call, response, body);
+    }
+
+    @Override
+    public void onBodyChunk(Call call, AsyncResponseBody body, ByteBuffer chunk) {
+      delegate.onBodyChunk(call, body, chunk);
+    }
+
+    @Override
+    public void onBodyComplete(Call call) {
+      timeout.exit();
+      delegate.onBodyComplete(call);
+    }
+
+    @Override
+    public void onFailure(Call call, IOException e) {
+      timeout.exit();
+      delegate.onFailure(call, e);
+    }
+  }
+
   private static Response toCronetCallFactoryResponse(CronetCall call, Response response) {
     checkNotNull(response.body());
 
@@ -278,6 +596,9 @@ public final class CronetCallFactory implements Call.Factory {
     private int writeTimeoutMillis = DEFAULT_READ_WRITE_TIMEOUT_MILLIS;
     private int callTimeoutMillis = 0; // No timeout
     private ExecutorService callbackExecutorService = null;
+    private EventListener.Factory eventListenerFactory = null;
+    private boolean requestCoalescingEnabled = false;
+    private CronetHttpCache cache = null;
 
     Builder(CronetEngine cronetEngine) {
       super(cronetEngine, CronetCallFactory.Builder.class);
@@ -295,6 +616,10 @@ public final class CronetCallFactory implements Call.Factory {
       return this;
     }
 
+    /**
+     * Sets the executor invoking the callbacks of enqueued calls. By default a pool of at most 64
+     * threads, consistent with OkHttp's limit of concurrently executed calls, is used.
+     */
     public Builder setCallbackExecutorService(ExecutorService callbackExecutorService) {
       checkNotNull(callbackExecutorService);
       this.callbackExecutorService = callbackExecutorService;
@@ -308,14 +633,68 @@ public final class CronetCallFactory implements Call.Factory {
       return this;
     }
 
+    /**
+     * Sets the factory of listeners notified about the progress of the calls. The listeners are
+     * notified about the start and the end of the call, and about the phases of the underlying
+     * Cronet request (DNS, connecting, TLS, sending the request, receiving the response).
+     *
+     * <p>Cronet only reports the phases once the request finished, so the phase events are
+     * delivered in a burst at the end of the call. Use the {@link CronetMetrics} attached to the
+     * response passed to {@link EventListener#responseHeadersEnd} for the actual timing. Setting a
+     * factory implicitly {@linkplain #setRequestMetricsEnabled enables request metrics}.
+     */
+    public Builder setEventListenerFactory(EventListener.Factory eventListenerFactory) {
+      checkNotNull(eventListenerFactory);
+      this.eventListenerFactory = eventListenerFactory;
+      return this;
+    }
+
+    /**
+     * Sets whether concurrent identical GET calls share a single Cronet request. Calls are
+     * identical if they have the same URL, headers and {@link CronetRequestOptions}. A call joins
+     * an identical call in flight until the response headers of the latter arrive. The body is
+     * read from Cronet once and delivered to each call, which reads it at its own pace. A call
+     * which falls more than 1 MiB behind the others is detached: it gets a Cronet request of its
+     * own if it hadn't read its body yet, and its body fails otherwise. The shared request is only
+     * canceled once all the calls sharing it are canceled or closed their bodies.
+     *
+     * <p>This saves bandwidth and server load when the same resource is requested from many places
+     * at once, for example the same thumbnail shown on several screens. Coalesced calls get
+     * responses with the same headers and the same {@link Response#request()}, that of the call
+     * which started the Cronet request. Calls of factories with an {@linkplain
+     * #setEventListenerFactory event listener factory} and calls enqueued with an {@link
+     * AsyncResponseCallback} aren't coalesced.
+     *
+     * <p>Coalescing is disabled by default.
+     */
+    public Builder setRequestCoalescingEnabled(boolean requestCoalescingEnabled) {
+      this.requestCoalescingEnabled = requestCoalescingEnabled;
+      return this;
+    }
+
+    /**
+     * Sets the cache serving the calls of the factory. Fresh cached responses are returned without
+     * any Cronet request, stale ones are revalidated with conditional requests and responses are
+     * written to the cache as the application reads their bodies. See {@link CronetHttpCache} for
+     * details. Calls enqueued with an {@link AsyncResponseCallback} bypass the cache.
+     *
+     * <p>Cronet's own HTTP cache, if enabled on the engine, is consulted for the requests which do
+     * reach Cronet. Since the factory's cache answers before Cronet, the two shouldn't both be
+     * enabled. There's no cache by default.
+     */
+    public Builder setCache(CronetHttpCache cache) {
+      checkNotNull(cache);
+      this.cache = cache;
+      return this;
+    }
+
     @Override
     CronetCallFactory build(RequestResponseConverter converter) {
-      ExecutorService localCallbackExecutorService;
+      Supplier<ExecutorService> localCallbackExecutorService;
       if (callbackExecutorService == null) {
-        // Consistent with OkHttp impl
-        localCallbackExecutorService = Executors.newCachedThreadPool();
+        localCallbackExecutorService = converter.getTransportExecutors()::getCallbackExecutor;
       } else {
-        localCallbackExecutorService = callbackExecutorService;
+        localCallbackExecutorService = Suppliers.ofInstance(callbackExecutorService);
       }
 
       return new CronetCallFactory(
@@ -323,7 +702,10 @@ public final class CronetCallFactory implements Call.Factory {
           localCallbackExecutorService,
           readTimeoutMillis,
           writeTimeoutMillis,
-          callTimeoutMillis);
+          callTimeoutMillis,
+          eventListenerFactory,
+          requestCoalescingEnabled,
+          cache);
     }
   }
 }
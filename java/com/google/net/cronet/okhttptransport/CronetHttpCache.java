@@ -0,0 +1,805 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import static java.util.concurrent.TimeUnit.DAYS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import android.util.Log;
+import com.google.common.base.Ascii;
+import com.google.common.collect.ImmutableSet;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.annotation.Nullable;
+import okhttp3.CacheControl;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+
+/**
+ * An HTTP cache for {@link CronetCallFactory}, storing responses on disk.
+ *
+ * <p>Fresh responses are served from the cache without any network round trip. Stale responses
+ * are revalidated with conditional requests ({@code If-None-Match} or {@code If-Modified-Since})
+ * and served from the cache if the server confirms they're still valid. Responses are written to
+ * the cache while the application reads them, a response which isn't read to the end isn't
+ * cached. Once the cache exceeds its maximum size, the least recently used responses are evicted.
+ *
+ * <p>The cache follows the caching rules of RFC 7234 for GET requests, like OkHttp's {@code
+ * Cache}, including {@code Cache-Control} directives of requests and responses, heuristic
+ * freshness based on {@code Last-Modified} and {@code Vary}. Other requests go to the network, and
+ * the ones modifying the resource (for example POST) evict its cached response.
+ *
+ * <p>A cache directory must only be used by a single cache instance. The instance can be shared
+ * by several call factories. The directory is only accessed once the first call is made.
+ */
+public final class CronetHttpCache {
+  private static final String TAG = "CronetHttpCache";
+
+  /** The status codes cacheable by default, see RFC 7231 section 6.1. */
+  private static final ImmutableSet<Integer> CACHEABLE_STATUS_CODES =
+      ImmutableSet.of(200, 203, 204, 300, 301, 308, 404, 405, 410, 414, 501);
+
+  private static final ImmutableSet<String> HOP_BY_HOP_HEADERS =
+      ImmutableSet.of(
+          "connection",
+          "keep-alive",
+          "proxy-authenticate",
+          "proxy-authorization",
+          "te",
+          "trailers",
+          "transfer-encoding",
+          "upgrade");
+
+  private static final ImmutableSet<String> CACHE_INVALIDATING_METHODS =
+      ImmutableSet.of("POST", "PATCH", "PUT", "DELETE", "MOVE");
+
+  private final DiskLruStore store;
+  private final AtomicInteger requestCount = new AtomicInteger();
+  private final AtomicInteger networkCount = new AtomicInteger();
+  private final AtomicInteger hitCount = new AtomicInteger();
+
+  private CronetHttpCache(DiskLruStore store) {
+    this.store = store;
+  }
+
+  /** Creates a cache storing at most {@code maxSizeBytes} bytes in the given directory. */
+  public static CronetHttpCache create(File directory, long maxSizeBytes) {
+    return new CronetHttpCache(new DiskLruStore(directory, maxSizeBytes));
+  }
+
+  public long getMaxSizeBytes() {
+    return store.getMaxSizeBytes();
+  }
+
+  /** Returns the number of bytes currently stored. */
+  public long getSizeBytes() throws IOException {
+    return store.getSizeBytes();
+  }
+
+  /** Deletes all the cached responses. */
+  public void evictAll() throws IOException {
+    store.evictAll();
+  }
+
+  /** Returns the number of calls which consulted the cache. */
+  public int getRequestCount() {
+    return requestCount.get();
+  }
+
+  /** Returns the number of calls which required a network request, including revalidations. */
+  public int getNetworkCount() {
+    return networkCount.get();
+  }
+
+  /** Returns the number of calls served by the cache, including successful revalidations. */
+  public int getHitCount() {
+    return hitCount.get();
+  }
+
+  /**
+   * Decides how to serve the request. If the lookup has no network request, its response should
+   * be returned as is. Otherwise, the network request should be executed and its response passed
+   * to {@link #onNetworkResponse}, or the lookup closed if it fails.
+   */
+  Lookup lookUp(Request request) {
+    requestCount.incrementAndGet();
+    long nowMillis = System.currentTimeMillis();
+    Lookup lookup = computeLookup(request, nowMillis);
+    lookup.lookedUpAtMillis = nowMillis;
+    if (lookup.networkRequest == null) {
+      hitCount.incrementAndGet();
+    }
+    return lookup;
+  }
+
+  private Lookup computeLookup(Request request, long nowMillis) {
+    CacheControl requestCaching = request.cacheControl();
+    if (!request.method().equals("GET")
+        || requestCaching.noStore()
+        // The application handles its conditional requests on its own.
+        || request.header("If-None-Match") != null
+        || request.header("If-Modified-Since") != null) {
+      return new Lookup(request, request, null, null);
+    }
+
+    DiskLruStore.Snapshot snapshot = null;
+    Entry entry = null;
+    try {
+      snapshot = store.get(key(request));
+      if (snapshot != null) {
+        entry = Entry.read(snapshot.getMetadata());
+        if (!entry.matches(request)) {
+          entry = null;
+        }
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to read the cache", e);
+      entry = null;
+      if (snapshot != null) {
+        // The entry is unreadable, don't fail the same way on every lookup.
+        closeQuietly(snapshot);
+        snapshot = null;
+        try {
+          store.remove(key(request));
+        } catch (IOException removeException) {
+          Log.w(TAG, "Unable to update the cache", removeException);
+        }
+      }
+    }
+    if (entry == null) {
+      closeQuietly(snapshot);
+      return requestCaching.onlyIfCached()
+          ? new Lookup(request, null, unsatisfiableResponse(request, nowMillis), null)
+          : new Lookup(request, request, null, null);
+    }
+
+    Freshness freshness = new Freshness(entry, nowMillis);
+    CacheControl responseCaching = entry.responseCacheControl();
+    long ageMillis = freshness.ageMillis();
+    long freshMillis = freshness.freshnessLifetimeMillis();
+    if (requestCaching.maxAgeSeconds() != -1) {
+      freshMillis = Math.min(freshMillis, SECONDS.toMillis(requestCaching.maxAgeSeconds()));
+    }
+    long minFreshMillis =
+        requestCaching.minFreshSeconds() != -1
+            ? SECONDS.toMillis(requestCaching.minFreshSeconds())
+            : 0;
+    long maxStaleMillis =
+        !responseCaching.mustRevalidate() && requestCaching.maxStaleSeconds() != -1
+            ? SECONDS.toMillis(requestCaching.maxStaleSeconds())
+            : 0;
+
+    if (!requestCaching.noCache()
+        && !responseCaching.noCache()
+        && ageMillis + minFreshMillis < freshMillis + maxStaleMillis) {
+      Response.Builder builder = entry.toResponse(request, snapshot);
+      if (ageMillis + minFreshMillis >= freshMillis) {
+        builder.addHeader("Warning", "110 HttpURLConnection \"Response is stale\"");
+      }
+      if (ageMillis > DAYS.toMillis(1) && freshness.isFreshnessLifetimeHeuristic()) {
+        builder.addHeader("Warning", "113 HttpURLConnection \"Heuristic expiration\"");
+      }
+      Response response = builder.build();
+      return new Lookup(
+          request, null, response.newBuilder().cacheResponse(stripBody(response)).build(), null);
+    }
+
+    Request.Builder conditionalRequest = request.newBuilder();
+    if (entry.etag() != null) {
+      conditionalRequest.header("If-None-Match", entry.etag());
+    } else if (entry.lastModified() != null) {
+      conditionalRequest.header("If-Modified-Since", entry.lastModified());
+    } else if (entry.servedDate() != null) {
+      conditionalRequest.header("If-Modified-Since", entry.servedDate());
+    } else {
+      closeQuietly(snapshot);
+      return new Lookup(request, request, null, null);
+    }
+    if (requestCaching.onlyIfCached()) {
+      closeQuietly(snapshot);
+      return new Lookup(request, null, unsatisfiableResponse(request, nowMillis), null);
+    }
+    return new Lookup(request, conditionalRequest.build(), null, new Candidate(entry, snapshot));
+  }
+
+  /**
+   * Combines the network response with the cache: serves the cached response if the server
+   * confirmed it's still valid, and writes cacheable responses to the cache while they're read.
+   */
+  Response onNetworkResponse(Lookup lookup, Response networkResponse) {
+    networkCount.incrementAndGet();
+    Request request = lookup.request;
+    Candidate candidate = lookup.candidate;
+    if (candidate != null) {
+      if (networkResponse.code() == 304) {
+        hitCount.incrementAndGet();
+        networkResponse.close();
+        Entry updatedEntry =
+            candidate.entry.withRevalidation(
+                combine(candidate.entry.responseHeaders, networkResponse.headers()),
+                sentRequestAtMillis(lookup, networkResponse),
+                receivedResponseAtMillis(networkResponse));
+        try {
+          store.updateMetadata(candidate.snapshot, updatedEntry.toBytes());
+        } catch (IOException e) {
+          Log.w(TAG, "Unable to update the cache", e);
+        }
+        Response cacheResponse = candidate.entry.toResponse(request, candidate.snapshot).build();
+        return updatedEntry
+            .toResponse(request, candidate.snapshot)
+            .cacheResponse(stripBody(cacheResponse))
+            .networkResponse(stripBody(networkResponse))
+            .build();
+      }
+      closeQuietly(candidate.snapshot);
+    }
+
+    if (CACHE_INVALIDATING_METHODS.contains(request.method())) {
+      try {
+        store.remove(key(request));
+      } catch (IOException e) {
+        Log.w(TAG, "Unable to update the cache", e);
+      }
+      return networkResponse;
+    }
+    if (!isCacheable(request, networkResponse)) {
+      return networkResponse;
+    }
+
+    DiskLruStore.Editor editor = null;
+    try {
+      editor = store.edit(key(request));
+      if (editor == null) {
+        // Already being written by a concurrent call.
+        return networkResponse;
+      }
+      editor.setMetadata(
+          Entry.create(
+                  request,
+                  networkResponse,
+                  sentRequestAtMillis(lookup, networkResponse),
+                  receivedResponseAtMillis(networkResponse))
+              .toBytes());
+      BufferedSink cacheSink = Okio.buffer(editor.newBodySink());
+      ResponseBody networkBody = networkResponse.body();
+      return networkResponse
+          .newBuilder()
+          .body(
+              new SourceResponseBody(
+                  networkBody.contentType(),
+                  networkBody.contentLength(),
+                  new CacheWritingSource(networkBody.source(), cacheSink, editor)))
+          .build();
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to write to the cache", e);
+      if (editor != null) {
+        editor.abort();
+      }
+      return networkResponse;
+    }
+  }
+
+  /**
+   * Returns when the request was sent. Responses converted from Cronet don't carry it, the time of
+   * the cache lookup is the closest approximation, slightly overestimating the age of the response.
+   */
+  private static long sentRequestAtMillis(Lookup lookup, Response networkResponse) {
+    return networkResponse.sentRequestAtMillis() != 0
+        ? networkResponse.sentRequestAtMillis()
+        : lookup.lookedUpAtMillis;
+  }
+
+  private static long receivedResponseAtMillis(Response networkResponse) {
+    return networkResponse.receivedResponseAtMillis() != 0
+        ? networkResponse.receivedResponseAtMillis()
+        : System.currentTimeMillis();
+  }
+
+  static boolean isCacheable(Request request, Response response) {
+    if (!request.method().equals("GET")
+        || !CACHEABLE_STATUS_CODES.contains(response.code())
+        || request.cacheControl().noStore()) {
+      return false;
+    }
+    CacheControl responseCaching = response.cacheControl();
+    if (responseCaching.noStore()) {
+      return false;
+    }
+    if (request.header("Authorization") != null
+        && !responseCaching.isPublic()
+        && !responseCaching.mustRevalidate()
+        && responseCaching.sMaxAgeSeconds() == -1) {
+      return false;
+    }
+    return !varyFields(response.headers()).contains("*");
+  }
+
+  /** Merges the headers of a 304 response into the cached ones, see RFC 7234 section 4.3.4. */
+  private static Headers combine(Headers cachedHeaders, Headers networkHeaders) {
+    Headers.Builder result = new Headers.Builder();
+    for (int i = 0; i < cachedHeaders.size(); i++) {
+      String name = cachedHeaders.name(i);
+      String value = cachedHeaders.value(i);
+      if (Ascii.equalsIgnoreCase(name, "Warning") && value.startsWith("1")) {
+        // 1xx warnings must be deleted after a successful revalidation.
+        continue;
+      }
+      if (isContentSpecificHeader(name)
+          || !isEndToEndHeader(name)
+          || networkHeaders.get(name) == null) {
+        result.add(name, value);
+      }
+    }
+    for (int i = 0; i < networkHeaders.size(); i++) {
+      String name = networkHeaders.name(i);
+      if (!isContentSpecificHeader(name) && isEndToEndHeader(name)) {
+        result.add(name, networkHeaders.value(i));
+      }
+    }
+    return result.build();
+  }
+
+  /** Returns whether the header describes the body, which a 304 response doesn't have. */
+  private static boolean isContentSpecificHeader(String name) {
+    return Ascii.equalsIgnoreCase(name, "Content-Length")
+        || Ascii.equalsIgnoreCase(name, "Content-Encoding")
+        || Ascii.equalsIgnoreCase(name, "Content-Type");
+  }
+
+  private static boolean isEndToEndHeader(String name) {
+    return !HOP_BY_HOP_HEADERS.contains(Ascii.toLowerCase(name));
+  }
+
+  static Set<String> varyFields(Headers responseHeaders) {
+    Set<String> fields = new TreeSet<>(String.CASE_INSENSITIVE_ORDER);
+    for (String value : responseHeaders.values("Vary")) {
+      for (String field : value.split(",")) {
+        if (!field.trim().isEmpty()) {
+          fields.add(field.trim());
+        }
+      }
+    }
+    return fields;
+  }
+
+  /** Returns the values of the request headers the response varies on. */
+  static Headers varyHeaders(Request request, Set<String> varyFields) {
+    Headers.Builder varyHeaders = new Headers.Builder();
+    for (String field : varyFields) {
+      for (String value : request.headers(field)) {
+        varyHeaders.add(field, value);
+      }
+    }
+    return varyHeaders.build();
+  }
+
+  /**
+   * Returns whether the request has the header values recorded for the stored response, as
+   * returned by {@link #varyHeaders}.
+   */
+  static boolean varyHeadersMatch(Headers varyHeaders, Set<String> varyFields, Request request) {
+    for (String field : varyHeaders.names()) {
+      if (!varyHeaders.values(field).equals(request.headers(field))) {
+        return false;
+      }
+    }
+    // Fields the request doesn't have aren't recorded, make sure they're still absent.
+    for (String field : varyFields) {
+      if (varyHeaders.get(field) == null && request.header(field) != null) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static String key(Request request) {
+    return ByteString.encodeUtf8(request.url().toString()).md5().hex();
+  }
+
+  private static Response unsatisfiableResponse(Request request, long nowMillis) {
+    return new Response.Builder()
+        .request(request)
+        .protocol(Protocol.HTTP_1_1)
+        .code(504)
+        .message("Unsatisfiable Request (only-if-cached)")
+        .body(ResponseBody.create(null, new byte[0]))
+        .sentRequestAtMillis(-1)
+        .receivedResponseAtMillis(nowMillis)
+        .build();
+  }
+
+  @Nullable
+  private static Response stripBody(@Nullable Response response) {
+    return response == null ? null : response.newBuilder().body(null).build();
+  }
+
+  private static void closeQuietly(@Nullable Closeable closeable) {
+    if (closeable == null) {
+      return;
+    }
+    try {
+      closeable.close();
+    } catch (IOException e) {
+      // Nothing left to do.
+    }
+  }
+
+  /** How a request is served, see {@link #lookUp}. */
+  static final class Lookup implements Closeable {
+    private final Request request;
+    @Nullable private final Request networkRequest;
+    @Nullable private final Response cacheResponse;
+    /** The cached response to use if the server confirms it's still valid. */
+    @Nullable private final Candidate candidate;
+
+    private long lookedUpAtMillis;
+
+    private Lookup(
+        Request request,
+        @Nullable Request networkRequest,
+        @Nullable Response cacheResponse,
+        @Nullable Candidate candidate) {
+      this.request = request;
+      this.networkRequest = networkRequest;
+      this.cacheResponse = cacheResponse;
+      this.candidate = candidate;
+    }
+
+    /** Returns the request to execute, or null if the request is served without the network. */
+    @Nullable
+    Request getNetworkRequest() {
+      return networkRequest;
+    }
+
+    /** Returns the response if the request is served without the network. */
+    @Nullable
+    Response getCacheResponse() {
+      return cacheResponse;
+    }
+
+    /** Releases the cached response held for revalidation, if the network request failed. */
+    @Override
+    public void close() {
+      if (candidate != null) {
+        closeQuietly(candidate.snapshot);
+      }
+    }
+  }
+
+  private static final class Candidate {
+    final Entry entry;
+    final DiskLruStore.Snapshot snapshot;
+
+    Candidate(Entry entry, DiskLruStore.Snapshot snapshot) {
+      this.entry = entry;
+      this.snapshot = snapshot;
+    }
+  }
+
+  /** The metadata of a cached response. */
+  private static final class Entry {
+    final String url;
+    /** The values of the request headers listed in the response's {@code Vary} header. */
+    final Headers varyHeaders;
+
+    final Protocol protocol;
+    final int code;
+    final String message;
+    final Headers responseHeaders;
+    final long sentRequestAtMillis;
+    final long receivedResponseAtMillis;
+
+    private Entry(
+        String url,
+        Headers varyHeaders,
+        Protocol protocol,
+        int code,
+        String message,
+        Headers responseHeaders,
+        long sentRequestAtMillis,
+        long receivedResponseAtMillis) {
+      this.url = url;
+      this.varyHeaders = varyHeaders;
+      this.protocol = protocol;
+      this.code = code;
+      this.message = message;
+      this.responseHeaders = responseHeaders;
+      this.sentRequestAtMillis = sentRequestAtMillis;
+      this.receivedResponseAtMillis = receivedResponseAtMillis;
+    }
+
+    static Entry create(
+        Request request,
+        Response response,
+        long sentRequestAtMillis,
+        long receivedResponseAtMillis) {
+      return new Entry(
+          request.url().toString(),
+          varyHeaders(request, varyFields(response.headers())),
+          response.protocol(),
+          response.code(),
+          response.message(),
+          response.headers(),
+          sentRequestAtMillis,
+          receivedResponseAtMillis);
+    }
+
+    Entry withRevalidation(
+        Headers responseHeaders, long sentRequestAtMillis, long receivedResponseAtMillis) {
+      return new Entry(
+          url,
+          varyHeaders,
+          protocol,
+          code,
+          message,
+          responseHeaders,
+          sentRequestAtMillis,
+          receivedResponseAtMillis);
+    }
+
+    /** Reads an entry written by {@link #toBytes()}, throws if the entry is malformed. */
+    static Entry read(BufferedSource source) throws IOException {
+      try {
+        String url = source.readUtf8LineStrict();
+        Headers varyHeaders = readHeaders(source);
+        Protocol protocol = Protocol.get(source.readUtf8LineStrict());
+        int code = Integer.parseInt(source.readUtf8LineStrict());
+        String message = source.readUtf8LineStrict();
+        Headers responseHeaders = readHeaders(source);
+        long sentRequestAtMillis = Long.parseLong(source.readUtf8LineStrict());
+        long receivedResponseAtMillis = Long.parseLong(source.readUtf8LineStrict());
+        return new Entry(
+            url,
+            varyHeaders,
+            protocol,
+            code,
+            message,
+            responseHeaders,
+            sentRequestAtMillis,
+            receivedResponseAtMillis);
+      } catch (RuntimeException e) {
+        // Numbers or headers which don't parse, the file was corrupted.
+        throw new IOException("Malformed cache entry", e);
+      }
+    }
+
+    byte[] toBytes() {
+      Buffer buffer = new Buffer();
+      buffer.writeUtf8(url).writeByte('\n');
+      writeHeaders(buffer, varyHeaders);
+      buffer.writeUtf8(protocol.toString()).writeByte('\n');
+      buffer.writeUtf8(Integer.toString(code)).writeByte('\n');
+      buffer.writeUtf8(message).writeByte('\n');
+      writeHeaders(buffer, responseHeaders);
+      buffer.writeUtf8(Long.toString(sentRequestAtMillis)).writeByte('\n');
+      buffer.writeUtf8(Long.toString(receivedResponseAtMillis)).writeByte('\n');
+      return buffer.readByteArray();
+    }
+
+    /** Returns whether the cached response applies to the request. */
+    boolean matches(Request request) {
+      return url.equals(request.url().toString())
+          && varyHeadersMatch(varyHeaders, varyFields(responseHeaders), request);
+    }
+
+    Response.Builder toResponse(Request request, DiskLruStore.Snapshot snapshot) {
+      String contentType = responseHeaders.get("Content-Type");
+      return new Response.Builder()
+          .request(request)
+          .protocol(protocol)
+          .code(code)
+          .message(message)
+          .headers(responseHeaders)
+          .body(
+              new SourceResponseBody(
+                  contentType == null ? null : MediaType.parse(contentType),
+                  snapshot.getBodyLength(),
+                  snapshot.getBody()))
+          .sentRequestAtMillis(sentRequestAtMillis)
+          .receivedResponseAtMillis(receivedResponseAtMillis);
+    }
+
+    CacheControl responseCacheControl() {
+      return CacheControl.parse(responseHeaders);
+    }
+
+    @Nullable
+    String etag() {
+      return responseHeaders.get("ETag");
+    }
+
+    @Nullable
+    String lastModified() {
+      return responseHeaders.get("Last-Modified");
+    }
+
+    @Nullable
+    String servedDate() {
+      return responseHeaders.get("Date");
+    }
+
+    private static Headers readHeaders(BufferedSource source) throws IOException {
+      int count = Integer.parseInt(source.readUtf8LineStrict());
+      Headers.Builder headers = new Headers.Builder();
+      for (int i = 0; i < count; i++) {
+        headers.add(source.readUtf8LineStrict());
+      }
+      return headers.build();
+    }
+
+    private static void writeHeaders(Buffer buffer, Headers headers) {
+      buffer.writeUtf8(Integer.toString(headers.size())).writeByte('\n');
+      for (int i = 0; i < headers.size(); i++) {
+        buffer.writeUtf8(headers.name(i)).writeUtf8(": ").writeUtf8(headers.value(i));
+        buffer.writeByte('\n');
+      }
+    }
+  }
+
+  /** The age and freshness lifetime of a cached response, see RFC 7234 section 4.2. */
+  private static final class Freshness {
+    private final Entry entry;
+    private final long nowMillis;
+    @Nullable private final Date servedDate;
+    @Nullable private final Date lastModified;
+    @Nullable private final Date expires;
+
+    Freshness(Entry entry, long nowMillis) {
+      this.entry = entry;
+      this.nowMillis = nowMillis;
+      this.servedDate = entry.responseHeaders.getDate("Date");
+      this.lastModified = entry.responseHeaders.getDate("Last-Modified");
+      this.expires = entry.responseHeaders.getDate("Expires");
+    }
+
+    long ageMillis() {
+      long apparentReceivedAgeMillis =
+          servedDate != null
+              ? Math.max(0, entry.receivedResponseAtMillis - servedDate.getTime())
+              : 0;
+      long receivedAgeMillis = apparentReceivedAgeMillis;
+      String ageHeader = entry.responseHeaders.get("Age");
+      if (ageHeader != null) {
+        try {
+          receivedAgeMillis =
+              Math.max(receivedAgeMillis, SECONDS.toMillis(Long.parseLong(ageHeader.trim())));
+        } catch (NumberFormatException e) {
+          // Ignore malformed Age headers.
+        }
+      }
+      long responseDurationMillis = entry.receivedResponseAtMillis - entry.sentRequestAtMillis;
+      long residentDurationMillis = nowMillis - entry.receivedResponseAtMillis;
+      return receivedAgeMillis + responseDurationMillis + residentDurationMillis;
+    }
+
+    long freshnessLifetimeMillis() {
+      CacheControl responseCaching = entry.responseCacheControl();
+      if (responseCaching.maxAgeSeconds() != -1) {
+        return SECONDS.toMillis(responseCaching.maxAgeSeconds());
+      }
+      if (expires != null) {
+        long servedMillis =
+            servedDate != null ? servedDate.getTime() : entry.receivedResponseAtMillis;
+        return Math.max(0, expires.getTime() - servedMillis);
+      }
+      if (isFreshnessLifetimeHeuristic()) {
+        long servedMillis = servedDate != null ? servedDate.getTime() : entry.sentRequestAtMillis;
+        long deltaMillis = servedMillis - lastModified.getTime();
+        // As recommended by RFC 7234 section 4.2.2, 10% of the time since the last modification.
+        return deltaMillis > 0 ? deltaMillis / 10 : 0;
+      }
+      return 0;
+    }
+
+    /** Returns whether the lifetime is derived from the last modification of the response. */
+    boolean isFreshnessLifetimeHeuristic() {
+      return entry.responseCacheControl().maxAgeSeconds() == -1
+          && expires == null
+          && lastModified != null
+          && !entry.url.contains("?");
+    }
+  }
+
+  /** Copies the body to the cache as it's read, committing the entry once fully read. */
+  private static final class CacheWritingSource implements Source {
+    private final BufferedSource upstream;
+    private final BufferedSink cacheSink;
+    private final DiskLruStore.Editor editor;
+    private boolean cacheFailed;
+    private boolean done;
+
+    CacheWritingSource(
+        BufferedSource upstream, BufferedSink cacheSink, DiskLruStore.Editor editor) {
+      this.upstream = upstream;
+      this.cacheSink = cacheSink;
+      this.editor = editor;
+    }
+
+    @Override
+    public long read(Buffer sink, long byteCount) throws IOException {
+      long readCount;
+      try {
+        readCount = upstream.read(sink, byteCount);
+      } catch (IOException e) {
+        abortCaching();
+        throw e;
+      }
+
+      if (readCount == -1) {
+        if (!done && !cacheFailed) {
+          done = true;
+          try {
+            cacheSink.close();
+            editor.commit();
+          } catch (IOException e) {
+            Log.w(TAG, "Unable to write to the cache", e);
+            editor.abort();
+          }
+        }
+        return -1;
+      }
+
+      if (!cacheFailed) {
+        try {
+          sink.copyTo(cacheSink.getBuffer(), sink.size() - readCount, readCount);
+          cacheSink.emitCompleteSegments();
+        } catch (IOException e) {
+          Log.w(TAG, "Unable to write to the cache", e);
+          abortCaching();
+        }
+      }
+      return readCount;
+    }
+
+    @Override
+    public Timeout timeout() {
+      return upstream.timeout();
+    }
+
+    @Override
+    public void close() throws IOException {
+      // Bodies which aren't fully read aren't cached.
+      abortCaching();
+      upstream.close();
+    }
+
+    private void abortCaching() {
+      if (done || cacheFailed) {
+        return;
+      }
+      cacheFailed = true;
+      closeQuietly(cacheSink);
+      editor.abort();
+    }
+  }
+}
@@ -16,20 +16,23 @@
 
 package com.google.net.cronet.okhttptransport;
 
+import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
 
 import android.util.Log;
+import androidx.annotation.GuardedBy;
 import com.google.net.cronet.okhttptransport.RequestResponseConverter.CronetRequestAndOkHttpResponse;
 import java.io.IOException;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
-import java.util.concurrent.ScheduledThreadPoolExecutor;
+import javax.annotation.Nullable;
 import okhttp3.Call;
+import okhttp3.EventListener;
 import okhttp3.Interceptor;
 import okhttp3.Request;
 import okhttp3.Response;
@@ -57,38 +60,105 @@ import org.chromium.net.UrlRequest;
 public final class CronetInterceptor implements Interceptor, AutoCloseable {
   private static final String TAG = "CronetInterceptor";
 
-  private static final int CANCELLATION_CHECK_INTERVAL_MILLIS = 500;
+  private static final long DEFAULT_CANCELLATION_CHECK_INTERVAL_MILLIS = 500;
 
   private final RequestResponseConverter converter;
   private final Map<Call, UrlRequest> activeCalls = new ConcurrentHashMap<>();
-  private final ScheduledExecutorService scheduledExecutor = new ScheduledThreadPoolExecutor(1);
+  /** The listeners of calls using {@link #newEventListenerFactory}, between start and end. */
+  private final Map<Call, EventListener> callEventListeners = new ConcurrentHashMap<>();
+  private final long cancellationCheckIntervalMillis;
 
-  private CronetInterceptor(RequestResponseConverter converter) {
+  /**
+   * Scheduled on the runtime's scheduler with the first call, unless polling for cancellations is
+   * disabled.
+   */
+  @Nullable private volatile ScheduledFuture<?> cancellationPolling;
+
+  @GuardedBy("this")
+  private boolean closed;
+
+  private CronetInterceptor(
+      RequestResponseConverter converter, long cancellationCheckIntervalMillis) {
     this.converter = checkNotNull(converter);
+    this.cancellationCheckIntervalMillis = cancellationCheckIntervalMillis;
+  }
+
+  /**
+   * Starts polling the active calls for cancellations, if enabled and not already started.
+   *
+   * <p>TODO(danstahr): Older OkHttp versions offer no other way to know if the call is canceled but
+   * polling (https://github.com/square/okhttp/issues/7164). Newer versions report cancellations to
+   * {@link #newEventListenerFactory event listeners}.
+   */
+  private void ensureCancellationPollingStarted() {
+    if (cancellationCheckIntervalMillis == 0 || cancellationPolling != null) {
+      return;
+    }
+    synchronized (this) {
+      if (cancellationPolling != null || closed) {
+        return;
+      }
+      cancellationPolling =
+          converter
+              .getTransportRuntime()
+              .getScheduler()
+              .scheduleAtFixedRate(
+                  this::cancelCanceledCalls,
+                  cancellationCheckIntervalMillis,
+                  cancellationCheckIntervalMillis,
+                  MILLISECONDS);
+    }
+  }
+
+  private void cancelCanceledCalls() {
+    Iterator<Entry<Call, UrlRequest>> activeCallsIterator = activeCalls.entrySet().iterator();
+
+    while (activeCallsIterator.hasNext()) {
+      try {
+        Entry<Call, UrlRequest> activeCall = activeCallsIterator.next();
+        if (activeCall.getKey().isCanceled()) {
+          activeCallsIterator.remove();
+          activeCall.getValue().cancel();
+        }
+      } catch (RuntimeException e) {
+        Log.w(TAG, "Unable to propagate cancellation status", e);
+      }
+    }
+  }
+
+  /**
+   * Returns an event listener factory which propagates call cancellations to Cronet as soon as
+   * they happen, rather than with the next {@linkplain Builder#setCancellationCheckIntervalMillis
+   * cancellation check}. All events are forwarded to the listeners created by the given factory.
+   *
+   * <p>The listeners are also notified about the phases of the Cronet request (DNS, connecting,
+   * TLS, sending the request, receiving the response), which OkHttp doesn't see as the interceptor
+   * bypasses its network stack. Cronet only reports the phases once the request finished, so the
+   * phase events are delivered in a burst at the end of the request. Use the {@link CronetMetrics}
+   * attached to the response passed to {@link EventListener#responseHeadersEnd} for the actual
+   * timing.
+   *
+   * <pre>
+   *   OkHttpClient client = new OkHttpClient.Builder()
+   *       .addInterceptor(interceptor)
+   *       .eventListenerFactory(interceptor.newEventListenerFactory(existingFactory))
+   *       .build();
+   * </pre>
+   *
+   * <p>Cancellations are only propagated immediately with OkHttp versions which report them to
+   * event listeners ({@code EventListener.canceled()}). OkHttp 3.12, which this library depends
+   * on, never does, so with it the periodic cancellation checks remain the only way cancellations
+   * reach Cronet and mustn't be disabled. They can only be disabled once the application runs a
+   * newer OkHttp version.
+   */
+  public EventListener.Factory newEventListenerFactory(EventListener.Factory delegate) {
+    checkNotNull(delegate);
+    return call -> new CronetInterceptorEventListener(delegate.create(call));
+  }
 
-    // TODO(danstahr): There's no other way to know if the call is canceled but polling
-    //  (https://github.com/square/okhttp/issues/7164).
-    ScheduledFuture<?> unusedFuture =
-        scheduledExecutor.scheduleAtFixedRate(
-            () -> {
-              Iterator<Entry<Call, UrlRequest>> activeCallsIterator =
-                  activeCalls.entrySet().iterator();
-
-              while (activeCallsIterator.hasNext()) {
-                try {
-                  Entry<Call, UrlRequest> activeCall = activeCallsIterator.next();
-                  if (activeCall.getKey().isCanceled()) {
-                    activeCallsIterator.remove();
-                    activeCall.getValue().cancel();
-                  }
-                } catch (RuntimeException e) {
-                  Log.w(TAG, "Unable to propagate cancellation status", e);
-                }
-              }
-            },
-            CANCELLATION_CHECK_INTERVAL_MILLIS,
-            CANCELLATION_CHECK_INTERVAL_MILLIS,
-            MILLISECONDS);
+  /** Same as {@link #newEventListenerFactory(EventListener.Factory)}, without other listeners. */
+  public EventListener.Factory newEventListenerFactory() {
+    return newEventListenerFactory(call -> EventListener.NONE);
   }
 
   @Override
@@ -99,10 +169,28 @@ public final class CronetInterceptor implements Interceptor, AutoCloseable {
 
     Request request = chain.request();
 
+    Response cachedResponse = converter.getCachedResponse(request);
+    if (cachedResponse != null) {
+      return toInterceptorResponse(cachedResponse, chain.call());
+    }
+
+    EventListener eventListener = callEventListeners.get(chain.call());
+    RequestFinishedEventReplayer eventReplayer =
+        eventListener == null
+            ? null
+            : new RequestFinishedEventReplayer(
+                chain.call(), eventListener, /* reportCallEvents= */ false);
+
     CronetRequestAndOkHttpResponse requestAndOkHttpResponse =
-        converter.convert(request, chain.readTimeoutMillis(), chain.writeTimeoutMillis());
+        converter.convert(
+            request, chain.readTimeoutMillis(), chain.writeTimeoutMillis(), eventReplayer);
 
     activeCalls.put(chain.call(), requestAndOkHttpResponse.getRequest());
+    ensureCancellationPollingStarted();
+    // The call might have been canceled before it became active.
+    if (chain.call().isCanceled()) {
+      propagateCancellation(chain.call());
+    }
 
     try {
       requestAndOkHttpResponse.getRequest().start();
@@ -115,28 +203,84 @@ public final class CronetInterceptor implements Interceptor, AutoCloseable {
     }
   }
 
+  /**
+   * Starts warming up connections to the given origins, such as {@code https://www.example.com},
+   * so that the first calls to them don't pay for DNS resolution and connection setup. See {@link
+   * ConnectionWarmUp} for details.
+   *
+   * @return the warm-up reporting the readiness of each origin
+   */
+  public ConnectionWarmUp warmUp(List<String> origins) {
+    ConnectionWarmUp connectionWarmUp = converter.getConnectionWarmUp();
+    connectionWarmUp.start(origins);
+    return connectionWarmUp;
+  }
+
+  /**
+   * Returns the warm-up reporting the readiness of the origins warmed up so far, including the
+   * ones set with {@code setWarmUpOrigins} on the builder.
+   */
+  public ConnectionWarmUp getConnectionWarmUp() {
+    return converter.getConnectionWarmUp();
+  }
+
   /** Creates a {@link CronetInterceptor} builder. */
   public static Builder newBuilder(CronetEngine cronetEngine) {
     return new Builder(cronetEngine);
   }
 
   @Override
-  public void close() {
-    scheduledExecutor.shutdown();
+  public synchronized void close() {
+    if (closed) {
+      return;
+    }
+    closed = true;
+    if (cancellationPolling != null) {
+      cancellationPolling.cancel(/* mayInterruptIfRunning= */ false);
+    }
+    converter.close();
+  }
+
+  private void propagateCancellation(Call call) {
+    UrlRequest urlRequest = activeCalls.remove(call);
+    if (urlRequest != null) {
+      urlRequest.cancel();
+    }
   }
 
   /** A builder for {@link CronetInterceptor}. */
   public static final class Builder
       extends RequestResponseConverterBasedBuilder<Builder, CronetInterceptor> {
 
+    private long cancellationCheckIntervalMillis = DEFAULT_CANCELLATION_CHECK_INTERVAL_MILLIS;
+
     Builder(CronetEngine cronetEngine) {
       super(cronetEngine, Builder.class);
     }
 
+    /**
+     * Sets how often the active calls are checked for cancellations which haven't been propagated
+     * to Cronet yet. Each check visits all active calls.
+     *
+     * <p>With OkHttp 3.12, which this library depends on, these checks are the only way
+     * cancellations reach Cronet: that version never reports cancellations to the {@linkplain
+     * CronetInterceptor#newEventListenerFactory event listener factory}. Zero disables the checks,
+     * so canceled calls keep their Cronet requests running until they finish. Only disable them if
+     * the application runs a newer OkHttp version, which reports cancellations to event listeners,
+     * and uses the event listener factory.
+     *
+     * <p>The default is 500 milliseconds. The checks only run once the interceptor handled a call.
+     */
+    public Builder setCancellationCheckIntervalMillis(long intervalMillis) {
+      checkArgument(intervalMillis >= 0, "The interval mustn't be negative!");
+      this.cancellationCheckIntervalMillis = intervalMillis;
+      return this;
+    }
+
     /** Builds the interceptor. The same builder can be used to build multiple interceptors. */
     @Override
     public CronetInterceptor build(RequestResponseConverter converter) {
-      return new CronetInterceptor(converter);
+      return new CronetInterceptor(converter, cancellationCheckIntervalMillis);
     }
   }
 
@@ -153,6 +297,39 @@ public final class CronetInterceptor implements Interceptor, AutoCloseable {
         .build();
   }
 
+  private final class CronetInterceptorEventListener extends ForwardingEventListener {
+    private final EventListener delegate;
+
+    CronetInterceptorEventListener(EventListener delegate) {
+      super(delegate);
+      this.delegate = delegate;
+    }
+
+    @Override
+    public void callStart(Call call) {
+      callEventListeners.put(call, delegate);
+      super.callStart(call);
+    }
+
+    @Override
+    public void callEnd(Call call) {
+      callEventListeners.remove(call);
+      super.callEnd(call);
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+      callEventListeners.remove(call);
+      super.callFailed(call, ioe);
+    }
+
+    @Override
+    public void canceled(Call call) {
+      propagateCancellation(call);
+      super.canceled(call);
+    }
+  }
+
   private class CronetInterceptorResponseBody extends CronetTransportResponseBody {
     private final Call call;
 
@@ -164,6 +341,8 @@ public final class CronetInterceptor implements Interceptor, AutoCloseable {
     @Override
     void customCloseHook() {
       activeCalls.remove(call);
+      // OkHttp doesn't report the end of calls served by application interceptors.
+      callEventListeners.remove(call);
     }
   }
 }
@@ -0,0 +1,470 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import androidx.annotation.GuardedBy;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+import okhttp3.CacheControl;
+import okhttp3.Headers;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.Source;
+import okio.Timeout;
+import org.chromium.net.UrlResponseInfo;
+
+/**
+ * An in-memory cache of small responses, for resources requested over and over again such as
+ * icons and avatars.
+ *
+ * <p>Only complete bodies of GET responses with an explicit freshness lifetime ({@code
+ * Cache-Control: max-age} or {@code Expires}) are stored, up to a maximum size per response.
+ * Responses are served until they expire and aren't revalidated: expired responses are dropped and
+ * requested again, possibly from a {@link CronetHttpCache} or Cronet's own HTTP cache. Responses
+ * requiring revalidation ({@code no-cache} or {@code must-revalidate}) and responses which
+ * followed redirects aren't stored. Cache hits are built from the stored Cronet response
+ * just like network responses, without any Cronet request, and carry no {@link CronetMetrics}.
+ *
+ * <p>Once the bodies exceed the maximum size, entries are evicted following a segmented LRU policy:
+ * new entries start on probation and are only promoted to the protected segment when requested
+ * again, so that a burst of one-off responses doesn't flush the frequently used ones. The cache is
+ * split into independently locked stripes, keeping concurrent lookups from contending.
+ *
+ * <p>An instance can be shared by several call factories and interceptors.
+ */
+public final class CronetMemoryCache {
+  private static final int STRIPE_COUNT = 8;
+  /** The share of each stripe reserved for entries requested at least twice. */
+  private static final double PROTECTED_SHARE = 0.8;
+
+  private final Stripe[] stripes = new Stripe[STRIPE_COUNT];
+  private final long maxSizeBytes;
+  private final long maxEntrySizeBytes;
+  private final AtomicInteger hitCount = new AtomicInteger();
+  private final AtomicInteger missCount = new AtomicInteger();
+  private final AtomicInteger evictionCount = new AtomicInteger();
+
+  private CronetMemoryCache(long maxSizeBytes, long maxEntrySizeBytes) {
+    this.maxSizeBytes = maxSizeBytes;
+    long stripeSizeBytes = maxSizeBytes / STRIPE_COUNT;
+    // An entry must fit in its stripe.
+    this.maxEntrySizeBytes = Math.min(maxEntrySizeBytes, stripeSizeBytes);
+    for (int i = 0; i < STRIPE_COUNT; i++) {
+      stripes[i] = new Stripe(stripeSizeBytes);
+    }
+  }
+
+  /**
+   * Creates a cache holding at most {@code maxSizeBytes} bytes of bodies, each of them at most
+   * {@code maxEntrySizeBytes} long. Entries are also limited to an eighth of the maximum size, the
+   * size of a stripe.
+   */
+  public static CronetMemoryCache create(long maxSizeBytes, long maxEntrySizeBytes) {
+    checkArgument(maxSizeBytes > 0, "The maximum size must be positive!");
+    checkArgument(maxEntrySizeBytes > 0, "The maximum entry size must be positive!");
+    return new CronetMemoryCache(maxSizeBytes, maxEntrySizeBytes);
+  }
+
+  public long getMaxSizeBytes() {
+    return maxSizeBytes;
+  }
+
+  /** Returns the total size of the cached bodies. */
+  public long getSizeBytes() {
+    long sizeBytes = 0;
+    for (Stripe stripe : stripes) {
+      sizeBytes += stripe.getSizeBytes();
+    }
+    return sizeBytes;
+  }
+
+  /** Removes all the cached responses. */
+  public void evictAll() {
+    for (Stripe stripe : stripes) {
+      stripe.clear();
+    }
+  }
+
+  /** Returns the number of GET requests served by the cache. */
+  public int getHitCount() {
+    return hitCount.get();
+  }
+
+  /** Returns the number of GET requests the cache couldn't serve. */
+  public int getMissCount() {
+    return missCount.get();
+  }
+
+  /** Returns the number of responses evicted to make room for others. */
+  public int getEvictionCount() {
+    return evictionCount.get();
+  }
+
+  /** Returns the cached response to the request, or null if it must be sent to Cronet. */
+  @Nullable
+  Response get(Request request) {
+    if (!request.method().equals("GET")) {
+      return null;
+    }
+    CacheControl requestCaching = request.cacheControl();
+    long nowMillis = System.currentTimeMillis();
+    String key = request.url().toString();
+    Entry entry =
+        requestCaching.noCache() || requestCaching.noStore()
+            ? null
+            : stripeFor(key).get(key, nowMillis);
+    if (entry == null
+        || !entry.matches(request)
+        || (requestCaching.maxAgeSeconds() != -1
+            && entry.ageMillis(nowMillis) > SECONDS.toMillis(requestCaching.maxAgeSeconds()))) {
+      missCount.incrementAndGet();
+      return null;
+    }
+    hitCount.incrementAndGet();
+    try {
+      return ResponseConverter.createResponse(
+              request, entry.responseInfo, new Buffer().write(entry.body))
+          .build();
+    } catch (IOException e) {
+      // Only the body conversion can fail, and it succeeded when the response was stored.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Returns the response, with a body storing itself in the cache once fully read if the response
+   * is cacheable.
+   */
+  Response onNetworkResponse(Request request, UrlResponseInfo responseInfo, Response response) {
+    if (responseInfo.getUrlChain().size() > 1 || !CronetHttpCache.isCacheable(request, response)) {
+      return response;
+    }
+    CacheControl responseCaching = response.cacheControl();
+    if (responseCaching.noCache() || responseCaching.mustRevalidate()) {
+      // The cache never revalidates.
+      return response;
+    }
+    long freshnessLifetimeMillis = freshnessLifetimeMillis(response.headers());
+    long initialAgeMillis = initialAgeMillis(response.headers());
+    ResponseBody body = response.body();
+    if (freshnessLifetimeMillis <= initialAgeMillis || body.contentLength() > maxEntrySizeBytes) {
+      return response;
+    }
+
+    Set<String> varyFields = CronetHttpCache.varyFields(response.headers());
+    EntryTemplate template =
+        new EntryTemplate(
+            request.url().toString(),
+            responseInfo,
+            varyFields,
+            CronetHttpCache.varyHeaders(request, varyFields),
+            initialAgeMillis,
+            freshnessLifetimeMillis);
+    return response
+        .newBuilder()
+        .body(
+            new SourceResponseBody(
+                body.contentType(),
+                body.contentLength(),
+                new CachingSource(body.source(), template)))
+        .build();
+  }
+
+  private void put(String key, Entry entry) {
+    evictionCount.addAndGet(stripeFor(key).put(key, entry));
+  }
+
+  private Stripe stripeFor(String key) {
+    return stripes[(key.hashCode() & Integer.MAX_VALUE) % STRIPE_COUNT];
+  }
+
+  /** Returns the explicit freshness lifetime of the response, or 0 if there's none. */
+  private static long freshnessLifetimeMillis(Headers headers) {
+    CacheControl responseCaching = CacheControl.parse(headers);
+    if (responseCaching.maxAgeSeconds() != -1) {
+      return SECONDS.toMillis(responseCaching.maxAgeSeconds());
+    }
+    Date expires = headers.getDate("Expires");
+    if (expires != null) {
+      Date servedDate = headers.getDate("Date");
+      long servedMillis = servedDate != null ? servedDate.getTime() : System.currentTimeMillis();
+      return Math.max(0, expires.getTime() - servedMillis);
+    }
+    return 0;
+  }
+
+  /** Returns the age the response had when received, from its {@code Age} header. */
+  private static long initialAgeMillis(Headers headers) {
+    String ageHeader = headers.get("Age");
+    if (ageHeader == null) {
+      return 0;
+    }
+    try {
+      return SECONDS.toMillis(Long.parseLong(ageHeader.trim()));
+    } catch (NumberFormatException e) {
+      return 0;
+    }
+  }
+
+  /** What's known about an entry before its body is read. */
+  private static final class EntryTemplate {
+    final String key;
+    final UrlResponseInfo responseInfo;
+    final Set<String> varyFields;
+    final Headers varyHeaders;
+    final long initialAgeMillis;
+    final long freshnessLifetimeMillis;
+
+    EntryTemplate(
+        String key,
+        UrlResponseInfo responseInfo,
+        Set<String> varyFields,
+        Headers varyHeaders,
+        long initialAgeMillis,
+        long freshnessLifetimeMillis) {
+      this.key = key;
+      this.responseInfo = responseInfo;
+      this.varyFields = varyFields;
+      this.varyHeaders = varyHeaders;
+      this.initialAgeMillis = initialAgeMillis;
+      this.freshnessLifetimeMillis = freshnessLifetimeMillis;
+    }
+  }
+
+  private static final class Entry {
+    final UrlResponseInfo responseInfo;
+    /** The request headers the response varies on. */
+    final Set<String> varyFields;
+    /** The values of {@link #varyFields} in the request. */
+    final Headers varyHeaders;
+
+    final ByteString body;
+    final long receivedAtMillis;
+    final long initialAgeMillis;
+    final long freshnessLifetimeMillis;
+
+    Entry(EntryTemplate template, ByteString body, long receivedAtMillis) {
+      this.responseInfo = template.responseInfo;
+      this.varyFields = template.varyFields;
+      this.varyHeaders = template.varyHeaders;
+      this.body = body;
+      this.receivedAtMillis = receivedAtMillis;
+      this.initialAgeMillis = template.initialAgeMillis;
+      this.freshnessLifetimeMillis = template.freshnessLifetimeMillis;
+    }
+
+    long ageMillis(long nowMillis) {
+      return initialAgeMillis + Math.max(0, nowMillis - receivedAtMillis);
+    }
+
+    boolean isExpired(long nowMillis) {
+      return ageMillis(nowMillis) >= freshnessLifetimeMillis;
+    }
+
+    /** Returns whether the request has the header values the response varies on. */
+    boolean matches(Request request) {
+      return CronetHttpCache.varyHeadersMatch(varyHeaders, varyFields, request);
+    }
+  }
+
+  /**
+   * A part of the cache with its own lock and share of the maximum size, split into a probation
+   * and a protected segment.
+   */
+  private static final class Stripe {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final long maxSizeBytes;
+    private final long maxProtectedSizeBytes;
+
+    // Both maps are in insertion order, entries are reinserted to mark them as most recently used.
+    @GuardedBy("lock")
+    private final Map<String, Entry> probation = new LinkedHashMap<>();
+
+    @GuardedBy("lock")
+    private final Map<String, Entry> protectedSegment = new LinkedHashMap<>();
+
+    @GuardedBy("lock")
+    private long probationSizeBytes;
+
+    @GuardedBy("lock")
+    private long protectedSizeBytes;
+
+    Stripe(long maxSizeBytes) {
+      this.maxSizeBytes = maxSizeBytes;
+      this.maxProtectedSizeBytes = (long) (maxSizeBytes * PROTECTED_SHARE);
+    }
+
+    /** Returns the unexpired entry, promoting it to the protected segment. */
+    @Nullable
+    Entry get(String key, long nowMillis) {
+      lock.lock();
+      try {
+        Entry entry = protectedSegment.remove(key);
+        if (entry != null) {
+          protectedSizeBytes -= entry.body.size();
+        } else {
+          entry = probation.remove(key);
+          if (entry == null) {
+            return null;
+          }
+          probationSizeBytes -= entry.body.size();
+        }
+        if (entry.isExpired(nowMillis)) {
+          return null;
+        }
+
+        protectedSegment.put(key, entry);
+        protectedSizeBytes += entry.body.size();
+        // Demote the least recently used protected entries, they get another chance on probation.
+        Iterator<Map.Entry<String, Entry>> leastRecentlyUsedFirst =
+            protectedSegment.entrySet().iterator();
+        while (protectedSizeBytes > maxProtectedSizeBytes) {
+          Map.Entry<String, Entry> demoted = leastRecentlyUsedFirst.next();
+          leastRecentlyUsedFirst.remove();
+          protectedSizeBytes -= demoted.getValue().body.size();
+          probation.put(demoted.getKey(), demoted.getValue());
+          probationSizeBytes += demoted.getValue().body.size();
+        }
+        return entry;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /** Adds the entry on probation, returning the number of entries evicted to make room. */
+    int put(String key, Entry entry) {
+      lock.lock();
+      try {
+        removeLocked(key);
+        probation.put(key, entry);
+        probationSizeBytes += entry.body.size();
+
+        int evictedCount = 0;
+        while (probationSizeBytes + protectedSizeBytes > maxSizeBytes) {
+          Map<String, Entry> segment = probation.isEmpty() ? protectedSegment : probation;
+          Iterator<Entry> leastRecentlyUsedFirst = segment.values().iterator();
+          Entry evicted = leastRecentlyUsedFirst.next();
+          leastRecentlyUsedFirst.remove();
+          if (segment == probation) {
+            probationSizeBytes -= evicted.body.size();
+          } else {
+            protectedSizeBytes -= evicted.body.size();
+          }
+          evictedCount++;
+        }
+        return evictedCount;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    long getSizeBytes() {
+      lock.lock();
+      try {
+        return probationSizeBytes + protectedSizeBytes;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    void clear() {
+      lock.lock();
+      try {
+        probation.clear();
+        protectedSegment.clear();
+        probationSizeBytes = 0;
+        protectedSizeBytes = 0;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    @GuardedBy("lock")
+    private void removeLocked(String key) {
+      Entry entry = protectedSegment.remove(key);
+      if (entry != null) {
+        protectedSizeBytes -= entry.body.size();
+      }
+      entry = probation.remove(key);
+      if (entry != null) {
+        probationSizeBytes -= entry.body.size();
+      }
+    }
+  }
+
+  /** Copies the body as it's read, storing the entry once the body is fully read. */
+  private final class CachingSource implements Source {
+    private final BufferedSource upstream;
+    private final EntryTemplate template;
+    @Nullable private Buffer copy = new Buffer();
+
+    CachingSource(BufferedSource upstream, EntryTemplate template) {
+      this.upstream = upstream;
+      this.template = template;
+    }
+
+    @Override
+    public long read(Buffer sink, long byteCount) throws IOException {
+      long readCount;
+      try {
+        readCount = upstream.read(sink, byteCount);
+      } catch (IOException e) {
+        copy = null;
+        throw e;
+      }
+      if (copy == null) {
+        return readCount;
+      }
+      if (readCount == -1) {
+        put(template.key, new Entry(template, copy.readByteString(), System.currentTimeMillis()));
+        copy = null;
+      } else if (copy.size() + readCount > maxEntrySizeBytes) {
+        // Too large after all, the length wasn't known upfront.
+        copy = null;
+      } else {
+        sink.copyTo(copy, sink.size() - readCount, readCount);
+      }
+      return readCount;
+    }
+
+    @Override
+    public Timeout timeout() {
+      return upstream.timeout();
+    }
+
+    @Override
+    public void close() throws IOException {
+      // Bodies which aren't fully read aren't cached.
+      copy = null;
+      upstream.close();
+    }
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import java.util.Date;
+import javax.annotation.Nullable;
+import okhttp3.Response;
+import org.chromium.net.RequestFinishedInfo;
+
+/**
+ * Timing and traffic information Cronet collected for a single call.
+ *
+ * <p>Metrics are only collected if enabled on the call factory or interceptor builder (see {@code
+ * setRequestMetricsEnabled}), or if an event listener is attached. The object is attached to the
+ * response and can be obtained using {@link #fromResponse(Response)}. Cronet reports the metrics
+ * once the request finished, that is, after the response body was fully read or the request
+ * failed. Until then all the values are unknown.
+ *
+ * <p>Points in time are wall clock timestamps in milliseconds since the epoch. Unknown values,
+ * including phases that didn't happen (for example DNS resolution of a request reusing a
+ * connection), are reported as {@link #UNKNOWN}.
+ */
+public final class CronetMetrics {
+
+  /** The value reported for unknown timestamps, durations and counts. */
+  public static final long UNKNOWN = -1;
+
+  @Nullable private volatile RequestFinishedInfo requestFinishedInfo;
+
+  CronetMetrics() {}
+
+  /**
+   * Returns the metrics attached to the response, or null if metrics weren't collected for the
+   * call producing it.
+   */
+  @Nullable
+  public static CronetMetrics fromResponse(Response response) {
+    return response.request().tag(CronetMetrics.class);
+  }
+
+  void setRequestFinishedInfo(RequestFinishedInfo requestFinishedInfo) {
+    this.requestFinishedInfo = requestFinishedInfo;
+  }
+
+  /** Returns whether Cronet has already reported the metrics. */
+  public boolean isAvailable() {
+    return requestFinishedInfo != null;
+  }
+
+  /**
+   * Returns the raw information reported by Cronet, or null if it hasn't been reported yet.
+   *
+   * @see #isAvailable()
+   */
+  @Nullable
+  public RequestFinishedInfo getRequestFinishedInfo() {
+    return requestFinishedInfo;
+  }
+
+  public long getRequestStartMillis() {
+    RequestFinishedInfo.Metrics metrics = getMetrics();
+    return metrics == null ? UNKNOWN : toMillis(metrics.getRequestStart());
+  }
+
+  public long getDnsStartMillis() {
+    RequestFinishedInfo.Metrics metrics = getMetrics();
+    return metrics == null ? UNKNOWN : toMillis(metrics.getDnsStart());
+  }
+
+  public long getDnsEndMillis() {
+    RequestFinishedInfo.Metrics metrics = getMetrics();
+    return metrics == null ? UNKNOWN : toMillis(metrics.getDnsEnd());
+  }
+
+  /** Returns when establishing the connection started. The connection phase includes the TLS one. */
+  public long getConnectStartMillis() {
+    RequestFinishedInfo.Metrics metrics = getMetrics();
+    return metrics == null ? UNKNOWN : toMillis(metrics.getConnectStart());
+  }
+
+  public long getConnectEndMillis() {
+    RequestFinishedInfo.Metrics metrics = getMetrics();
+    return metrics == null ? UNKNOWN : toMillis(metrics.getConnectEnd());
+  }
+
+  public long getSslStartMillis() {
+    RequestFinishedInfo.Metrics metrics = getMetrics();
+    return metrics == null ? UNKNOWN : toMillis(metrics.getSslStart());
+  }
+
+  public long getSslEndMillis() {
+    RequestFinishedInfo.Metrics metrics = getMetrics();
+    return metrics == null ? UNKNOWN : toMillis(metrics.getSslEnd());
+  }
+
+  public long getSendingStartMillis() {
+    RequestFinishedInfo.Metrics metrics = getMetrics();
+    return metrics == null ? UNKNOWN : toMillis(metrics.getSendingStart());
+  }
+
+  public long getSendingEndMillis() {
+    RequestFinishedInfo.Metrics metrics = getMetrics();
+    return metrics == null ? UNKNOWN : toMillis(metrics.getSendingEnd());
+  }
+
+  /** Returns when the first HTTP/2 server push was received, if any. */
+  public long getPushStartMillis() {
+    RequestFinishedInfo.Metrics metrics = getMetrics();
+    return metrics == null ? UNKNOWN : toMillis(metrics.getPushStart());
+  }
+
+  public long getPushEndMillis() {
+    RequestFinishedInfo.Metrics metrics = getMetrics();
+    return metrics == null ? UNKNOWN : toMillis(metrics.getPushEnd());
+  }
+
+  /** Returns when the response headers started arriving. */
+  public long getResponseStartMillis() {
+    RequestFinishedInfo.Metrics metrics = getMetrics();
+    return metrics == null ? UNKNOWN : toMillis(metrics.getResponseStart());
+  }
+
+  public long getRequestEndMillis() {
+    RequestFinishedInfo.Metrics metrics = getMetrics();
+    return metrics == null ? UNKNOWN : toMillis(metrics.getRequestEnd());
+  }
+
+  /** Returns whether the request reused an already established connection. */
+  public boolean isSocketReused() {
+    RequestFinishedInfo.Metrics metrics = getMetrics();
+    return metrics != null && metrics.getSocketReused();
+  }
+
+  /** Returns the time from the start of the request to the start of the response. */
+  public long getTtfbMillis() {
+    RequestFinishedInfo.Metrics metrics = getMetrics();
+    return metrics == null ? UNKNOWN : orUnknown(metrics.getTtfbMs());
+  }
+
+  public long getTotalTimeMillis() {
+    RequestFinishedInfo.Metrics metrics = getMetrics();
+    return metrics == null ? UNKNOWN : orUnknown(metrics.getTotalTimeMs());
+  }
+
+  /** Returns the number of bytes sent, including headers and framing overhead. */
+  public long getSentByteCount() {
+    RequestFinishedInfo.Metrics metrics = getMetrics();
+    return metrics == null ? UNKNOWN : orUnknown(metrics.getSentByteCount());
+  }
+
+  /** Returns the number of bytes received, including headers and framing overhead. */
+  public long getReceivedByteCount() {
+    RequestFinishedInfo.Metrics metrics = getMetrics();
+    return metrics == null ? UNKNOWN : orUnknown(metrics.getReceivedByteCount());
+  }
+
+  @Nullable
+  private RequestFinishedInfo.Metrics getMetrics() {
+    RequestFinishedInfo localRequestFinishedInfo = requestFinishedInfo;
+    return localRequestFinishedInfo == null ? null : localRequestFinishedInfo.getMetrics();
+  }
+
+  private static long toMillis(@Nullable Date date) {
+    return date == null ? UNKNOWN : date.getTime();
+  }
+
+  private static long orUnknown(@Nullable Long value) {
+    return value == null ? UNKNOWN : value;
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.Objects;
+import javax.annotation.Nullable;
+import okhttp3.Request;
+import org.chromium.net.ExperimentalUrlRequest;
+import org.chromium.net.UrlRequest;
+
+/**
+ * Cronet specific options of a single request.
+ *
+ * <p>The options are attached to the OkHttp request as a tag:
+ *
+ * <pre>
+ *   Request request = new Request.Builder()
+ *       .url(url)
+ *       .tag(CronetRequestOptions.class,
+ *           CronetRequestOptions.newBuilder().setPriority(Priority.HIGHEST).build())
+ *       .build();
+ * </pre>
+ *
+ * <p>Defaults for all requests can be set on the call factory or interceptor builder (see {@code
+ * setDefaultRequestOptions}). Options set on the request take precedence, options left unset fall
+ * back to the defaults and then to Cronet's own defaults.
+ */
+public final class CronetRequestOptions {
+
+  /** The priority of the request, see {@link UrlRequest.Builder#setPriority(int)}. */
+  public enum Priority {
+    IDLE(UrlRequest.Builder.REQUEST_PRIORITY_IDLE),
+    LOWEST(UrlRequest.Builder.REQUEST_PRIORITY_LOWEST),
+    LOW(UrlRequest.Builder.REQUEST_PRIORITY_LOW),
+    MEDIUM(UrlRequest.Builder.REQUEST_PRIORITY_MEDIUM),
+    HIGHEST(UrlRequest.Builder.REQUEST_PRIORITY_HIGHEST);
+
+    private final int cronetPriority;
+
+    Priority(int cronetPriority) {
+      this.cronetPriority = cronetPriority;
+    }
+  }
+
+  /**
+   * Whether the request is safe to replay. Cronet only sends idempotent requests in QUIC 0-RTT
+   * handshakes. See {@link ExperimentalUrlRequest.Builder#setIdempotency(int)}.
+   */
+  public enum Idempotency {
+    /** Idempotency is derived from the HTTP method, for example GET requests are idempotent. */
+    DEFAULT(ExperimentalUrlRequest.Builder.DEFAULT_IDEMPOTENCY),
+    IDEMPOTENT(ExperimentalUrlRequest.Builder.IDEMPOTENT),
+    NOT_IDEMPOTENT(ExperimentalUrlRequest.Builder.NOT_IDEMPOTENT);
+
+    private final int cronetIdempotency;
+
+    Idempotency(int cronetIdempotency) {
+      this.cronetIdempotency = cronetIdempotency;
+    }
+  }
+
+  @Nullable private final Priority priority;
+  @Nullable private final Boolean cacheDisabled;
+  @Nullable private final Idempotency idempotency;
+  @Nullable private final Integer trafficStatsTag;
+  @Nullable private final Integer trafficStatsUid;
+
+  private CronetRequestOptions(Builder builder) {
+    this.priority = builder.priority;
+    this.cacheDisabled = builder.cacheDisabled;
+    this.idempotency = builder.idempotency;
+    this.trafficStatsTag = builder.trafficStatsTag;
+    this.trafficStatsUid = builder.trafficStatsUid;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /** Returns the options attached to the request, or null if there are none. */
+  @Nullable
+  public static CronetRequestOptions fromRequest(Request request) {
+    return request.tag(CronetRequestOptions.class);
+  }
+
+  /** Returns the priority of the request, or null if not set. */
+  @Nullable
+  public Priority getPriority() {
+    return priority;
+  }
+
+  /** Returns whether the request bypasses Cronet's HTTP cache, or null if not set. */
+  @Nullable
+  public Boolean getCacheDisabled() {
+    return cacheDisabled;
+  }
+
+  /** Returns the idempotency of the request, or null if not set. */
+  @Nullable
+  public Idempotency getIdempotency() {
+    return idempotency;
+  }
+
+  /** Returns the traffic stats tag of the request, or null if not set. */
+  @Nullable
+  public Integer getTrafficStatsTag() {
+    return trafficStatsTag;
+  }
+
+  /** Returns the UID the traffic of the request is attributed to, or null if not set. */
+  @Nullable
+  public Integer getTrafficStatsUid() {
+    return trafficStatsUid;
+  }
+
+  public Builder toBuilder() {
+    return new Builder(this);
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (!(o instanceof CronetRequestOptions)) {
+      return false;
+    }
+    CronetRequestOptions other = (CronetRequestOptions) o;
+    return priority == other.priority
+        && Objects.equals(cacheDisabled, other.cacheDisabled)
+        && idempotency == other.idempotency
+        && Objects.equals(trafficStatsTag, other.trafficStatsTag)
+        && Objects.equals(trafficStatsUid, other.trafficStatsUid);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(priority, cacheDisabled, idempotency, trafficStatsTag, trafficStatsUid);
+  }
+
+  /**
+   * Applies the options to the Cronet request builder. Options not set on the request are taken
+   * from the defaults.
+   */
+  static void apply(
+      @Nullable CronetRequestOptions requestOptions,
+      @Nullable CronetRequestOptions defaultOptions,
+      UrlRequest.Builder builder) {
+    if (requestOptions == null && defaultOptions == null) {
+      return;
+    }
+    Priority priority =
+        firstNonNull(
+            requestOptions == null ? null : requestOptions.priority,
+            defaultOptions == null ? null : defaultOptions.priority);
+    if (priority != null) {
+      builder.setPriority(priority.cronetPriority);
+    }
+    Boolean cacheDisabled =
+        firstNonNull(
+            requestOptions == null ? null : requestOptions.cacheDisabled,
+            defaultOptions == null ? null : defaultOptions.cacheDisabled);
+    if (cacheDisabled != null && cacheDisabled) {
+      builder.disableCache();
+    }
+
+    // Cronet's implementations all provide the experimental builder. If they didn't, the options
+    // would just be ignored.
+    if (!(builder instanceof ExperimentalUrlRequest.Builder)) {
+      return;
+    }
+    ExperimentalUrlRequest.Builder experimentalBuilder = (ExperimentalUrlRequest.Builder) builder;
+    Idempotency idempotency =
+        firstNonNull(
+            requestOptions == null ? null : requestOptions.idempotency,
+            defaultOptions == null ? null : defaultOptions.idempotency);
+    if (idempotency != null) {
+      experimentalBuilder.setIdempotency(idempotency.cronetIdempotency);
+    }
+    Integer trafficStatsTag =
+        firstNonNull(
+            requestOptions == null ? null : requestOptions.trafficStatsTag,
+            defaultOptions == null ? null : defaultOptions.trafficStatsTag);
+    if (trafficStatsTag != null) {
+      experimentalBuilder.setTrafficStatsTag(trafficStatsTag);
+    }
+    Integer trafficStatsUid =
+        firstNonNull(
+            requestOptions == null ? null : requestOptions.trafficStatsUid,
+            defaultOptions == null ? null : defaultOptions.trafficStatsUid);
+    if (trafficStatsUid != null) {
+      experimentalBuilder.setTrafficStatsUid(trafficStatsUid);
+    }
+  }
+
+  @Nullable
+  private static <T> T firstNonNull(@Nullable T first, @Nullable T second) {
+    return first != null ? first : second;
+  }
+
+  /** Builder for {@link CronetRequestOptions}. All options are unset by default. */
+  public static final class Builder {
+    @Nullable private Priority priority;
+    @Nullable private Boolean cacheDisabled;
+    @Nullable private Idempotency idempotency;
+    @Nullable private Integer trafficStatsTag;
+    @Nullable private Integer trafficStatsUid;
+
+    private Builder() {}
+
+    private Builder(CronetRequestOptions options) {
+      this.priority = options.priority;
+      this.cacheDisabled = options.cacheDisabled;
+      this.idempotency = options.idempotency;
+      this.trafficStatsTag = options.trafficStatsTag;
+      this.trafficStatsUid = options.trafficStatsUid;
+    }
+
+    /**
+     * Sets the priority of the request. Cronet schedules higher priority requests first when they
+     * compete for connections and bandwidth, for example visible images ahead of prefetches.
+     */
+    public Builder setPriority(Priority priority) {
+      this.priority = checkNotNull(priority);
+      return this;
+    }
+
+    /** Sets whether the request should bypass Cronet's HTTP cache. */
+    public Builder setCacheDisabled(boolean cacheDisabled) {
+      this.cacheDisabled = cacheDisabled;
+      return this;
+    }
+
+    /**
+     * Sets the idempotency of the request. Marking requests which are safe to replay as {@link
+     * Idempotency#IDEMPOTENT} lets Cronet send them in QUIC 0-RTT handshakes.
+     */
+    public Builder setIdempotency(Idempotency idempotency) {
+      this.idempotency = checkNotNull(idempotency);
+      return this;
+    }
+
+    /**
+     * Sets the tag the traffic of the request is accounted under, see {@code
+     * android.net.TrafficStats}.
+     */
+    public Builder setTrafficStatsTag(int tag) {
+      this.trafficStatsTag = tag;
+      return this;
+    }
+
+    /**
+     * Sets the UID the traffic of the request is attributed to, see {@code
+     * android.net.TrafficStats}.
+     */
+    public Builder setTrafficStatsUid(int uid) {
+      this.trafficStatsUid = uid;
+      return this;
+    }
+
+    public CronetRequestOptions build() {
+      return new CronetRequestOptions(this);
+    }
+  }
+}
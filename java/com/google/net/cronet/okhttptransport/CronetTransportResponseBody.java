@@ -17,15 +17,24 @@
 package com.google.net.cronet.okhttptransport;
 
 import androidx.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import okhttp3.MediaType;
 import okhttp3.ResponseBody;
 import okio.BufferedSource;
 
-abstract class CronetTransportResponseBody extends ResponseBody {
+/**
+ * The response body returned by {@link CronetCallFactory} and {@link CronetInterceptor}.
+ *
+ * <p>Apart from the usual {@link ResponseBody} methods, the body can be read through {@link
+ * #byteChannel()}, which avoids copying the body through Okio's buffers.
+ */
+public abstract class CronetTransportResponseBody extends ResponseBody {
 
   private final ResponseBody delegate;
 
-  protected CronetTransportResponseBody(ResponseBody delegate) {
+  CronetTransportResponseBody(ResponseBody delegate) {
     this.delegate = delegate;
   }
 
@@ -45,6 +54,43 @@ abstract class CronetTransportResponseBody extends ResponseBody {
     return delegate.source();
   }
 
+  /**
+   * Returns a channel reading the body. Closing the channel closes the body.
+   *
+   * <p>When reading to direct buffers, Cronet writes the body to the provided buffer directly
+   * instead of copying it from its own buffers. This is the most efficient way of consuming large
+   * bodies. Note that read-ahead (see {@code setReadAheadBufferCount}) fills the transport's own
+   * buffers instead, which then need to be copied.
+   *
+   * <p>The channel and {@link #source()} shouldn't be used interchangeably, apart from reading
+   * from the channel after partially consuming the source.
+   */
+  public final ReadableByteChannel byteChannel() {
+    ReadableByteChannel delegateChannel;
+    if (delegate instanceof BridgedResponseBody) {
+      delegateChannel = ((BridgedResponseBody) delegate).byteChannel();
+    } else {
+      delegateChannel = delegate.source();
+    }
+
+    return new ReadableByteChannel() {
+      @Override
+      public int read(ByteBuffer dst) throws IOException {
+        return delegateChannel.read(dst);
+      }
+
+      @Override
+      public boolean isOpen() {
+        return delegateChannel.isOpen();
+      }
+
+      @Override
+      public void close() {
+        CronetTransportResponseBody.this.close();
+      }
+    };
+  }
+
   @Override
   public final void close() {
     delegate.close();
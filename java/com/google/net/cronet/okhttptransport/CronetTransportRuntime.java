@@ -0,0 +1,234 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import androidx.annotation.GuardedBy;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.annotation.Nullable;
+import org.chromium.net.CronetEngine;
+
+/**
+ * The resources backing call factories and interceptors: the thread pools running blocking work,
+ * the {@linkplain ResponseBodyBufferPool response body buffers}, the scheduler polling for
+ * canceled calls and the counters reported by {@link #getRequestCount()}.
+ *
+ * <p>By default, each built object gets its own runtime. Applications building several of them,
+ * for example one per backend, should create a single runtime and pass it to all the builders
+ * using {@code setTransportRuntime()}:
+ *
+ * <pre>
+ *   CronetTransportRuntime runtime = CronetTransportRuntime.newBuilder(cronetEngine).build();
+ *   CronetCallFactory apiCallFactory =
+ *       CronetCallFactory.newBuilder(cronetEngine).setTransportRuntime(runtime).build();
+ *   CronetInterceptor cdnInterceptor =
+ *       CronetInterceptor.newBuilder(cronetEngine).setTransportRuntime(runtime).build();
+ * </pre>
+ *
+ * <p>The runtime is reference counted. Each built object holds a reference until it's closed, and
+ * the creator holds one until it {@linkplain #close() closes} the runtime. The threads are shut
+ * down once all of them are released, so the runtime can be closed straight after building the
+ * objects using it.
+ */
+public final class CronetTransportRuntime implements AutoCloseable {
+  private static final int DEFAULT_MAX_POOLED_RESPONSE_BODY_BUFFERS = 8;
+
+  private final CronetEngine cronetEngine;
+  private final TransportExecutors transportExecutors;
+  private final ResponseBodyBufferPool responseBodyBufferPool;
+  private final AtomicLong requestCount = new AtomicLong();
+
+  /** Created with the first interceptor call which needs polling for cancellations. */
+  @GuardedBy("this")
+  @Nullable
+  private ScheduledExecutorService scheduler;
+
+  /** The number of built objects using the runtime, plus one until the creator closes it. */
+  @GuardedBy("this")
+  private int referenceCount = 1;
+
+  @GuardedBy("this")
+  private boolean closed;
+
+  private CronetTransportRuntime(
+      CronetEngine cronetEngine,
+      TransportExecutors transportExecutors,
+      ResponseBodyBufferPool responseBodyBufferPool) {
+    this.cronetEngine = cronetEngine;
+    this.transportExecutors = transportExecutors;
+    this.responseBodyBufferPool = responseBodyBufferPool;
+  }
+
+  /** Creates a {@link CronetTransportRuntime} builder. */
+  public static Builder newBuilder(CronetEngine cronetEngine) {
+    return new Builder(cronetEngine);
+  }
+
+  /** Returns the pool of response body buffers shared by the objects using the runtime. */
+  public ResponseBodyBufferPool getResponseBodyBufferPool() {
+    return responseBodyBufferPool;
+  }
+
+  /** Returns the number of Cronet requests created by the objects using the runtime so far. */
+  public long getRequestCount() {
+    return requestCount.get();
+  }
+
+  /**
+   * Releases the creator's reference. The runtime can't be passed to builders afterwards, but the
+   * objects already built from it keep working until they're closed themselves.
+   */
+  @Override
+  public void close() {
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+    }
+    release();
+  }
+
+  CronetEngine getCronetEngine() {
+    return cronetEngine;
+  }
+
+  TransportExecutors getTransportExecutors() {
+    return transportExecutors;
+  }
+
+  /** Returns the scheduler shared by all the interceptors using the runtime. */
+  synchronized ScheduledExecutorService getScheduler() {
+    checkState(referenceCount > 0, "The runtime has already been shut down!");
+    if (scheduler == null) {
+      scheduler =
+          new ScheduledThreadPoolExecutor(
+              1,
+              new ThreadFactoryBuilder()
+                  .setNameFormat("CronetTransport-cancellation-polling-%d")
+                  .build());
+    }
+    return scheduler;
+  }
+
+  void recordRequest() {
+    requestCount.incrementAndGet();
+  }
+
+  /** Adds a reference for an object built from the runtime. */
+  synchronized void retain() {
+    checkState(!closed, "The runtime has already been closed!");
+    referenceCount++;
+  }
+
+  /** Releases a reference, shutting the runtime down if it was the last one. */
+  void release() {
+    ScheduledExecutorService localScheduler;
+    synchronized (this) {
+      checkState(referenceCount > 0, "The runtime has already been shut down!");
+      if (--referenceCount > 0) {
+        return;
+      }
+      localScheduler = scheduler;
+    }
+    if (localScheduler != null) {
+      localScheduler.shutdown();
+    }
+    transportExecutors.release();
+  }
+
+  @VisibleForTesting
+  synchronized boolean isShutDown() {
+    return referenceCount == 0;
+  }
+
+  /** Builder for {@link CronetTransportRuntime}. */
+  public static final class Builder {
+    private final CronetEngine cronetEngine;
+    private int uploadDataProviderExecutorSize =
+        TransportExecutors.DEFAULT_UPLOAD_DATA_PROVIDER_THREADS;
+    private int maxRequestBodyWriterThreads = TransportExecutors.DEFAULT_REQUEST_BODY_THREADS;
+    private boolean useVirtualThreads = false;
+    private ResponseBodyBufferPool responseBodyBufferPool = null;
+
+    Builder(CronetEngine cronetEngine) {
+      this.cronetEngine = checkNotNull(cronetEngine);
+    }
+
+    /**
+     * Sets the size of upload data provider executor shared by all the objects using the runtime.
+     * The default is 4.
+     */
+    public Builder setUploadDataProviderExecutorSize(int size) {
+      checkArgument(size > 0, "The number of threads must be positive!");
+      uploadDataProviderExecutorSize = size;
+      return this;
+    }
+
+    /**
+     * Sets the maximum number of threads writing streamed request bodies, across all the objects
+     * using the runtime. Uploads exceeding the limit fail rather than waiting. There's no limit by
+     * default.
+     */
+    public Builder setMaxRequestBodyWriterThreads(int maxThreads) {
+      checkArgument(maxThreads > 0, "The number of threads must be positive!");
+      maxRequestBodyWriterThreads = maxThreads;
+      return this;
+    }
+
+    /**
+     * Sets whether blocking work should run on virtual threads, if available. Virtual threads
+     * aren't used by default.
+     */
+    public Builder setUseVirtualThreads(boolean useVirtualThreads) {
+      this.useVirtualThreads = useVirtualThreads;
+      return this;
+    }
+
+    /**
+     * Sets the pool of response body buffers. If not set, the runtime creates a small pool of 32
+     * KiB buffers.
+     */
+    public Builder setResponseBodyBufferPool(ResponseBodyBufferPool bufferPool) {
+      checkNotNull(bufferPool);
+      this.responseBodyBufferPool = bufferPool;
+      return this;
+    }
+
+    public CronetTransportRuntime build() {
+      ResponseBodyBufferPool localBufferPool = responseBodyBufferPool;
+      if (localBufferPool == null) {
+        localBufferPool = ResponseBodyBufferPool.create(DEFAULT_MAX_POOLED_RESPONSE_BODY_BUFFERS);
+      }
+      return new CronetTransportRuntime(
+          cronetEngine,
+          TransportExecutors.acquire(
+              cronetEngine,
+              uploadDataProviderExecutorSize,
+              maxRequestBodyWriterThreads,
+              useVirtualThreads),
+          localBufferPool);
+    }
+  }
+}
@@ -0,0 +1,434 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+
+import androidx.annotation.GuardedBy;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.ForwardingSource;
+import okio.Okio;
+import okio.Sink;
+import okio.Source;
+
+/**
+ * A directory of entries, each made of a small metadata file and a body file, evicted in least
+ * recently used order once their total size exceeds the maximum size.
+ *
+ * <p>Entries are written to temporary files and renamed into place when committed, so readers never
+ * see partially written entries. The metadata file starts with the length of the body it belongs
+ * to, entries whose body doesn't match are dropped when read. A snapshot keeps both files of an
+ * entry open, which stays valid even if the entry is replaced or evicted in the meantime. The
+ * recency of entries survives restarts through the modification time of the metadata files.
+ *
+ * <p>The directory is only scanned on first use, not when the store is created.
+ */
+final class DiskLruStore {
+  private static final String METADATA_SUFFIX = ".0";
+  private static final String BODY_SUFFIX = ".1";
+  private static final String TEMP_SUFFIX = ".tmp";
+
+  private final File directory;
+  private final long maxSizeBytes;
+
+  /** The entries, from least to most recently used. */
+  @GuardedBy("this")
+  private final LinkedHashMap<String, IndexEntry> entries =
+      new LinkedHashMap<>(/* initialCapacity= */ 16, /* loadFactor= */ 0.75f, /* accessOrder= */ true);
+
+  @GuardedBy("this")
+  private final Set<String> keysBeingEdited = new HashSet<>();
+
+  @GuardedBy("this")
+  private long sizeBytes;
+
+  @GuardedBy("this")
+  private boolean initialized;
+
+  /** Distinguishes the successive versions of an entry, see {@link #updateMetadata}. */
+  @GuardedBy("this")
+  private long nextGeneration;
+
+  DiskLruStore(File directory, long maxSizeBytes) {
+    checkArgument(maxSizeBytes > 0, "The maximum size must be positive!");
+    this.directory = directory;
+    this.maxSizeBytes = maxSizeBytes;
+  }
+
+  long getMaxSizeBytes() {
+    return maxSizeBytes;
+  }
+
+  synchronized long getSizeBytes() throws IOException {
+    initializeIfNeeded();
+    return sizeBytes;
+  }
+
+  /** Returns the entry for the key, or null if there is none. */
+  @Nullable
+  synchronized Snapshot get(String key) throws IOException {
+    initializeIfNeeded();
+    IndexEntry indexEntry = entries.get(key);
+    if (indexEntry == null) {
+      return null;
+    }
+    File metadataFile = metadataFile(key);
+    BufferedSource metadata;
+    Source body;
+    try {
+      metadata = Okio.buffer(Okio.source(metadataFile));
+    } catch (FileNotFoundException e) {
+      removeFromIndex(key);
+      return null;
+    }
+    try {
+      body = Okio.source(bodyFile(key));
+    } catch (FileNotFoundException e) {
+      metadata.close();
+      removeFromIndex(key);
+      return null;
+    }
+    long bodyLength = bodyFile(key).length();
+    boolean bodyMatches;
+    try {
+      bodyMatches = metadata.readLong() == bodyLength;
+    } catch (EOFException e) {
+      bodyMatches = false;
+    }
+    if (!bodyMatches) {
+      // The metadata belongs to another version of the body, left behind by a crash.
+      metadata.close();
+      body.close();
+      deleteEntryFiles(key);
+      removeFromIndex(key);
+      return null;
+    }
+    // Persists the recency across restarts. Failing to do so only affects eviction order.
+    metadataFile.setLastModified(System.currentTimeMillis());
+    return new Snapshot(key, indexEntry.generation, metadata, body, bodyLength);
+  }
+
+  /**
+   * Starts writing the entry for the key, or returns null if the entry is already being written.
+   * The entry replaces the current one, if any, once committed.
+   */
+  @Nullable
+  synchronized Editor edit(String key) throws IOException {
+    initializeIfNeeded();
+    if (!keysBeingEdited.add(key)) {
+      return null;
+    }
+    return new Editor(key);
+  }
+
+  /**
+   * Replaces the metadata of the snapshot's entry, keeping its body. Does nothing if the entry has
+   * been replaced, removed or is being written since the snapshot was taken.
+   */
+  void updateMetadata(Snapshot snapshot, byte[] metadata) throws IOException {
+    String key = snapshot.key;
+    // Not the editor's temporary file, a concurrent edit of the entry mustn't be clobbered.
+    File tempFile = File.createTempFile(key + METADATA_SUFFIX + ".", TEMP_SUFFIX, directory);
+    writeMetadataFile(tempFile, snapshot.bodyLength, metadata);
+    synchronized (this) {
+      initializeIfNeeded();
+      IndexEntry indexEntry = entries.get(key);
+      if (indexEntry == null
+          || indexEntry.generation != snapshot.generation
+          || keysBeingEdited.contains(key)
+          || !tempFile.renameTo(metadataFile(key))) {
+        tempFile.delete();
+        return;
+      }
+      long oldSize = indexEntry.size;
+      indexEntry.size = metadataFile(key).length() + snapshot.bodyLength;
+      sizeBytes += indexEntry.size - oldSize;
+      trimToSize();
+    }
+  }
+
+  synchronized void remove(String key) throws IOException {
+    initializeIfNeeded();
+    if (entries.containsKey(key)) {
+      deleteEntryFiles(key);
+      removeFromIndex(key);
+    }
+  }
+
+  synchronized void evictAll() throws IOException {
+    initializeIfNeeded();
+    for (String key : new ArrayList<>(entries.keySet())) {
+      deleteEntryFiles(key);
+      removeFromIndex(key);
+    }
+  }
+
+  @GuardedBy("this")
+  private void initializeIfNeeded() throws IOException {
+    if (initialized) {
+      return;
+    }
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create the cache directory " + directory);
+    }
+    File[] files = directory.listFiles();
+    if (files == null) {
+      throw new IOException("Unable to list the cache directory " + directory);
+    }
+
+    List<File> metadataFiles = new ArrayList<>();
+    List<File> bodyFiles = new ArrayList<>();
+    for (File file : files) {
+      String name = file.getName();
+      if (name.endsWith(TEMP_SUFFIX)) {
+        // Left behind by a crash while writing.
+        file.delete();
+      } else if (name.endsWith(METADATA_SUFFIX)) {
+        metadataFiles.add(file);
+      } else if (name.endsWith(BODY_SUFFIX)) {
+        bodyFiles.add(file);
+      }
+    }
+    for (File bodyFile : bodyFiles) {
+      String name = bodyFile.getName();
+      if (!metadataFile(name.substring(0, name.length() - BODY_SUFFIX.length())).exists()) {
+        // Left behind by a crash while committing.
+        bodyFile.delete();
+      }
+    }
+    File[] sortedMetadataFiles = metadataFiles.toArray(new File[0]);
+    Arrays.sort(
+        sortedMetadataFiles,
+        new Comparator<File>() {
+          @Override
+          public int compare(File first, File second) {
+            long firstLastModified = first.lastModified();
+            long secondLastModified = second.lastModified();
+            return firstLastModified < secondLastModified
+                ? -1
+                : (firstLastModified == secondLastModified ? 0 : 1);
+          }
+        });
+    for (File metadataFile : sortedMetadataFiles) {
+      String name = metadataFile.getName();
+      String key = name.substring(0, name.length() - METADATA_SUFFIX.length());
+      File bodyFile = bodyFile(key);
+      if (!bodyFile.exists()) {
+        metadataFile.delete();
+        continue;
+      }
+      long entrySize = metadataFile.length() + bodyFile.length();
+      entries.put(key, new IndexEntry(entrySize, nextGeneration++));
+      sizeBytes += entrySize;
+    }
+    initialized = true;
+    trimToSize();
+  }
+
+  @GuardedBy("this")
+  private void trimToSize() {
+    Iterator<Map.Entry<String, IndexEntry>> leastRecentlyUsedFirst =
+        entries.entrySet().iterator();
+    while (sizeBytes > maxSizeBytes && leastRecentlyUsedFirst.hasNext()) {
+      Map.Entry<String, IndexEntry> entry = leastRecentlyUsedFirst.next();
+      deleteEntryFiles(entry.getKey());
+      sizeBytes -= entry.getValue().size;
+      leastRecentlyUsedFirst.remove();
+    }
+  }
+
+  @GuardedBy("this")
+  private void removeFromIndex(String key) {
+    IndexEntry indexEntry = entries.remove(key);
+    if (indexEntry != null) {
+      sizeBytes -= indexEntry.size;
+    }
+  }
+
+  private void deleteEntryFiles(String key) {
+    metadataFile(key).delete();
+    bodyFile(key).delete();
+  }
+
+  private synchronized void commit(String key, File tempMetadataFile, File tempBodyFile) {
+    keysBeingEdited.remove(key);
+    // The old metadata goes first and the new one last, so that a crash in between leaves a body
+    // without metadata, which is deleted on startup, rather than an entry mixing both versions.
+    metadataFile(key).delete();
+    removeFromIndex(key);
+    if (!tempBodyFile.renameTo(bodyFile(key)) || !tempMetadataFile.renameTo(metadataFile(key))) {
+      tempMetadataFile.delete();
+      tempBodyFile.delete();
+      deleteEntryFiles(key);
+      return;
+    }
+    long entrySize = metadataFile(key).length() + bodyFile(key).length();
+    entries.put(key, new IndexEntry(entrySize, nextGeneration++));
+    sizeBytes += entrySize;
+    trimToSize();
+  }
+
+  private synchronized void abort(File tempMetadataFile, File tempBodyFile, String key) {
+    keysBeingEdited.remove(key);
+    tempMetadataFile.delete();
+    tempBodyFile.delete();
+  }
+
+  private File metadataFile(String key) {
+    return new File(directory, key + METADATA_SUFFIX);
+  }
+
+  private File bodyFile(String key) {
+    return new File(directory, key + BODY_SUFFIX);
+  }
+
+  private static File tempFile(File file) {
+    return new File(file.getPath() + TEMP_SUFFIX);
+  }
+
+  private static void writeMetadataFile(File file, long bodyLength, byte[] metadata)
+      throws IOException {
+    try (Sink sink = Okio.sink(file)) {
+      Buffer buffer = new Buffer().writeLong(bodyLength).write(metadata);
+      sink.write(buffer, buffer.size());
+    }
+  }
+
+  private static final class IndexEntry {
+    /** The size of both files. */
+    long size;
+
+    final long generation;
+
+    IndexEntry(long size, long generation) {
+      this.size = size;
+      this.generation = generation;
+    }
+  }
+
+  /** An open entry. Both files stay readable until the snapshot is closed. */
+  static final class Snapshot implements Closeable {
+    private final String key;
+    private final long generation;
+    private final BufferedSource metadata;
+    private final Source body;
+    /** Wraps {@link #body}, closing the whole snapshot when closed. */
+    private final Source snapshotClosingBody;
+    private final long bodyLength;
+
+    private Snapshot(
+        String key, long generation, BufferedSource metadata, Source body, long bodyLength) {
+      this.key = key;
+      this.generation = generation;
+      this.metadata = metadata;
+      this.body = body;
+      this.snapshotClosingBody =
+          new ForwardingSource(body) {
+            @Override
+            public void close() throws IOException {
+              Snapshot.this.close();
+            }
+          };
+      this.bodyLength = bodyLength;
+    }
+
+    BufferedSource getMetadata() {
+      return metadata;
+    }
+
+    /** Returns the body. Closing it closes the snapshot. */
+    Source getBody() {
+      return snapshotClosingBody;
+    }
+
+    long getBodyLength() {
+      return bodyLength;
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        metadata.close();
+      } finally {
+        body.close();
+      }
+    }
+  }
+
+  /** Writes an entry. Exactly one of {@link #commit()} and {@link #abort()} must be called. */
+  final class Editor {
+    private final String key;
+    private final File tempMetadataFile;
+    private final File tempBodyFile;
+    @Nullable private byte[] metadata;
+    private boolean done;
+
+    private Editor(String key) {
+      this.key = key;
+      this.tempMetadataFile = tempFile(metadataFile(key));
+      this.tempBodyFile = tempFile(bodyFile(key));
+    }
+
+    /** Sets the metadata, which is written when committing. */
+    void setMetadata(byte[] metadata) {
+      this.metadata = metadata;
+    }
+
+    /** Returns a sink writing the body. It must be closed before committing. */
+    Sink newBodySink() throws IOException {
+      return Okio.sink(tempBodyFile);
+    }
+
+    void commit() throws IOException {
+      checkState(!done, "The edit is already done!");
+      checkState(metadata != null, "The metadata isn't set!");
+      done = true;
+      try {
+        writeMetadataFile(tempMetadataFile, tempBodyFile.length(), metadata);
+      } catch (IOException e) {
+        DiskLruStore.this.abort(tempMetadataFile, tempBodyFile, key);
+        throw e;
+      }
+      DiskLruStore.this.commit(key, tempMetadataFile, tempBodyFile);
+    }
+
+    void abort() {
+      if (done) {
+        return;
+      }
+      done = true;
+      DiskLruStore.this.abort(tempMetadataFile, tempBodyFile, key);
+    }
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.io.File;
+import java.io.IOException;
+import javax.annotation.Nullable;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import okio.BufferedSink;
+import okio.Okio;
+import okio.Source;
+
+/**
+ * A request body with the contents of a file.
+ *
+ * <p>The Cronet transport recognizes bodies created using this class and lets Cronet read the
+ * file directly, without the need to copy it through a background thread. This is the preferred
+ * way of uploading large files. Other OkHttp transports simply read the file.
+ */
+public final class FileRequestBody extends RequestBody {
+
+  @Nullable private final MediaType contentType;
+  private final File file;
+
+  private FileRequestBody(@Nullable MediaType contentType, File file) {
+    this.contentType = contentType;
+    this.file = file;
+  }
+
+  /** Creates a body with the contents of the given file. */
+  public static FileRequestBody create(@Nullable MediaType contentType, File file) {
+    return new FileRequestBody(contentType, checkNotNull(file));
+  }
+
+  File getFile() {
+    return file;
+  }
+
+  @Nullable
+  @Override
+  public MediaType contentType() {
+    return contentType;
+  }
+
+  @Override
+  public long contentLength() {
+    return file.length();
+  }
+
+  @Override
+  public void writeTo(BufferedSink sink) throws IOException {
+    try (Source source = Okio.source(file)) {
+      sink.writeAll(source);
+    }
+  }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.List;
+import javax.annotation.Nullable;
+import okhttp3.Call;
+import okhttp3.Connection;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * An {@link EventListener} forwarding all events to a delegate. Subclasses override the events
+ * they're interested in.
+ *
+ * <p>The library is compiled against an old version of OkHttp, {@link #canceled} is forwarded
+ * reflectively to support newer versions reporting cancellations.
+ */
+class ForwardingEventListener extends EventListener {
+  private final EventListener delegate;
+
+  ForwardingEventListener(EventListener delegate) {
+    this.delegate = delegate;
+  }
+
+  @Override
+  public void callStart(Call call) {
+    delegate.callStart(call);
+  }
+
+  @Override
+  public void dnsStart(Call call, String domainName) {
+    delegate.dnsStart(call, domainName);
+  }
+
+  @Override
+  public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+    delegate.dnsEnd(call, domainName, inetAddressList);
+  }
+
+  @Override
+  public void connectStart(Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+    delegate.connectStart(call, inetSocketAddress, proxy);
+  }
+
+  @Override
+  public void secureConnectStart(Call call) {
+    delegate.secureConnectStart(call);
+  }
+
+  @Override
+  public void secureConnectEnd(Call call, @Nullable Handshake handshake) {
+    delegate.secureConnectEnd(call, handshake);
+  }
+
+  @Override
+  public void connectEnd(
+      Call call, InetSocketAddress inetSocketAddress, Proxy proxy, @Nullable Protocol protocol) {
+    delegate.connectEnd(call, inetSocketAddress, proxy, protocol);
+  }
+
+  @Override
+  public void connectFailed(
+      Call call,
+      InetSocketAddress inetSocketAddress,
+      Proxy proxy,
+      @Nullable Protocol protocol,
+      IOException ioe) {
+    delegate.connectFailed(call, inetSocketAddress, proxy, protocol, ioe);
+  }
+
+  @Override
+  public void connectionAcquired(Call call, Connection connection) {
+    delegate.connectionAcquired(call, connection);
+  }
+
+  @Override
+  public void connectionReleased(Call call, Connection connection) {
+    delegate.connectionReleased(call, connection);
+  }
+
+  @Override
+  public void requestHeadersStart(Call call) {
+    delegate.requestHeadersStart(call);
+  }
+
+  @Override
+  public void requestHeadersEnd(Call call, Request request) {
+    delegate.requestHeadersEnd(call, request);
+  }
+
+  @Override
+  public void requestBodyStart(Call call) {
+    delegate.requestBodyStart(call);
+  }
+
+  @Override
+  public void requestBodyEnd(Call call, long byteCount) {
+    delegate.requestBodyEnd(call, byteCount);
+  }
+
+  @Override
+  public void responseHeadersStart(Call call) {
+    delegate.responseHeadersStart(call);
+  }
+
+  @Override
+  public void responseHeadersEnd(Call call, Response response) {
+    delegate.responseHeadersEnd(call, response);
+  }
+
+  @Override
+  public void responseBodyStart(Call call) {
+    delegate.responseBodyStart(call);
+  }
+
+  @Override
+  public void responseBodyEnd(Call call, long byteCount) {
+    delegate.responseBodyEnd(call, byteCount);
+  }
+
+  @Override
+  public void callEnd(Call call) {
+    delegate.callEnd(call);
+  }
+
+  @Override
+  public void callFailed(Call call, IOException ioe) {
+    delegate.callFailed(call, ioe);
+  }
+
+  /**
+   * Invoked by OkHttp versions which report cancellations to event listeners when the call is
+   * canceled. Not present in the OkHttp version the library is compiled against, hence no
+   * {@code @Override}.
+   */
+  public void canceled(Call call) {
+    Method canceledMethod = CanceledMethodHolder.METHOD;
+    if (canceledMethod == null) {
+      return;
+    }
+    try {
+      canceledMethod.invoke(delegate, call);
+    } catch (IllegalAccessException e) {
+      throw new AssertionError(e);
+    } catch (InvocationTargetException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      if (e.getCause() instanceof Error) {
+        throw (Error) e.getCause();
+      }
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  private static final class CanceledMethodHolder {
+    @Nullable private static final Method METHOD = findMethod();
+
+    @Nullable
+    private static Method findMethod() {
+      try {
+        return EventListener.class.getMethod("canceled", Call.class);
+      } catch (NoSuchMethodException e) {
+        return null;
+      }
+    }
+  }
+}
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import okhttp3.Request;
+
+/**
+ * Decides per request whether the request body is materialized in memory before being uploaded,
+ * or streamed to Cronet from a background thread.
+ *
+ * <p>Materializing small bodies is cheaper as it avoids the thread handoffs, but keeps the entire
+ * body in memory for the duration of the upload. The policy can for instance stream bodies of
+ * certain content types, or bodies of requests marked with a custom tag:
+ *
+ * <pre>
+ *   InMemoryUploadPolicy policy = request -> request.tag(StreamUpload.class) == null;
+ * </pre>
+ *
+ * <p>The policy is only consulted for bodies of known length not exceeding the in-memory
+ * threshold, larger bodies are always streamed.
+ */
+public interface InMemoryUploadPolicy {
+
+  /** Returns whether the body of the given request should be materialized in memory. */
+  boolean shouldMaterializeInMemory(Request request);
+}
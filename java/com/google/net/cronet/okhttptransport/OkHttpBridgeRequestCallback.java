@@ -19,17 +19,22 @@ package com.google.net.cronet.okhttptransport;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
+import com.google.common.base.Ascii;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 import java.io.IOException;
 import java.net.ProtocolException;
 import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicBoolean;
 import javax.annotation.Nullable;
 import okio.Buffer;
@@ -48,17 +53,20 @@ import org.chromium.net.UrlResponseInfo;
  *
  * <p>Translating the body is a bit more tricky because of the mismatch between OkHttp and Cronet
  * designs. We invoke Cronet's read and wait for the result using synchronization primitives (see
- * BodySource implementation). The implementation is assuming that there's always at most one read()
- * request in flight (which is safe to assume), and relies on reasonable fairness of thread
- * scheduling, especially when handling cancellations.
+ * BodySource implementation). Cronet guarantees that there's always at most one read() request in
+ * flight, optionally followed by filled read-ahead buffers waiting for the consumer. The
+ * implementation relies on reasonable fairness of thread scheduling, especially when handling
+ * cancellations.
  */
 class OkHttpBridgeRequestCallback extends UrlRequest.Callback {
 
   /**
-   * The byte buffer capacity for reading Cronet response bodies. Each response callback will
-   * allocate its own buffer of this size once the response starts being processed.
+   * The size of the first body read if the response doesn't indicate the body length. Reads grow
+   * from here up to the capacity of the pooled buffers as long as the body keeps streaming.
    */
-  private static final int CRONET_BYTE_BUFFER_CAPACITY = 32 * 1024;
+  private static final int INITIAL_READ_SIZE_BYTES = 8 * 1024;
+
+  private static final String CONTENT_LENGTH_HEADER_NAME = "Content-Length";
 
   /** A bridge between Cronet's asynchronous callbacks and OkHttp's blocking stream-like reads. */
   private final SettableFuture<Source> bodySourceFuture = SettableFuture.create();
@@ -70,13 +78,20 @@ class OkHttpBridgeRequestCallback extends UrlRequest.Callback {
   private final AtomicBoolean canceled = new AtomicBoolean(false);
 
   /**
-   * An internal, blocking, thread safe way of passing data between the callback methods and {@link
-   * #bodySourceFuture}.
+   * Passes the buffers filled by Cronet from the callback methods to {@link #bodySourceFuture}. The
+   * handoff is closed once the request is done, see {@link #terminalStep}.
    *
-   * <p>Has a capacity of 2 - at most one slot for a read result and at most 1 slot for cancellation
-   * signal, this guarantees that all inserts are non blocking.
+   * <p>Has a capacity of {@link #readAheadBufferCount} + 1 - at most one slot for each pooled
+   * buffer and at most 1 slot for a buffer provided by the consumer, this guarantees that all offers
+   * succeed.
    */
-  private final BlockingQueue<CallbackResult> callbackResults = new ArrayBlockingQueue<>(2);
+  private final SpscHandoff<ByteBuffer> filledBuffers;
+
+  /** How the request ended, set before {@link #filledBuffers} is closed. */
+  @Nullable private volatile CallbackStep terminalStep;
+
+  /** The exception the request failed with, set together with {@link #terminalStep}. */
+  @Nullable private volatile CronetException failure;
 
   /** The response headers. */
   private final SettableFuture<UrlResponseInfo> headersFuture = SettableFuture.create();
@@ -87,13 +102,58 @@ class OkHttpBridgeRequestCallback extends UrlRequest.Callback {
   /** The previous responses as reported to {@link #onRedirectReceived}, from oldest to newest. * */
   private final List<UrlResponseInfo> urlResponseInfoChain = new ArrayList<>();
 
+  /** How long each of the redirects in {@link #urlResponseInfoChain} took. */
+  private final List<Long> redirectDurationsMillis = new ArrayList<>();
+
+  /** When the current hop of the redirect chain started, only accessed by Cronet's thread. */
+  private long hopStartNanos = System.nanoTime();
+
   private final RedirectStrategy redirectStrategy;
 
+  /**
+   * The pool the body buffer is borrowed from once the response starts being processed, and
+   * returned to once the body is no longer accessed by Cronet.
+   */
+  private final ResponseBodyBufferPool bufferPool;
+
+  /**
+   * The maximum number of buffers Cronet can fill before the consumer reads them. A value of 1
+   * means no read-ahead - Cronet is only asked for more data once the consumer drained the
+   * previous chunk.
+   */
+  private final int readAheadBufferCount;
+
   /** The request being processed. Set when the request is first seen by the callback. */
   private volatile UrlRequest request;
 
-  OkHttpBridgeRequestCallback(long readTimeoutMillis, RedirectStrategy redirectStrategy) {
+  /** The body source, set when the response starts. */
+  @Nullable private volatile CronetBodySource bodySource;
+
+  OkHttpBridgeRequestCallback(
+      long readTimeoutMillis,
+      RedirectStrategy redirectStrategy,
+      ResponseBodyBufferPool bufferPool,
+      int readAheadBufferCount) {
+    this(
+        readTimeoutMillis,
+        redirectStrategy,
+        bufferPool,
+        readAheadBufferCount,
+        /* spinBeforeParking= */ true);
+  }
+
+  /**
+   * @param spinBeforeParking whether the thread reading the body should spin briefly before
+   *     parking, see {@link SpscHandoff}. Should be disabled if the body is read on virtual threads.
+   */
+  OkHttpBridgeRequestCallback(
+      long readTimeoutMillis,
+      RedirectStrategy redirectStrategy,
+      ResponseBodyBufferPool bufferPool,
+      int readAheadBufferCount,
+      boolean spinBeforeParking) {
     checkArgument(readTimeoutMillis >= 0);
+    checkArgument(readAheadBufferCount > 0);
 
     // So that we don't have to special case infinity. Int.MAX_VALUE is ~infinity for all practical
     // use cases.
@@ -103,6 +163,9 @@ class OkHttpBridgeRequestCallback extends UrlRequest.Callback {
       this.readTimeoutMillis = readTimeoutMillis;
     }
     this.redirectStrategy = redirectStrategy;
+    this.bufferPool = bufferPool;
+    this.readAheadBufferCount = readAheadBufferCount;
+    this.filledBuffers = new SpscHandoff<>(readAheadBufferCount + 1, spinBeforeParking);
   }
 
   /** Returns the {@link UrlResponseInfo} for the request associated with this callback. */
@@ -124,32 +187,60 @@ class OkHttpBridgeRequestCallback extends UrlRequest.Callback {
     return Collections.unmodifiableList(urlResponseInfoChain);
   }
 
+  List<Long> getRedirectDurationsMillis() {
+    return Collections.unmodifiableList(redirectDurationsMillis);
+  }
+
   @Override
   public void onRedirectReceived(
       UrlRequest urlRequest, UrlResponseInfo urlResponseInfo, String nextUrl) {
     // We shouldn't follow redirects - pass the given UrlResponseInfo as the ultimate result
     if (!redirectStrategy.followRedirects()) {
-      checkState(headersFuture.set(urlResponseInfo));
-      // Note: This might not match the content length headers but we have no way of accessing
-      // the actual body with current Cronet's APIs (see RedirectStrategy).
-      checkState(bodySourceFuture.set(new Buffer()));
-      urlRequest.cancel();
+      returnRedirect(urlRequest, urlResponseInfo);
       return;
     }
 
-    // We should follow redirects and we haven't hit the cap yet
-    urlResponseInfoChain.add(urlResponseInfo);
-    if (urlResponseInfo.getUrlChain().size() <= redirectStrategy.numberOfRedirectsToFollow()) {
-      urlRequest.followRedirect();
+    // Cap reached - fail and cancel the request. Exception crafted to match OkHttp.
+    if (urlResponseInfo.getUrlChain().size() > redirectStrategy.numberOfRedirectsToFollow()) {
+      fail(
+          new ProtocolException(
+              "Too many follow-up requests: "
+                  + (redirectStrategy.numberOfRedirectsToFollow() + 1)));
+      urlRequest.cancel();
       return;
     }
 
-    // Cap reached - cancel the request and fail. Exception crafted to match OkHttp.
+    long nowNanos = System.nanoTime();
+    long hopDurationMillis = NANOSECONDS.toMillis(nowNanos - hopStartNanos);
+    switch (
+        redirectStrategy.decide(
+            new RedirectStrategy.Redirect(urlResponseInfo, nextUrl, hopDurationMillis))) {
+      case FOLLOW:
+        urlResponseInfoChain.add(urlResponseInfo);
+        redirectDurationsMillis.add(hopDurationMillis);
+        hopStartNanos = nowNanos;
+        urlRequest.followRedirect();
+        return;
+      case STOP:
+        returnRedirect(urlRequest, urlResponseInfo);
+        return;
+      case REFUSE:
+        fail(new ProtocolException("Redirect refused by the redirect policy"));
+        urlRequest.cancel();
+        return;
+    }
+  }
+
+  /** Passes the redirect response as the ultimate result. */
+  private void returnRedirect(UrlRequest urlRequest, UrlResponseInfo urlResponseInfo) {
+    checkState(headersFuture.set(urlResponseInfo));
+    // Note: This might not match the content length headers but we have no way of accessing
+    // the actual body with current Cronet's APIs (see RedirectStrategy).
+    checkState(bodySourceFuture.set(new Buffer()));
     urlRequest.cancel();
+  }
 
-    IOException e =
-        new ProtocolException(
-            "Too many follow-up requests: " + (redirectStrategy.numberOfRedirectsToFollow() + 1));
+  private void fail(IOException e) {
     headersFuture.setException(e);
     bodySourceFuture.setException(e);
   }
@@ -157,20 +248,26 @@ class OkHttpBridgeRequestCallback extends UrlRequest.Callback {
   @Override
   public void onResponseStarted(UrlRequest urlRequest, UrlResponseInfo urlResponseInfo) {
     request = urlRequest;
+    CronetBodySource source = new CronetBodySource(getInitialReadSize(urlResponseInfo));
+    bodySource = source;
 
     checkState(headersFuture.set(urlResponseInfo));
-    checkState(bodySourceFuture.set(new CronetBodySource()));
+    checkState(bodySourceFuture.set(source));
   }
 
   @Override
   public void onReadCompleted(
       UrlRequest urlRequest, UrlResponseInfo urlResponseInfo, ByteBuffer byteBuffer) {
-    callbackResults.add(new CallbackResult(CallbackStep.ON_READ_COMPLETED, byteBuffer, null));
+    bodySource.adjustReadSize(byteBuffer);
+    // Give up the read token before publishing the result - the consumer might want to issue
+    // another read as soon as it sees the result.
+    bodySource.onReadFinished(/* mayReadAhead= */ true);
+    checkState(filledBuffers.offer(byteBuffer));
   }
 
   @Override
   public void onSucceeded(UrlRequest urlRequest, UrlResponseInfo urlResponseInfo) {
-    callbackResults.add(new CallbackResult(CallbackStep.ON_SUCCESS, null, null));
+    onRequestDone(CallbackStep.ON_SUCCESS);
   }
 
   @Override
@@ -183,13 +280,14 @@ class OkHttpBridgeRequestCallback extends UrlRequest.Callback {
 
     // If this was called as a reaction to a read() call, the read result will propagate
     // the exception.
-    callbackResults.add(new CallbackResult(CallbackStep.ON_FAILED, null, e));
+    failure = e;
+    onRequestDone(CallbackStep.ON_FAILED);
   }
 
   @Override
   public void onCanceled(UrlRequest urlRequest, UrlResponseInfo responseInfo) {
     canceled.set(true);
-    callbackResults.add(new CallbackResult(CallbackStep.ON_CANCELED, null, null));
+    onRequestDone(CallbackStep.ON_CANCELED);
 
     // If there's nobody listening it's possible that the cancellation happened before we even
     // received anything from the server. In that case inform the thread that's awaiting server
@@ -200,13 +298,96 @@ class OkHttpBridgeRequestCallback extends UrlRequest.Callback {
     bodySourceFuture.setException(e);
   }
 
-  private class CronetBodySource implements Source {
+  /**
+   * Returns the size of the first body read. The Content-Length header is used as a hint so that
+   * large bodies don't need to go through the growth phase, and small bodies are read in one go.
+   * Note that the hint isn't precise as Cronet might be decoding the body.
+   */
+  private int getInitialReadSize(UrlResponseInfo urlResponseInfo) {
+    int maxReadSize = bufferPool.getBufferCapacity();
+    @Nullable String contentLengthString = null;
+    for (Map.Entry<String, String> header : urlResponseInfo.getAllHeadersAsList()) {
+      if (Ascii.equalsIgnoreCase(header.getKey(), CONTENT_LENGTH_HEADER_NAME)) {
+        contentLengthString = header.getValue();
+      }
+    }
+
+    long contentLength = -1;
+    if (contentLengthString != null) {
+      try {
+        contentLength = Long.parseLong(contentLengthString);
+      } catch (NumberFormatException e) {
+        // Just a hint, ignore.
+      }
+    }
+
+    if (contentLength <= 0) {
+      return Math.min(INITIAL_READ_SIZE_BYTES, maxReadSize);
+    }
+    return (int) Math.min(Math.max(contentLength, INITIAL_READ_SIZE_BYTES), maxReadSize);
+  }
+
+  private void onRequestDone(CallbackStep step) {
+    CronetBodySource localBodySource = bodySource;
+    if (localBodySource != null) {
+      localBodySource.onReadFinished(/* mayReadAhead= */ false);
+    }
+    terminalStep = step;
+    filledBuffers.close();
+  }
+
+  /**
+   * The OkHttp facing side of the bridge.
+   *
+   * <p>Cronet only allows a single read in flight at any given time, and a read can only be issued
+   * once the previous one completes. Without read-ahead, reads are issued only when the consumer
+   * runs out of data. With read-ahead, the next read is issued straight from {@link
+   * #onReadCompleted} as long as there's a free buffer, so that Cronet keeps filling buffers while
+   * the consumer is processing the previous ones.
+   *
+   * <p>The source doubles as a {@link ReadableByteChannel} which lets Cronet write directly to
+   * buffers provided by the consumer.
+   */
+  private class CronetBodySource implements Source, ReadableByteChannel {
+
+    /** All the buffers borrowed from the pool by this source. */
+    private final List<ByteBuffer> borrowedBuffers = new CopyOnWriteArrayList<>();
 
-    private ByteBuffer buffer = ByteBuffer.allocateDirect(CRONET_BYTE_BUFFER_CAPACITY);
+    /** Borrowed buffers that are neither being filled by Cronet nor read by the consumer. */
+    private final Queue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The limit for the next read to a pooled buffer. Only accessed by the holder of the {@link
+     * #readInFlight} token.
+     */
+    private int nextReadSize;
+
+    /** Whether the borrowed buffers have been returned to the pool. */
+    private final AtomicBoolean buffersReleased = new AtomicBoolean();
+
+    /**
+     * Whether there's a Cronet read in flight, i.e. whether Cronet might still be writing to one of
+     * the buffers. Serves as a token as well - only the thread that flips it to true may call
+     * {@link UrlRequest#read}.
+     */
+    private final AtomicBoolean readInFlight = new AtomicBoolean();
 
     /** Whether the close() method has been called. */
     private volatile boolean closed = false;
 
+    /** Whether Cronet reported the end of the request (either successful or not). */
+    private volatile boolean requestDone = false;
+
+    /**
+     * The buffer the consumer is currently draining (in read mode), or null if the consumer needs
+     * to wait for Cronet. Only accessed by the consumer.
+     */
+    @Nullable private ByteBuffer currentBuffer;
+
+    private CronetBodySource(int initialReadSize) {
+      this.nextReadSize = initialReadSize;
+    }
+
     @Override
     public long read(Buffer sink, long byteCount) throws IOException {
       if (canceled.get()) {
@@ -222,53 +403,234 @@ class OkHttpBridgeRequestCallback extends UrlRequest.Callback {
         return -1;
       }
 
-      if (byteCount < buffer.limit()) {
-        buffer.limit((int) byteCount);
+      if (currentBuffer == null) {
+        ByteBuffer filledBuffer = awaitNextBuffer();
+        if (filledBuffer == null) {
+          return -1;
+        }
+        currentBuffer = filledBuffer;
+        currentBuffer.flip();
       }
 
-      request.read(buffer);
+      ByteBuffer localBuffer = currentBuffer;
+      int originalLimit = localBuffer.limit();
+      localBuffer.limit(localBuffer.position() + (int) Math.min(byteCount, localBuffer.remaining()));
+      int bytesWritten = sink.write(localBuffer);
+      localBuffer.limit(originalLimit);
 
-      CallbackResult result;
-      try {
-        result = callbackResults.poll(readTimeoutMillis, MILLISECONDS);
-      } catch (InterruptedException e) {
-        Thread.currentThread().interrupt();
-        result = null;
+      recycleCurrentBufferIfDrained();
+      return bytesWritten;
+    }
+
+    /**
+     * Reads the body to the given buffer. If the buffer is direct and there's no data waiting for
+     * the consumer already, Cronet reads into the buffer directly and no intermediate copy is made.
+     *
+     * <p>If the read times out, Cronet might write to the buffer until the request cancellation
+     * is processed.
+     */
+    @Override
+    public int read(ByteBuffer dst) throws IOException {
+      if (canceled.get()) {
+        throw new IOException("The request was canceled!");
       }
+      checkState(!closed, "closed");
 
-      if (result == null) {
-        // Either readResult.poll() was interrupted or it timed out.
-        request.cancel();
-        throw new CronetTimeoutException();
+      if (finished.get()) {
+        return -1;
+      }
+      if (!dst.hasRemaining()) {
+        return 0;
+      }
+
+      if (currentBuffer == null) {
+        int positionBeforeRead = dst.position();
+        boolean directRead = dst.isDirect() && filledBuffers.isEmpty() && tryIssueReadInto(dst);
+
+        ByteBuffer filledBuffer = directRead ? awaitBuffer() : awaitNextBuffer();
+        if (filledBuffer == null) {
+          return -1;
+        }
+        if (filledBuffer == dst) {
+          return dst.position() - positionBeforeRead;
+        }
+        currentBuffer = filledBuffer;
+        currentBuffer.flip();
       }
 
-      switch (result.callbackStep) {
-        // We null the buffer in final statuses to allow fast GC of the buffer even if the callback
-        // is still in use.
+      ByteBuffer localBuffer = currentBuffer;
+      int originalLimit = localBuffer.limit();
+      int bytesToCopy = Math.min(dst.remaining(), localBuffer.remaining());
+      localBuffer.limit(localBuffer.position() + bytesToCopy);
+      dst.put(localBuffer);
+      localBuffer.limit(originalLimit);
+
+      recycleCurrentBufferIfDrained();
+      return bytesToCopy;
+    }
+
+    @Override
+    public boolean isOpen() {
+      return !closed;
+    }
+
+    /**
+     * Handles the end of the request once all the filled buffers have been consumed. Returns null
+     * if the body has been read fully, throws if the request failed or was canceled.
+     */
+    @Nullable
+    private ByteBuffer handleRequestDone() throws IOException {
+      switch (terminalStep) {
         case ON_FAILED:
           finished.set(true);
-          buffer = null;
-          throw new IOException(result.exception);
+          releaseBuffers();
+          throw new IOException(failure);
         case ON_SUCCESS:
           finished.set(true);
-          buffer = null;
-          return -1;
+          releaseBuffers();
+          return null;
         case ON_CANCELED:
           // The canceled flag is already set by the onCanceled method
           // so not setting it here.
-
-          buffer = null;
+          releaseBuffers();
           throw new IOException("The request was canceled!");
-        case ON_READ_COMPLETED:
-          result.buffer.flip();
-          int bytesWritten = sink.write(result.buffer);
-          result.buffer.clear();
-          return bytesWritten;
       }
 
       throw new AssertionError("The switch block above is exhaustive!");
     }
 
+    private void recycleCurrentBufferIfDrained() {
+      ByteBuffer localBuffer = currentBuffer;
+      if (localBuffer.hasRemaining()) {
+        return;
+      }
+      currentBuffer = null;
+      localBuffer.clear();
+      freeBuffers.add(localBuffer);
+      if (readAheadBufferCount > 1) {
+        tryIssueRead();
+      }
+    }
+
+    /**
+     * Returns the next filled buffer, issuing a read if there's none waiting. Returns null if the
+     * body has been read fully.
+     */
+    @Nullable
+    private ByteBuffer awaitNextBuffer() throws IOException {
+      ByteBuffer buffer = filledBuffers.poll();
+      if (buffer != null) {
+        return buffer;
+      }
+
+      tryIssueRead();
+      return awaitBuffer();
+    }
+
+    /** Waits for the read in flight. Returns null if the body has been read fully. */
+    @Nullable
+    private ByteBuffer awaitBuffer() throws IOException {
+      ByteBuffer buffer;
+      try {
+        buffer = filledBuffers.poll(readTimeoutMillis, MILLISECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        buffer = null;
+      }
+      if (buffer != null) {
+        return buffer;
+      }
+
+      if (filledBuffers.isClosed()) {
+        // The handoff might have been closed right after the wait timed out.
+        buffer = filledBuffers.poll();
+        return buffer != null ? buffer : handleRequestDone();
+      }
+
+      // Either filledBuffers.poll() was interrupted or it timed out. The buffers are returned to
+      // the pool once Cronet confirms the cancellation and the body is closed.
+      request.cancel();
+      throw new CronetTimeoutException();
+    }
+
+    /** Issues a Cronet read to the given caller owned buffer if there's no read in flight. */
+    private boolean tryIssueReadInto(ByteBuffer buffer) {
+      if (closed || requestDone || !readInFlight.compareAndSet(false, true)) {
+        return false;
+      }
+      if (closed || requestDone) {
+        giveUpReadToken();
+        return false;
+      }
+      request.read(buffer);
+      return true;
+    }
+
+    /**
+     * Issues a Cronet read if there's none in flight and there's a buffer available. Called both
+     * by the consumer and by Cronet's callbacks.
+     */
+    private void tryIssueRead() {
+      while (!closed && !requestDone && readInFlight.compareAndSet(false, true)) {
+        // close() might have released the buffers between the check and taking the token.
+        if (closed || requestDone) {
+          giveUpReadToken();
+          return;
+        }
+        ByteBuffer buffer = freeBuffers.poll();
+        if (buffer == null && borrowedBuffers.size() < readAheadBufferCount) {
+          buffer = bufferPool.acquire();
+          borrowedBuffers.add(buffer);
+        }
+        if (buffer != null) {
+          buffer.limit(Math.min(nextReadSize, buffer.capacity()));
+          request.read(buffer);
+          return;
+        }
+        giveUpReadToken();
+        // A buffer might have been freed between the poll() and giving up the token.
+        if (freeBuffers.isEmpty()) {
+          return;
+        }
+      }
+    }
+
+    /**
+     * Doubles the read size if Cronet filled the entire buffer, which indicates that there's more
+     * data available. Called from {@link #onReadCompleted} before giving up the read token.
+     */
+    private void adjustReadSize(ByteBuffer filledBuffer) {
+      if (filledBuffer.hasRemaining()) {
+        return;
+      }
+      nextReadSize = (int) Math.min(2L * nextReadSize, bufferPool.getBufferCapacity());
+    }
+
+    /** Called by Cronet's callbacks once the read in flight (if any) completed. */
+    private void onReadFinished(boolean mayReadAhead) {
+      if (!mayReadAhead) {
+        requestDone = true;
+      }
+      giveUpReadToken();
+      if (!closed && mayReadAhead && readAheadBufferCount > 1) {
+        tryIssueRead();
+      }
+    }
+
+    /**
+     * Gives up the read token. If the source was closed, takes it back for good and releases the
+     * buffers instead, so that no read can be issued into buffers that went back to the pool.
+     */
+    private void giveUpReadToken() {
+      readInFlight.set(false);
+      // Pairs with close(), which sets closed before trying to take the token. Either close() sees
+      // the token available, or this sees closed set.
+      if (closed && readInFlight.compareAndSet(false, true)) {
+        // Nobody is going to read anymore, and Cronet is not going to touch the buffers.
+        releaseBuffers();
+      }
+    }
+
     @Override
     public Timeout timeout() {
       // TODO(danstahr): This should likely respect the OkHttp timeout somehow
@@ -281,29 +643,30 @@ class OkHttpBridgeRequestCallback extends UrlRequest.Callback {
         return;
       }
       closed = true;
+      currentBuffer = null;
       if (!finished.get()) {
         request.cancel();
       }
+      // If there's a read in flight Cronet might still write to one of the buffers until the
+      // cancellation is processed. The buffers are released by the token holder in that case.
+      // Otherwise the token is kept so that no read can be issued anymore.
+      if (readInFlight.compareAndSet(false, true)) {
+        releaseBuffers();
+      }
     }
-  }
 
-  private static class CallbackResult {
-    private final CallbackStep callbackStep;
-    @Nullable private final ByteBuffer buffer;
-    @Nullable private final CronetException exception;
-
-    private CallbackResult(
-        CallbackStep callbackStep,
-        @Nullable ByteBuffer buffer,
-        @Nullable CronetException exception) {
-      this.callbackStep = callbackStep;
-      this.buffer = buffer;
-      this.exception = exception;
+    private void releaseBuffers() {
+      if (buffersReleased.getAndSet(true)) {
+        return;
+      }
+      freeBuffers.clear();
+      for (ByteBuffer buffer : borrowedBuffers) {
+        bufferPool.release(buffer);
+      }
     }
   }
 
   private enum CallbackStep {
-    ON_READ_COMPLETED,
     ON_SUCCESS,
     ON_FAILED,
     ON_CANCELED
@@ -0,0 +1,135 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import androidx.annotation.GuardedBy;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nullable;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.chromium.net.UrlResponseInfo;
+
+/**
+ * The redirects Cronet followed before receiving a response.
+ *
+ * <p>The history is attached to every response that followed at least one redirect and can be
+ * obtained using {@link #fromResponse(Response)}. It only keeps references to what Cronet reported,
+ * the OkHttp representation of the redirect responses is built when first {@linkplain
+ * #getPriorResponse() requested}. Together with disabling {@code setPriorResponsesEnabled} on the
+ * call factory or interceptor builder, this avoids building the redirect responses for callers
+ * that never look at them.
+ */
+public final class RedirectHistory {
+  private final Request originalRequest;
+  private final List<String> urlChain;
+  private final List<UrlResponseInfo> redirectResponseInfos;
+  private final List<Long> redirectDurationsMillis;
+
+  @GuardedBy("this")
+  @Nullable
+  private Response priorResponse;
+
+  /**
+   * @param originalRequest the request as issued, for the first URL of the chain
+   * @param urlChain the URLs of all the requests, including the final one
+   * @param redirectResponseInfos the responses of the redirects, from oldest to newest
+   * @param redirectDurationsMillis how long each of the redirects took, from oldest to newest
+   */
+  RedirectHistory(
+      Request originalRequest,
+      List<String> urlChain,
+      List<UrlResponseInfo> redirectResponseInfos,
+      List<Long> redirectDurationsMillis) {
+    checkArgument(!redirectResponseInfos.isEmpty(), "There must be at least one redirect!");
+    checkArgument(
+        urlChain.size() == redirectResponseInfos.size() + 1,
+        "The number of redirects should be consistent across URLs and headers!");
+    checkArgument(
+        redirectDurationsMillis.size() == redirectResponseInfos.size(),
+        "The number of redirects should be consistent across headers and durations!");
+    this.originalRequest = originalRequest;
+    this.urlChain = urlChain;
+    this.redirectResponseInfos = redirectResponseInfos;
+    this.redirectDurationsMillis = redirectDurationsMillis;
+  }
+
+  /**
+   * Returns the redirect history of the response, or null if the response didn't follow any
+   * redirects.
+   */
+  @Nullable
+  public static RedirectHistory fromResponse(Response response) {
+    return response.request().tag(RedirectHistory.class);
+  }
+
+  /** Returns the number of redirects followed. */
+  public int getRedirectCount() {
+    return redirectResponseInfos.size();
+  }
+
+  /** Returns the URLs requested, starting with the original one and ending with the final one. */
+  public List<String> getUrlChain() {
+    return Collections.unmodifiableList(urlChain);
+  }
+
+  /** Returns the responses of the redirects as reported by Cronet, from oldest to newest. */
+  public List<UrlResponseInfo> getRedirectResponseInfos() {
+    return Collections.unmodifiableList(redirectResponseInfos);
+  }
+
+  /**
+   * Returns how long each of the redirects took, from oldest to newest. A redirect is timed from
+   * the previous redirect, or from when the call was converted to a Cronet request for the first
+   * one, until its response was received.
+   */
+  public List<Long> getRedirectDurationsMillis() {
+    return Collections.unmodifiableList(redirectDurationsMillis);
+  }
+
+  /**
+   * Returns the response of the last redirect, linked to the earlier ones through {@link
+   * Response#priorResponse()}, just like OkHttp's prior responses. The responses have no bodies.
+   */
+  public synchronized Response getPriorResponse() {
+    if (priorResponse == null) {
+      Response localPriorResponse = null;
+      for (int i = 0; i < redirectResponseInfos.size(); i++) {
+        Request redirectedRequest = originalRequest.newBuilder().url(urlChain.get(i)).build();
+        localPriorResponse =
+            toHeadersOnlyResponse(redirectedRequest, redirectResponseInfos.get(i))
+                .priorResponse(localPriorResponse)
+                .build();
+      }
+      priorResponse = localPriorResponse;
+    }
+    return priorResponse;
+  }
+
+  private static Response.Builder toHeadersOnlyResponse(
+      Request request, UrlResponseInfo responseInfo) {
+    try {
+      return ResponseConverter.createResponse(request, responseInfo, null);
+    } catch (IOException e) {
+      // Only the body conversion can fail.
+      throw new IllegalStateException(e);
+    }
+  }
+}
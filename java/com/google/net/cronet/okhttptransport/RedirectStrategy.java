@@ -16,6 +16,12 @@
 
 package com.google.net.cronet.okhttptransport;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.List;
+import okhttp3.HttpUrl;
+import org.chromium.net.UrlResponseInfo;
+
 /** Defines a redirect strategy for the Cronet OkHttp transport layer. */
 public abstract class RedirectStrategy {
 
@@ -35,6 +41,14 @@ public abstract class RedirectStrategy {
    */
   abstract int numberOfRedirectsToFollow();
 
+  /**
+   * Decides what to do with a redirect within the {@linkplain #numberOfRedirectsToFollow() cap}.
+   * Shouldn't be called at all if {@link #followRedirects()} return false.
+   */
+  Decision decide(Redirect redirect) {
+    return Decision.FOLLOW;
+  }
+
   /**
    * Returns a strategy which will not follow redirects.
    *
@@ -55,6 +69,153 @@ public abstract class RedirectStrategy {
     return DefaultRedirectsHolder.INSTANCE;
   }
 
+  /**
+   * Returns a strategy which asks the given policy about each redirect, up to {@link
+   * #DEFAULT_REDIRECTS} times. If more redirects are attempted an exception is thrown.
+   */
+  public static RedirectStrategy withPolicy(Policy policy) {
+    return withPolicy(DEFAULT_REDIRECTS, policy);
+  }
+
+  /**
+   * Returns a strategy which asks the given policy about each redirect, up to {@code maxRedirects}
+   * times. If more redirects are attempted an exception is thrown without consulting the policy.
+   */
+  public static RedirectStrategy withPolicy(int maxRedirects, Policy policy) {
+    checkArgument(maxRedirects > 0, "The redirect cap must be positive!");
+    checkArgument(policy != null, "The policy mustn't be null!");
+    return new RedirectStrategy() {
+      @Override
+      boolean followRedirects() {
+        return true;
+      }
+
+      @Override
+      int numberOfRedirectsToFollow() {
+        return maxRedirects;
+      }
+
+      @Override
+      Decision decide(Redirect redirect) {
+        Decision decision = policy.onRedirect(redirect);
+        checkArgument(decision != null, "The policy mustn't return null!");
+        return decision;
+      }
+    };
+  }
+
+  /** Decides, for each redirect, whether it should be followed. */
+  public interface Policy {
+    /**
+     * Decides what to do with the redirect.
+     *
+     * <p>The method is invoked on Cronet's network thread, it should be quick and mustn't block.
+     */
+    Decision onRedirect(Redirect redirect);
+  }
+
+  /** What to do with a redirect. */
+  public enum Decision {
+    /** Follow the redirect. */
+    FOLLOW,
+
+    /**
+     * Don't follow the redirect and return its response instead, just like {@link
+     * #withoutRedirects()} does. The caller can then issue a request of its choosing, for example
+     * to a nearer mirror, without the redirect target ever being contacted.
+     */
+    STOP,
+
+    /** Don't follow the redirect and fail the call. */
+    REFUSE,
+  }
+
+  /** A redirect received by Cronet, pending a {@link Decision}. */
+  public static final class Redirect {
+    private final UrlResponseInfo responseInfo;
+    private final String newLocationUrl;
+    private final long hopDurationMillis;
+
+    Redirect(UrlResponseInfo responseInfo, String newLocationUrl, long hopDurationMillis) {
+      this.responseInfo = responseInfo;
+      this.newLocationUrl = newLocationUrl;
+      this.hopDurationMillis = hopDurationMillis;
+    }
+
+    /** Returns the redirect response. Its URL chain lists the URLs requested so far. */
+    public UrlResponseInfo getResponseInfo() {
+      return responseInfo;
+    }
+
+    /** Returns the URL the response redirects to. */
+    public String getNewLocationUrl() {
+      return newLocationUrl;
+    }
+
+    /** Returns the number of redirects received so far, including this one. */
+    public int getRedirectCount() {
+      return responseInfo.getUrlChain().size();
+    }
+
+    /**
+     * Returns the time it took to receive the redirect response, measured from the previous
+     * redirect, or from when the call was converted to a Cronet request for the first redirect.
+     */
+    public long getHopDurationMillis() {
+      return hopDurationMillis;
+    }
+
+    /**
+     * Returns the number of redirects to the given host received so far, including this one if
+     * the new location is on the host.
+     */
+    public int getRedirectCountToHost(String host) {
+      int count = 0;
+      List<String> urlChain = responseInfo.getUrlChain();
+      // The first URL of the chain is the original request, not a redirect target.
+      for (int i = 1; i < urlChain.size(); i++) {
+        if (isOnHost(urlChain.get(i), host)) {
+          count++;
+        }
+      }
+      if (isOnHost(newLocationUrl, host)) {
+        count++;
+      }
+      return count;
+    }
+
+    /** Returns whether the redirect goes from HTTPS to plain HTTP. */
+    public boolean isDowngrade() {
+      HttpUrl from = HttpUrl.parse(responseInfo.getUrl());
+      HttpUrl to = HttpUrl.parse(newLocationUrl);
+      return from != null && to != null && from.isHttps() && !to.isHttps();
+    }
+
+    /**
+     * Returns whether the redirect leaves the origin (scheme, host and port) of the redirect
+     * response.
+     *
+     * <p>Cronet resends the request headers, including credentials such as {@code Authorization},
+     * when following a redirect and there's no way to strip them. Policies should therefore {@link
+     * Decision#STOP} or {@link Decision#REFUSE} cross origin redirects of requests carrying
+     * credentials.
+     */
+    public boolean isCrossOrigin() {
+      HttpUrl from = HttpUrl.parse(responseInfo.getUrl());
+      HttpUrl to = HttpUrl.parse(newLocationUrl);
+      return from == null
+          || to == null
+          || !from.scheme().equals(to.scheme())
+          || !from.host().equals(to.host())
+          || from.port() != to.port();
+    }
+
+    private static boolean isOnHost(String url, String host) {
+      HttpUrl httpUrl = HttpUrl.parse(url);
+      return httpUrl != null && httpUrl.host().equalsIgnoreCase(host);
+    }
+  }
+
   private static class WithoutRedirectsHolder {
     private static final RedirectStrategy INSTANCE =
         new RedirectStrategy() {
@@ -0,0 +1,105 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread safe pool of the chunks request bodies are materialized in before being
+ * uploaded.
+ *
+ * <p>Okio recycles the segments of cleared buffers too, but its segment pool is capped at 64 KiB
+ * for the whole process, so concurrent uploads or bodies larger than a few segments allocate afresh
+ * nearly every time. Each in-memory converter owns a pool of its own instead.
+ *
+ * <p>The pool never holds more than {@code maxPooledChunks} idle chunks. Chunks are still handed
+ * out when the pool is empty, they're just allocated afresh (and counted as a miss).
+ */
+final class RequestBodyBufferPool {
+
+  /** The size of each chunk. */
+  static final int CHUNK_SIZE = 8192;
+
+  /** Enough for a body of the default in-memory threshold, or many small concurrent ones. */
+  static final int DEFAULT_MAX_POOLED_CHUNKS = 128;
+
+  private final int maxPooledChunks;
+
+  private final Queue<byte[]> pooledChunks = new ConcurrentLinkedQueue<>();
+
+  /**
+   * The number of chunks in {@link #pooledChunks}. Tracked separately as {@link
+   * ConcurrentLinkedQueue#size()} is linear.
+   */
+  private final AtomicInteger pooledChunkCount = new AtomicInteger();
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  RequestBodyBufferPool(int maxPooledChunks) {
+    checkArgument(maxPooledChunks >= 0, "The pool size mustn't be negative!");
+    this.maxPooledChunks = maxPooledChunks;
+  }
+
+  /** Returns the number of times a chunk was served from the pool. */
+  long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** Returns the number of times a chunk had to be allocated because the pool was empty. */
+  long getMissCount() {
+    return missCount.get();
+  }
+
+  /** Returns the number of idle chunks currently retained by the pool. */
+  int getPooledChunkCount() {
+    return pooledChunkCount.get();
+  }
+
+  /**
+   * Borrows a chunk of {@link #CHUNK_SIZE} bytes from the pool. Its content is undefined. The
+   * caller is responsible for returning it using {@link #release(byte[])} once done with it.
+   */
+  byte[] acquire() {
+    byte[] chunk = pooledChunks.poll();
+    if (chunk != null) {
+      pooledChunkCount.decrementAndGet();
+      hitCount.incrementAndGet();
+      return chunk;
+    }
+    missCount.incrementAndGet();
+    return new byte[CHUNK_SIZE];
+  }
+
+  /** Returns the chunk to the pool. If the pool is full the chunk is left for the GC. */
+  void release(byte[] chunk) {
+    if (chunk.length != CHUNK_SIZE) {
+      return;
+    }
+    // Reserve the slot first so that concurrent releases can't overflow the pool.
+    if (pooledChunkCount.incrementAndGet() > maxPooledChunks) {
+      pooledChunkCount.decrementAndGet();
+      return;
+    }
+    pooledChunks.add(chunk);
+  }
+}
@@ -16,60 +16,149 @@
 
 package com.google.net.cronet.okhttptransport;
 
-import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static com.google.common.base.Preconditions.checkNotNull;
 
 import androidx.annotation.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.base.Suppliers;
 import com.google.common.base.Verify;
-import com.google.common.util.concurrent.FutureCallback;
-import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListeningExecutorService;
 import com.google.common.util.concurrent.MoreExecutors;
-import com.google.common.util.concurrent.Uninterruptibles;
 import com.google.net.cronet.okhttptransport.UploadBodyDataBroker.ReadResult;
+import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
 import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeoutException;
+import javax.annotation.Nullable;
+import okhttp3.Request;
 import okhttp3.RequestBody;
 import okio.Buffer;
 import okio.BufferedSink;
 import okio.Okio;
+import okio.Sink;
+import okio.Timeout;
 import org.chromium.net.UploadDataProvider;
 import org.chromium.net.UploadDataSink;
 
 final class RequestBodyConverterImpl implements RequestBodyConverter {
 
-  private static final long IN_MEMORY_BODY_LENGTH_THRESHOLD_BYTES = 1024 * 1024;
+  static final long DEFAULT_IN_MEMORY_BODY_LENGTH_THRESHOLD_BYTES = 1024 * 1024;
+  static final long DEFAULT_UPLOAD_COALESCING_DELAY_MILLIS = 10;
+
+  private static final InMemoryUploadPolicy ALWAYS_IN_MEMORY = request -> true;
 
   private final InMemoryRequestBodyConverter inMemoryRequestBodyConverter;
   private final StreamingRequestBodyConverter streamingRequestBodyConverter;
+  private final FileRequestBodyConverter fileRequestBodyConverter = new FileRequestBodyConverter();
+  private final long inMemoryBodyLengthThresholdBytes;
+  private final InMemoryUploadPolicy inMemoryUploadPolicy;
 
   RequestBodyConverterImpl(
       InMemoryRequestBodyConverter inMemoryConverter,
       StreamingRequestBodyConverter streamingConverter) {
+    this(
+        inMemoryConverter,
+        streamingConverter,
+        DEFAULT_IN_MEMORY_BODY_LENGTH_THRESHOLD_BYTES,
+        ALWAYS_IN_MEMORY);
+  }
+
+  RequestBodyConverterImpl(
+      InMemoryRequestBodyConverter inMemoryConverter,
+      StreamingRequestBodyConverter streamingConverter,
+      long inMemoryBodyLengthThresholdBytes,
+      InMemoryUploadPolicy inMemoryUploadPolicy) {
     this.inMemoryRequestBodyConverter = inMemoryConverter;
     this.streamingRequestBodyConverter = streamingConverter;
+    this.inMemoryBodyLengthThresholdBytes = inMemoryBodyLengthThresholdBytes;
+    this.inMemoryUploadPolicy = inMemoryUploadPolicy;
   }
 
   static RequestBodyConverterImpl create(ExecutorService bodyReaderExecutor) {
+    return create(bodyReaderExecutor, DEFAULT_IN_MEMORY_BODY_LENGTH_THRESHOLD_BYTES, null);
+  }
+
+  static RequestBodyConverterImpl create(
+      ExecutorService bodyReaderExecutor,
+      long inMemoryBodyLengthThresholdBytes,
+      @Nullable InMemoryUploadPolicy inMemoryUploadPolicy) {
+    return create(
+        Suppliers.ofInstance(bodyReaderExecutor),
+        inMemoryBodyLengthThresholdBytes,
+        inMemoryUploadPolicy,
+        /* spinBeforeParking= */ true,
+        DEFAULT_UPLOAD_COALESCING_DELAY_MILLIS);
+  }
+
+  /**
+   * @param bodyReaderExecutor supplies the executor of streamed uploads, only once the first one
+   *     is converted
+   * @param spinBeforeParking whether the threads exchanging streamed body parts should spin
+   *     briefly before parking, see {@link SpscHandoff}. Should be disabled if the executors run
+   *     virtual threads.
+   * @param uploadCoalescingDelayMillis how long streamed body parts may wait to be sent together
+   *     with the following ones, see {@link UploadBodyDataBroker}
+   */
+  static RequestBodyConverterImpl create(
+      Supplier<ExecutorService> bodyReaderExecutor,
+      long inMemoryBodyLengthThresholdBytes,
+      @Nullable InMemoryUploadPolicy inMemoryUploadPolicy,
+      boolean spinBeforeParking,
+      long uploadCoalescingDelayMillis) {
     return new RequestBodyConverterImpl(
-        new InMemoryRequestBodyConverter(), new StreamingRequestBodyConverter(bodyReaderExecutor));
+        new InMemoryRequestBodyConverter(inMemoryBodyLengthThresholdBytes),
+        new StreamingRequestBodyConverter(
+            bodyReaderExecutor, spinBeforeParking, uploadCoalescingDelayMillis),
+        inMemoryBodyLengthThresholdBytes,
+        inMemoryUploadPolicy == null ? ALWAYS_IN_MEMORY : inMemoryUploadPolicy);
+  }
+
+  /**
+   * Converts the body of the given request, consulting the {@link InMemoryUploadPolicy} for bodies
+   * that are small enough to be materialized in memory.
+   */
+  UploadDataProvider convertRequestBody(Request request, int writeTimeoutMillis)
+      throws IOException {
+    RequestBody requestBody = checkNotNull(request.body());
+    if (canMaterializeInMemory(requestBody)
+        && !inMemoryUploadPolicy.shouldMaterializeInMemory(request)) {
+      return streamingRequestBodyConverter.convertRequestBody(requestBody, writeTimeoutMillis);
+    }
+    return convertRequestBody(requestBody, writeTimeoutMillis);
   }
 
   @Override
   public UploadDataProvider convertRequestBody(RequestBody requestBody, int writeTimeoutMillis)
       throws IOException {
-    long contentLength = requestBody.contentLength();
-    if (contentLength == -1 || contentLength > IN_MEMORY_BODY_LENGTH_THRESHOLD_BYTES) {
-      return streamingRequestBodyConverter.convertRequestBody(requestBody, writeTimeoutMillis);
-    } else {
+    if (requestBody instanceof FileRequestBody) {
+      return fileRequestBodyConverter.convertRequestBody(requestBody, writeTimeoutMillis);
+    }
+    if (canMaterializeInMemory(requestBody)) {
       return inMemoryRequestBodyConverter.convertRequestBody(requestBody, writeTimeoutMillis);
+    } else {
+      return streamingRequestBodyConverter.convertRequestBody(requestBody, writeTimeoutMillis);
     }
   }
 
+  private boolean canMaterializeInMemory(RequestBody requestBody) throws IOException {
+    if (requestBody instanceof FileRequestBody) {
+      return false;
+    }
+    long contentLength = requestBody.contentLength();
+    return contentLength != -1 && contentLength <= inMemoryBodyLengthThresholdBytes;
+  }
+
   /**
    * Implementation of {@link RequestBodyConverter} that doesn't need to hold the entire request
    * body in memory.
@@ -84,28 +173,56 @@ final class RequestBodyConverterImpl implements RequestBodyConverter {
    *       again. Buffer is sent to Cronet.
    * </ol>
    *
-   * This is repeated until the entire body has been read.
+   * This is repeated until the entire body has been read. If Cronet needs to send the body again,
+   * the process starts over with a fresh call to {@link RequestBody#writeTo(BufferedSink)}.
    */
   @VisibleForTesting
   static final class StreamingRequestBodyConverter implements RequestBodyConverter {
 
-    private final ExecutorService readerExecutor;
+    private final Supplier<ExecutorService> readerExecutor;
+    private final boolean spinBeforeParking;
+    private final long coalescingDelayMillis;
 
     StreamingRequestBodyConverter(ExecutorService readerExecutor) {
+      this(
+          readerExecutor,
+          /* spinBeforeParking= */ true,
+          DEFAULT_UPLOAD_COALESCING_DELAY_MILLIS);
+    }
+
+    StreamingRequestBodyConverter(
+        ExecutorService readerExecutor, boolean spinBeforeParking, long coalescingDelayMillis) {
+      this(Suppliers.ofInstance(readerExecutor), spinBeforeParking, coalescingDelayMillis);
+    }
+
+    /** @param readerExecutor supplies the executor, only once the first body is converted */
+    StreamingRequestBodyConverter(
+        Supplier<ExecutorService> readerExecutor,
+        boolean spinBeforeParking,
+        long coalescingDelayMillis) {
       this.readerExecutor = readerExecutor;
+      this.spinBeforeParking = spinBeforeParking;
+      this.coalescingDelayMillis = coalescingDelayMillis;
     }
 
     @Override
     public UploadDataProvider convertRequestBody(RequestBody requestBody, int writeTimeoutMillis) {
       return new StreamingUploadDataProvider(
-          requestBody, new UploadBodyDataBroker(), readerExecutor, writeTimeoutMillis);
+          requestBody, readerExecutor.get(), writeTimeoutMillis, this::newBroker);
+    }
+
+    private UploadBodyDataBroker newBroker() {
+      return new UploadBodyDataBroker(spinBeforeParking, coalescingDelayMillis);
     }
 
     private static class StreamingUploadDataProvider extends UploadDataProvider {
       private final RequestBody okHttpRequestBody;
-      private final UploadBodyDataBroker broker;
+      /** The broker for the current attempt of reading the body, replaced on rewind. */
+      private UploadBodyDataBroker broker;
       private final ListeningExecutorService readTaskExecutor;
       private final long writeTimeoutMillis;
+      /** Creates the broker for each attempt. */
+      private final Supplier<UploadBodyDataBroker> brokerFactory;
 
       /** The future for the task that reads the OkHttp request body in the background. */
       private ListenableFuture<?> readTaskFuture;
@@ -115,11 +232,12 @@ final class RequestBodyConverterImpl implements RequestBodyConverter {
 
       private StreamingUploadDataProvider(
           RequestBody okHttpRequestBody,
-          UploadBodyDataBroker broker,
           ExecutorService readTaskExecutor,
-          long writeTimeoutMillis) {
+          long writeTimeoutMillis,
+          Supplier<UploadBodyDataBroker> brokerFactory) {
         this.okHttpRequestBody = okHttpRequestBody;
-        this.broker = broker;
+        this.brokerFactory = brokerFactory;
+        this.broker = brokerFactory.get();
         if (readTaskExecutor instanceof ListeningExecutorService) {
           this.readTaskExecutor = (ListeningExecutorService) readTaskExecutor;
         } else {
@@ -138,7 +256,13 @@ final class RequestBodyConverterImpl implements RequestBodyConverter {
 
       @Override
       public void read(UploadDataSink uploadDataSink, ByteBuffer byteBuffer) throws IOException {
-        ensureReadTaskStarted();
+        try {
+          ensureReadTaskStarted();
+        } catch (RejectedExecutionException e) {
+          uploadDataSink.onReadError(
+              new IOException("Too many concurrent streamed uploads, try again later", e));
+          return;
+        }
 
         if (getLength() == -1) {
           readUnknownBodyLength(uploadDataSink, byteBuffer);
@@ -163,6 +287,8 @@ final class RequestBodyConverterImpl implements RequestBodyConverter {
                 break;
               case END_OF_BODY:
                 throw new IOException("The source has been exhausted but we expected more data!");
+              case BYTES_COALESCED:
+                throw new AssertionError("Notifications aren't returned");
             }
             return;
           }
@@ -219,29 +345,26 @@ final class RequestBodyConverterImpl implements RequestBodyConverter {
       private void ensureReadTaskStarted() {
         // We don't expect concurrent calls so a simple flag is sufficient
         if (readTaskFuture == null) {
+          // The task of a previous attempt might still be running until it notices the
+          // cancellation, it mustn't see the new broker.
+          UploadBodyDataBroker broker = this.broker;
           readTaskFuture =
               readTaskExecutor.submit(
                   (Callable<Void>)
                       () -> {
-                        BufferedSink bufferedSink = Okio.buffer(broker);
-                        okHttpRequestBody.writeTo(bufferedSink);
-                        bufferedSink.flush();
-                        broker.handleEndOfStreamSignal();
+                        try {
+                          BufferedSink bufferedSink = Okio.buffer(broker);
+                          okHttpRequestBody.writeTo(bufferedSink);
+                          bufferedSink.flush();
+                          broker.handleEndOfStreamSignal();
+                        } catch (Throwable t) {
+                          // Reported from the reading thread, the broker expects a single
+                          // thread to hand over the results.
+                          broker.setBackgroundReadError(t);
+                          throw t;
+                        }
                         return null;
                       });
-
-          Futures.addCallback(
-              readTaskFuture,
-              new FutureCallback<Object>() {
-                @Override
-                public void onSuccess(Object result) {}
-
-                @Override
-                public void onFailure(Throwable t) {
-                  broker.setBackgroundReadError(t);
-                }
-              },
-              MoreExecutors.directExecutor());
         }
       }
 
@@ -249,8 +372,7 @@ final class RequestBodyConverterImpl implements RequestBodyConverter {
           throws TimeoutException, ExecutionException {
         int positionBeforeRead = byteBuffer.position();
         UploadBodyDataBroker.ReadResult readResult =
-            Uninterruptibles.getUninterruptibly(
-                broker.enqueueBodyRead(byteBuffer), writeTimeoutMillis, MILLISECONDS);
+            broker.readBodyPart(byteBuffer, writeTimeoutMillis);
         int bytesRead = byteBuffer.position() - positionBeforeRead;
         totalBytesReadFromOkHttp += bytesRead;
         return readResult;
@@ -262,10 +384,55 @@ final class RequestBodyConverterImpl implements RequestBodyConverter {
             "Expected " + expectedLength + " bytes but got at least " + minActualLength);
       }
 
+      /**
+       * Starts reading the body from scratch, by writing the OkHttp body again. This is what OkHttp
+       * itself does when it needs to resend the body (for instance on 307 / 308 redirects), unless
+       * the body declares itself as one-shot.
+       */
       @Override
       public void rewind(UploadDataSink uploadDataSink) {
-        // TODO(danstahr): OkHttp 4 can use isOneShot flag here and rewind safely.
-        uploadDataSink.onRewindError(new UnsupportedOperationException("Rewind is not supported!"));
+        if (isOneShot(okHttpRequestBody)) {
+          uploadDataSink.onRewindError(
+              new UnsupportedOperationException("Rewind is not supported for one-shot bodies!"));
+          return;
+        }
+        if (readTaskFuture != null) {
+          readTaskFuture.cancel(true);
+          readTaskFuture = null;
+        }
+        broker = brokerFactory.get();
+        totalBytesReadFromOkHttp = 0;
+        uploadDataSink.onRewindSucceeded();
+      }
+    }
+  }
+
+  /**
+   * Returns whether the body can only be written once. {@code RequestBody.isOneShot()} was added
+   * in OkHttp 3.14, so it's looked up reflectively to support applications using older versions.
+   */
+  private static boolean isOneShot(RequestBody requestBody) {
+    Method isOneShotMethod = IsOneShotMethodHolder.METHOD;
+    if (isOneShotMethod == null) {
+      return false;
+    }
+    try {
+      return (Boolean) isOneShotMethod.invoke(requestBody);
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      // Better safe than sorry - don't replay bodies we don't know anything about.
+      return true;
+    }
+  }
+
+  private static final class IsOneShotMethodHolder {
+    @Nullable private static final Method METHOD = findMethod();
+
+    @Nullable
+    private static Method findMethod() {
+      try {
+        return RequestBody.class.getMethod("isOneShot");
+      } catch (NoSuchMethodException e) {
+        return null;
       }
     }
   }
@@ -280,57 +447,219 @@ final class RequestBodyConverterImpl implements RequestBodyConverter {
   @VisibleForTesting
   static final class InMemoryRequestBodyConverter implements RequestBodyConverter {
 
+    private final long maxBodyLengthBytes;
+    private final RequestBodyBufferPool bufferPool =
+        new RequestBodyBufferPool(RequestBodyBufferPool.DEFAULT_MAX_POOLED_CHUNKS);
+
+    InMemoryRequestBodyConverter() {
+      this(DEFAULT_IN_MEMORY_BODY_LENGTH_THRESHOLD_BYTES);
+    }
+
+    InMemoryRequestBodyConverter(long maxBodyLengthBytes) {
+      this.maxBodyLengthBytes = maxBodyLengthBytes;
+    }
+
     @Override
     public UploadDataProvider convertRequestBody(RequestBody requestBody, int writeTimeoutMillis)
         throws IOException {
 
       // content length is immutable by contract
       long length = requestBody.contentLength();
-      if (length < 0 || length > IN_MEMORY_BODY_LENGTH_THRESHOLD_BYTES) {
+      if (length < 0 || length > maxBodyLengthBytes) {
         throw new IOException(
-            "Expected definite length less than "
-                + IN_MEMORY_BODY_LENGTH_THRESHOLD_BYTES
-                + "but got "
-                + length);
+            "Expected definite length less than " + maxBodyLengthBytes + "but got " + length);
       }
 
-      return new UploadDataProvider() {
-        private volatile boolean isMaterialized = false;
-        private final Buffer materializedBody = new Buffer();
+      return new InMemoryUploadDataProvider(requestBody, length, bufferPool);
+    }
 
-        @Override
-        public long getLength() {
-          return length;
+    @VisibleForTesting
+    RequestBodyBufferPool getBufferPool() {
+      return bufferPool;
+    }
+
+    /**
+     * Materializes the body in chunks borrowed from the converter's pool on the first read. The
+     * chunks are read without being consumed so that rewinding is trivial, and returned to the pool
+     * once Cronet closes the provider, to be reused by subsequent requests.
+     */
+    private static final class InMemoryUploadDataProvider extends UploadDataProvider {
+      private final RequestBody requestBody;
+      private final long length;
+      private final RequestBodyBufferPool bufferPool;
+      private final List<byte[]> chunks = new ArrayList<>();
+      private volatile boolean isMaterialized = false;
+
+      /** The number of bytes in {@link #chunks}. */
+      private long materializedLength;
+
+      /** The offset in the materialized body of the next byte to upload. */
+      private long readPosition;
+
+      private InMemoryUploadDataProvider(
+          RequestBody requestBody, long length, RequestBodyBufferPool bufferPool) {
+        this.requestBody = requestBody;
+        this.length = length;
+        this.bufferPool = bufferPool;
+      }
+
+      @Override
+      public long getLength() {
+        return length;
+      }
+
+      @Override
+      public void read(UploadDataSink uploadDataSink, ByteBuffer byteBuffer) throws IOException {
+        // We're not expecting any concurrent calls here so a simple flag should be sufficient.
+        if (!isMaterialized) {
+          BufferedSink materializingSink = Okio.buffer(new ChunkSink());
+          requestBody.writeTo(materializingSink);
+          materializingSink.flush();
+          isMaterialized = true;
+          long reportedLength = getLength();
+          long actualLength = materializedLength;
+          if (actualLength != reportedLength) {
+            throw new IOException("Expected " + reportedLength + " bytes but got " + actualLength);
+          }
         }
+        if (readPosition == materializedLength) {
+          // This should never happen - for known body length we shouldn't be called at all
+          // if there's no more data to read.
+          throw new IllegalStateException("The source has been exhausted but we expected more!");
+        }
+
+        while (byteBuffer.hasRemaining() && readPosition < materializedLength) {
+          byte[] chunk = chunks.get((int) (readPosition / RequestBodyBufferPool.CHUNK_SIZE));
+          int chunkOffset = (int) (readPosition % RequestBodyBufferPool.CHUNK_SIZE);
+          int byteCount =
+              (int)
+                  Math.min(
+                      Math.min(
+                          RequestBodyBufferPool.CHUNK_SIZE - chunkOffset,
+                          materializedLength - readPosition),
+                      byteBuffer.remaining());
+          byteBuffer.put(chunk, chunkOffset, byteCount);
+          readPosition += byteCount;
+        }
+        uploadDataSink.onReadSucceeded(false);
+      }
 
+      @Override
+      public void rewind(UploadDataSink uploadDataSink) {
+        readPosition = 0;
+        uploadDataSink.onRewindSucceeded();
+      }
+
+      @Override
+      public void close() {
+        for (byte[] chunk : chunks) {
+          bufferPool.release(chunk);
+        }
+        chunks.clear();
+        materializedLength = 0;
+      }
+
+      /** Appends the bytes written to it to {@link #chunks}. */
+      private final class ChunkSink implements Sink {
         @Override
-        public void read(UploadDataSink uploadDataSink, ByteBuffer byteBuffer) throws IOException {
-          // We're not expecting any concurrent calls here so a simple flag should be sufficient.
-          if (!isMaterialized) {
-            requestBody.writeTo(materializedBody);
-            materializedBody.flush();
-            isMaterialized = true;
-            long reportedLength = getLength();
-            long actualLength = materializedBody.size();
-            if (actualLength != reportedLength) {
-              throw new IOException(
-                  "Expected " + reportedLength + " bytes but got " + actualLength);
+        public void write(Buffer source, long byteCount) {
+          while (byteCount > 0) {
+            if (materializedLength == (long) chunks.size() * RequestBodyBufferPool.CHUNK_SIZE) {
+              chunks.add(bufferPool.acquire());
             }
+            int chunkOffset = (int) (materializedLength % RequestBodyBufferPool.CHUNK_SIZE);
+            int readCount =
+                source.read(
+                    chunks.get(chunks.size() - 1),
+                    chunkOffset,
+                    (int) Math.min(RequestBodyBufferPool.CHUNK_SIZE - chunkOffset, byteCount));
+            materializedLength += readCount;
+            byteCount -= readCount;
           }
-          if (materializedBody.read(byteBuffer) == -1) {
-            // This should never happen - for known body length we shouldn't be called at all
-            // if there's no more data to read.
-            throw new IllegalStateException("The source has been exhausted but we expected more!");
-          }
-          uploadDataSink.onReadSucceeded(false);
         }
 
         @Override
-        public void rewind(UploadDataSink uploadDataSink) {
-          // TODO(danstahr): OkHttp 4 can use isOneShot flag here and rewind safely.
-          uploadDataSink.onRewindError(new UnsupportedOperationException());
+        public void flush() {}
+
+        @Override
+        public Timeout timeout() {
+          return Timeout.NONE;
+        }
+
+        @Override
+        public void close() {}
+      }
+    }
+  }
+
+  /**
+   * Converts {@link FileRequestBody} instances by letting Cronet read the file directly on its
+   * upload executor. Rewinding simply starts reading the file from the beginning again.
+   */
+  @VisibleForTesting
+  static final class FileRequestBodyConverter implements RequestBodyConverter {
+
+    @Override
+    public UploadDataProvider convertRequestBody(RequestBody requestBody, int writeTimeoutMillis) {
+      FileRequestBody fileRequestBody = (FileRequestBody) requestBody;
+      return new FileUploadDataProvider(fileRequestBody.getFile(), fileRequestBody.contentLength());
+    }
+
+    private static final class FileUploadDataProvider extends UploadDataProvider {
+      private final File file;
+      private final long length;
+
+      /** Opened on the first read. Cronet doesn't make concurrent calls to the provider. */
+      @Nullable private FileChannel channel;
+
+      private FileUploadDataProvider(File file, long length) {
+        this.file = file;
+        this.length = length;
+      }
+
+      @Override
+      public long getLength() {
+        return length;
+      }
+
+      @Override
+      public void read(UploadDataSink uploadDataSink, ByteBuffer byteBuffer) throws IOException {
+        FileChannel localChannel = getChannel();
+        long remaining = length - localChannel.position();
+        int originalLimit = byteBuffer.limit();
+        if (byteBuffer.remaining() > remaining) {
+          byteBuffer.limit(byteBuffer.position() + (int) remaining);
+        }
+        int bytesRead = localChannel.read(byteBuffer);
+        byteBuffer.limit(originalLimit);
+        if (bytesRead <= 0) {
+          throw new IOException(
+              "Expected " + length + " bytes but got " + localChannel.position());
+        }
+        uploadDataSink.onReadSucceeded(false);
+      }
+
+      @Override
+      public void rewind(UploadDataSink uploadDataSink) throws IOException {
+        if (channel != null) {
+          channel.position(0);
         }
-      };
+        uploadDataSink.onRewindSucceeded();
+      }
+
+      @Override
+      public void close() throws IOException {
+        if (channel != null) {
+          channel.close();
+        }
+      }
+
+      private FileChannel getChannel() throws IOException {
+        if (channel == null) {
+          channel = new FileInputStream(file).getChannel();
+        }
+        return channel;
+      }
     }
   }
 }
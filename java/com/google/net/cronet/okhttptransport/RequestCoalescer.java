@@ -0,0 +1,620 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import androidx.annotation.GuardedBy;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.net.cronet.okhttptransport.RequestResponseConverter.CronetRequestAndOkHttpResponse;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
+import okhttp3.Headers;
+import okhttp3.HttpUrl;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
+import okio.Timeout;
+import org.chromium.net.UrlRequest;
+
+/**
+ * Shares a single Cronet request between concurrent identical GET requests.
+ *
+ * <p>Requests are identical if they have the same URL, the same headers (which covers whatever the
+ * server may vary the response on) and the same {@link CronetRequestOptions}. A request joins an
+ * identical one in flight until the response headers of the latter arrive, later requests start a
+ * new Cronet request.
+ *
+ * <p>The body is read from Cronet once and kept in a shared buffer, each subscriber reads it at its
+ * own pace through its own cursor. The buffer only retains the bytes some subscriber hasn't read
+ * yet. Whichever subscriber runs out of buffered data reads the next chunk from Cronet while the
+ * others wait for it. The Cronet request is canceled once all the subscribers canceled or closed
+ * their bodies.
+ *
+ * <p>Subscribers never wait for each other: the calls are independent as far as the application is
+ * concerned, which may well read one body after the other. Once the buffer holds {@link
+ * #MAX_BUFFERED_BYTES}, the subscribers holding it back are detached from the shared request
+ * rather than buffering the rest of the body. A detached subscriber which hadn't read anything
+ * yet continues with a Cronet request of its own, one which had fails as it can't resume where it
+ * left off.
+ */
+final class RequestCoalescer {
+  private static final long READ_CHUNK_BYTES = 8192;
+  /** The most body bytes kept for subscribers lagging behind before detaching them. */
+  @VisibleForTesting static final long MAX_BUFFERED_BYTES = 1024 * 1024;
+
+  private final RequestResponseConverter converter;
+  private final int readTimeoutMillis;
+  private final int writeTimeoutMillis;
+
+  @GuardedBy("this")
+  private final Map<Key, SharedRequest> inFlightRequests = new HashMap<>();
+
+  RequestCoalescer(
+      RequestResponseConverter converter, int readTimeoutMillis, int writeTimeoutMillis) {
+    this.converter = converter;
+    this.readTimeoutMillis = readTimeoutMillis;
+    this.writeTimeoutMillis = writeTimeoutMillis;
+  }
+
+  /** Returns whether the request can share a Cronet request with identical ones. */
+  static boolean canCoalesce(Request request) {
+    return request.method().equals("GET") && request.body() == null;
+  }
+
+  /**
+   * Subscribes to the response of the request, joining an identical request in flight or starting
+   * a new one.
+   */
+  Subscriber subscribe(Request request) throws IOException {
+    Key key = new Key(request);
+    synchronized (this) {
+      SharedRequest sharedRequest = inFlightRequests.get(key);
+      if (sharedRequest != null) {
+        Subscriber subscriber = sharedRequest.join(request);
+        if (subscriber != null) {
+          return subscriber;
+        }
+      }
+    }
+
+    SharedRequest sharedRequest =
+        new SharedRequest(key, converter.convert(request, readTimeoutMillis, writeTimeoutMillis));
+    Subscriber subscriber = sharedRequest.join(request);
+    checkState(subscriber != null, "A new request must accept subscribers!");
+    synchronized (this) {
+      // If an identical request was started concurrently, let the two run independently.
+      if (!inFlightRequests.containsKey(key)) {
+        inFlightRequests.put(key, sharedRequest);
+      }
+    }
+    sharedRequest.start();
+    return subscriber;
+  }
+
+  private synchronized void onNoLongerJoinable(SharedRequest sharedRequest) {
+    if (inFlightRequests.get(sharedRequest.key) == sharedRequest) {
+      inFlightRequests.remove(sharedRequest.key);
+    }
+  }
+
+  /** A single Cronet request shared by the subscribers. */
+  private final class SharedRequest {
+    private final Key key;
+    private final UrlRequest urlRequest;
+    private final ListenableFuture<Response> responseFuture;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition dataAvailable = lock.newCondition();
+
+    @GuardedBy("lock")
+    private final List<Subscriber> subscribers = new ArrayList<>();
+
+    /** The subscribers neither done nor detached. */
+    @GuardedBy("lock")
+    private int activeSubscriberCount;
+
+    /** Set once the response headers arrive, no subscribers can join from then on. */
+    @GuardedBy("lock")
+    private boolean responseArrived;
+
+    /** The status code of the response. Set once the response arrives. */
+    @GuardedBy("lock")
+    private int responseCode;
+
+    /** The body as read from Cronet. Set once the response arrives. */
+    @GuardedBy("lock")
+    @Nullable
+    private BufferedSource upstream;
+
+    /** The body bytes not read by all the active subscribers yet. */
+    @GuardedBy("lock")
+    private final Buffer buffer = new Buffer();
+
+    /** The offset of the first byte of {@link #buffer} within the body. */
+    @GuardedBy("lock")
+    private long bufferStartOffset;
+
+    /** Whether a subscriber is reading from {@link #upstream}. */
+    @GuardedBy("lock")
+    private boolean readingUpstream;
+
+    @GuardedBy("lock")
+    private boolean upstreamExhausted;
+
+    @GuardedBy("lock")
+    @Nullable
+    private IOException upstreamFailure;
+
+    SharedRequest(Key key, CronetRequestAndOkHttpResponse requestAndResponse) {
+      this.key = key;
+      this.urlRequest = requestAndResponse.getRequest();
+      this.responseFuture = requestAndResponse.getResponseAsync();
+    }
+
+    void start() {
+      Futures.addCallback(
+          responseFuture,
+          new FutureCallback<Response>() {
+            @Override
+            public void onSuccess(Response response) {
+              onResponse(response);
+            }
+
+            @Override
+            public void onFailure(Throwable t) {
+              onResponseFailure(t);
+            }
+          },
+          MoreExecutors.directExecutor());
+      urlRequest.start();
+    }
+
+    /**
+     * Adds a subscriber, or returns null if the request doesn't accept subscribers anymore as the
+     * response already arrived or all the previous subscribers canceled.
+     */
+    @Nullable
+    Subscriber join(Request request) {
+      lock.lock();
+      try {
+        if (responseArrived || (!subscribers.isEmpty() && activeSubscriberCount == 0)) {
+          return null;
+        }
+        Subscriber subscriber = new Subscriber(this, request);
+        subscribers.add(subscriber);
+        activeSubscriberCount++;
+        return subscriber;
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private void onResponse(Response response) {
+      onNoLongerJoinable(this);
+      List<Subscriber> localSubscribers;
+      boolean noActiveSubscribers;
+      lock.lock();
+      try {
+        responseArrived = true;
+        responseCode = response.code();
+        upstream = response.body().source();
+        localSubscribers = new ArrayList<>(subscribers);
+        noActiveSubscribers = activeSubscriberCount == 0;
+      } finally {
+        lock.unlock();
+      }
+      if (noActiveSubscribers) {
+        response.body().close();
+        return;
+      }
+      for (Subscriber subscriber : localSubscribers) {
+        subscriber.responseFuture.set(
+            response
+                .newBuilder()
+                .body(
+                    new SubscriberResponseBody(
+                        response.body().contentType(),
+                        response.body().contentLength(),
+                        subscriber))
+                .build());
+      }
+    }
+
+    private void onResponseFailure(Throwable t) {
+      onNoLongerJoinable(this);
+      List<Subscriber> localSubscribers;
+      lock.lock();
+      try {
+        responseArrived = true;
+        localSubscribers = new ArrayList<>(subscribers);
+      } finally {
+        lock.unlock();
+      }
+      for (Subscriber subscriber : localSubscribers) {
+        subscriber.responseFuture.setException(t);
+      }
+    }
+
+    long read(Subscriber subscriber, Buffer sink, long byteCount) throws IOException {
+      BufferedSource ownBody;
+      while (true) {
+        BufferedSource localUpstream;
+        lock.lock();
+        try {
+          if (subscriber.done) {
+            throw new IOException("The body was closed or the call canceled");
+          }
+          if (subscriber.detached) {
+            ownBody = subscriber.ownBody;
+            break;
+          }
+          long bufferEndOffset = bufferStartOffset + buffer.size();
+          if (subscriber.offset < bufferEndOffset) {
+            long readCount = Math.min(byteCount, bufferEndOffset - subscriber.offset);
+            // Shares the segments rather than copying the bytes.
+            buffer.copyTo(sink, subscriber.offset - bufferStartOffset, readCount);
+            subscriber.offset += readCount;
+            discardReadBytes();
+            return readCount;
+          }
+          if (upstreamFailure != null) {
+            throw upstreamFailure;
+          }
+          if (upstreamExhausted) {
+            return -1;
+          }
+          if (readingUpstream) {
+            dataAvailable.awaitUninterruptibly();
+            continue;
+          }
+          if (buffer.size() >= MAX_BUFFERED_BYTES) {
+            detachLaggingSubscribers();
+            continue;
+          }
+          readingUpstream = true;
+          localUpstream = upstream;
+        } finally {
+          lock.unlock();
+        }
+
+        readUpstream(localUpstream);
+      }
+
+      if (ownBody == null) {
+        ownBody = startOwnRequest(subscriber);
+      }
+      return ownBody.read(sink, byteCount);
+    }
+
+    /**
+     * Detaches the subscribers which haven't read the oldest buffered bytes, so that the buffered
+     * bytes can be discarded.
+     */
+    @GuardedBy("lock")
+    private void detachLaggingSubscribers() {
+      for (Subscriber subscriber : subscribers) {
+        if (!subscriber.done && !subscriber.detached && subscriber.offset == bufferStartOffset) {
+          subscriber.detached = true;
+          activeSubscriberCount--;
+        }
+      }
+      discardReadBytes();
+    }
+
+    /**
+     * Starts a Cronet request for a detached subscriber, and returns its body. Only possible if the
+     * subscriber hadn't read anything yet, and the response is of the same kind as the shared one.
+     */
+    private BufferedSource startOwnRequest(Subscriber subscriber) throws IOException {
+      int sharedResponseCode;
+      lock.lock();
+      try {
+        if (subscriber.offset > 0) {
+          throw new IOException("Fell too far behind the identical calls sharing the response");
+        }
+        sharedResponseCode = responseCode;
+      } finally {
+        lock.unlock();
+      }
+
+      CronetRequestAndOkHttpResponse requestAndResponse =
+          converter.convert(subscriber.request, readTimeoutMillis, writeTimeoutMillis);
+      lock.lock();
+      try {
+        if (subscriber.done) {
+          throw new IOException("The body was closed or the call canceled");
+        }
+        // Canceled along with the subscriber from now on.
+        subscriber.ownRequest = requestAndResponse.getRequest();
+      } finally {
+        lock.unlock();
+      }
+      requestAndResponse.getRequest().start();
+      Response response = requestAndResponse.getResponse();
+      if (response.code() != sharedResponseCode) {
+        response.close();
+        throw new IOException(
+            "The response changed from " + sharedResponseCode + " to " + response.code());
+      }
+
+      lock.lock();
+      try {
+        if (!subscriber.done) {
+          subscriber.ownBody = response.body().source();
+          return subscriber.ownBody;
+        }
+      } finally {
+        lock.unlock();
+      }
+      response.close();
+      throw new IOException("The body was closed or the call canceled");
+    }
+
+    /** Reads the next chunk from Cronet. Only one subscriber reads at a time. */
+    private void readUpstream(BufferedSource upstream) {
+      Buffer chunk = new Buffer();
+      long readCount = -1;
+      IOException failure = null;
+      try {
+        readCount = upstream.read(chunk, READ_CHUNK_BYTES);
+      } catch (IOException e) {
+        failure = e;
+      }
+
+      lock.lock();
+      try {
+        readingUpstream = false;
+        if (failure != null) {
+          upstreamFailure = failure;
+        } else if (readCount == -1) {
+          upstreamExhausted = true;
+        } else {
+          buffer.write(chunk, chunk.size());
+        }
+        dataAvailable.signalAll();
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    /** Marks the subscriber as done, and cancels the request if it was the last active one. */
+    void unsubscribe(Subscriber subscriber) {
+      Source toClose;
+      UrlRequest toCancel;
+      lock.lock();
+      try {
+        if (subscriber.done) {
+          return;
+        }
+        subscriber.done = true;
+        if (subscriber.detached) {
+          // Only its own request is left to cancel, if it started one.
+          toClose = subscriber.ownBody;
+          toCancel = toClose == null ? subscriber.ownRequest : null;
+        } else {
+          activeSubscriberCount--;
+          dataAvailable.signalAll();
+          discardReadBytes();
+          if (activeSubscriberCount > 0) {
+            return;
+          }
+          toClose = upstream;
+          // Otherwise the response will be closed on arrival, if it ever arrives.
+          toCancel = upstream == null ? urlRequest : null;
+        }
+      } finally {
+        lock.unlock();
+      }
+
+      // Closing a body cancels its Cronet request if it's still reading.
+      closeQuietly(toClose);
+      if (toCancel != null) {
+        toCancel.cancel();
+      }
+    }
+
+    @GuardedBy("lock")
+    private void discardReadBytes() {
+      long minOffset = Long.MAX_VALUE;
+      for (Subscriber subscriber : subscribers) {
+        if (!subscriber.done && !subscriber.detached) {
+          minOffset = Math.min(minOffset, subscriber.offset);
+        }
+      }
+      long bufferEndOffset = bufferStartOffset + buffer.size();
+      long discardCount = Math.min(minOffset, bufferEndOffset) - bufferStartOffset;
+      if (discardCount > 0) {
+        try {
+          buffer.skip(discardCount);
+        } catch (EOFException e) {
+          throw new AssertionError(e);
+        }
+        bufferStartOffset += discardCount;
+        // Subscribers ahead might be waiting for room in the buffer.
+        dataAvailable.signalAll();
+      }
+    }
+  }
+
+  private static void closeQuietly(@Nullable Source source) {
+    if (source == null) {
+      return;
+    }
+    try {
+      source.close();
+    } catch (IOException e) {
+      // Nothing left to do.
+    }
+  }
+
+  /** A call's view of a shared request. */
+  static final class Subscriber {
+    private final SharedRequest sharedRequest;
+    private final Request request;
+    private final SettableFuture<Response> responseFuture = SettableFuture.create();
+
+    /** The offset of the next byte the subscriber reads. Guarded by the shared request's lock. */
+    private long offset;
+
+    /** Set once the subscriber canceled or closed the body. Guarded by the request's lock. */
+    private boolean done;
+
+    /** Set once the subscriber fell too far behind. Guarded by the request's lock. */
+    private boolean detached;
+
+    /** The request of a detached subscriber, if started. Guarded by the request's lock. */
+    @Nullable private UrlRequest ownRequest;
+
+    /** The body of a detached subscriber, if received. Guarded by the request's lock. */
+    @Nullable private BufferedSource ownBody;
+
+    private Subscriber(SharedRequest sharedRequest, Request request) {
+      this.sharedRequest = sharedRequest;
+      this.request = request;
+    }
+
+    /** Returns the response, blocking until the response headers are available. */
+    Response getResponse() throws IOException {
+      try {
+        return Uninterruptibles.getUninterruptibly(responseFuture);
+      } catch (ExecutionException e) {
+        throw new IOException(e);
+      }
+    }
+
+    ListenableFuture<Response> getResponseFuture() {
+      return responseFuture;
+    }
+
+    /**
+     * Cancels the subscription. The shared request is only canceled once all its subscribers
+     * canceled.
+     */
+    void cancel() {
+      responseFuture.setException(new IOException("The request was canceled!"));
+      sharedRequest.unsubscribe(this);
+    }
+  }
+
+  private static final class SubscriberResponseBody extends ResponseBody {
+    @Nullable private final MediaType contentType;
+    private final long contentLength;
+    private final Subscriber subscriber;
+    private final BufferedSource source;
+
+    SubscriberResponseBody(
+        @Nullable MediaType contentType, long contentLength, Subscriber subscriber) {
+      this.contentType = contentType;
+      this.contentLength = contentLength;
+      this.subscriber = subscriber;
+      this.source = Okio.buffer(new SubscriberSource(subscriber));
+    }
+
+    @Nullable
+    @Override
+    public MediaType contentType() {
+      return contentType;
+    }
+
+    @Override
+    public long contentLength() {
+      return contentLength;
+    }
+
+    @Override
+    public BufferedSource source() {
+      return source;
+    }
+
+    @Override
+    public void close() {
+      subscriber.sharedRequest.unsubscribe(subscriber);
+    }
+  }
+
+  private static final class SubscriberSource implements Source {
+    private final Subscriber subscriber;
+
+    SubscriberSource(Subscriber subscriber) {
+      this.subscriber = subscriber;
+    }
+
+    @Override
+    public long read(Buffer sink, long byteCount) throws IOException {
+      return subscriber.sharedRequest.read(subscriber, sink, byteCount);
+    }
+
+    @Override
+    public Timeout timeout() {
+      return Timeout.NONE;
+    }
+
+    @Override
+    public void close() {
+      subscriber.sharedRequest.unsubscribe(subscriber);
+    }
+  }
+
+  private static final class Key {
+    private final HttpUrl url;
+    private final Headers headers;
+    @Nullable private final CronetRequestOptions options;
+
+    Key(Request request) {
+      this.url = request.url();
+      this.headers = request.headers();
+      this.options = CronetRequestOptions.fromRequest(request);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      return url.equals(other.url)
+          && headers.equals(other.headers)
+          && Objects.equals(options, other.options);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(url, headers, options);
+    }
+  }
+}
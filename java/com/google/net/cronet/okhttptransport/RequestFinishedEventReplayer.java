@@ -0,0 +1,146 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.util.Collections;
+import javax.annotation.Nullable;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.chromium.net.RequestFinishedInfo;
+import org.chromium.net.UrlResponseInfo;
+
+/**
+ * Reports the phases of a finished Cronet request as OkHttp {@link EventListener} events.
+ *
+ * <p>Cronet only exposes the timing of the individual phases (DNS, connecting, TLS, sending,
+ * receiving) once the request finished. The events are therefore replayed in their natural order
+ * when Cronet reports the {@link RequestFinishedInfo}, and listeners interested in the actual
+ * timing should use the {@link CronetMetrics} attached to the response passed to {@link
+ * EventListener#responseHeadersEnd}.
+ *
+ * <p>Some of the event arguments aren't known to Cronet and are approximated: resolved addresses
+ * are empty, socket addresses are unresolved, the proxy is always {@link Proxy#NO_PROXY}, the
+ * handshake is null, and byte counts include headers and framing overhead. Connection events are
+ * not reported at all as there's no OkHttp connection.
+ */
+final class RequestFinishedEventReplayer {
+  private final Call call;
+  private final EventListener eventListener;
+  private final boolean reportCallEvents;
+
+  /**
+   * @param reportCallEvents whether to report the end of the call. Callers reporting {@link
+   *     EventListener#callStart} have to set it, callers running within an OkHttp call mustn't as
+   *     OkHttp reports the call events itself.
+   */
+  RequestFinishedEventReplayer(Call call, EventListener eventListener, boolean reportCallEvents) {
+    this.call = call;
+    this.eventListener = eventListener;
+    this.reportCallEvents = reportCallEvents;
+  }
+
+  void replay(Request request, RequestFinishedInfo requestFinishedInfo) {
+    RequestFinishedInfo.Metrics metrics = requestFinishedInfo.getMetrics();
+    boolean succeeded = requestFinishedInfo.getFinishedReason() == RequestFinishedInfo.SUCCEEDED;
+    @Nullable UrlResponseInfo responseInfo = requestFinishedInfo.getResponseInfo();
+    @Nullable
+    Protocol protocol =
+        responseInfo == null
+            ? null
+            : ResponseConverter.convertProtocol(responseInfo.getNegotiatedProtocol());
+    String host = request.url().host();
+
+    if (metrics.getDnsStart() != null) {
+      eventListener.dnsStart(call, host);
+      if (metrics.getDnsEnd() != null) {
+        eventListener.dnsEnd(call, host, Collections.emptyList());
+      }
+    }
+
+    if (metrics.getConnectStart() != null) {
+      InetSocketAddress address = InetSocketAddress.createUnresolved(host, request.url().port());
+      eventListener.connectStart(call, address, Proxy.NO_PROXY);
+      if (metrics.getSslStart() != null) {
+        eventListener.secureConnectStart(call);
+        if (metrics.getSslEnd() != null) {
+          eventListener.secureConnectEnd(call, null);
+        }
+      }
+      if (metrics.getConnectEnd() != null) {
+        eventListener.connectEnd(call, address, Proxy.NO_PROXY, protocol);
+      } else if (!succeeded) {
+        eventListener.connectFailed(
+            call, address, Proxy.NO_PROXY, protocol, getFailure(requestFinishedInfo));
+      }
+    }
+
+    if (metrics.getSendingStart() != null) {
+      eventListener.requestHeadersStart(call);
+      eventListener.requestHeadersEnd(call, request);
+      if (request.body() != null) {
+        eventListener.requestBodyStart(call);
+        if (metrics.getSendingEnd() != null) {
+          eventListener.requestBodyEnd(call, orZero(metrics.getSentByteCount()));
+        }
+      }
+    }
+
+    if (responseInfo != null) {
+      eventListener.responseHeadersStart(call);
+      eventListener.responseHeadersEnd(call, toHeadersOnlyResponse(request, responseInfo));
+      if (succeeded) {
+        eventListener.responseBodyStart(call);
+        eventListener.responseBodyEnd(call, orZero(metrics.getReceivedByteCount()));
+      }
+    }
+
+    if (reportCallEvents) {
+      if (succeeded) {
+        eventListener.callEnd(call);
+      } else {
+        eventListener.callFailed(call, getFailure(requestFinishedInfo));
+      }
+    }
+  }
+
+  private static Response toHeadersOnlyResponse(Request request, UrlResponseInfo responseInfo) {
+    try {
+      return ResponseConverter.createResponse(request, responseInfo, null).build();
+    } catch (IOException e) {
+      // Only the body conversion can fail.
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static IOException getFailure(RequestFinishedInfo requestFinishedInfo) {
+    IOException exception = requestFinishedInfo.getException();
+    if (exception != null) {
+      return exception;
+    }
+    return new IOException("Canceled");
+  }
+
+  private static long orZero(@Nullable Long value) {
+    return value == null ? 0 : value;
+  }
+}
@@ -16,40 +16,99 @@
 
 package com.google.net.cronet.okhttptransport;
 
+import android.util.Log;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
 import java.io.IOException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.Nullable;
+import okhttp3.Call;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
 import org.chromium.net.CronetEngine;
+import org.chromium.net.ExperimentalUrlRequest;
+import org.chromium.net.RequestFinishedInfo;
 import org.chromium.net.UrlRequest;
 
 /** Converts OkHttp requests to Cronet requests. */
 final class RequestResponseConverter {
+  private static final String TAG = "RequestResponseConverter";
   private static final String CONTENT_LENGTH_HEADER_NAME = "Content-Length";
   private static final String CONTENT_TYPE_HEADER_NAME = "Content-Type";
   private static final String CONTENT_TYPE_HEADER_DEFAULT_VALUE = "application/octet-stream";
 
   private final CronetEngine cronetEngine;
-  private final Executor uploadDataProviderExecutor;
+  private final CronetTransportRuntime transportRuntime;
+  private final TransportExecutors transportExecutors;
   private final ResponseConverter responseConverter;
-  private final RequestBodyConverter requestBodyConverter;
+  private final RequestBodyConverterImpl requestBodyConverter;
   private final RedirectStrategy redirectStrategy;
+  private final ResponseBodyBufferPool responseBodyBufferPool;
+  private final int readAheadBufferCount;
+  private final boolean requestMetricsEnabled;
+  @Nullable private final CronetRequestOptions defaultRequestOptions;
+  @Nullable private final CronetMemoryCache memoryCache;
+  private final ConnectionWarmUp connectionWarmUp;
+  private final AtomicBoolean closed = new AtomicBoolean();
 
   RequestResponseConverter(
       CronetEngine cronetEngine,
-      Executor uploadDataProviderExecutor,
-      RequestBodyConverter requestBodyConverter,
+      CronetTransportRuntime transportRuntime,
+      RequestBodyConverterImpl requestBodyConverter,
       ResponseConverter responseConverter,
-      RedirectStrategy redirectStrategy) {
+      RedirectStrategy redirectStrategy,
+      ResponseBodyBufferPool responseBodyBufferPool,
+      int readAheadBufferCount,
+      boolean requestMetricsEnabled,
+      @Nullable CronetRequestOptions defaultRequestOptions,
+      @Nullable CronetMemoryCache memoryCache) {
     this.cronetEngine = cronetEngine;
-    this.uploadDataProviderExecutor = uploadDataProviderExecutor;
+    this.transportRuntime = transportRuntime;
+    this.transportExecutors = transportRuntime.getTransportExecutors();
     this.requestBodyConverter = requestBodyConverter;
     this.responseConverter = responseConverter;
     this.redirectStrategy = redirectStrategy;
+    this.responseBodyBufferPool = responseBodyBufferPool;
+    this.readAheadBufferCount = readAheadBufferCount;
+    this.requestMetricsEnabled = requestMetricsEnabled;
+    this.defaultRequestOptions = defaultRequestOptions;
+    this.memoryCache = memoryCache;
+    this.connectionWarmUp = new ConnectionWarmUp(cronetEngine);
+  }
+
+  CronetTransportRuntime getTransportRuntime() {
+    return transportRuntime;
+  }
+
+  TransportExecutors getTransportExecutors() {
+    return transportExecutors;
+  }
+
+  ConnectionWarmUp getConnectionWarmUp() {
+    return connectionWarmUp;
+  }
+
+  /**
+   * Releases the transport runtime. Requests already in flight can finish, but new requests are
+   * likely to fail if no other object uses the runtime.
+   */
+  void close() {
+    if (!closed.getAndSet(true)) {
+      transportRuntime.release();
+    }
+  }
+
+  /**
+   * Returns the response to the request from the {@link CronetMemoryCache}, or null if there's no
+   * cache or the request must be sent to Cronet.
+   */
+  @Nullable
+  Response getCachedResponse(Request okHttpRequest) {
+    return memoryCache == null ? null : memoryCache.get(okHttpRequest);
   }
 
   /**
@@ -72,10 +131,104 @@ final class RequestResponseConverter {
    */
   CronetRequestAndOkHttpResponse convert(
       Request okHttpRequest, int readTimeoutMillis, int writeTimeoutMillis) throws IOException {
+    return convert(okHttpRequest, readTimeoutMillis, writeTimeoutMillis, null);
+  }
+
+  /**
+   * Same as {@link #convert(Request, int, int)}, additionally reporting the phases of the Cronet
+   * request to the given replayer once the request finished.
+   *
+   * <p>If request metrics are enabled, or if a replayer is provided, the request of the resulting
+   * response is tagged with the {@link CronetMetrics} of the call.
+   */
+  CronetRequestAndOkHttpResponse convert(
+      Request okHttpRequest,
+      int readTimeoutMillis,
+      int writeTimeoutMillis,
+      @Nullable RequestFinishedEventReplayer eventReplayer)
+      throws IOException {
+    CronetMetrics metrics = createMetricsIfEnabled(eventReplayer);
+    Request responseRequest = tagWithMetrics(okHttpRequest, metrics);
 
     OkHttpBridgeRequestCallback callback =
-        new OkHttpBridgeRequestCallback(readTimeoutMillis, redirectStrategy);
+        new OkHttpBridgeRequestCallback(
+            readTimeoutMillis,
+            redirectStrategy,
+            responseBodyBufferPool,
+            readAheadBufferCount,
+            !transportExecutors.usesVirtualThreads());
 
+    UrlRequest urlRequest =
+        buildUrlRequest(
+            okHttpRequest, responseRequest, callback, writeTimeoutMillis, metrics, eventReplayer);
+    return new CronetRequestAndOkHttpResponse(
+        urlRequest, createResponseSupplier(responseRequest, callback));
+  }
+
+  /**
+   * Converts OkHttp's {@link Request} to a Cronet's {@link UrlRequest} pushing the response to the
+   * given callback, see {@link AsyncResponseCallback}.
+   *
+   * @param readTimeoutMillis how long to wait for each requested read of the body, zero for no
+   *     limit
+   * @param callbackExecutor the executor the response callback is invoked on. The invocations are
+   *     serialized, the executor doesn't need to be sequential.
+   */
+  UrlRequest convertAsync(
+      Request okHttpRequest,
+      int readTimeoutMillis,
+      int writeTimeoutMillis,
+      Call call,
+      AsyncResponseCallback responseCallback,
+      Executor callbackExecutor,
+      @Nullable RequestFinishedEventReplayer eventReplayer)
+      throws IOException {
+    CronetMetrics metrics = createMetricsIfEnabled(eventReplayer);
+    Request responseRequest = tagWithMetrics(okHttpRequest, metrics);
+
+    AsyncBridgeRequestCallback callback =
+        new AsyncBridgeRequestCallback(
+            call,
+            responseRequest,
+            responseCallback,
+            MoreExecutors.newSequentialExecutor(callbackExecutor),
+            responseConverter,
+            redirectStrategy,
+            responseBodyBufferPool,
+            readTimeoutMillis,
+            readTimeoutMillis == 0 ? null : transportRuntime.getScheduler());
+
+    return buildUrlRequest(
+        okHttpRequest, responseRequest, callback, writeTimeoutMillis, metrics, eventReplayer);
+  }
+
+  @Nullable
+  private CronetMetrics createMetricsIfEnabled(
+      @Nullable RequestFinishedEventReplayer eventReplayer) {
+    return requestMetricsEnabled || eventReplayer != null ? new CronetMetrics() : null;
+  }
+
+  private static Request tagWithMetrics(Request okHttpRequest, @Nullable CronetMetrics metrics) {
+    if (metrics == null) {
+      return okHttpRequest;
+    }
+    return okHttpRequest.newBuilder().tag(CronetMetrics.class, metrics).build();
+  }
+
+  /**
+   * Builds the Cronet request.
+   *
+   * @param responseRequest the request the response is created for, reported to the event
+   *     listeners
+   */
+  private UrlRequest buildUrlRequest(
+      Request okHttpRequest,
+      Request responseRequest,
+      UrlRequest.Callback callback,
+      int writeTimeoutMillis,
+      @Nullable CronetMetrics metrics,
+      @Nullable RequestFinishedEventReplayer eventReplayer)
+      throws IOException {
     // The OkHttp request callback methods are lightweight, the heavy lifting is done by OkHttp /
     // app owned threads. Use a direct executor to avoid extra thread hops.
     UrlRequest.Builder builder =
@@ -84,7 +237,16 @@ final class RequestResponseConverter {
                 okHttpRequest.url().toString(), callback, MoreExecutors.directExecutor())
             .allowDirectExecutor();
 
+    // Cronet's implementations all provide the experimental builder. If they didn't, the metrics
+    // would just never become available.
+    if (metrics != null && builder instanceof ExperimentalUrlRequest.Builder) {
+      ((ExperimentalUrlRequest.Builder) builder)
+          .setRequestFinishedListener(new MetricsListener(responseRequest, metrics, eventReplayer));
+    }
+
     builder.setHttpMethod(okHttpRequest.method());
+    CronetRequestOptions.apply(
+        CronetRequestOptions.fromRequest(okHttpRequest), defaultRequestOptions, builder);
 
     for (int i = 0; i < okHttpRequest.headers().size(); i++) {
       builder.addHeader(okHttpRequest.headers().name(i), okHttpRequest.headers().value(i));
@@ -107,13 +269,14 @@ final class RequestResponseConverter {
         } // else use the header
 
         builder.setUploadDataProvider(
-            requestBodyConverter.convertRequestBody(body, writeTimeoutMillis),
-            uploadDataProviderExecutor);
+            requestBodyConverter.convertRequestBody(okHttpRequest, writeTimeoutMillis),
+            transportExecutors.getUploadDataProviderExecutor());
       }
     }
 
-    return new CronetRequestAndOkHttpResponse(
-        builder.build(), createResponseSupplier(okHttpRequest, callback));
+    UrlRequest urlRequest = builder.build();
+    transportRuntime.recordRequest();
+    return urlRequest;
   }
 
   private ResponseSupplier createResponseSupplier(
@@ -121,16 +284,66 @@ final class RequestResponseConverter {
     return new ResponseSupplier() {
       @Override
       public Response getResponse() throws IOException {
-        return responseConverter.toResponse(request, callback);
+        return cacheIfEnabled(request, callback, responseConverter.toResponse(request, callback));
       }
 
       @Override
       public ListenableFuture<Response> getResponseFuture() {
-        return responseConverter.toResponseAsync(request, callback);
+        ListenableFuture<Response> responseFuture =
+            responseConverter.toResponseAsync(request, callback);
+        if (memoryCache == null) {
+          return responseFuture;
+        }
+        return Futures.transform(
+            responseFuture,
+            response -> cacheIfEnabled(request, callback, response),
+            MoreExecutors.directExecutor());
       }
     };
   }
 
+  private Response cacheIfEnabled(
+      Request request, OkHttpBridgeRequestCallback callback, Response response) {
+    if (memoryCache == null) {
+      return response;
+    }
+    // The response was built from the response info, which is therefore available.
+    return memoryCache.onNetworkResponse(
+        request, Futures.getUnchecked(callback.getUrlResponseInfo()), response);
+  }
+
+  /** Hands the metrics reported by Cronet over to the {@link CronetMetrics} of the call. */
+  private static final class MetricsListener extends RequestFinishedInfo.Listener {
+    private final Request request;
+    private final CronetMetrics metrics;
+    @Nullable private final RequestFinishedEventReplayer eventReplayer;
+
+    MetricsListener(
+        Request request,
+        CronetMetrics metrics,
+        @Nullable RequestFinishedEventReplayer eventReplayer) {
+      // The listener only sets a field, the events are dispatched to OkHttp listeners which are
+      // expected to be lightweight. Avoid the thread hop just like for the request callback.
+      super(MoreExecutors.directExecutor());
+      this.request = request;
+      this.metrics = metrics;
+      this.eventReplayer = eventReplayer;
+    }
+
+    @Override
+    public void onRequestFinished(RequestFinishedInfo requestFinishedInfo) {
+      metrics.setRequestFinishedInfo(requestFinishedInfo);
+      if (eventReplayer != null) {
+        try {
+          eventReplayer.replay(request, requestFinishedInfo);
+        } catch (RuntimeException e) {
+          // Don't let a misbehaving listener crash Cronet's network thread.
+          Log.w(TAG, "Event listener failed for " + request.url().redact(), e);
+        }
+      }
+    }
+  }
+
   /** A {@link Future} like holder for OkHttp's {@link Response}. */
   private interface ResponseSupplier {
     Response getResponse() throws IOException;
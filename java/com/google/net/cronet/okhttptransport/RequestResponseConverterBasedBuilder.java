@@ -19,21 +19,39 @@ package com.google.net.cronet.okhttptransport;
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.concurrent.Executor;
-import java.util.concurrent.Executors;
+import okhttp3.HttpUrl;
 import org.chromium.net.CronetEngine;
 import org.chromium.net.UploadDataProvider;
 
 abstract class RequestResponseConverterBasedBuilder<
     SubBuilderT extends RequestResponseConverterBasedBuilder<?, ? extends ObjectBeingBuiltT>,
     ObjectBeingBuiltT> {
-  private static final int DEFAULT_THREAD_POOL_SIZE = 4;
 
   private final CronetEngine cronetEngine;
-  private int uploadDataProviderExecutorSize = DEFAULT_THREAD_POOL_SIZE;
+  private int uploadDataProviderExecutorSize =
+      TransportExecutors.DEFAULT_UPLOAD_DATA_PROVIDER_THREADS;
+  private int maxRequestBodyWriterThreads = TransportExecutors.DEFAULT_REQUEST_BODY_THREADS;
+  private boolean useVirtualThreads = false;
+  private int readAheadBufferCount = 1;
+  private long inMemoryUploadThresholdBytes =
+      RequestBodyConverterImpl.DEFAULT_IN_MEMORY_BODY_LENGTH_THRESHOLD_BYTES;
+  private InMemoryUploadPolicy inMemoryUploadPolicy = null;
+  private long uploadCoalescingDelayMillis =
+      RequestBodyConverterImpl.DEFAULT_UPLOAD_COALESCING_DELAY_MILLIS;
+  private boolean requestMetricsEnabled = false;
+  private boolean priorResponsesEnabled = true;
+  private CronetRequestOptions defaultRequestOptions = null;
+  private CronetMemoryCache memoryCache = null;
+  private List<String> warmUpOrigins = Collections.emptyList();
   // Not setting the default straight away to lazy initialize the object if it ends up not being
   // used.
   private RedirectStrategy redirectStrategy = null;
+  private ResponseBodyBufferPool responseBodyBufferPool = null;
+  private CronetTransportRuntime transportRuntime = null;
   private final SubBuilderT castedThis;
 
   @SuppressWarnings("unchecked") // checked as a precondition
@@ -47,6 +65,11 @@ abstract class RequestResponseConverterBasedBuilder<
    * Sets the size of upload data provider executor. The same executor is used for all upload data
    * providers within the interceptor.
    *
+   * <p>Objects built from the same Cronet engine with the same executor settings share their
+   * executors. The executors are shut down once all of them are closed.
+   *
+   * <p>Ignored if a {@linkplain #setTransportRuntime transport runtime} is set.
+   *
    * @see org.chromium.net.UrlRequest.Builder#setUploadDataProvider(UploadDataProvider, Executor)
    */
   public final SubBuilderT setUploadDataProviderExecutorSize(int size) {
@@ -55,6 +78,41 @@ abstract class RequestResponseConverterBasedBuilder<
     return castedThis;
   }
 
+  /**
+   * Sets the maximum number of threads writing streamed request bodies, which caps the number of
+   * concurrent uploads that aren't materialized in memory (see {@link
+   * #setInMemoryUploadThresholdBytes}). Each such upload occupies a thread for its whole duration.
+   * Uploads exceeding the limit fail with an {@link java.io.IOException} rather than waiting, as
+   * waiting uploads would hold up Cronet's upload threads.
+   *
+   * <p>There's no limit by default, each streamed upload gets its own thread. Ignored if a
+   * {@linkplain #setTransportRuntime transport runtime} is set.
+   */
+  public final SubBuilderT setMaxRequestBodyWriterThreads(int maxThreads) {
+    checkArgument(maxThreads > 0, "The number of threads must be positive!");
+    maxRequestBodyWriterThreads = maxThreads;
+    return castedThis;
+  }
+
+  /**
+   * Sets whether blocking work (writing request bodies, providing upload data to Cronet and
+   * invoking response callbacks) should run on virtual threads, which are cheap enough not to
+   * limit their number. Virtual threads require JDK 21 or newer, the thread pools are used
+   * otherwise (including on Android).
+   *
+   * <p>Threads waiting for body data park without holding monitors, so blocked virtual threads
+   * don't pin their carrier threads. In this mode they also don't spin before parking, which
+   * favors throughput with many concurrent transfers over the latency of a single one. Response
+   * bodies should be read on virtual threads too, for example by executing calls from them, to
+   * sustain large numbers of concurrent transfers.
+   *
+   * <p>Ignored if a {@linkplain #setTransportRuntime transport runtime} is set.
+   */
+  public final SubBuilderT setUseVirtualThreads(boolean useVirtualThreads) {
+    this.useVirtualThreads = useVirtualThreads;
+    return castedThis;
+  }
+
   /**
    * Sets the strategy for following redirects.
    *
@@ -67,23 +125,214 @@ abstract class RequestResponseConverterBasedBuilder<
     return castedThis;
   }
 
+  /**
+   * Sets the pool response body buffers are borrowed from. The same pool can (and should) be shared
+   * across multiple call factories and interceptors.
+   *
+   * <p>The capacity of the pooled buffers caps the size of individual Cronet reads, see {@link
+   * ResponseBodyBufferPool#create(int, int)}.
+   *
+   * <p>If not set, the pool of the {@linkplain #setTransportRuntime transport runtime} is used, or
+   * each built object gets its own small pool of 32 KiB buffers if there's none.
+   */
+  public final SubBuilderT setResponseBodyBufferPool(ResponseBodyBufferPool bufferPool) {
+    checkNotNull(bufferPool);
+    this.responseBodyBufferPool = bufferPool;
+    return castedThis;
+  }
+
+  /**
+   * Sets the number of response body buffers Cronet can fill ahead of the application reading the
+   * body. The default value of 1 disables read-ahead, that is, Cronet only fetches more of the body
+   * once the application consumed the previous chunk.
+   *
+   * <p>Larger values let the network stack keep streaming while the application processes the
+   * body, which increases throughput of large downloads at the cost of holding more buffers per
+   * response. Cronet itself never has more than one read in flight.
+   */
+  public final SubBuilderT setReadAheadBufferCount(int readAheadBufferCount) {
+    checkArgument(readAheadBufferCount > 0, "The number of buffers must be positive!");
+    this.readAheadBufferCount = readAheadBufferCount;
+    return castedThis;
+  }
+
+  /**
+   * Sets the maximum length of request bodies that are materialized in memory before being
+   * uploaded. Larger bodies, and bodies of unknown length, are streamed to Cronet from a background
+   * thread. Setting the threshold to a negative value streams all request bodies.
+   *
+   * <p>The default is 1 MiB.
+   */
+  public final SubBuilderT setInMemoryUploadThresholdBytes(long thresholdBytes) {
+    this.inMemoryUploadThresholdBytes = thresholdBytes;
+    return castedThis;
+  }
+
+  /**
+   * Sets the policy deciding whether bodies within the {@linkplain
+   * #setInMemoryUploadThresholdBytes(long) in-memory threshold} are materialized in memory. By
+   * default all of them are.
+   */
+  public final SubBuilderT setInMemoryUploadPolicy(InMemoryUploadPolicy inMemoryUploadPolicy) {
+    checkNotNull(inMemoryUploadPolicy);
+    this.inMemoryUploadPolicy = inMemoryUploadPolicy;
+    return castedThis;
+  }
+
+  /**
+   * Sets how long data written to streamed request bodies may wait to be sent to Cronet together
+   * with the data written after it. Written data is handed over to Cronet once its upload buffer is
+   * full, once the body {@linkplain okio.BufferedSink#flush() flushes}, or once the delay passed,
+   * whichever comes first. Coalescing saves a thread handoff per write for bodies written in many
+   * small parts. Setting the delay to 0 sends every write right away.
+   *
+   * <p>The default is 10 milliseconds.
+   */
+  public final SubBuilderT setUploadCoalescingDelayMillis(long delayMillis) {
+    checkArgument(delayMillis >= 0, "The delay mustn't be negative!");
+    this.uploadCoalescingDelayMillis = delayMillis;
+    return castedThis;
+  }
+
+  /**
+   * Enables collecting Cronet's {@link CronetMetrics} (DNS, connect, TLS, send and receive timing,
+   * byte counts) for every call. The metrics are attached to the response, see {@link
+   * CronetMetrics#fromResponse}.
+   *
+   * <p>Collecting metrics has a small per-request cost and is disabled by default. Attaching an
+   * event listener enables it implicitly.
+   */
+  public final SubBuilderT setRequestMetricsEnabled(boolean requestMetricsEnabled) {
+    this.requestMetricsEnabled = requestMetricsEnabled;
+    return castedThis;
+  }
+
+  /**
+   * Sets whether responses are linked to the responses of the redirects followed before through
+   * {@link okhttp3.Response#priorResponse()}, like OkHttp does. Building the redirect responses
+   * costs a request and a response per redirect. When disabled, {@code priorResponse()} is null and
+   * the redirects are only available through the {@link RedirectHistory} attached to the response,
+   * which builds the prior responses on demand.
+   *
+   * <p>Prior responses are enabled by default.
+   */
+  public final SubBuilderT setPriorResponsesEnabled(boolean priorResponsesEnabled) {
+    this.priorResponsesEnabled = priorResponsesEnabled;
+    return castedThis;
+  }
+
+  /**
+   * Sets the Cronet options of requests which don't carry their own {@link CronetRequestOptions},
+   * or which leave some of the options unset. For example, prefetches can default to a low
+   * priority while requests for visible content raise it.
+   *
+   * <p>By default Cronet's own defaults apply.
+   */
+  public final SubBuilderT setDefaultRequestOptions(CronetRequestOptions defaultRequestOptions) {
+    this.defaultRequestOptions = checkNotNull(defaultRequestOptions);
+    return castedThis;
+  }
+
+  /**
+   * Sets an in-memory cache serving small, frequently requested responses without any Cronet
+   * request. See {@link CronetMemoryCache} for which responses are stored. The cache can be shared
+   * by several call factories and interceptors.
+   *
+   * <p>There's no memory cache by default.
+   */
+  public final SubBuilderT setMemoryCache(CronetMemoryCache memoryCache) {
+    this.memoryCache = checkNotNull(memoryCache);
+    return castedThis;
+  }
+
+  /**
+   * Sets the origins to warm up connections to as soon as the object is built, such as {@code
+   * https://www.example.com}. See {@link ConnectionWarmUp} for details. The readiness of the
+   * origins is reported by {@code getConnectionWarmUp()} of the built object.
+   *
+   * <p>No origins are warmed up by default.
+   */
+  public final SubBuilderT setWarmUpOrigins(List<String> warmUpOrigins) {
+    for (String origin : warmUpOrigins) {
+      checkArgument(HttpUrl.parse(origin) != null, "Not a valid HTTP or HTTPS URL: %s", origin);
+    }
+    this.warmUpOrigins = new ArrayList<>(warmUpOrigins);
+    return castedThis;
+  }
+
+  /**
+   * Sets the runtime providing the threads, buffers and scheduler of the built object, shared with
+   * the other objects built from it. See {@link CronetTransportRuntime} for details. The runtime
+   * must have been created for the same Cronet engine and mustn't be closed yet.
+   *
+   * <p>By default, each built object gets its own runtime, configured by the executor settings of
+   * this builder.
+   */
+  public final SubBuilderT setTransportRuntime(CronetTransportRuntime transportRuntime) {
+    checkArgument(
+        transportRuntime.getCronetEngine() == cronetEngine,
+        "The runtime was created for a different Cronet engine!");
+    this.transportRuntime = transportRuntime;
+    return castedThis;
+  }
+
   abstract ObjectBeingBuiltT build(RequestResponseConverter converter);
 
   public final ObjectBeingBuiltT build() {
+    RequestResponseConverter converter = buildConverter();
+    converter.getConnectionWarmUp().start(warmUpOrigins);
+    return build(converter);
+  }
+
+  /**
+   * Creates the converter backing the built object. Exposed separately for benchmarks. The
+   * converter must be {@linkplain RequestResponseConverter#close() closed} to release the
+   * transport runtime.
+   */
+  final RequestResponseConverter buildConverter() {
     if (redirectStrategy == null) {
       redirectStrategy = RedirectStrategy.defaultStrategy();
     }
 
-    RequestResponseConverter converter =
-        new RequestResponseConverter(
-            cronetEngine,
-            Executors.newFixedThreadPool(uploadDataProviderExecutorSize),
-            // There must always be enough executors to blocking-read the OkHttp request bodies
-            // otherwise deadlocks can occur.
-            RequestBodyConverterImpl.create(Executors.newCachedThreadPool()),
-            new ResponseConverter(),
-            redirectStrategy);
+    CronetTransportRuntime localRuntime;
+    if (transportRuntime == null) {
+      CronetTransportRuntime.Builder runtimeBuilder =
+          CronetTransportRuntime.newBuilder(cronetEngine)
+              .setUploadDataProviderExecutorSize(uploadDataProviderExecutorSize)
+              .setMaxRequestBodyWriterThreads(maxRequestBodyWriterThreads)
+              .setUseVirtualThreads(useVirtualThreads);
+      if (responseBodyBufferPool != null) {
+        runtimeBuilder.setResponseBodyBufferPool(responseBodyBufferPool);
+      }
+      // The converter takes over the creator's reference.
+      localRuntime = runtimeBuilder.build();
+    } else {
+      transportRuntime.retain();
+      localRuntime = transportRuntime;
+    }
 
-    return build(converter);
+    ResponseBodyBufferPool localBufferPool = responseBodyBufferPool;
+    if (localBufferPool == null) {
+      localBufferPool = localRuntime.getResponseBodyBufferPool();
+    }
+
+    TransportExecutors transportExecutors = localRuntime.getTransportExecutors();
+
+    return new RequestResponseConverter(
+        cronetEngine,
+        localRuntime,
+        RequestBodyConverterImpl.create(
+            transportExecutors::getRequestBodyExecutor,
+            inMemoryUploadThresholdBytes,
+            inMemoryUploadPolicy,
+            !transportExecutors.usesVirtualThreads(),
+            uploadCoalescingDelayMillis),
+        new ResponseConverter(priorResponsesEnabled),
+        redirectStrategy,
+        localBufferPool,
+        readAheadBufferCount,
+        requestMetricsEnabled,
+        defaultRequestOptions,
+        memoryCache);
   }
 }
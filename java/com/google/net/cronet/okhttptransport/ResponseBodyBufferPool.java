@@ -0,0 +1,133 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, thread safe pool of direct {@link ByteBuffer}s used for reading Cronet response
+ * bodies.
+ *
+ * <p>Direct buffers are expensive to allocate and their native memory is only reclaimed once the
+ * garbage collector gets to them. Applications issuing many short lived requests should share a
+ * single pool between all the call factories and interceptors using the same {@link
+ * org.chromium.net.CronetEngine}.
+ *
+ * <p>The pool never holds more than {@code maxPooledBuffers} idle buffers. Buffers are still handed
+ * out when the pool is empty, they're just allocated afresh (and counted as a miss).
+ */
+public final class ResponseBodyBufferPool {
+
+  /** The default capacity of the buffers handed out by the pool. */
+  static final int DEFAULT_BUFFER_CAPACITY = 32 * 1024;
+
+  private final int maxPooledBuffers;
+  private final int bufferCapacity;
+
+  private final Queue<ByteBuffer> pooledBuffers = new ConcurrentLinkedQueue<>();
+
+  /**
+   * The number of buffers in {@link #pooledBuffers}. Tracked separately as {@link
+   * ConcurrentLinkedQueue#size()} is linear.
+   */
+  private final AtomicInteger pooledBufferCount = new AtomicInteger();
+
+  private final AtomicLong hitCount = new AtomicLong();
+  private final AtomicLong missCount = new AtomicLong();
+
+  private ResponseBodyBufferPool(int maxPooledBuffers, int bufferCapacity) {
+    this.maxPooledBuffers = maxPooledBuffers;
+    this.bufferCapacity = bufferCapacity;
+  }
+
+  /**
+   * Creates a pool which retains at most {@code maxPooledBuffers} idle buffers. Passing zero
+   * creates a pool that doesn't retain anything, which is equivalent to not pooling at all.
+   */
+  public static ResponseBodyBufferPool create(int maxPooledBuffers) {
+    return create(maxPooledBuffers, DEFAULT_BUFFER_CAPACITY);
+  }
+
+  /**
+   * Creates a pool which retains at most {@code maxPooledBuffers} idle buffers of the given
+   * capacity.
+   *
+   * <p>The buffer capacity caps the size of a single Cronet read. Reads start small and grow up to
+   * the capacity as long as the body keeps streaming, so larger capacities let big downloads use
+   * fewer native reads without penalizing small responses. Note that each response being read
+   * holds at least one buffer.
+   */
+  public static ResponseBodyBufferPool create(int maxPooledBuffers, int bufferCapacity) {
+    checkArgument(maxPooledBuffers >= 0, "The pool size mustn't be negative!");
+    checkArgument(bufferCapacity > 0, "The buffer capacity must be positive!");
+    return new ResponseBodyBufferPool(maxPooledBuffers, bufferCapacity);
+  }
+
+  /** Returns the number of times a buffer was served from the pool. */
+  public long getHitCount() {
+    return hitCount.get();
+  }
+
+  /** Returns the number of times a buffer had to be allocated because the pool was empty. */
+  public long getMissCount() {
+    return missCount.get();
+  }
+
+  /** Returns the number of idle buffers currently retained by the pool. */
+  public int getPooledBufferCount() {
+    return pooledBufferCount.get();
+  }
+
+  int getBufferCapacity() {
+    return bufferCapacity;
+  }
+
+  /**
+   * Borrows a cleared buffer from the pool. The caller is responsible for returning it using
+   * {@link #release(ByteBuffer)} once no one (including Cronet) can access the buffer anymore.
+   */
+  ByteBuffer acquire() {
+    ByteBuffer buffer = pooledBuffers.poll();
+    if (buffer != null) {
+      pooledBufferCount.decrementAndGet();
+      hitCount.incrementAndGet();
+      return buffer;
+    }
+    missCount.incrementAndGet();
+    return ByteBuffer.allocateDirect(bufferCapacity);
+  }
+
+  /** Returns the buffer to the pool. If the pool is full the buffer is left for the GC. */
+  void release(ByteBuffer buffer) {
+    if (buffer.capacity() != bufferCapacity || !buffer.isDirect()) {
+      return;
+    }
+    // Reserve the slot first so that concurrent releases can't overflow the pool.
+    if (pooledBufferCount.incrementAndGet() > maxPooledBuffers) {
+      pooledBufferCount.decrementAndGet();
+      return;
+    }
+    buffer.clear();
+    pooledBuffers.add(buffer);
+  }
+}
@@ -16,10 +16,6 @@
 
 package com.google.net.cronet.okhttptransport;
 
-import static com.google.common.base.Preconditions.checkArgument;
-import static com.google.common.base.Preconditions.checkNotNull;
-
-import androidx.annotation.NonNull;
 import com.google.common.base.Ascii;
 import com.google.common.base.Splitter;
 import com.google.common.collect.ImmutableSet;
@@ -31,18 +27,17 @@ import com.google.common.util.concurrent.Uninterruptibles;
 import java.io.IOException;
 import java.net.ProtocolException;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
 import javax.annotation.Nullable;
+import okhttp3.Headers;
 import okhttp3.MediaType;
 import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.Response;
 import okhttp3.ResponseBody;
-import okio.Okio;
 import okio.Source;
 import org.chromium.net.UrlResponseInfo;
 
@@ -61,6 +56,20 @@ final class ResponseConverter {
 
   private static final Splitter COMMA_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
 
+  private final boolean priorResponsesEnabled;
+
+  ResponseConverter() {
+    this(/* priorResponsesEnabled= */ true);
+  }
+
+  /**
+   * @param priorResponsesEnabled whether to link responses to their redirects through {@link
+   *     Response#priorResponse()}. The {@link RedirectHistory} is attached either way.
+   */
+  ResponseConverter(boolean priorResponsesEnabled) {
+    this.priorResponsesEnabled = priorResponsesEnabled;
+  }
+
   /**
    * Creates an OkHttp's Response from the OkHttp-Cronet bridging callback.
    *
@@ -70,29 +79,42 @@ final class ResponseConverter {
    */
   Response toResponse(Request request, OkHttpBridgeRequestCallback callback) throws IOException {
     UrlResponseInfo cronetResponseInfo = getFutureValue(callback.getUrlResponseInfo());
-    Response.Builder responseBuilder =
-        createResponse(request, cronetResponseInfo, getFutureValue(callback.getBodySource()));
+    return toResponse(
+        request,
+        cronetResponseInfo,
+        callback.getUrlResponseInfoChain(),
+        callback.getRedirectDurationsMillis(),
+        getFutureValue(callback.getBodySource()));
+  }
 
-    List<UrlResponseInfo> redirectResponseInfos = callback.getUrlResponseInfoChain();
-    List<String> urlChain = cronetResponseInfo.getUrlChain();
+  /**
+   * Creates an OkHttp's Response from the final Cronet response and the responses of the
+   * redirects followed before, from oldest to newest, along with how long each of them took. The
+   * body is only set if a source is provided.
+   */
+  Response toResponse(
+      Request request,
+      UrlResponseInfo cronetResponseInfo,
+      List<UrlResponseInfo> redirectResponseInfos,
+      List<Long> redirectDurationsMillis,
+      @Nullable Source bodySource)
+      throws IOException {
+    Response.Builder responseBuilder = createResponse(request, cronetResponseInfo, bodySource);
 
     if (!redirectResponseInfos.isEmpty()) {
-      checkArgument(
-          urlChain.size() == redirectResponseInfos.size() + 1,
-          "The number of redirects should be consistent across URLs and headers!");
-
-      Response priorResponse = null;
-      for (int i = 0; i < redirectResponseInfos.size(); i++) {
-        Request redirectedRequest = request.newBuilder().url(urlChain.get(i)).build();
-        priorResponse =
-            createResponse(redirectedRequest, redirectResponseInfos.get(i), null)
-                .priorResponse(priorResponse)
-                .build();
+      List<String> urlChain = cronetResponseInfo.getUrlChain();
+      RedirectHistory redirectHistory =
+          new RedirectHistory(request, urlChain, redirectResponseInfos, redirectDurationsMillis);
+
+      responseBuilder.request(
+          request
+              .newBuilder()
+              .url(Iterables.getLast(urlChain))
+              .tag(RedirectHistory.class, redirectHistory)
+              .build());
+      if (priorResponsesEnabled) {
+        responseBuilder.priorResponse(redirectHistory.getPriorResponse());
       }
-
-      responseBuilder
-          .request(request.newBuilder().url(Iterables.getLast(urlChain)).build())
-          .priorResponse(priorResponse);
     }
 
     return responseBuilder.build();
@@ -104,40 +126,15 @@ final class ResponseConverter {
         .call(() -> toResponse(request, callback), MoreExecutors.directExecutor());
   }
 
-  private static Response.Builder createResponse(
+  /**
+   * Creates a response builder with the status line and headers of the Cronet response. The body
+   * is only set if a source is provided.
+   */
+  static Response.Builder createResponse(
       Request request, UrlResponseInfo cronetResponseInfo, @Nullable Source bodySource)
       throws IOException {
 
-    Response.Builder responseBuilder = new Response.Builder();
-
-    @Nullable String contentType = getLastHeaderValue(CONTENT_TYPE_HEADER_NAME, cronetResponseInfo);
-
-    // If all content encodings are those known to Cronet natively, Cronet decodes the body stream.
-    // Otherwise, it's sent to the callbacks verbatim. For consistency with OkHttp, we only leave
-    // the Content-Encoding headers if Cronet didn't decode the request. Similarly, for consistency,
-    // we strip the Content-Length header of decoded responses.
-
-    @Nullable String contentLengthString = null;
-
-    // Theoretically, the content encodings can be scattered across multiple comma separated
-    // Content-Encoding headers. This list contains individual encodings.
-    List<String> contentEncodingItems = new ArrayList<>();
-
-    for (String contentEncodingHeaderValue :
-        getOrDefault(
-            cronetResponseInfo.getAllHeaders(),
-            CONTENT_ENCODING_HEADER_NAME,
-            Collections.emptyList())) {
-      Iterables.addAll(contentEncodingItems, COMMA_SPLITTER.split(contentEncodingHeaderValue));
-    }
-
-    boolean keepEncodingAffectedHeaders =
-        contentEncodingItems.isEmpty()
-            || !ENCODINGS_HANDLED_BY_CRONET.containsAll(contentEncodingItems);
-
-    if (keepEncodingAffectedHeaders) {
-      contentLengthString = getLastHeaderValue(CONTENT_LENGTH_HEADER_NAME, cronetResponseInfo);
-    }
+    ResponseHeaders headers = ResponseHeaders.convert(cronetResponseInfo);
 
     ResponseBody responseBody = null;
     if (bodySource != null) {
@@ -145,32 +142,18 @@ final class ResponseConverter {
           createResponseBody(
               request,
               cronetResponseInfo.getHttpStatusCode(),
-              contentType,
-              contentLengthString,
+              headers.contentType,
+              headers.contentLength,
               bodySource);
     }
 
-    responseBuilder
+    return new Response.Builder()
         .request(request)
         .code(cronetResponseInfo.getHttpStatusCode())
         .message(cronetResponseInfo.getHttpStatusText())
         .protocol(convertProtocol(cronetResponseInfo.getNegotiatedProtocol()))
+        .headers(headers.headers)
         .body(responseBody);
-
-    for (Map.Entry<String, String> header : cronetResponseInfo.getAllHeadersAsList()) {
-      boolean copyHeader = true;
-      if (!keepEncodingAffectedHeaders) {
-        if (Ascii.equalsIgnoreCase(header.getKey(), CONTENT_LENGTH_HEADER_NAME)
-            || Ascii.equalsIgnoreCase(header.getKey(), CONTENT_ENCODING_HEADER_NAME)) {
-          copyHeader = false;
-        }
-      }
-      if (copyHeader) {
-        responseBuilder.addHeader(header.getKey(), header.getValue());
-      }
-    }
-
-    return responseBuilder;
   }
 
   /**
@@ -208,14 +191,12 @@ final class ResponseConverter {
           "HTTP " + httpStatusCode + " had non-zero Content-Length: " + contentLengthString);
     }
 
-    return ResponseBody.create(
-        contentType != null ? MediaType.parse(contentType) : null,
-        contentLength,
-        Okio.buffer(bodySource));
+    return new BridgedResponseBody(
+        contentType != null ? MediaType.parse(contentType) : null, contentLength, bodySource);
   }
 
   /** Converts Cronet's negotiated protocol string to OkHttp's {@link Protocol}. */
-  private static Protocol convertProtocol(String negotiatedProtocol) {
+  static Protocol convertProtocol(String negotiatedProtocol) {
     // See
     // https://www.iana.org/assignments/tls-extensiontype-values/tls-extensiontype-values.xhtml#alpn-protocol-ids
     if (negotiatedProtocol.contains("quic")) {
@@ -234,16 +215,6 @@ final class ResponseConverter {
     return Protocol.HTTP_1_0;
   }
 
-  /** Returns the last header value for the given name, or null if the header isn't present. */
-  @Nullable
-  private static String getLastHeaderValue(String name, UrlResponseInfo responseInfo) {
-    List<String> headers = responseInfo.getAllHeaders().get(name);
-    if (headers == null || headers.isEmpty()) {
-      return null;
-    }
-    return Iterables.getLast(headers);
-  }
-
   private static <T> T getFutureValue(Future<T> future) throws IOException {
     try {
       return Uninterruptibles.getUninterruptibly(future);
@@ -252,12 +223,69 @@ final class ResponseConverter {
     }
   }
 
-  private static <K, V> V getOrDefault(Map<K, V> map, K key, @NonNull V defaultValue) {
-    V value = map.get(key);
-    if (value == null) {
-      return checkNotNull(defaultValue);
-    } else {
-      return value;
+  /**
+   * The OkHttp headers of a Cronet response, along with the values of the headers the response
+   * body depends on.
+   *
+   * <p>The headers are converted in a single pass over {@link
+   * UrlResponseInfo#getAllHeadersAsList()}. {@link UrlResponseInfo#getAllHeaders()} isn't used as
+   * Cronet may build a new map for every call, which for redirect chains happens once per hop.
+   */
+  private static final class ResponseHeaders {
+    final Headers headers;
+    /** The last Content-Type value, or null if there's none. */
+    @Nullable final String contentType;
+    /** The last Content-Length value, or null if there's none or it doesn't apply to the body. */
+    @Nullable final String contentLength;
+
+    private ResponseHeaders(
+        Headers headers, @Nullable String contentType, @Nullable String contentLength) {
+      this.headers = headers;
+      this.contentType = contentType;
+      this.contentLength = contentLength;
+    }
+
+    static ResponseHeaders convert(UrlResponseInfo cronetResponseInfo) {
+      Headers.Builder headersBuilder = new Headers.Builder();
+      @Nullable String contentType = null;
+      @Nullable String contentLength = null;
+      // Theoretically, the content encodings can be scattered across multiple comma separated
+      // Content-Encoding headers. This list contains individual encodings.
+      @Nullable List<String> contentEncodingItems = null;
+
+      for (Map.Entry<String, String> header : cronetResponseInfo.getAllHeadersAsList()) {
+        String name = header.getKey();
+        String value = header.getValue();
+        headersBuilder.add(name, value);
+
+        if (Ascii.equalsIgnoreCase(name, CONTENT_TYPE_HEADER_NAME)) {
+          contentType = value;
+        } else if (Ascii.equalsIgnoreCase(name, CONTENT_LENGTH_HEADER_NAME)) {
+          contentLength = value;
+        } else if (Ascii.equalsIgnoreCase(name, CONTENT_ENCODING_HEADER_NAME)) {
+          if (contentEncodingItems == null) {
+            contentEncodingItems = new ArrayList<>();
+          }
+          Iterables.addAll(contentEncodingItems, COMMA_SPLITTER.split(value));
+        }
+      }
+
+      // If all content encodings are those known to Cronet natively, Cronet decodes the body
+      // stream. Otherwise, it's sent to the callbacks verbatim. For consistency with OkHttp, we
+      // only leave the Content-Encoding headers if Cronet didn't decode the request. Similarly, for
+      // consistency, we strip the Content-Length header of decoded responses.
+      boolean keepEncodingAffectedHeaders =
+          contentEncodingItems == null
+              || contentEncodingItems.isEmpty()
+              || !ENCODINGS_HANDLED_BY_CRONET.containsAll(contentEncodingItems);
+
+      if (!keepEncodingAffectedHeaders) {
+        headersBuilder.removeAll(CONTENT_LENGTH_HEADER_NAME);
+        headersBuilder.removeAll(CONTENT_ENCODING_HEADER_NAME);
+        contentLength = null;
+      }
+
+      return new ResponseHeaders(headersBuilder.build(), contentType, contentLength);
     }
   }
 }
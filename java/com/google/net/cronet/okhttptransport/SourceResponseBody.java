@@ -0,0 +1,53 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import javax.annotation.Nullable;
+import okhttp3.MediaType;
+import okhttp3.ResponseBody;
+import okio.BufferedSource;
+import okio.Okio;
+import okio.Source;
+
+/** A response body reading from a source, used for the bodies served by or written to caches. */
+final class SourceResponseBody extends ResponseBody {
+  @Nullable private final MediaType contentType;
+  private final long contentLength;
+  private final BufferedSource source;
+
+  SourceResponseBody(@Nullable MediaType contentType, long contentLength, Source source) {
+    this.contentType = contentType;
+    this.contentLength = contentLength;
+    this.source = Okio.buffer(source);
+  }
+
+  @Nullable
+  @Override
+  public MediaType contentType() {
+    return contentType;
+  }
+
+  @Override
+  public long contentLength() {
+    return contentLength;
+  }
+
+  @Override
+  public BufferedSource source() {
+    return source;
+  }
+}
@@ -0,0 +1,186 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import javax.annotation.Nullable;
+
+/**
+ * A bounded, lock-free queue for handing elements over from a single producer thread to a single
+ * consumer thread.
+ *
+ * <p>This is a lighter replacement for {@link java.util.concurrent.ArrayBlockingQueue} on the body
+ * bridging paths, which move every body chunk between Cronet's threads and the thread reading (or
+ * writing) the OkHttp body. The slots are preallocated so offering and polling don't allocate, and
+ * a waiting consumer briefly spins before parking as the next element usually arrives quickly.
+ *
+ * <p>At most one thread may offer (and close) at a time, and at most one thread may poll at a
+ * time. The threads may change as long as the calls are otherwise ordered, which is the case for
+ * Cronet's callbacks.
+ *
+ * <p>The producer can close the handoff to signal that no more elements are coming, which wakes
+ * up the consumer once the remaining elements are drained.
+ *
+ * <p>Waiting is implemented with {@link LockSupport} rather than monitors, so a waiting virtual
+ * thread unmounts from its carrier thread instead of pinning it. Spinning should be disabled for
+ * virtual threads as a spinning virtual thread keeps occupying its carrier.
+ */
+final class SpscHandoff<T> {
+
+  /** How many times a waiting consumer polls before parking. */
+  private static final int SPIN_TRIES = 100;
+
+  private final Object[] slots;
+  private final int spinTries;
+
+  /** The index of the next element to poll. Only written by the consumer. */
+  private volatile long head;
+
+  /** The index of the next element to offer. Only written by the producer. */
+  private volatile long tail;
+
+  private volatile boolean closed;
+
+  /** The parked consumer, if any. */
+  @Nullable private volatile Thread waiter;
+
+  SpscHandoff(int capacity) {
+    this(capacity, /* spinBeforeParking= */ true);
+  }
+
+  SpscHandoff(int capacity, boolean spinBeforeParking) {
+    checkArgument(capacity > 0, "The capacity must be positive!");
+    this.slots = new Object[capacity];
+    this.spinTries = spinBeforeParking ? SPIN_TRIES : 0;
+  }
+
+  /**
+   * Hands the element over to the consumer. Returns false if there's no free slot.
+   *
+   * <p>Must only be called by the producer.
+   */
+  boolean offer(T element) {
+    checkNotNull(element);
+    long localTail = tail;
+    if (localTail - head == slots.length) {
+      return false;
+    }
+    slots[(int) (localTail % slots.length)] = element;
+    // The volatile write publishes the slot. It must come before reading the waiter, the consumer
+    // does the opposite to make sure that a wake-up can't be missed.
+    tail = localTail + 1;
+    wakeUpWaiter();
+    return true;
+  }
+
+  /**
+   * Signals that no more elements will be offered. Waiting consumers return once they drained the
+   * already offered elements.
+   *
+   * <p>Must only be called by the producer.
+   */
+  void close() {
+    closed = true;
+    wakeUpWaiter();
+  }
+
+  /** Returns whether {@link #close} has been called. */
+  boolean isClosed() {
+    return closed;
+  }
+
+  /**
+   * Returns whether there are no elements waiting for the consumer.
+   *
+   * <p>Must only be called by the consumer.
+   */
+  boolean isEmpty() {
+    return head == tail;
+  }
+
+  /**
+   * Returns the next element or null if there's none.
+   *
+   * <p>Must only be called by the consumer.
+   */
+  @Nullable
+  T poll() {
+    long localHead = head;
+    if (localHead == tail) {
+      return null;
+    }
+    int index = (int) (localHead % slots.length);
+    @SuppressWarnings("unchecked") // only Ts are offered
+    T element = (T) slots[index];
+    slots[index] = null;
+    head = localHead + 1;
+    return element;
+  }
+
+  /**
+   * Returns the next element, waiting up to the given time for one to be offered. Returns null if
+   * the wait timed out, or if the handoff is closed and there are no elements left.
+   *
+   * <p>Must only be called by the consumer.
+   */
+  @Nullable
+  T poll(long timeout, TimeUnit unit) throws InterruptedException {
+    for (int i = 0; i < spinTries; i++) {
+      // Read the flag first, everything offered before closing is visible afterwards.
+      boolean localClosed = closed;
+      T element = poll();
+      if (element != null || localClosed) {
+        return element;
+      }
+    }
+
+    long remainingNanos = unit.toNanos(timeout);
+    // Overflows are fine, only the difference to System.nanoTime() is used.
+    long deadline = System.nanoTime() + remainingNanos;
+    waiter = Thread.currentThread();
+    try {
+      while (true) {
+        boolean localClosed = closed;
+        T element = poll();
+        if (element != null || localClosed) {
+          return element;
+        }
+        if (Thread.interrupted()) {
+          throw new InterruptedException();
+        }
+        if (remainingNanos <= 0) {
+          return null;
+        }
+        LockSupport.parkNanos(this, remainingNanos);
+        remainingNanos = deadline - System.nanoTime();
+      }
+    } finally {
+      waiter = null;
+    }
+  }
+
+  private void wakeUpWaiter() {
+    Thread localWaiter = waiter;
+    if (localWaiter != null) {
+      LockSupport.unpark(localWaiter);
+    }
+  }
+}
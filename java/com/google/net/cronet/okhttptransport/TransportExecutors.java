@@ -0,0 +1,327 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+import androidx.annotation.GuardedBy;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Supplier;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+import org.chromium.net.CronetEngine;
+
+/**
+ * The executors backing call factories and interceptors.
+ *
+ * <p>Objects built from the same Cronet engine with the same executor configuration share a
+ * single instance, which is reference counted and shut down once the last user {@linkplain
+ * #release() releases} it.
+ *
+ * <p>All the pools let idle threads time out, so that bursts of traffic don't leave thousands of
+ * threads behind:
+ *
+ * <ul>
+ *   <li>The upload data provider executor runs Cronet's upload callbacks. Its size is fixed,
+ *       excess tasks are queued.
+ *   <li>The request body executor runs the {@code RequestBody.writeTo()} calls of streamed
+ *       uploads. Each of them occupies a thread until the upload is done, and Cronet's reads of
+ *       the upload block an upload data provider thread until the writer hands over data. A
+ *       queued writer would therefore hold up the few provider threads, and with them all the
+ *       uploads of the engine. Writers are never queued: each gets its own thread by default, and
+ *       if a limit is set, uploads exceeding it are rejected, and fail, straight away.
+ *   <li>The callback executor runs the response callbacks of enqueued calls. Excess callbacks
+ *       are queued.
+ * </ul>
+ *
+ * <p>If virtual threads are requested and available (JDK 21+), all blocking work runs on virtual
+ * threads instead, which are cheap enough not to be bounded. The waits on the body bridging paths
+ * park (see {@link SpscHandoff}) rather than wait on monitors, so a blocked virtual thread releases
+ * its carrier thread. Code on those paths mustn't block while holding a monitor.
+ *
+ * <p>Each executor is only created when first requested, for example the request body executor
+ * with the first streamed upload, keeping thread pool setup off the application's startup path.
+ */
+final class TransportExecutors {
+  static final int DEFAULT_UPLOAD_DATA_PROVIDER_THREADS = 4;
+  /** No limit, the number of streamed uploads is bounded by the number of concurrent calls. */
+  static final int DEFAULT_REQUEST_BODY_THREADS = Integer.MAX_VALUE;
+  // Consistent with OkHttp's default limit of concurrently executed calls.
+  static final int DEFAULT_CALLBACK_THREADS = 64;
+
+  private static final long KEEP_ALIVE_SECONDS = 60;
+
+  @GuardedBy("TransportExecutors.class")
+  private static final Map<Key, TransportExecutors> sharedExecutors = new HashMap<>();
+
+  private final Key key;
+  private final LazyExecutor uploadDataProviderExecutor;
+  private final LazyExecutor requestBodyExecutor;
+  private final LazyExecutor callbackExecutor;
+  /** Backs all the executors if virtual threads are used. */
+  private final LazyExecutor virtualThreadExecutor;
+
+  private final boolean usesVirtualThreads;
+
+  @GuardedBy("TransportExecutors.class")
+  private int referenceCount;
+
+  private TransportExecutors(Key key) {
+    this.key = key;
+    usesVirtualThreads =
+        key.useVirtualThreads && VirtualThreadExecutorMethodHolder.METHOD != null;
+    virtualThreadExecutor = new LazyExecutor(TransportExecutors::newVirtualThreadPerTaskExecutor);
+    if (usesVirtualThreads) {
+      uploadDataProviderExecutor = new LazyExecutor(virtualThreadExecutor::get);
+      requestBodyExecutor = new LazyExecutor(virtualThreadExecutor::get);
+      callbackExecutor = new LazyExecutor(virtualThreadExecutor::get);
+    } else {
+      uploadDataProviderExecutor =
+          new LazyExecutor(
+              () -> newBoundedExecutor("upload-data-provider", key.uploadDataProviderThreads));
+      requestBodyExecutor =
+          new LazyExecutor(
+              () -> newUnqueuedExecutor("request-body", key.requestBodyThreads));
+      callbackExecutor =
+          new LazyExecutor(
+              () -> newBoundedExecutor("callback", DEFAULT_CALLBACK_THREADS));
+    }
+  }
+
+  /**
+   * Returns the executors for the given engine and configuration, creating them if they don't
+   * exist yet. Each call must be matched by a call to {@link #release()}.
+   */
+  static TransportExecutors acquire(
+      CronetEngine cronetEngine,
+      int uploadDataProviderThreads,
+      int requestBodyThreads,
+      boolean useVirtualThreads) {
+    Key key =
+        new Key(cronetEngine, uploadDataProviderThreads, requestBodyThreads, useVirtualThreads);
+    synchronized (TransportExecutors.class) {
+      TransportExecutors executors = sharedExecutors.get(key);
+      if (executors == null) {
+        executors = new TransportExecutors(key);
+        sharedExecutors.put(key, executors);
+      }
+      executors.referenceCount++;
+      return executors;
+    }
+  }
+
+  /** Releases the executors, shutting them down if they're no longer used. */
+  void release() {
+    synchronized (TransportExecutors.class) {
+      checkState(referenceCount > 0, "The executors have already been released!");
+      if (--referenceCount > 0) {
+        return;
+      }
+      sharedExecutors.remove(key);
+    }
+    // Already submitted tasks still run, in-flight requests can finish.
+    uploadDataProviderExecutor.shutdown();
+    requestBodyExecutor.shutdown();
+    callbackExecutor.shutdown();
+    virtualThreadExecutor.shutdown();
+  }
+
+  ExecutorService getUploadDataProviderExecutor() {
+    return uploadDataProviderExecutor.get();
+  }
+
+  ExecutorService getRequestBodyExecutor() {
+    return requestBodyExecutor.get();
+  }
+
+  ExecutorService getCallbackExecutor() {
+    return callbackExecutor.get();
+  }
+
+  /** Returns whether any of the executors was created. */
+  @VisibleForTesting
+  boolean isAnyExecutorCreated() {
+    return uploadDataProviderExecutor.isCreated()
+        || requestBodyExecutor.isCreated()
+        || callbackExecutor.isCreated()
+        || virtualThreadExecutor.isCreated();
+  }
+
+  /**
+   * Returns whether the executors run virtual threads, that is, if virtual threads were requested
+   * and are supported.
+   */
+  boolean usesVirtualThreads() {
+    return usesVirtualThreads;
+  }
+
+  /** Creates a pool of at most {@code maxThreads} threads. Excess tasks are queued. */
+  private static ExecutorService newBoundedExecutor(String name, int maxThreads) {
+    // With a queue, only core threads are ever created. Let them time out to behave like a cached
+    // pool capped at maxThreads.
+    ThreadPoolExecutor executor =
+        new ThreadPoolExecutor(
+            maxThreads,
+            maxThreads,
+            KEEP_ALIVE_SECONDS,
+            TimeUnit.SECONDS,
+            new LinkedBlockingQueue<>(),
+            new ThreadFactoryBuilder().setNameFormat("CronetTransport-" + name + "-%d").build());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  /**
+   * Creates a pool of at most {@code maxThreads} threads which doesn't queue tasks. Tasks exceeding
+   * the limit are rejected.
+   */
+  private static ExecutorService newUnqueuedExecutor(String name, int maxThreads) {
+    return new ThreadPoolExecutor(
+        0,
+        maxThreads,
+        KEEP_ALIVE_SECONDS,
+        TimeUnit.SECONDS,
+        new SynchronousQueue<>(),
+        new ThreadFactoryBuilder().setNameFormat("CronetTransport-" + name + "-%d").build());
+  }
+
+  /**
+   * Returns an executor starting a new virtual thread for each task. The method is looked up
+   * reflectively as the library targets Java 8, it must only be called if it's available.
+   */
+  private static ExecutorService newVirtualThreadPerTaskExecutor() {
+    Method factoryMethod = checkNotNull(VirtualThreadExecutorMethodHolder.METHOD);
+    try {
+      return (ExecutorService) factoryMethod.invoke(null);
+    } catch (IllegalAccessException | InvocationTargetException e) {
+      throw new IllegalStateException("Unable to create a virtual thread executor", e);
+    }
+  }
+
+  /**
+   * An executor created on first use. Once shut down, executors created afterwards are shut down
+   * straight away, so that late users get their tasks rejected like with an eagerly created one.
+   */
+  private static final class LazyExecutor {
+    private final Supplier<ExecutorService> factory;
+
+    @Nullable private volatile ExecutorService executor;
+
+    @GuardedBy("this")
+    private boolean shutDown;
+
+    LazyExecutor(Supplier<ExecutorService> factory) {
+      this.factory = factory;
+    }
+
+    ExecutorService get() {
+      ExecutorService localExecutor = executor;
+      if (localExecutor != null) {
+        return localExecutor;
+      }
+      synchronized (this) {
+        if (executor == null) {
+          executor = factory.get();
+          if (shutDown) {
+            executor.shutdown();
+          }
+        }
+        return executor;
+      }
+    }
+
+    boolean isCreated() {
+      return executor != null;
+    }
+
+    void shutdown() {
+      ExecutorService localExecutor;
+      synchronized (this) {
+        shutDown = true;
+        localExecutor = executor;
+      }
+      if (localExecutor != null) {
+        localExecutor.shutdown();
+      }
+    }
+  }
+
+  private static final class VirtualThreadExecutorMethodHolder {
+    @Nullable static final Method METHOD = lookUp();
+
+    @Nullable
+    private static Method lookUp() {
+      try {
+        return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      } catch (NoSuchMethodException e) {
+        return null;
+      }
+    }
+  }
+
+  private static final class Key {
+    private final CronetEngine cronetEngine;
+    private final int uploadDataProviderThreads;
+    private final int requestBodyThreads;
+    private final boolean useVirtualThreads;
+
+    Key(
+        CronetEngine cronetEngine,
+        int uploadDataProviderThreads,
+        int requestBodyThreads,
+        boolean useVirtualThreads) {
+      this.cronetEngine = cronetEngine;
+      this.uploadDataProviderThreads = uploadDataProviderThreads;
+      this.requestBodyThreads = requestBodyThreads;
+      this.useVirtualThreads = useVirtualThreads;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) o;
+      // Engines are compared by identity, they don't override equals().
+      return cronetEngine == other.cronetEngine
+          && uploadDataProviderThreads == other.uploadDataProviderThreads
+          && requestBodyThreads == other.requestBodyThreads
+          && useVirtualThreads == other.useVirtualThreads;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hash(
+          System.identityHashCode(cronetEngine),
+          uploadDataProviderThreads,
+          requestBodyThreads,
+          useVirtualThreads);
+    }
+  }
+}
@@ -17,32 +17,49 @@
 package com.google.net.cronet.okhttptransport;
 
 import static com.google.common.base.Preconditions.checkState;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 
-import android.util.Pair;
-import com.google.common.util.concurrent.Futures;
-import com.google.common.util.concurrent.SettableFuture;
+import androidx.annotation.GuardedBy;
 import java.io.IOException;
 import java.nio.ByteBuffer;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.Future;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeoutException;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.ReentrantLock;
+import javax.annotation.Nullable;
 import okio.Buffer;
 import okio.Sink;
 import okio.Timeout;
 import org.chromium.net.UploadDataSink;
 
+/**
+ * Hands the data written to the OkHttp request body over to Cronet's upload data provider.
+ *
+ * <p>Writes are coalesced: the buffer Cronet provided for a read is only handed back once it's
+ * full, once the writer explicitly flushes, once the body ends, or once the oldest bytes in it
+ * waited for the maximum coalescing delay. Bodies written in many small parts therefore don't cost
+ * a cross-thread round trip per part.
+ */
 final class UploadBodyDataBroker implements Sink {
 
   /**
-   * The read request calls to {@link org.chromium.net.UploadDataProvider#read(UploadDataSink,
-   * ByteBuffer)} associated with this broker that we haven't started handling.
+   * The buffers passed to {@link org.chromium.net.UploadDataProvider#read(UploadDataSink,
+   * ByteBuffer)} calls associated with this broker that we haven't started handling.
    *
    * <p>We don't expect more than one parallel read call for a single request body provider.
    */
-  private final BlockingQueue<Pair<ByteBuffer, SettableFuture<ReadResult>>> pendingRead =
-      new ArrayBlockingQueue<>(1);
+  private final SpscHandoff<ByteBuffer> pendingReads;
+
+  /**
+   * The results of the reads taken from {@link #pendingReads}. Closed by the background thread if
+   * reading the body fails.
+   *
+   * <p>Besides the result, a read can see a {@link ReadResult#BYTES_COALESCED} notification,
+   * hence the capacity of 2.
+   */
+  private final SpscHandoff<ReadResult> readResults;
 
   /**
    * Whether the sink has been closed.
@@ -58,24 +75,153 @@ final class UploadBodyDataBroker implements Sink {
    */
   private final AtomicReference<Throwable> backgroundReadThrowable = new AtomicReference<>();
 
+  /** How long written bytes may wait for more data, or 0 to hand over every write right away. */
+  private final long maxCoalescingDelayNanos;
+
+  /**
+   * Guards the buffer being filled, which is handed over either by the writing thread or, once the
+   * coalescing delay passed, by Cronet's thread waiting for the read result. Not a monitor so that
+   * virtual threads don't get pinned.
+   */
+  private final ReentrantLock fillLock = new ReentrantLock();
+
+  /** The buffer of the read being filled, taken from {@link #pendingReads}. */
+  @GuardedBy("fillLock")
+  @Nullable
+  private ByteBuffer fillBuffer;
+
+  /** The position of {@link #fillBuffer} when it was taken. */
+  @GuardedBy("fillLock")
+  private int fillBufferStartPosition;
+
+  /** When the first bytes were written to {@link #fillBuffer}. */
+  @GuardedBy("fillLock")
+  private long fillBufferFirstWriteNanos;
+
+  UploadBodyDataBroker() {
+    this(/* spinBeforeParking= */ true, /* maxCoalescingDelayMillis= */ 0);
+  }
+
   /**
-   * Indicates that Cronet is ready to receive another body part.
+   * @param spinBeforeParking whether waiting threads should spin briefly before parking, see
+   *     {@link SpscHandoff}. Should be disabled if the body is handled on virtual threads.
+   * @param maxCoalescingDelayMillis how long written bytes may wait for more data before they're
+   *     handed over to Cronet, or 0 to hand over every write right away
+   */
+  UploadBodyDataBroker(boolean spinBeforeParking, long maxCoalescingDelayMillis) {
+    pendingReads = new SpscHandoff<>(1, spinBeforeParking);
+    readResults = new SpscHandoff<>(2, spinBeforeParking);
+    maxCoalescingDelayNanos = MILLISECONDS.toNanos(maxCoalescingDelayMillis);
+  }
+
+  /**
+   * Indicates that Cronet is ready to receive another body part and waits until the background
+   * thread fills the buffer.
    *
    * <p>This method is executed by Cronet's upload data provider.
    */
-  Future<ReadResult> enqueueBodyRead(ByteBuffer readBuffer) {
+  ReadResult readBodyPart(ByteBuffer readBuffer, long timeoutMillis)
+      throws TimeoutException, ExecutionException {
     Throwable backgroundThrowable = backgroundReadThrowable.get();
     if (backgroundThrowable != null) {
-      return Futures.immediateFailedFuture(backgroundThrowable);
+      throw new ExecutionException(backgroundThrowable);
+    }
+    checkState(pendingReads.offer(readBuffer), "There's already a read in flight!");
+
+    boolean interrupted = false;
+    long remainingNanos = MILLISECONDS.toNanos(timeoutMillis);
+    long deadline = System.nanoTime() + remainingNanos;
+    try {
+      while (true) {
+        ReadResult result;
+        try {
+          result = readResults.poll(getWaitNanos(remainingNanos), NANOSECONDS);
+        } catch (InterruptedException e) {
+          interrupted = true;
+          remainingNanos = deadline - System.nanoTime();
+          continue;
+        }
+        if (result == ReadResult.BYTES_COALESCED) {
+          // Wait for the coalescing deadline from now on.
+          remainingNanos = deadline - System.nanoTime();
+          continue;
+        }
+        if (result != null) {
+          return result;
+        }
+        if (readResults.isClosed()) {
+          // Properly handle interleaving setBackgroundReadError / readBodyPart calls.
+          result = readResults.poll();
+          if (result != null) {
+            return result;
+          }
+          throw new ExecutionException(backgroundReadThrowable.get());
+        }
+        remainingNanos = deadline - System.nanoTime();
+        // Rather send what we have than time out.
+        if (takeCoalescedBuffer(/* force= */ remainingNanos <= 0)) {
+          return ReadResult.SUCCESS;
+        }
+        if (remainingNanos <= 0) {
+          throw new TimeoutException();
+        }
+      }
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
     }
-    SettableFuture<ReadResult> future = SettableFuture.create();
-    pendingRead.add(Pair.create(readBuffer, future));
+  }
+
+  /**
+   * Returns how long Cronet's thread should wait for the writer before checking for coalesced
+   * bytes that waited for too long. Until there are any, the writer's {@link
+   * ReadResult#BYTES_COALESCED} notification wakes the thread up.
+   */
+  private long getWaitNanos(long remainingNanos) {
+    if (maxCoalescingDelayNanos == 0) {
+      return remainingNanos;
+    }
+    fillLock.lock();
+    try {
+      if (!hasCoalescedBytes()) {
+        return remainingNanos;
+      }
+      long waitNanos = fillBufferFirstWriteNanos + maxCoalescingDelayNanos - System.nanoTime();
+      return Math.max(0, Math.min(waitNanos, remainingNanos));
+    } finally {
+      fillLock.unlock();
+    }
+  }
 
-    // Properly handle interleaving handleBackgroundReadError / enqueueBodyRead calls.
-    if ((backgroundThrowable = backgroundReadThrowable.get()) != null) {
-      future.setException(backgroundThrowable);
+  /**
+   * Hands the buffer being filled over to Cronet's thread if the coalesced bytes waited for the
+   * maximum delay, or unconditionally if {@code force} is set. Returns whether it was handed over.
+   *
+   * <p>This method is executed by Cronet's upload data provider.
+   */
+  private boolean takeCoalescedBuffer(boolean force) {
+    fillLock.lock();
+    try {
+      if (!hasCoalescedBytes()) {
+        return false;
+      }
+      if (!force && System.nanoTime() - fillBufferFirstWriteNanos < maxCoalescingDelayNanos) {
+        return false;
+      }
+      fillBuffer = null;
+      // The writer's notification might have been offered after the last poll, don't let it leak
+      // into the next read. There can't be anything else, the buffer wasn't handed over.
+      readResults.poll();
+      return true;
+    } finally {
+      fillLock.unlock();
     }
-    return future;
+  }
+
+  @GuardedBy("fillLock")
+  private boolean hasCoalescedBytes() {
+    return fillBuffer != null && fillBuffer.position() != fillBufferStartPosition;
   }
 
   /**
@@ -85,10 +231,7 @@ final class UploadBodyDataBroker implements Sink {
    */
   void setBackgroundReadError(Throwable t) {
     backgroundReadThrowable.set(t);
-    Pair<ByteBuffer, SettableFuture<ReadResult>> read = pendingRead.poll();
-    if (read != null) {
-      read.second.setException(t);
-    }
+    readResults.close();
   }
 
   /**
@@ -101,7 +244,22 @@ final class UploadBodyDataBroker implements Sink {
       throw new IllegalStateException("Already closed");
     }
 
-    getPendingCronetRead().second.set(ReadResult.END_OF_BODY);
+    flush();
+    while (true) {
+      ByteBuffer readBuffer = getFillBuffer();
+      fillLock.lock();
+      try {
+        if (fillBuffer != readBuffer) {
+          // Handed over by Cronet's thread in the meantime.
+          continue;
+        }
+        fillBuffer = null;
+        readResults.offer(ReadResult.END_OF_BODY);
+        return;
+      } finally {
+        fillLock.unlock();
+      }
+    }
   }
 
   /**
@@ -117,40 +275,83 @@ final class UploadBodyDataBroker implements Sink {
     long bytesRemaining = byteCount;
 
     while (bytesRemaining != 0) {
-      Pair<ByteBuffer, SettableFuture<ReadResult>> payload = getPendingCronetRead();
+      ByteBuffer readBuffer = getFillBuffer();
 
-      ByteBuffer readBuffer = payload.first;
-      SettableFuture<ReadResult> future = payload.second;
-
-      int originalBufferLimit = readBuffer.limit();
-      int bytesToDrain = (int) Math.min(originalBufferLimit, bytesRemaining);
+      fillLock.lock();
+      try {
+        if (fillBuffer != readBuffer) {
+          // Handed over by Cronet's thread in the meantime.
+          continue;
+        }
+        boolean firstWrite = !hasCoalescedBytes();
 
-      readBuffer.limit(bytesToDrain);
+        int originalBufferLimit = readBuffer.limit();
+        int bytesToDrain = (int) Math.min(readBuffer.remaining(), bytesRemaining);
+        readBuffer.limit(readBuffer.position() + bytesToDrain);
 
-      try {
-        long bytesRead = source.read(readBuffer);
+        // Failures are reported to Cronet by the caller, see setBackgroundReadError().
+        long bytesRead;
+        try {
+          bytesRead = source.read(readBuffer);
+        } finally {
+          readBuffer.limit(originalBufferLimit);
+        }
         if (bytesRead == -1) {
-          IOException e = new IOException("The source has been exhausted but we expected more!");
-          future.setException(e);
-          throw e;
+          throw new IOException("The source has been exhausted but we expected more!");
         }
         bytesRemaining -= bytesRead;
-        readBuffer.limit(originalBufferLimit);
-        future.set(ReadResult.SUCCESS);
-      } catch (IOException e) {
-        future.setException(e);
-        throw e;
+
+        if (maxCoalescingDelayNanos == 0 || !readBuffer.hasRemaining()) {
+          handOverFillBuffer();
+        } else if (firstWrite) {
+          fillBufferFirstWriteNanos = System.nanoTime();
+          readResults.offer(ReadResult.BYTES_COALESCED);
+        }
+      } finally {
+        fillLock.unlock();
       }
     }
   }
 
-  private Pair<ByteBuffer, SettableFuture<ReadResult>> getPendingCronetRead() throws IOException {
+  /**
+   * Returns the buffer to write to, waiting for Cronet to ask for more data if there's none.
+   *
+   * <p>This method is executed by the background OkHttp body reading thread.
+   */
+  private ByteBuffer getFillBuffer() throws IOException {
+    fillLock.lock();
+    try {
+      if (fillBuffer != null) {
+        return fillBuffer;
+      }
+    } finally {
+      fillLock.unlock();
+    }
+
+    ByteBuffer readBuffer;
     try {
-      return pendingRead.take();
+      readBuffer = pendingReads.poll(Long.MAX_VALUE, NANOSECONDS);
     } catch (InterruptedException e) {
       Thread.currentThread().interrupt();
       throw new IOException("Interrupted while waiting for a read to finish!");
     }
+    // The pending reads are never closed.
+    checkState(readBuffer != null);
+
+    fillLock.lock();
+    try {
+      fillBuffer = readBuffer;
+      fillBufferStartPosition = readBuffer.position();
+      return readBuffer;
+    } finally {
+      fillLock.unlock();
+    }
+  }
+
+  @GuardedBy("fillLock")
+  private void handOverFillBuffer() {
+    fillBuffer = null;
+    readResults.offer(ReadResult.SUCCESS);
   }
 
   @Override
@@ -158,11 +359,21 @@ final class UploadBodyDataBroker implements Sink {
     isClosed.set(true);
   }
 
+  /**
+   * Hands the coalesced bytes, if any, over to Cronet right away.
+   *
+   * <p>This method is executed by the background OkHttp body reading thread.
+   */
   @Override
   public void flush() {
-    // Not necessary, we "flush" by sending the data to Cronet straight away when write() is called.
-    // Note that this class is wrapped with a okio buffer so writes to the outer layer won't be
-    // seen by this class immediately.
+    fillLock.lock();
+    try {
+      if (hasCoalescedBytes()) {
+        handOverFillBuffer();
+      }
+    } finally {
+      fillLock.unlock();
+    }
   }
 
   @Override
@@ -172,6 +383,8 @@ final class UploadBodyDataBroker implements Sink {
 
   enum ReadResult {
     SUCCESS,
-    END_OF_BODY
+    END_OF_BODY,
+    /** Notifies Cronet's thread about coalesced bytes, never returned from {@link #readBodyPart}. */
+    BYTES_COALESCED
   }
 }
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import com.google.net.cronet.okhttptransport.RequestBodyConverterImpl.InMemoryRequestBodyConverter;
+import com.google.net.cronet.okhttptransport.RequestBodyConverterImpl.StreamingRequestBodyConverter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import okhttp3.MediaType;
+import okhttp3.RequestBody;
+import org.chromium.net.UploadDataProvider;
+import org.chromium.net.UploadDataSink;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures uploading a request body through the in-memory and streaming converters. Each operation
+ * converts the body and reads all of it the same way Cronet would.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestBodyConverterBenchmark {
+
+  /** The size of the buffer Cronet hands to the upload data provider. */
+  private static final int CRONET_UPLOAD_BUFFER_SIZE = 32 * 1024;
+
+  @Param({"1024", "65536", "1048576"})
+  int bodySize;
+
+  @Param({"IN_MEMORY", "STREAMING"})
+  String converterType;
+
+  private ExecutorService bodyReaderExecutor;
+  private RequestBodyConverter converter;
+  private RequestBody requestBody;
+  private final ByteBuffer uploadBuffer = ByteBuffer.allocateDirect(CRONET_UPLOAD_BUFFER_SIZE);
+  private final SynchronousUploadDataSink uploadDataSink = new SynchronousUploadDataSink();
+
+  @Setup
+  public void setUp() {
+    bodyReaderExecutor = Executors.newCachedThreadPool();
+    converter =
+        converterType.equals("IN_MEMORY")
+            ? new InMemoryRequestBodyConverter()
+            : new StreamingRequestBodyConverter(bodyReaderExecutor);
+    requestBody =
+        RequestBody.create(MediaType.parse("application/octet-stream"), new byte[bodySize]);
+  }
+
+  @TearDown
+  public void tearDown() {
+    bodyReaderExecutor.shutdownNow();
+  }
+
+  @Benchmark
+  public long upload() throws IOException {
+    UploadDataProvider provider = converter.convertRequestBody(requestBody, 0);
+    long remaining = provider.getLength();
+    while (remaining > 0) {
+      uploadBuffer.clear();
+      provider.read(uploadDataSink, uploadBuffer);
+      uploadDataSink.checkSucceeded();
+      remaining -= uploadBuffer.position();
+    }
+    return remaining;
+  }
+
+  /**
+   * An {@link UploadDataSink} for providers which report the read result before {@link
+   * UploadDataProvider#read} returns, which both of the benchmarked providers do.
+   */
+  private static final class SynchronousUploadDataSink extends UploadDataSink {
+    private boolean succeeded;
+    private Exception error;
+
+    void checkSucceeded() throws IOException {
+      if (error != null) {
+        throw new IOException(error);
+      }
+      if (!succeeded) {
+        throw new IllegalStateException("The read didn't finish synchronously!");
+      }
+      succeeded = false;
+    }
+
+    @Override
+    public void onReadSucceeded(boolean finalChunk) {
+      succeeded = true;
+    }
+
+    @Override
+    public void onReadError(Exception exception) {
+      error = exception;
+    }
+
+    @Override
+    public void onRewindSucceeded() {
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void onRewindError(Exception exception) {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
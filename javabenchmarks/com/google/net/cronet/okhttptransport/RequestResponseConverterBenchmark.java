@@ -0,0 +1,85 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import okhttp3.MediaType;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import org.chromium.net.UrlRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures {@link RequestResponseConverter#convert}, i.e. creating the Cronet request. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RequestResponseConverterBenchmark {
+
+  @Param({"0", "8", "32"})
+  int headerCount;
+
+  /** GET has no body, POST has a small body of known length and no explicit Content-Type. */
+  @Param({"GET", "POST"})
+  String method;
+
+  private RequestResponseConverter converter;
+  private Request request;
+
+  @Setup
+  public void setUp() {
+    FakeCronetEngine engine =
+        new FakeCronetEngine(
+            FakeUrlResponseInfo.create("https://www.example.com", 200),
+            new byte[0],
+            MoreExecutors.directExecutor());
+    converter = CronetInterceptor.newBuilder(engine).buildConverter();
+
+    Request.Builder requestBuilder = new Request.Builder().url("https://www.example.com/path?q=1");
+    for (int i = 0; i < headerCount; i++) {
+      requestBuilder.addHeader("X-Header-" + i, "value-" + i);
+    }
+    if (method.equals("POST")) {
+      requestBuilder.post(RequestBody.create((MediaType) null, new byte[1024]));
+    }
+    request = requestBuilder.build();
+  }
+
+  @TearDown
+  public void tearDown() {
+    converter.close();
+  }
+
+  @Benchmark
+  public UrlRequest convert() throws IOException {
+    return converter.convert(request, 0, 0).getRequest();
+  }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import com.google.net.cronet.okhttptransport.RequestResponseConverter.CronetRequestAndOkHttpResponse;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.Okio;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures downloading response bodies end to end: converting the request, receiving the response
+ * from a fake Cronet network thread and draining the body.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseBodyBenchmark {
+
+  @Param({"1024", "65536", "4194304"})
+  int bodySize;
+
+  @Param({"1", "4"})
+  int readAheadBufferCount;
+
+  private ExecutorService networkExecutor;
+  private RequestResponseConverter converter;
+  private final Request request = new Request.Builder().url("https://www.example.com").build();
+  private final ByteBuffer sinkBuffer = ByteBuffer.allocateDirect(64 * 1024);
+
+  @Setup
+  public void setUp() {
+    networkExecutor = Executors.newSingleThreadExecutor();
+    FakeCronetEngine engine =
+        new FakeCronetEngine(
+            FakeUrlResponseInfo.create(
+                "https://www.example.com", 200, "content-length", String.valueOf(bodySize)),
+            new byte[bodySize],
+            networkExecutor);
+    converter =
+        CronetInterceptor.newBuilder(engine)
+            .setReadAheadBufferCount(readAheadBufferCount)
+            .setResponseBodyBufferPool(ResponseBodyBufferPool.create(16))
+            .buildConverter();
+  }
+
+  @TearDown
+  public void tearDown() {
+    networkExecutor.shutdownNow();
+    converter.close();
+  }
+
+  @Benchmark
+  public long source() throws IOException {
+    try (Response response = execute()) {
+      return response.body().source().readAll(Okio.blackhole());
+    }
+  }
+
+  @Benchmark
+  public long byteChannel() throws IOException {
+    try (Response response = execute()) {
+      ReadableByteChannel channel = ((BridgedResponseBody) response.body()).byteChannel();
+      long total = 0;
+      int read;
+      while ((read = channel.read(sinkBuffer)) != -1) {
+        total += read;
+        sinkBuffer.clear();
+      }
+      return total;
+    }
+  }
+
+  private Response execute() throws IOException {
+    CronetRequestAndOkHttpResponse requestAndResponse = converter.convert(request, 0, 0);
+    requestAndResponse.getRequest().start();
+    return requestAndResponse.getResponse();
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.Buffer;
+import okio.Source;
+import org.chromium.net.UrlResponseInfo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Measures {@link ResponseConverter#toResponse} with redirect chains of various lengths. */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseConverterBenchmark {
+
+  private static final String[] TYPICAL_HEADERS = {
+    "cache-control", "private, max-age=0",
+    "content-type", "text/html; charset=UTF-8",
+    "content-length", "1024",
+    "date", "Tue, 15 Nov 1994 08:12:31 GMT",
+    "server", "gws",
+    "x-xss-protection", "0",
+    "x-frame-options", "SAMEORIGIN",
+    "set-cookie", "NID=511=abc; expires=Wed, 17-May-2023 07:43:15 GMT; path=/; HttpOnly",
+  };
+
+  @Param({"0", "3", "16"})
+  int redirectCount;
+
+  /** Whether the redirect responses are built eagerly or only kept as {@link RedirectHistory}. */
+  @Param({"true", "false"})
+  boolean priorResponsesEnabled;
+
+  private ResponseConverter underTest;
+  private final Request request = new Request.Builder().url("http://www.example.com/0").build();
+  private OkHttpBridgeRequestCallback callback;
+
+  @Setup
+  public void setUp() {
+    underTest = new ResponseConverter(priorResponsesEnabled);
+    List<String> urlChain = new ArrayList<>();
+    List<UrlResponseInfo> redirectResponseInfos = new ArrayList<>();
+    for (int i = 0; i <= redirectCount; i++) {
+      urlChain.add("http://www.example.com/" + i);
+      if (i < redirectCount) {
+        redirectResponseInfos.add(
+            FakeUrlResponseInfo.create(
+                ImmutableList.copyOf(urlChain),
+                302,
+                "location",
+                "http://www.example.com/" + (i + 1),
+                "content-length",
+                "0"));
+      }
+    }
+
+    ListenableFuture<UrlResponseInfo> responseInfoFuture =
+        Futures.immediateFuture(FakeUrlResponseInfo.create(urlChain, 200, TYPICAL_HEADERS));
+    // The body is never read so the same instance can be used for all the iterations.
+    ListenableFuture<Source> bodySourceFuture = Futures.immediateFuture(new Buffer());
+    List<UrlResponseInfo> urlResponseInfoChain = ImmutableList.copyOf(redirectResponseInfos);
+
+    callback =
+        new OkHttpBridgeRequestCallback(
+            0, RedirectStrategy.defaultStrategy(), ResponseBodyBufferPool.create(0), 1) {
+          @Override
+          ListenableFuture<UrlResponseInfo> getUrlResponseInfo() {
+            return responseInfoFuture;
+          }
+
+          @Override
+          ListenableFuture<Source> getBodySource() {
+            return bodySourceFuture;
+          }
+
+          @Override
+          List<UrlResponseInfo> getUrlResponseInfoChain() {
+            return urlResponseInfoChain;
+          }
+        };
+  }
+
+  @Benchmark
+  public Response toResponse() throws IOException {
+    return underTest.toResponse(request, callback);
+  }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class ConnectionWarmUpTest {
+  private final ExecutorService networkExecutor = Executors.newSingleThreadExecutor();
+  private final FakeCronetEngine engine =
+      new FakeCronetEngine(
+          FakeUrlResponseInfo.create("https://www.example.com/", 404),
+          new byte[0],
+          networkExecutor);
+
+  @After
+  public void tearDown() throws Exception {
+    // Warm-ups cancel their requests on the network thread after reporting them ready. Once a no-op
+    // ran, the cancellations have been dispatched and the thread can finish them and shut down.
+    networkExecutor.submit(() -> {}).get();
+    networkExecutor.shutdown();
+    assertThat(networkExecutor.awaitTermination(5, SECONDS)).isTrue();
+  }
+
+  @Test
+  public void testStart_responseReceived_ready() throws Exception {
+    ConnectionWarmUp underTest = new ConnectionWarmUp(engine);
+
+    underTest.start(ImmutableList.of("https://www.example.com"));
+
+    assertThat(underTest.awaitReady("https://www.example.com", 5, SECONDS)).isTrue();
+    assertThat(underTest.getState("https://www.example.com/any/path"))
+        .isEqualTo(ConnectionWarmUp.State.READY);
+    assertThat(underTest.getStates())
+        .isEqualTo(ImmutableMap.of("https://www.example.com", ConnectionWarmUp.State.READY));
+  }
+
+  @Test
+  public void testStart_sameOriginTwice_requestedOnce() throws Exception {
+    ConnectionWarmUp underTest = new ConnectionWarmUp(engine);
+
+    underTest.start(
+        ImmutableList.of("https://www.example.com", "https://www.example.com:443/image.png"));
+    underTest.awaitReady("https://www.example.com", 5, SECONDS);
+    underTest.start(ImmutableList.of("https://www.example.com"));
+
+    assertThat(engine.getBuiltRequests()).hasSize(1);
+  }
+
+  @Test
+  public void testStart_invalidOrigin_throws() {
+    ConnectionWarmUp underTest = new ConnectionWarmUp(engine);
+
+    assertThrows(
+        IllegalArgumentException.class, () -> underTest.start(ImmutableList.of("example.com")));
+  }
+
+  @Test
+  public void testAwaitReady_notWarmedUp_false() throws Exception {
+    ConnectionWarmUp underTest = new ConnectionWarmUp(engine);
+
+    assertThat(underTest.getState("https://www.example.com")).isNull();
+    assertThat(underTest.awaitReady("https://www.example.com", 5, SECONDS)).isFalse();
+  }
+
+  @Test
+  public void testBuilder_warmUpOrigins_warmedUpOnBuild() throws Exception {
+    CronetCallFactory callFactory =
+        CronetCallFactory.newBuilder(engine)
+            .setWarmUpOrigins(ImmutableList.of("https://www.example.com"))
+            .build();
+
+    try {
+      assertThat(engine.getBuiltRequests()).hasSize(1);
+      assertThat(
+              callFactory
+                  .getConnectionWarmUp()
+                  .awaitReady("https://www.example.com", 5, SECONDS))
+          .isTrue();
+    } finally {
+      callFactory.close();
+    }
+  }
+}
@@ -0,0 +1,636 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.base.Strings;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.net.cronet.okhttptransport.CronetRequestOptions.Priority;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Proxy;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.EventListener;
+import okhttp3.Handshake;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class CronetCallFactoryTest {
+  private static final String URL = "https://www.example.com";
+  private static final String BODY = Strings.repeat("Lorem ipsum dolor sit amet. ", 100);
+
+  @Rule public Timeout globalTimeout = Timeout.seconds(5);
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private final ExecutorService networkExecutor = Executors.newSingleThreadExecutor();
+  private final FakeCronetEngine cronetEngine =
+      new FakeCronetEngine(
+          FakeUrlResponseInfo.create(URL, 200, "Content-Type", "text/plain"),
+          BODY.getBytes(UTF_8),
+          networkExecutor);
+
+  @After
+  public void tearDown() {
+    networkExecutor.shutdownNow();
+  }
+
+  @Test
+  public void testMetrics_disabledByDefault() throws Exception {
+    CronetCallFactory underTest = CronetCallFactory.newBuilder(cronetEngine).build();
+
+    try (Response response = underTest.newCall(new Request.Builder().url(URL).build()).execute()) {
+      assertThat(response.body().string()).isEqualTo(BODY);
+      assertThat(CronetMetrics.fromResponse(response)).isNull();
+    }
+  }
+
+  @Test
+  public void testMetrics_attachedToResponse() throws Exception {
+    CronetCallFactory underTest =
+        CronetCallFactory.newBuilder(cronetEngine).setRequestMetricsEnabled(true).build();
+
+    try (Response response = underTest.newCall(new Request.Builder().url(URL).build()).execute()) {
+      CronetMetrics metrics = CronetMetrics.fromResponse(response);
+      assertThat(metrics).isNotNull();
+
+      assertThat(response.body().string()).isEqualTo(BODY);
+      awaitNetworkThreadIdle();
+
+      assertThat(metrics.isAvailable()).isTrue();
+      long start = FakeRequestFinishedInfo.REQUEST_START_MILLIS;
+      assertThat(metrics.getRequestStartMillis()).isEqualTo(start);
+      assertThat(metrics.getDnsStartMillis())
+          .isEqualTo(start + FakeRequestFinishedInfo.DNS_START_OFFSET_MILLIS);
+      assertThat(metrics.getSslEndMillis())
+          .isEqualTo(start + FakeRequestFinishedInfo.SSL_END_OFFSET_MILLIS);
+      assertThat(metrics.getPushStartMillis()).isEqualTo(CronetMetrics.UNKNOWN);
+      assertThat(metrics.getTtfbMillis())
+          .isEqualTo(FakeRequestFinishedInfo.RESPONSE_START_OFFSET_MILLIS);
+      assertThat(metrics.getSentByteCount()).isEqualTo(FakeRequestFinishedInfo.SENT_BYTE_COUNT);
+      assertThat(metrics.getReceivedByteCount()).isEqualTo(BODY.length());
+      assertThat(metrics.isSocketReused()).isFalse();
+    }
+  }
+
+  @Test
+  public void testEventListener_phasesReported() throws Exception {
+    RecordingEventListener eventListener = new RecordingEventListener();
+    CronetCallFactory underTest =
+        CronetCallFactory.newBuilder(cronetEngine)
+            .setEventListenerFactory(call -> eventListener)
+            .build();
+
+    try (Response response = underTest.newCall(new Request.Builder().url(URL).build()).execute()) {
+      assertThat(response.body().string()).isEqualTo(BODY);
+    }
+    awaitNetworkThreadIdle();
+
+    assertThat(eventListener.events)
+        .containsExactly(
+            "callStart",
+            "dnsStart",
+            "dnsEnd",
+            "connectStart",
+            "secureConnectStart",
+            "secureConnectEnd",
+            "connectEnd",
+            "requestHeadersStart",
+            "requestHeadersEnd",
+            "responseHeadersStart",
+            "responseHeadersEnd",
+            "responseBodyStart",
+            "responseBodyEnd",
+            "callEnd")
+        .inOrder();
+    assertThat(eventListener.responseMetrics).isNotNull();
+    assertThat(eventListener.responseMetrics.isAvailable()).isTrue();
+    assertThat(eventListener.responseBodyByteCount).isEqualTo(BODY.length());
+  }
+
+  @Test
+  public void testEventListener_canceledCall_reportsFailure() throws Exception {
+    RecordingEventListener eventListener = new RecordingEventListener();
+    CronetCallFactory underTest =
+        CronetCallFactory.newBuilder(cronetEngine)
+            .setEventListenerFactory(call -> eventListener)
+            .build();
+
+    Call call = underTest.newCall(new Request.Builder().url(URL).build());
+    Response response = call.execute();
+    try {
+      call.cancel();
+    } finally {
+      response.close();
+    }
+    awaitNetworkThreadIdle();
+
+    assertThat(eventListener.events).contains("callStart");
+    assertThat(eventListener.events).contains("responseHeadersEnd");
+    assertThat(eventListener.events).doesNotContain("responseBodyEnd");
+    assertThat(eventListener.events).doesNotContain("callEnd");
+    assertThat(eventListener.events.get(eventListener.events.size() - 1)).isEqualTo("callFailed");
+  }
+
+  @Test
+  public void testAsyncEnqueue_bodyPushedInChunks() throws Exception {
+    CronetCallFactory underTest =
+        CronetCallFactory.newBuilder(cronetEngine)
+            .setResponseBodyBufferPool(ResponseBodyBufferPool.create(1, 1024))
+            .build();
+    RecordingAsyncCallback callback = new RecordingAsyncCallback(/* readImmediately= */ true);
+
+    underTest.enqueue(new Request.Builder().url(URL).build(), callback);
+
+    assertThat(callback.done.get()).isNull();
+    assertThat(callback.response.code()).isEqualTo(200);
+    assertThat(callback.response.header("Content-Type")).isEqualTo("text/plain");
+    assertThat(callback.body.toString(UTF_8.name())).isEqualTo(BODY);
+    assertThat(callback.chunkCount.get()).isEqualTo(3);
+  }
+
+  @Test
+  public void testAsyncEnqueue_bodyOnlyReadOnDemand() throws Exception {
+    CronetCallFactory underTest = CronetCallFactory.newBuilder(cronetEngine).build();
+    RecordingAsyncCallback callback = new RecordingAsyncCallback(/* readImmediately= */ false);
+
+    underTest.enqueue(new Request.Builder().url(URL).build(), callback);
+    AsyncResponseBody body = callback.responseBody.get();
+    awaitNetworkThreadIdle();
+
+    assertThat(callback.chunkCount.get()).isEqualTo(0);
+
+    body.read();
+    assertThat(callback.done.get()).isNull();
+    assertThat(callback.body.toString(UTF_8.name())).isEqualTo(BODY);
+  }
+
+  @Test
+  public void testAsyncEnqueue_chunkNotDeliveredYet_readThrows() throws Exception {
+    ExecutorService callbackExecutor = Executors.newSingleThreadExecutor();
+    CountDownLatch callbackExecutorBlocker = new CountDownLatch(1);
+    try {
+      CronetCallFactory underTest =
+          CronetCallFactory.newBuilder(cronetEngine)
+              .setCallbackExecutorService(callbackExecutor)
+              .build();
+      RecordingAsyncCallback callback = new RecordingAsyncCallback(/* readImmediately= */ false);
+      underTest.enqueue(new Request.Builder().url(URL).build(), callback);
+      AsyncResponseBody body = callback.responseBody.get();
+      callbackExecutor.execute(() -> awaitUninterruptibly(callbackExecutorBlocker));
+
+      body.read();
+      // Cronet filled the buffer, but the chunk is stuck behind the blocked callback executor.
+      awaitNetworkThreadIdle();
+
+      assertThrows(IllegalStateException.class, body::read);
+      callbackExecutorBlocker.countDown();
+      assertThat(callback.done.get()).isNull();
+      assertThat(callback.body.toString(UTF_8.name())).isEqualTo(BODY);
+    } finally {
+      callbackExecutorBlocker.countDown();
+      callbackExecutor.shutdown();
+    }
+  }
+
+  @Test
+  public void testAsyncEnqueue_readStalled_timesOut() throws Exception {
+    CountDownLatch networkThreadBlocker = new CountDownLatch(1);
+    try {
+      CronetCallFactory underTest =
+          CronetCallFactory.newBuilder(cronetEngine).setReadTimeoutMillis(100).build();
+      RecordingAsyncCallback callback = new RecordingAsyncCallback(/* readImmediately= */ false);
+      underTest.enqueue(new Request.Builder().url(URL).build(), callback);
+      AsyncResponseBody body = callback.responseBody.get();
+      networkExecutor.execute(() -> awaitUninterruptibly(networkThreadBlocker));
+
+      body.read();
+
+      assertThat(callback.done.get()).isInstanceOf(CronetTimeoutException.class);
+      networkThreadBlocker.countDown();
+      awaitNetworkThreadIdle();
+      assertThat(callback.chunkCount.get()).isEqualTo(0);
+    } finally {
+      networkThreadBlocker.countDown();
+    }
+  }
+
+  @Test
+  public void testAsyncEnqueue_canceled_reportsFailure() throws Exception {
+    CronetCallFactory underTest = CronetCallFactory.newBuilder(cronetEngine).build();
+    RecordingAsyncCallback callback = new RecordingAsyncCallback(/* readImmediately= */ false);
+
+    Call call = underTest.enqueue(new Request.Builder().url(URL).build(), callback);
+    callback.responseBody.get();
+    call.cancel();
+
+    assertThat(callback.done.get()).hasMessageThat().isEqualTo("Canceled");
+    assertThat(call.isExecuted()).isTrue();
+  }
+
+  @Test
+  public void testClose_customCallbackExecutorNotShutDown() throws Exception {
+    ExecutorService callbackExecutor = Executors.newSingleThreadExecutor();
+    try {
+      CronetCallFactory underTest =
+          CronetCallFactory.newBuilder(cronetEngine)
+              .setCallbackExecutorService(callbackExecutor)
+              .build();
+
+      underTest.close();
+      underTest.close();
+
+      assertThat(callbackExecutor.isShutdown()).isFalse();
+    } finally {
+      callbackExecutor.shutdown();
+    }
+  }
+
+  @Test
+  public void testRequestCoalescing_identicalCallsShareRequest() throws Exception {
+    CronetCallFactory underTest =
+        CronetCallFactory.newBuilder(cronetEngine).setRequestCoalescingEnabled(true).build();
+    CountDownLatch networkThreadBlocker = blockNetworkThread();
+
+    SettableFuture<Response> first =
+        enqueue(underTest.newCall(new Request.Builder().url(URL).build()));
+    SettableFuture<Response> second =
+        enqueue(underTest.newCall(new Request.Builder().url(URL).build()));
+    networkThreadBlocker.countDown();
+
+    try (Response firstResponse = first.get();
+        Response secondResponse = second.get()) {
+      assertThat(firstResponse.body().string()).isEqualTo(BODY);
+      assertThat(secondResponse.header("Content-Type")).isEqualTo("text/plain");
+      assertThat(secondResponse.body().string()).isEqualTo(BODY);
+    }
+    assertThat(cronetEngine.getBuiltRequests()).hasSize(1);
+  }
+
+  @Test
+  public void testRequestCoalescing_equalOptions_shareRequest() throws Exception {
+    CronetCallFactory underTest =
+        CronetCallFactory.newBuilder(cronetEngine).setRequestCoalescingEnabled(true).build();
+    CountDownLatch networkThreadBlocker = blockNetworkThread();
+
+    SettableFuture<Response> first = enqueue(underTest.newCall(requestWithPriority(Priority.LOW)));
+    SettableFuture<Response> second = enqueue(underTest.newCall(requestWithPriority(Priority.LOW)));
+    SettableFuture<Response> third =
+        enqueue(underTest.newCall(requestWithPriority(Priority.HIGHEST)));
+    networkThreadBlocker.countDown();
+
+    first.get().close();
+    second.get().close();
+    third.get().close();
+    assertThat(cronetEngine.getBuiltRequests()).hasSize(2);
+  }
+
+  @Test
+  public void testRequestCoalescing_differentHeaders_notShared() throws Exception {
+    CronetCallFactory underTest =
+        CronetCallFactory.newBuilder(cronetEngine).setRequestCoalescingEnabled(true).build();
+    CountDownLatch networkThreadBlocker = blockNetworkThread();
+
+    SettableFuture<Response> first =
+        enqueue(underTest.newCall(new Request.Builder().url(URL).build()));
+    SettableFuture<Response> second =
+        enqueue(
+            underTest.newCall(
+                new Request.Builder().url(URL).header("Accept-Language", "fr").build()));
+    networkThreadBlocker.countDown();
+
+    first.get().close();
+    second.get().close();
+    assertThat(cronetEngine.getBuiltRequests()).hasSize(2);
+  }
+
+  @Test
+  public void testRequestCoalescing_oneCallCanceled_othersComplete() throws Exception {
+    CronetCallFactory underTest =
+        CronetCallFactory.newBuilder(cronetEngine).setRequestCoalescingEnabled(true).build();
+    CountDownLatch networkThreadBlocker = blockNetworkThread();
+
+    Call canceledCall = underTest.newCall(new Request.Builder().url(URL).build());
+    SettableFuture<Response> canceled = enqueue(canceledCall);
+    SettableFuture<Response> other =
+        enqueue(underTest.newCall(new Request.Builder().url(URL).build()));
+    canceledCall.cancel();
+    networkThreadBlocker.countDown();
+
+    ExecutionException e = assertThrows(ExecutionException.class, canceled::get);
+    assertThat(e).hasCauseThat().isInstanceOf(IOException.class);
+    try (Response response = other.get()) {
+      assertThat(response.body().string()).isEqualTo(BODY);
+    }
+    assertThat(cronetEngine.getBuiltRequests()).hasSize(1);
+  }
+
+  @Test
+  public void testRequestCoalescing_bodiesReadOneAfterTheOther_bothComplete() throws Exception {
+    byte[] largeBody = new byte[(int) (2 * RequestCoalescer.MAX_BUFFERED_BYTES)];
+    FakeCronetEngine engine =
+        new FakeCronetEngine(FakeUrlResponseInfo.create(URL, 200), largeBody, networkExecutor);
+    CronetCallFactory underTest =
+        CronetCallFactory.newBuilder(engine).setRequestCoalescingEnabled(true).build();
+    CountDownLatch networkThreadBlocker = blockNetworkThread();
+
+    SettableFuture<Response> first =
+        enqueue(underTest.newCall(new Request.Builder().url(URL).build()));
+    SettableFuture<Response> second =
+        enqueue(underTest.newCall(new Request.Builder().url(URL).build()));
+    networkThreadBlocker.countDown();
+
+    try (Response firstResponse = first.get();
+        Response secondResponse = second.get()) {
+      // The second body isn't buffered while the first is read, it's requested on its own.
+      assertThat(firstResponse.body().bytes()).hasLength(largeBody.length);
+      assertThat(secondResponse.body().bytes()).hasLength(largeBody.length);
+    }
+    assertThat(engine.getBuiltRequests()).hasSize(2);
+  }
+
+  @Test
+  public void testRequestCoalescing_partiallyReadBodyFallsBehind_fails() throws Exception {
+    byte[] largeBody = new byte[(int) (2 * RequestCoalescer.MAX_BUFFERED_BYTES)];
+    FakeCronetEngine engine =
+        new FakeCronetEngine(FakeUrlResponseInfo.create(URL, 200), largeBody, networkExecutor);
+    CronetCallFactory underTest =
+        CronetCallFactory.newBuilder(engine).setRequestCoalescingEnabled(true).build();
+    CountDownLatch networkThreadBlocker = blockNetworkThread();
+
+    SettableFuture<Response> fast =
+        enqueue(underTest.newCall(new Request.Builder().url(URL).build()));
+    SettableFuture<Response> slow =
+        enqueue(underTest.newCall(new Request.Builder().url(URL).build()));
+    networkThreadBlocker.countDown();
+
+    try (Response fastResponse = fast.get();
+        Response slowResponse = slow.get()) {
+      slowResponse.body().source().readByte();
+
+      assertThat(fastResponse.body().bytes()).hasLength(largeBody.length);
+      assertThrows(IOException.class, () -> slowResponse.body().bytes());
+    }
+    assertThat(engine.getBuiltRequests()).hasSize(1);
+  }
+
+  @Test
+  public void testRequestCoalescing_bodyClosed_requestCanceled() throws Exception {
+    CronetCallFactory underTest =
+        CronetCallFactory.newBuilder(cronetEngine).setRequestCoalescingEnabled(true).build();
+
+    Response first = underTest.newCall(new Request.Builder().url(URL).build()).execute();
+    first.body().close();
+    awaitNetworkThreadIdle();
+
+    assertThat(cronetEngine.getBuiltRequests()).hasSize(1);
+    assertThat(cronetEngine.getBuiltRequests().get(0).isDone()).isTrue();
+  }
+
+  @Test
+  public void testCache_freshResponse_servedWithoutCronetRequest() throws Exception {
+    FakeCronetEngine engine =
+        new FakeCronetEngine(
+            FakeUrlResponseInfo.create(URL, 200, "Cache-Control", "max-age=60"),
+            BODY.getBytes(UTF_8),
+            networkExecutor);
+    CronetHttpCache cache = CronetHttpCache.create(temporaryFolder.getRoot(), 1024 * 1024);
+    CronetCallFactory underTest = CronetCallFactory.newBuilder(engine).setCache(cache).build();
+
+    try (Response response = underTest.newCall(new Request.Builder().url(URL).build()).execute()) {
+      assertThat(response.body().string()).isEqualTo(BODY);
+    }
+    try (Response response = underTest.newCall(new Request.Builder().url(URL).build()).execute()) {
+      assertThat(response.cacheResponse()).isNotNull();
+      assertThat(response.body().string()).isEqualTo(BODY);
+    }
+    SettableFuture<Response> enqueued =
+        enqueue(underTest.newCall(new Request.Builder().url(URL).build()));
+    try (Response response = enqueued.get()) {
+      assertThat(response.body().string()).isEqualTo(BODY);
+    }
+
+    assertThat(engine.getBuiltRequests()).hasSize(1);
+    assertThat(cache.getHitCount()).isEqualTo(2);
+  }
+
+  /** Blocks the network thread, so that Cronet callbacks are held back until released. */
+  private CountDownLatch blockNetworkThread() {
+    CountDownLatch blocker = new CountDownLatch(1);
+    networkExecutor.execute(
+        () -> {
+          try {
+            blocker.await();
+          } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+          }
+        });
+    return blocker;
+  }
+
+  private static SettableFuture<Response> enqueue(Call call) {
+    SettableFuture<Response> response = SettableFuture.create();
+    call.enqueue(
+        new Callback() {
+          @Override
+          public void onResponse(Call call, Response result) {
+            response.set(result);
+          }
+
+          @Override
+          public void onFailure(Call call, IOException e) {
+            response.setException(e);
+          }
+        });
+    return response;
+  }
+
+  /** Builds a request with newly built, rather than shared, options. */
+  private static Request requestWithPriority(Priority priority) {
+    return new Request.Builder()
+        .url(URL)
+        .tag(
+            CronetRequestOptions.class,
+            CronetRequestOptions.newBuilder().setPriority(priority).build())
+        .build();
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void awaitNetworkThreadIdle() throws Exception {
+    // The executor is single threaded, once the no-op ran all the previous callbacks did as well.
+    networkExecutor.submit(() -> {}).get();
+  }
+
+  /** Collects the pushed body, reporting the outcome to {@link #done} (null if successful). */
+  private static final class RecordingAsyncCallback implements AsyncResponseCallback {
+    private final boolean readImmediately;
+    final SettableFuture<AsyncResponseBody> responseBody = SettableFuture.create();
+    final SettableFuture<IOException> done = SettableFuture.create();
+    final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    final AtomicInteger chunkCount = new AtomicInteger();
+    volatile Response response;
+
+    RecordingAsyncCallback(boolean readImmediately) {
+      this.readImmediately = readImmediately;
+    }
+
+    @Override
+    public void onResponse(Call call, Response response, AsyncResponseBody responseBody) {
+      this.response = response;
+      this.responseBody.set(responseBody);
+      if (readImmediately) {
+        responseBody.read();
+      }
+    }
+
+    @Override
+    public void onBodyChunk(Call call, AsyncResponseBody responseBody, ByteBuffer chunk) {
+      chunkCount.incrementAndGet();
+      byte[] bytes = new byte[chunk.remaining()];
+      chunk.get(bytes);
+      body.write(bytes, 0, bytes.length);
+      responseBody.read();
+    }
+
+    @Override
+    public void onBodyComplete(Call call) {
+      done.set(null);
+    }
+
+    @Override
+    public void onFailure(Call call, IOException e) {
+      done.set(e);
+    }
+  }
+
+  static final class RecordingEventListener extends EventListener {
+    final List<String> events = Collections.synchronizedList(new ArrayList<>());
+    volatile CronetMetrics responseMetrics;
+    volatile long responseBodyByteCount = -1;
+
+    @Override
+    public void callStart(Call call) {
+      events.add("callStart");
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+      events.add("dnsStart");
+    }
+
+    @Override
+    public void dnsEnd(Call call, String domainName, List<InetAddress> inetAddressList) {
+      events.add("dnsEnd");
+    }
+
+    @Override
+    public void connectStart(
+        Call call, InetSocketAddress inetSocketAddress, Proxy proxy) {
+      events.add("connectStart");
+    }
+
+    @Override
+    public void secureConnectStart(Call call) {
+      events.add("secureConnectStart");
+    }
+
+    @Override
+    public void secureConnectEnd(Call call, Handshake handshake) {
+      events.add("secureConnectEnd");
+    }
+
+    @Override
+    public void connectEnd(
+        Call call,
+        InetSocketAddress inetSocketAddress,
+        Proxy proxy,
+        Protocol protocol) {
+      events.add("connectEnd");
+    }
+
+    @Override
+    public void requestHeadersStart(Call call) {
+      events.add("requestHeadersStart");
+    }
+
+    @Override
+    public void requestHeadersEnd(Call call, Request request) {
+      events.add("requestHeadersEnd");
+    }
+
+    @Override
+    public void responseHeadersStart(Call call) {
+      events.add("responseHeadersStart");
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+      responseMetrics = CronetMetrics.fromResponse(response);
+      events.add("responseHeadersEnd");
+    }
+
+    @Override
+    public void responseBodyStart(Call call) {
+      events.add("responseBodyStart");
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+      responseBodyByteCount = byteCount;
+      events.add("responseBodyEnd");
+    }
+
+    @Override
+    public void callEnd(Call call) {
+      events.add("callEnd");
+    }
+
+    @Override
+    public void callFailed(Call call, IOException ioe) {
+      events.add("callFailed");
+    }
+  }
+}
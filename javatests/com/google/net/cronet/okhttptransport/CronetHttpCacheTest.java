@@ -0,0 +1,229 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.ISO_8859_1;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import okhttp3.CacheControl;
+import okhttp3.Headers;
+import okhttp3.MediaType;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.RequestBody;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class CronetHttpCacheTest {
+  private static final String URL = "https://www.example.com/";
+  private static final String BODY = "Lorem ipsum dolor sit amet.";
+
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private CronetHttpCache cache;
+
+  @Before
+  public void setUp() {
+    cache = CronetHttpCache.create(temporaryFolder.getRoot(), 1024 * 1024);
+  }
+
+  @Test
+  public void testFreshResponse_servedFromCache() throws Exception {
+    Request request = new Request.Builder().url(URL).build();
+    fetch(request, 200, "Cache-Control", "max-age=60");
+
+    CronetHttpCache.Lookup lookup = cache.lookUp(request);
+
+    assertThat(lookup.getNetworkRequest()).isNull();
+    try (Response response = lookup.getCacheResponse()) {
+      assertThat(response.code()).isEqualTo(200);
+      assertThat(response.header("Cache-Control")).isEqualTo("max-age=60");
+      assertThat(response.body().contentType()).isEqualTo(MediaType.parse("text/plain"));
+      assertThat(response.body().string()).isEqualTo(BODY);
+      assertThat(response.cacheResponse()).isNotNull();
+    }
+    assertThat(cache.getRequestCount()).isEqualTo(2);
+    assertThat(cache.getNetworkCount()).isEqualTo(1);
+    assertThat(cache.getHitCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testBodyNotFullyRead_notCached() throws Exception {
+    Request request = new Request.Builder().url(URL).build();
+    CronetHttpCache.Lookup lookup = cache.lookUp(request);
+    Response response =
+        cache.onNetworkResponse(
+            lookup,
+            networkResponse(lookup.getNetworkRequest(), 200, "Cache-Control", "max-age=60"));
+
+    response.body().source().readByte();
+    response.close();
+
+    assertThat(cache.lookUp(request).getNetworkRequest()).isNotNull();
+    assertThat(cache.getSizeBytes()).isEqualTo(0);
+  }
+
+  @Test
+  public void testStaleResponse_revalidated() throws Exception {
+    Request request = new Request.Builder().url(URL).build();
+    fetch(request, 200, "ETag", "\"v1\"", "X-Version", "1");
+
+    CronetHttpCache.Lookup lookup = cache.lookUp(request);
+    Request networkRequest = lookup.getNetworkRequest();
+    assertThat(networkRequest.header("If-None-Match")).isEqualTo("\"v1\"");
+
+    try (Response response =
+        cache.onNetworkResponse(
+            lookup, networkResponse(networkRequest, 304, "ETag", "\"v1\"", "X-Version", "2"))) {
+      assertThat(response.code()).isEqualTo(200);
+      assertThat(response.header("X-Version")).isEqualTo("2");
+      assertThat(response.body().string()).isEqualTo(BODY);
+      assertThat(response.networkResponse().code()).isEqualTo(304);
+    }
+    assertThat(cache.getHitCount()).isEqualTo(1);
+
+    // The headers of the 304 response are stored.
+    CronetHttpCache.Lookup nextLookup = cache.lookUp(request);
+    nextLookup.close();
+    assertThat(nextLookup.getNetworkRequest().header("If-None-Match")).isEqualTo("\"v1\"");
+  }
+
+  @Test
+  public void testStaleResponse_modified_replaced() throws Exception {
+    Request request = new Request.Builder().url(URL).build();
+    fetch(
+        request,
+        200,
+        "Last-Modified",
+        "Mon, 01 Jan 2024 00:00:00 GMT",
+        "Cache-Control",
+        "no-cache");
+
+    CronetHttpCache.Lookup lookup = cache.lookUp(request);
+    assertThat(lookup.getNetworkRequest().header("If-Modified-Since"))
+        .isEqualTo("Mon, 01 Jan 2024 00:00:00 GMT");
+    try (Response response =
+        cache.onNetworkResponse(
+            lookup,
+            networkResponse(lookup.getNetworkRequest(), 200, "Cache-Control", "max-age=60"))) {
+      assertThat(response.body().string()).isEqualTo(BODY);
+    }
+
+    assertThat(cache.lookUp(request).getNetworkRequest()).isNull();
+  }
+
+  @Test
+  public void testNoStore_notCached() throws Exception {
+    Request request = new Request.Builder().url(URL).build();
+    fetch(request, 200, "Cache-Control", "max-age=60, no-store");
+
+    assertThat(cache.lookUp(request).getNetworkRequest()).isSameInstanceAs(request);
+  }
+
+  @Test
+  public void testVary_differentRequestHeader_notServed() throws Exception {
+    Request request = new Request.Builder().url(URL).header("Accept-Language", "en").build();
+    fetch(request, 200, "Cache-Control", "max-age=60", "Vary", "Accept-Language");
+
+    Request otherLanguage = request.newBuilder().header("Accept-Language", "fr").build();
+    assertThat(cache.lookUp(otherLanguage).getNetworkRequest()).isSameInstanceAs(otherLanguage);
+    assertThat(cache.lookUp(request).getNetworkRequest()).isNull();
+  }
+
+  @Test
+  public void testPost_invalidatesCachedResponse() throws Exception {
+    Request request = new Request.Builder().url(URL).build();
+    fetch(request, 200, "Cache-Control", "max-age=60");
+
+    Request post = new Request.Builder().url(URL).post(RequestBody.create(null, "")).build();
+    CronetHttpCache.Lookup lookup = cache.lookUp(post);
+    cache.onNetworkResponse(lookup, networkResponse(lookup.getNetworkRequest(), 200)).close();
+
+    assertThat(cache.lookUp(request).getNetworkRequest()).isSameInstanceAs(request);
+  }
+
+  @Test
+  public void testOnlyIfCached_nothingCached_unsatisfiable() throws Exception {
+    Request request =
+        new Request.Builder().url(URL).cacheControl(CacheControl.FORCE_CACHE).build();
+
+    CronetHttpCache.Lookup lookup = cache.lookUp(request);
+
+    assertThat(lookup.getNetworkRequest()).isNull();
+    assertThat(lookup.getCacheResponse().code()).isEqualTo(504);
+  }
+
+  @Test
+  public void testCorruptMetadata_treatedAsMissAndRemoved() throws Exception {
+    Request request = new Request.Builder().url(URL).build();
+    fetch(request, 200, "Cache-Control", "max-age=60");
+    File[] metadataFiles = temporaryFolder.getRoot().listFiles((dir, name) -> name.endsWith(".0"));
+    assertThat(metadataFiles).hasLength(1);
+    String metadata;
+    try (BufferedSource source = Okio.buffer(Okio.source(metadataFiles[0]))) {
+      // Byte for byte, the metadata starts with a binary header.
+      metadata = source.readString(ISO_8859_1);
+    }
+    try (BufferedSink sink = Okio.buffer(Okio.sink(metadataFiles[0]))) {
+      // The status code doesn't parse anymore.
+      sink.writeString(metadata.replace("\n200\n", "\nabc\n"), ISO_8859_1);
+    }
+
+    CronetHttpCache.Lookup lookup = cache.lookUp(request);
+
+    assertThat(lookup.getNetworkRequest()).isSameInstanceAs(request);
+    assertThat(cache.getSizeBytes()).isEqualTo(0);
+  }
+
+  /** Executes the request against a fake network and reads the whole response. */
+  private void fetch(Request request, int code, String... headers) throws Exception {
+    CronetHttpCache.Lookup lookup = cache.lookUp(request);
+    try (Response response =
+        cache.onNetworkResponse(
+            lookup, networkResponse(lookup.getNetworkRequest(), code, headers))) {
+      response.body().string();
+    }
+  }
+
+  private static Response networkResponse(Request request, int code, String... headers) {
+    long nowMillis = System.currentTimeMillis();
+    return new Response.Builder()
+        .request(request)
+        .protocol(Protocol.HTTP_2)
+        .code(code)
+        .message("")
+        .headers(
+            new Headers.Builder()
+                .add("Content-Type", "text/plain")
+                .addAll(Headers.of(headers))
+                .build())
+        .body(ResponseBody.create(MediaType.parse("text/plain"), code == 304 ? "" : BODY))
+        .sentRequestAtMillis(nowMillis)
+        .receivedResponseAtMillis(nowMillis)
+        .build();
+  }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.base.Strings;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import okhttp3.Call;
+import okhttp3.EventListener;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class CronetInterceptorTest {
+  // ~110 KiB, doesn't fit a single read
+  private static final String LONG_BODY =
+      Strings.repeat("Lorem ipsum dolor sit amet, consectetur adipiscing elit.", 2000);
+
+  @Rule public Timeout globalTimeout = Timeout.seconds(5);
+
+  private final ExecutorService networkExecutor = Executors.newSingleThreadExecutor();
+  private final List<String> delegateEvents = Collections.synchronizedList(new ArrayList<>());
+
+  private final CronetInterceptor underTest =
+      CronetInterceptor.newBuilder(
+              new FakeCronetEngine(
+                  FakeUrlResponseInfo.create("https://www.example.com", 200),
+                  LONG_BODY.getBytes(UTF_8),
+                  networkExecutor))
+          .setCancellationCheckIntervalMillis(0)
+          .build();
+
+  @After
+  public void tearDown() {
+    underTest.close();
+    networkExecutor.shutdownNow();
+  }
+
+  @Test
+  public void testEventListenerFactory_cancellationPropagatedImmediately() throws Exception {
+    EventListener.Factory eventListenerFactory =
+        underTest.newEventListenerFactory(call -> new RecordingEventListener());
+    OkHttpClient client =
+        new OkHttpClient.Builder()
+            .addInterceptor(underTest)
+            .eventListenerFactory(eventListenerFactory)
+            .build();
+    Call call = client.newCall(new Request.Builder().url("https://www.example.com").build());
+
+    try (Response response = call.execute()) {
+      assertThat(response.body().source().readByte()).isEqualTo((byte) 'L');
+
+      // Mimics OkHttp versions which report cancellations to event listeners.
+      call.cancel();
+      ((ForwardingEventListener) eventListenerFactory.create(call)).canceled(call);
+
+      IOException e =
+          assertThrows(IOException.class, () -> response.body().source().readByteArray());
+      assertThat(e).hasMessageThat().contains("canceled");
+    }
+    assertThat(delegateEvents).contains("callStart");
+  }
+
+  @Test
+  public void testEventListenerFactory_eventsForwarded() throws Exception {
+    OkHttpClient client =
+        new OkHttpClient.Builder()
+            .addInterceptor(underTest)
+            .eventListenerFactory(
+                underTest.newEventListenerFactory(call -> new RecordingEventListener()))
+            .build();
+
+    try (Response response =
+        client.newCall(new Request.Builder().url("https://www.example.com").build()).execute()) {
+      assertThat(response.body().string()).isEqualTo(LONG_BODY);
+    }
+
+    assertThat(delegateEvents).contains("callStart");
+  }
+
+  @Test
+  public void testEventListenerFactory_cronetPhasesReported() throws Exception {
+    OkHttpClient client =
+        new OkHttpClient.Builder()
+            .addInterceptor(underTest)
+            .eventListenerFactory(
+                underTest.newEventListenerFactory(call -> new RecordingEventListener()))
+            .build();
+
+    try (Response response =
+        client.newCall(new Request.Builder().url("https://www.example.com").build()).execute()) {
+      assertThat(response.body().string()).isEqualTo(LONG_BODY);
+      assertThat(CronetMetrics.fromResponse(response)).isNotNull();
+    }
+    // The executor is single threaded, once the no-op ran all the previous callbacks did as well.
+    networkExecutor.submit(() -> {}).get();
+
+    // OkHttp reports the call events itself, the interceptor must not duplicate them.
+    assertThat(delegateEvents)
+        .containsExactly("callStart", "dnsStart", "responseHeadersEnd", "responseBodyEnd")
+        .inOrder();
+  }
+
+  @Test
+  public void testMemoryCache_hitServedWithoutCronetRequest() throws Exception {
+    String url = "https://www.example.com";
+    FakeCronetEngine engine =
+        new FakeCronetEngine(
+            FakeUrlResponseInfo.create(url, 200, "Cache-Control", "max-age=60"),
+            "icon".getBytes(UTF_8),
+            networkExecutor);
+    CronetMemoryCache memoryCache = CronetMemoryCache.create(64 * 1024, 1024);
+    CronetInterceptor interceptor =
+        CronetInterceptor.newBuilder(engine)
+            .setCancellationCheckIntervalMillis(0)
+            .setMemoryCache(memoryCache)
+            .build();
+    OkHttpClient client = new OkHttpClient.Builder().addInterceptor(interceptor).build();
+
+    try {
+      for (int i = 0; i < 2; i++) {
+        try (Response response = client.newCall(new Request.Builder().url(url).build()).execute()) {
+          assertThat(response.body().string()).isEqualTo("icon");
+        }
+      }
+    } finally {
+      interceptor.close();
+    }
+
+    assertThat(engine.getBuiltRequests()).hasSize(1);
+    assertThat(memoryCache.getHitCount()).isEqualTo(1);
+  }
+
+  private final class RecordingEventListener extends EventListener {
+    @Override
+    public void callStart(Call call) {
+      delegateEvents.add("callStart");
+    }
+
+    @Override
+    public void dnsStart(Call call, String domainName) {
+      delegateEvents.add("dnsStart");
+    }
+
+    @Override
+    public void responseHeadersEnd(Call call, Response response) {
+      delegateEvents.add("responseHeadersEnd");
+    }
+
+    @Override
+    public void responseBodyEnd(Call call, long byteCount) {
+      delegateEvents.add("responseBodyEnd");
+    }
+
+    @Override
+    public void callEnd(Call call) {
+      delegateEvents.add("callEnd");
+    }
+  }
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+import okio.Buffer;
+import org.chromium.net.UrlResponseInfo;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class CronetMemoryCacheTest {
+  private static final String URL = "https://www.example.com/icon.png";
+  private static final String BODY = "icon";
+
+  private final CronetMemoryCache cache = CronetMemoryCache.create(8 * 1024, 1024);
+
+  @Test
+  public void testFreshResponse_servedFromCache() throws Exception {
+    Request request = request(URL);
+    fetch(request, FakeUrlResponseInfo.create(URL, 200, "Cache-Control", "max-age=60"), BODY);
+
+    try (Response response = cache.get(request)) {
+      assertThat(response.code()).isEqualTo(200);
+      assertThat(response.protocol()).isEqualTo(Protocol.HTTP_2);
+      assertThat(response.header("Cache-Control")).isEqualTo("max-age=60");
+      assertThat(response.body().string()).isEqualTo(BODY);
+    }
+    assertThat(cache.getHitCount()).isEqualTo(1);
+    assertThat(cache.getSizeBytes()).isEqualTo(BODY.length());
+  }
+
+  @Test
+  public void testNoExplicitFreshness_notCached() throws Exception {
+    Request request = request(URL);
+    fetch(request, FakeUrlResponseInfo.create(URL, 200, "ETag", "\"v1\""), BODY);
+
+    assertThat(cache.get(request)).isNull();
+    assertThat(cache.getMissCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testRevalidationRequired_notCached() throws Exception {
+    String[] cacheControls = {"no-cache, max-age=600", "max-age=600, must-revalidate"};
+    for (String cacheControl : cacheControls) {
+      Request request = request(URL);
+      fetch(request, FakeUrlResponseInfo.create(URL, 200, "Cache-Control", cacheControl), BODY);
+
+      assertThat(cache.get(request)).isNull();
+    }
+    assertThat(cache.getSizeBytes()).isEqualTo(0);
+  }
+
+  @Test
+  public void testExpired_notServed() throws Exception {
+    Request request = request(URL);
+    fetch(
+        request,
+        FakeUrlResponseInfo.create(URL, 200, "Cache-Control", "max-age=60", "Age", "60"),
+        BODY);
+
+    assertThat(cache.get(request)).isNull();
+  }
+
+  @Test
+  public void testBodyLargerThanEntryLimit_notCached() throws Exception {
+    Request request = request(URL);
+    fetch(
+        request,
+        FakeUrlResponseInfo.create(URL, 200, "Cache-Control", "max-age=60"),
+        Strings.repeat("x", 1025));
+
+    assertThat(cache.get(request)).isNull();
+    assertThat(cache.getSizeBytes()).isEqualTo(0);
+  }
+
+  @Test
+  public void testBodyNotFullyRead_notCached() throws Exception {
+    Request request = request(URL);
+    Response response =
+        cache.onNetworkResponse(
+            request,
+            FakeUrlResponseInfo.create(URL, 200, "Cache-Control", "max-age=60"),
+            networkResponse(request, BODY));
+
+    response.body().source().readByte();
+    response.close();
+
+    assertThat(cache.get(request)).isNull();
+  }
+
+  @Test
+  public void testRedirected_notCached() throws Exception {
+    Request request = request(URL);
+    fetch(
+        request,
+        FakeUrlResponseInfo.create(
+            ImmutableList.of("https://www.example.com/old", URL),
+            200,
+            "Cache-Control",
+            "max-age=60"),
+        BODY);
+
+    assertThat(cache.get(request)).isNull();
+  }
+
+  @Test
+  public void testRequestNoCache_bypassesCache() throws Exception {
+    Request request = request(URL);
+    fetch(request, FakeUrlResponseInfo.create(URL, 200, "Cache-Control", "max-age=60"), BODY);
+
+    assertThat(cache.get(request.newBuilder().header("Cache-Control", "no-cache").build()))
+        .isNull();
+  }
+
+  @Test
+  public void testMaxSizeExceeded_frequentlyUsedEntryKept() throws Exception {
+    // A single stripe of 128 bytes, all the entries are stored in it.
+    CronetMemoryCache smallCache = CronetMemoryCache.create(8 * 128, 128);
+    String body = Strings.repeat("x", 40);
+    String hotUrl = URL + "?id=0";
+    for (String url : urlsInStripeOf(hotUrl, 5)) {
+      Request request = request(url);
+      fetch(
+          smallCache,
+          request,
+          FakeUrlResponseInfo.create(url, 200, "Cache-Control", "max-age=60"),
+          body);
+      if (url.equals(hotUrl)) {
+        smallCache.get(request).close();
+      }
+    }
+
+    assertThat(smallCache.get(request(hotUrl))).isNotNull();
+    assertThat(smallCache.getSizeBytes()).isAtMost(128);
+    assertThat(smallCache.getEvictionCount()).isEqualTo(2);
+  }
+
+  /** Returns {@code count} URLs, starting with the given one, which fall into the same stripe. */
+  private static ImmutableList<String> urlsInStripeOf(String firstUrl, int count) {
+    ImmutableList.Builder<String> urls = ImmutableList.<String>builder().add(firstUrl);
+    int stripe = (firstUrl.hashCode() & Integer.MAX_VALUE) % 8;
+    for (int i = 1, found = 1; found < count; i++) {
+      String url = URL + "?id=" + i;
+      if ((url.hashCode() & Integer.MAX_VALUE) % 8 == stripe) {
+        urls.add(url);
+        found++;
+      }
+    }
+    return urls.build();
+  }
+
+  private void fetch(Request request, UrlResponseInfo responseInfo, String body)
+      throws IOException {
+    fetch(cache, request, responseInfo, body);
+  }
+
+  private static void fetch(
+      CronetMemoryCache cache, Request request, UrlResponseInfo responseInfo, String body)
+      throws IOException {
+    Response network =
+        ResponseConverter.createResponse(
+                request, responseInfo, new Buffer().writeUtf8(body))
+            .build();
+    try (Response response = cache.onNetworkResponse(request, responseInfo, network)) {
+      response.body().string();
+    }
+  }
+
+  private static Response networkResponse(Request request, String body) throws IOException {
+    return ResponseConverter.createResponse(
+            request,
+            FakeUrlResponseInfo.create(URL, 200, "Cache-Control", "max-age=60"),
+            new Buffer().writeUtf8(body))
+        .build();
+  }
+
+  private static Request request(String url) {
+    return new Request.Builder().url(url).build();
+  }
+}
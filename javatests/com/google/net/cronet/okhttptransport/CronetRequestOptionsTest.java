@@ -0,0 +1,199 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.net.cronet.okhttptransport.CronetRequestOptions.Idempotency;
+import com.google.net.cronet.okhttptransport.CronetRequestOptions.Priority;
+import java.util.concurrent.Executor;
+import okhttp3.Request;
+import org.chromium.net.ExperimentalUrlRequest;
+import org.chromium.net.UploadDataProvider;
+import org.chromium.net.UrlRequest;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class CronetRequestOptionsTest {
+
+  @Test
+  public void testFromRequest() {
+    CronetRequestOptions options =
+        CronetRequestOptions.newBuilder().setPriority(Priority.LOW).build();
+    Request request =
+        new Request.Builder()
+            .url("https://www.google.com")
+            .tag(CronetRequestOptions.class, options)
+            .build();
+
+    assertThat(CronetRequestOptions.fromRequest(request)).isSameInstanceAs(options);
+    assertThat(
+            CronetRequestOptions.fromRequest(
+                new Request.Builder().url("https://www.google.com").build()))
+        .isNull();
+  }
+
+  @Test
+  public void testEquals_comparesValues() {
+    CronetRequestOptions options =
+        CronetRequestOptions.newBuilder()
+            .setPriority(Priority.LOW)
+            .setIdempotency(Idempotency.IDEMPOTENT)
+            .setTrafficStatsTag(42)
+            .build();
+
+    assertThat(options).isEqualTo(options.toBuilder().build());
+    assertThat(options.hashCode()).isEqualTo(options.toBuilder().build().hashCode());
+    assertThat(options).isNotEqualTo(options.toBuilder().setTrafficStatsTag(43).build());
+    assertThat(options).isNotEqualTo(options.toBuilder().setCacheDisabled(true).build());
+    assertThat(CronetRequestOptions.newBuilder().build())
+        .isEqualTo(CronetRequestOptions.newBuilder().build());
+  }
+
+  @Test
+  public void testApply_noOptions_nothingSet() {
+    RecordingBuilder builder = new RecordingBuilder();
+
+    CronetRequestOptions.apply(null, null, builder);
+
+    assertThat(builder.priority).isNull();
+    assertThat(builder.cacheDisabled).isFalse();
+    assertThat(builder.idempotency).isNull();
+    assertThat(builder.trafficStatsTag).isNull();
+    assertThat(builder.trafficStatsUid).isNull();
+  }
+
+  @Test
+  public void testApply_allOptions() {
+    RecordingBuilder builder = new RecordingBuilder();
+
+    CronetRequestOptions.apply(
+        CronetRequestOptions.newBuilder()
+            .setPriority(Priority.HIGHEST)
+            .setCacheDisabled(true)
+            .setIdempotency(Idempotency.IDEMPOTENT)
+            .setTrafficStatsTag(42)
+            .setTrafficStatsUid(1000)
+            .build(),
+        null,
+        builder);
+
+    assertThat(builder.priority).isEqualTo(UrlRequest.Builder.REQUEST_PRIORITY_HIGHEST);
+    assertThat(builder.cacheDisabled).isTrue();
+    assertThat(builder.idempotency).isEqualTo(ExperimentalUrlRequest.Builder.IDEMPOTENT);
+    assertThat(builder.trafficStatsTag).isEqualTo(42);
+    assertThat(builder.trafficStatsUid).isEqualTo(1000);
+  }
+
+  @Test
+  public void testApply_requestOptionsOverrideDefaults() {
+    RecordingBuilder builder = new RecordingBuilder();
+    CronetRequestOptions defaults =
+        CronetRequestOptions.newBuilder()
+            .setPriority(Priority.LOWEST)
+            .setCacheDisabled(true)
+            .setTrafficStatsTag(1)
+            .build();
+
+    CronetRequestOptions.apply(
+        defaults.toBuilder().setPriority(Priority.HIGHEST).setCacheDisabled(false).build(),
+        defaults,
+        builder);
+
+    assertThat(builder.priority).isEqualTo(UrlRequest.Builder.REQUEST_PRIORITY_HIGHEST);
+    assertThat(builder.cacheDisabled).isFalse();
+    assertThat(builder.trafficStatsTag).isEqualTo(1);
+  }
+
+  @Test
+  public void testApply_unsetOptionsFallBackToDefaults() {
+    RecordingBuilder builder = new RecordingBuilder();
+
+    CronetRequestOptions.apply(
+        CronetRequestOptions.newBuilder().setIdempotency(Idempotency.NOT_IDEMPOTENT).build(),
+        CronetRequestOptions.newBuilder().setPriority(Priority.IDLE).build(),
+        builder);
+
+    assertThat(builder.priority).isEqualTo(UrlRequest.Builder.REQUEST_PRIORITY_IDLE);
+    assertThat(builder.idempotency).isEqualTo(ExperimentalUrlRequest.Builder.NOT_IDEMPOTENT);
+  }
+
+  private static final class RecordingBuilder extends ExperimentalUrlRequest.Builder {
+    Integer priority;
+    boolean cacheDisabled;
+    Integer idempotency;
+    Integer trafficStatsTag;
+    Integer trafficStatsUid;
+
+    @Override
+    public RecordingBuilder setHttpMethod(String method) {
+      return this;
+    }
+
+    @Override
+    public RecordingBuilder addHeader(String header, String value) {
+      return this;
+    }
+
+    @Override
+    public RecordingBuilder disableCache() {
+      cacheDisabled = true;
+      return this;
+    }
+
+    @Override
+    public RecordingBuilder setPriority(int priority) {
+      this.priority = priority;
+      return this;
+    }
+
+    @Override
+    public RecordingBuilder setUploadDataProvider(
+        UploadDataProvider uploadDataProvider, Executor executor) {
+      return this;
+    }
+
+    @Override
+    public RecordingBuilder allowDirectExecutor() {
+      return this;
+    }
+
+    @Override
+    public RecordingBuilder setIdempotency(int idempotency) {
+      this.idempotency = idempotency;
+      return this;
+    }
+
+    @Override
+    public RecordingBuilder setTrafficStatsTag(int tag) {
+      this.trafficStatsTag = tag;
+      return this;
+    }
+
+    @Override
+    public RecordingBuilder setTrafficStatsUid(int uid) {
+      this.trafficStatsUid = uid;
+      return this;
+    }
+
+    @Override
+    public UrlRequest build() {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class CronetTransportRuntimeTest {
+  private static final String URL = "https://www.example.com";
+  private static final String BODY = "Lorem ipsum dolor sit amet.";
+
+  @Rule public Timeout globalTimeout = Timeout.seconds(5);
+
+  private final ExecutorService networkExecutor = Executors.newSingleThreadExecutor();
+  private final FakeCronetEngine cronetEngine =
+      new FakeCronetEngine(
+          FakeUrlResponseInfo.create(URL, 200), BODY.getBytes(UTF_8), networkExecutor);
+
+  @After
+  public void tearDown() {
+    networkExecutor.shutdownNow();
+  }
+
+  @Test
+  public void testClose_shutsDownAfterLastUserClosed() {
+    CronetTransportRuntime runtime = CronetTransportRuntime.newBuilder(cronetEngine).build();
+    CronetCallFactory callFactory =
+        CronetCallFactory.newBuilder(cronetEngine).setTransportRuntime(runtime).build();
+    CronetInterceptor interceptor =
+        CronetInterceptor.newBuilder(cronetEngine).setTransportRuntime(runtime).build();
+
+    runtime.close();
+    callFactory.close();
+    assertThat(runtime.isShutDown()).isFalse();
+
+    interceptor.close();
+    assertThat(runtime.isShutDown()).isTrue();
+    assertThat(runtime.getTransportExecutors().getCallbackExecutor().isShutdown()).isTrue();
+  }
+
+  @Test
+  public void testClose_idempotent() {
+    CronetTransportRuntime runtime = CronetTransportRuntime.newBuilder(cronetEngine).build();
+
+    runtime.close();
+    runtime.close();
+
+    assertThat(runtime.isShutDown()).isTrue();
+  }
+
+  @Test
+  public void testBuild_closedRuntime_throws() {
+    CronetTransportRuntime runtime = CronetTransportRuntime.newBuilder(cronetEngine).build();
+    runtime.close();
+
+    CronetCallFactory.Builder builder =
+        CronetCallFactory.newBuilder(cronetEngine).setTransportRuntime(runtime);
+
+    assertThrows(IllegalStateException.class, builder::build);
+  }
+
+  @Test
+  public void testSetTransportRuntime_differentEngine_throws() {
+    FakeCronetEngine otherEngine =
+        new FakeCronetEngine(
+            FakeUrlResponseInfo.create(URL, 200), new byte[0], MoreExecutors.directExecutor());
+    try (CronetTransportRuntime runtime = CronetTransportRuntime.newBuilder(otherEngine).build()) {
+      assertThrows(
+          IllegalArgumentException.class,
+          () -> CronetCallFactory.newBuilder(cronetEngine).setTransportRuntime(runtime));
+    }
+  }
+
+  @Test
+  public void testSharedResources_usedByAllObjects() throws Exception {
+    try (CronetTransportRuntime runtime = CronetTransportRuntime.newBuilder(cronetEngine).build();
+        CronetCallFactory first =
+            CronetCallFactory.newBuilder(cronetEngine).setTransportRuntime(runtime).build();
+        CronetCallFactory second =
+            CronetCallFactory.newBuilder(cronetEngine).setTransportRuntime(runtime).build()) {
+      for (CronetCallFactory callFactory : new CronetCallFactory[] {first, second}) {
+        try (Response response =
+            callFactory.newCall(new Request.Builder().url(URL).build()).execute()) {
+          assertThat(response.body().string()).isEqualTo(BODY);
+        }
+      }
+
+      assertThat(runtime.getRequestCount()).isEqualTo(2);
+      ResponseBodyBufferPool bufferPool = runtime.getResponseBodyBufferPool();
+      assertThat(bufferPool.getHitCount() + bufferPool.getMissCount()).isAtLeast(2);
+    }
+  }
+
+  @Test
+  public void testGetScheduler_sharedAndShutDownWithRuntime() {
+    CronetTransportRuntime runtime = CronetTransportRuntime.newBuilder(cronetEngine).build();
+    ScheduledExecutorService scheduler = runtime.getScheduler();
+
+    assertThat(runtime.getScheduler()).isSameInstanceAs(scheduler);
+    runtime.close();
+    assertThat(scheduler.isShutdown()).isTrue();
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.io.File;
+import java.io.IOException;
+import okio.BufferedSink;
+import okio.Okio;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class DiskLruStoreTest {
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testEdit_committed_readable() throws Exception {
+    DiskLruStore store = new DiskLruStore(temporaryFolder.getRoot(), 1024);
+
+    write(store, "key", "metadata", "body");
+
+    try (DiskLruStore.Snapshot snapshot = store.get("key")) {
+      assertThat(snapshot.getMetadata().readUtf8()).isEqualTo("metadata");
+      assertThat(Okio.buffer(snapshot.getBody()).readUtf8()).isEqualTo("body");
+      assertThat(snapshot.getBodyLength()).isEqualTo(4);
+    }
+    // Includes the body length recorded with the metadata.
+    assertThat(store.getSizeBytes()).isEqualTo(20);
+  }
+
+  @Test
+  public void testSnapshot_bodyClosed_metadataClosed() throws Exception {
+    DiskLruStore store = new DiskLruStore(temporaryFolder.getRoot(), 1024);
+    write(store, "key", "metadata", "body");
+
+    DiskLruStore.Snapshot snapshot = store.get("key");
+    snapshot.getBody().close();
+
+    assertThrows(IOException.class, () -> snapshot.getMetadata().readUtf8());
+  }
+
+  @Test
+  public void testEdit_aborted_notReadable() throws Exception {
+    DiskLruStore store = new DiskLruStore(temporaryFolder.getRoot(), 1024);
+
+    DiskLruStore.Editor editor = store.edit("key");
+    editor.setMetadata("metadata".getBytes(UTF_8));
+    editor.abort();
+
+    assertThat(store.get("key")).isNull();
+    assertThat(store.getSizeBytes()).isEqualTo(0);
+    assertThat(temporaryFolder.getRoot().list()).isEmpty();
+  }
+
+  @Test
+  public void testEdit_alreadyBeingEdited_returnsNull() throws Exception {
+    DiskLruStore store = new DiskLruStore(temporaryFolder.getRoot(), 1024);
+
+    DiskLruStore.Editor editor = store.edit("key");
+
+    assertThat(store.edit("key")).isNull();
+    editor.abort();
+    assertThat(store.edit("key")).isNotNull();
+  }
+
+  @Test
+  public void testMaxSizeExceeded_leastRecentlyUsedEvicted() throws Exception {
+    // Each entry takes 22 bytes.
+    DiskLruStore store = new DiskLruStore(temporaryFolder.getRoot(), 50);
+    write(store, "a", "meta", "0123456789");
+    write(store, "b", "meta", "0123456789");
+    // Makes "a" more recently used than "b".
+    store.get("a").close();
+
+    write(store, "c", "meta", "0123456789");
+
+    assertThat(store.get("b")).isNull();
+    store.get("a").close();
+    store.get("c").close();
+    assertThat(store.getSizeBytes()).isEqualTo(44);
+  }
+
+  @Test
+  public void testReopened_entriesKept() throws Exception {
+    File directory = temporaryFolder.getRoot();
+    write(new DiskLruStore(directory, 1024), "key", "metadata", "body");
+
+    DiskLruStore reopened = new DiskLruStore(directory, 1024);
+
+    try (DiskLruStore.Snapshot snapshot = reopened.get("key")) {
+      assertThat(Okio.buffer(snapshot.getBody()).readUtf8()).isEqualTo("body");
+    }
+    assertThat(reopened.getSizeBytes()).isEqualTo(20);
+  }
+
+  @Test
+  public void testUpdateMetadata_bodyKept() throws Exception {
+    DiskLruStore store = new DiskLruStore(temporaryFolder.getRoot(), 1024);
+    write(store, "key", "metadata", "body");
+
+    try (DiskLruStore.Snapshot snapshot = store.get("key")) {
+      store.updateMetadata(snapshot, "updated".getBytes(UTF_8));
+    }
+
+    try (DiskLruStore.Snapshot snapshot = store.get("key")) {
+      assertThat(snapshot.getMetadata().readUtf8()).isEqualTo("updated");
+      assertThat(Okio.buffer(snapshot.getBody()).readUtf8()).isEqualTo("body");
+    }
+  }
+
+  @Test
+  public void testUpdateMetadata_entryBeingEdited_ignored() throws Exception {
+    DiskLruStore store = new DiskLruStore(temporaryFolder.getRoot(), 1024);
+    write(store, "key", "metadata", "body");
+    DiskLruStore.Snapshot snapshot = store.get("key");
+    DiskLruStore.Editor editor = store.edit("key");
+    editor.setMetadata("new metadata".getBytes(UTF_8));
+    try (BufferedSink sink = Okio.buffer(editor.newBodySink())) {
+      sink.writeUtf8("new body");
+    }
+
+    store.updateMetadata(snapshot, "updated".getBytes(UTF_8));
+    snapshot.close();
+    editor.commit();
+
+    try (DiskLruStore.Snapshot newSnapshot = store.get("key")) {
+      assertThat(newSnapshot.getMetadata().readUtf8()).isEqualTo("new metadata");
+      assertThat(Okio.buffer(newSnapshot.getBody()).readUtf8()).isEqualTo("new body");
+    }
+  }
+
+  @Test
+  public void testUpdateMetadata_entryReplaced_ignored() throws Exception {
+    DiskLruStore store = new DiskLruStore(temporaryFolder.getRoot(), 1024);
+    write(store, "key", "metadata", "body");
+    DiskLruStore.Snapshot snapshot = store.get("key");
+    write(store, "key", "new metadata", "new body");
+
+    store.updateMetadata(snapshot, "updated".getBytes(UTF_8));
+    snapshot.close();
+
+    try (DiskLruStore.Snapshot newSnapshot = store.get("key")) {
+      assertThat(newSnapshot.getMetadata().readUtf8()).isEqualTo("new metadata");
+    }
+  }
+
+  @Test
+  public void testBodyNotMatchingMetadata_entryDropped() throws Exception {
+    File directory = temporaryFolder.getRoot();
+    write(new DiskLruStore(directory, 1024), "key", "metadata", "body");
+    // As if a crash happened between installing a new body and its metadata.
+    try (BufferedSink sink = Okio.buffer(Okio.sink(new File(directory, "key.1")))) {
+      sink.writeUtf8("longer body");
+    }
+
+    DiskLruStore reopened = new DiskLruStore(directory, 1024);
+
+    assertThat(reopened.get("key")).isNull();
+    assertThat(reopened.getSizeBytes()).isEqualTo(0);
+    assertThat(directory.list()).isEmpty();
+  }
+
+  @Test
+  public void testReopened_bodyWithoutMetadata_deleted() throws Exception {
+    File directory = temporaryFolder.getRoot();
+    write(new DiskLruStore(directory, 1024), "key", "metadata", "body");
+    new File(directory, "key.0").delete();
+
+    DiskLruStore reopened = new DiskLruStore(directory, 1024);
+
+    assertThat(reopened.getSizeBytes()).isEqualTo(0);
+    assertThat(directory.list()).isEmpty();
+  }
+
+  @Test
+  public void testRemove_snapshotStillReadable() throws Exception {
+    DiskLruStore store = new DiskLruStore(temporaryFolder.getRoot(), 1024);
+    write(store, "key", "metadata", "body");
+
+    try (DiskLruStore.Snapshot snapshot = store.get("key")) {
+      store.remove("key");
+
+      assertThat(store.get("key")).isNull();
+      assertThat(Okio.buffer(snapshot.getBody()).readUtf8()).isEqualTo("body");
+    }
+  }
+
+  private static void write(DiskLruStore store, String key, String metadata, String body)
+      throws IOException {
+    DiskLruStore.Editor editor = store.edit(key);
+    editor.setMetadata(metadata.getBytes(UTF_8));
+    try (BufferedSink sink = Okio.buffer(editor.newBodySink())) {
+      sink.writeUtf8(body);
+    }
+    editor.commit();
+  }
+}
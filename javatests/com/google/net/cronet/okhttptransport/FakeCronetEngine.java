@@ -0,0 +1,151 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import java.net.URL;
+import java.net.URLConnection;
+import java.net.URLStreamHandlerFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import org.chromium.net.CronetEngine;
+import org.chromium.net.ExperimentalUrlRequest;
+import org.chromium.net.RequestFinishedInfo;
+import org.chromium.net.UploadDataProvider;
+import org.chromium.net.UrlRequest;
+import org.chromium.net.UrlResponseInfo;
+
+/**
+ * A {@link CronetEngine} stand-in serving the same canned response to every request, without
+ * touching the network. Callbacks are delivered on the given executor, which plays the role of
+ * Cronet's network thread.
+ */
+final class FakeCronetEngine extends CronetEngine {
+
+  private final UrlResponseInfo responseInfo;
+  private final byte[] responseBody;
+  private final Executor networkExecutor;
+  private final List<FakeUrlRequest> builtRequests = new CopyOnWriteArrayList<>();
+
+  FakeCronetEngine(UrlResponseInfo responseInfo, byte[] responseBody, Executor networkExecutor) {
+    this.responseInfo = responseInfo;
+    this.responseBody = responseBody;
+    this.networkExecutor = networkExecutor;
+  }
+
+  @Override
+  public FakeUrlRequestBuilder newUrlRequestBuilder(
+      String url, UrlRequest.Callback callback, Executor executor) {
+    return new FakeUrlRequestBuilder(url, callback);
+  }
+
+  /** Returns the requests built so far, from oldest to newest. */
+  List<FakeUrlRequest> getBuiltRequests() {
+    return builtRequests;
+  }
+
+  @Override
+  public String getVersionString() {
+    return "FakeCronetEngine";
+  }
+
+  @Override
+  public void shutdown() {}
+
+  @Override
+  public void startNetLogToFile(String fileName, boolean logAll) {}
+
+  @Override
+  public void stopNetLog() {}
+
+  @Override
+  public byte[] getGlobalMetricsDeltas() {
+    return new byte[0];
+  }
+
+  @Override
+  public URLConnection openConnection(URL url) {
+    throw new UnsupportedOperationException();
+  }
+
+  @Override
+  public URLStreamHandlerFactory createURLStreamHandlerFactory() {
+    throw new UnsupportedOperationException();
+  }
+
+  private final class FakeUrlRequestBuilder extends ExperimentalUrlRequest.Builder {
+    private final String url;
+    private final UrlRequest.Callback callback;
+    // Mimics the work Cronet does when copying the headers.
+    private final List<String> headers = new ArrayList<>();
+    private RequestFinishedInfo.Listener requestFinishedListener;
+
+    private FakeUrlRequestBuilder(String url, UrlRequest.Callback callback) {
+      this.url = url;
+      this.callback = callback;
+    }
+
+    @Override
+    public FakeUrlRequestBuilder setHttpMethod(String method) {
+      return this;
+    }
+
+    @Override
+    public FakeUrlRequestBuilder addHeader(String header, String value) {
+      headers.add(header);
+      headers.add(value);
+      return this;
+    }
+
+    @Override
+    public FakeUrlRequestBuilder disableCache() {
+      return this;
+    }
+
+    @Override
+    public FakeUrlRequestBuilder setPriority(int priority) {
+      return this;
+    }
+
+    @Override
+    public FakeUrlRequestBuilder setUploadDataProvider(
+        UploadDataProvider uploadDataProvider, Executor executor) {
+      return this;
+    }
+
+    @Override
+    public FakeUrlRequestBuilder allowDirectExecutor() {
+      return this;
+    }
+
+    @Override
+    public FakeUrlRequestBuilder setRequestFinishedListener(
+        RequestFinishedInfo.Listener requestFinishedListener) {
+      this.requestFinishedListener = requestFinishedListener;
+      return this;
+    }
+
+    @Override
+    public FakeUrlRequest build() {
+      FakeUrlRequest request =
+          new FakeUrlRequest(
+              url, callback, responseInfo, responseBody, networkExecutor, requestFinishedListener);
+      builtRequests.add(request);
+      return request;
+    }
+  }
+}
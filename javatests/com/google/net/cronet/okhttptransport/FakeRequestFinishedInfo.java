@@ -0,0 +1,189 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import androidx.annotation.Nullable;
+import com.google.common.collect.ImmutableList;
+import java.util.Collection;
+import java.util.Date;
+import org.chromium.net.CronetException;
+import org.chromium.net.RequestFinishedInfo;
+import org.chromium.net.UrlResponseInfo;
+
+/**
+ * A {@link RequestFinishedInfo} of a request which went through all the phases on a new connection,
+ * with each phase starting at a fixed offset from {@link #REQUEST_START_MILLIS}.
+ */
+final class FakeRequestFinishedInfo extends RequestFinishedInfo {
+  static final long REQUEST_START_MILLIS = 1_000_000;
+  static final long DNS_START_OFFSET_MILLIS = 1;
+  static final long DNS_END_OFFSET_MILLIS = 5;
+  static final long CONNECT_START_OFFSET_MILLIS = 6;
+  static final long SSL_START_OFFSET_MILLIS = 10;
+  static final long SSL_END_OFFSET_MILLIS = 20;
+  static final long CONNECT_END_OFFSET_MILLIS = 20;
+  static final long SENDING_START_OFFSET_MILLIS = 21;
+  static final long SENDING_END_OFFSET_MILLIS = 22;
+  static final long RESPONSE_START_OFFSET_MILLIS = 30;
+  static final long REQUEST_END_OFFSET_MILLIS = 40;
+  static final long SENT_BYTE_COUNT = 100;
+
+  private final String url;
+  private final int finishedReason;
+  @Nullable private final UrlResponseInfo responseInfo;
+  private final long receivedByteCount;
+
+  FakeRequestFinishedInfo(
+      String url,
+      int finishedReason,
+      @Nullable UrlResponseInfo responseInfo,
+      long receivedByteCount) {
+    this.url = url;
+    this.finishedReason = finishedReason;
+    this.responseInfo = responseInfo;
+    this.receivedByteCount = receivedByteCount;
+  }
+
+  @Override
+  public String getUrl() {
+    return url;
+  }
+
+  @Override
+  public Collection<Object> getAnnotations() {
+    return ImmutableList.of();
+  }
+
+  @Override
+  public Metrics getMetrics() {
+    return new FakeMetrics();
+  }
+
+  @Override
+  public int getFinishedReason() {
+    return finishedReason;
+  }
+
+  @Override
+  @Nullable
+  public UrlResponseInfo getResponseInfo() {
+    return responseInfo;
+  }
+
+  @Override
+  @Nullable
+  public CronetException getException() {
+    return null;
+  }
+
+  private final class FakeMetrics extends Metrics {
+    @Override
+    public Date getRequestStart() {
+      return at(0);
+    }
+
+    @Override
+    public Date getDnsStart() {
+      return at(DNS_START_OFFSET_MILLIS);
+    }
+
+    @Override
+    public Date getDnsEnd() {
+      return at(DNS_END_OFFSET_MILLIS);
+    }
+
+    @Override
+    public Date getConnectStart() {
+      return at(CONNECT_START_OFFSET_MILLIS);
+    }
+
+    @Override
+    public Date getConnectEnd() {
+      return at(CONNECT_END_OFFSET_MILLIS);
+    }
+
+    @Override
+    public Date getSslStart() {
+      return at(SSL_START_OFFSET_MILLIS);
+    }
+
+    @Override
+    public Date getSslEnd() {
+      return at(SSL_END_OFFSET_MILLIS);
+    }
+
+    @Override
+    public Date getSendingStart() {
+      return at(SENDING_START_OFFSET_MILLIS);
+    }
+
+    @Override
+    public Date getSendingEnd() {
+      return at(SENDING_END_OFFSET_MILLIS);
+    }
+
+    @Override
+    @Nullable
+    public Date getPushStart() {
+      return null;
+    }
+
+    @Override
+    @Nullable
+    public Date getPushEnd() {
+      return null;
+    }
+
+    @Override
+    public Date getResponseStart() {
+      return at(RESPONSE_START_OFFSET_MILLIS);
+    }
+
+    @Override
+    public Date getRequestEnd() {
+      return at(REQUEST_END_OFFSET_MILLIS);
+    }
+
+    @Override
+    public boolean getSocketReused() {
+      return false;
+    }
+
+    @Override
+    public Long getTtfbMs() {
+      return RESPONSE_START_OFFSET_MILLIS;
+    }
+
+    @Override
+    public Long getTotalTimeMs() {
+      return REQUEST_END_OFFSET_MILLIS;
+    }
+
+    @Override
+    public Long getSentByteCount() {
+      return SENT_BYTE_COUNT;
+    }
+
+    @Override
+    public Long getReceivedByteCount() {
+      return receivedByteCount;
+    }
+
+    private Date at(long offsetMillis) {
+      return new Date(REQUEST_START_MILLIS + offsetMillis);
+    }
+  }
+}
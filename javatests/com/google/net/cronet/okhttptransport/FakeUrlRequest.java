@@ -0,0 +1,160 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import androidx.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.chromium.net.ExperimentalUrlRequest;
+import org.chromium.net.RequestFinishedInfo;
+import org.chromium.net.UrlResponseInfo;
+
+/**
+ * A {@link org.chromium.net.UrlRequest} serving a canned response body from memory.
+ *
+ * <p>All the callbacks are delivered through the given executor, which plays the role of Cronet's
+ * network thread. Just like Cronet, the fake enforces that there's at most one read in flight.
+ * Once the request is done, the request finished listener (if any) is notified with a {@link
+ * FakeRequestFinishedInfo}.
+ */
+final class FakeUrlRequest extends ExperimentalUrlRequest {
+
+  private final String url;
+  private final Callback callback;
+  private final UrlResponseInfo responseInfo;
+  private final byte[] body;
+  private final Executor networkExecutor;
+  @Nullable private final RequestFinishedInfo.Listener requestFinishedListener;
+
+  private final AtomicBoolean readInFlight = new AtomicBoolean();
+  private final AtomicBoolean done = new AtomicBoolean();
+  private final AtomicInteger readCount = new AtomicInteger();
+  private final AtomicInteger followRedirectCount = new AtomicInteger();
+  private int bodyPosition;
+
+  FakeUrlRequest(
+      Callback callback, UrlResponseInfo responseInfo, byte[] body, Executor networkExecutor) {
+    this(responseInfo.getUrl(), callback, responseInfo, body, networkExecutor, null);
+  }
+
+  FakeUrlRequest(
+      String url,
+      Callback callback,
+      UrlResponseInfo responseInfo,
+      byte[] body,
+      Executor networkExecutor,
+      @Nullable RequestFinishedInfo.Listener requestFinishedListener) {
+    this.url = url;
+    this.callback = callback;
+    this.responseInfo = responseInfo;
+    this.body = body;
+    this.networkExecutor = networkExecutor;
+    this.requestFinishedListener = requestFinishedListener;
+  }
+
+  /** Returns the number of {@link #read} calls issued so far. */
+  int getReadCount() {
+    return readCount.get();
+  }
+
+  /** Returns the number of {@link #followRedirect} calls issued so far. */
+  int getFollowRedirectCount() {
+    return followRedirectCount.get();
+  }
+
+  @Override
+  public void start() {
+    networkExecutor.execute(
+        () -> {
+          try {
+            callback.onResponseStarted(this, responseInfo);
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+        });
+  }
+
+  @Override
+  public void followRedirect() {
+    // The fake doesn't deliver redirects itself, they're reported to the callback by the tests.
+    followRedirectCount.incrementAndGet();
+  }
+
+  @Override
+  public void read(ByteBuffer buffer) {
+    if (!readInFlight.compareAndSet(false, true)) {
+      throw new IllegalStateException("Unexpected read attempt.");
+    }
+    readCount.incrementAndGet();
+    networkExecutor.execute(
+        () -> {
+          if (done.get()) {
+            return;
+          }
+          int bytesToCopy = Math.min(buffer.remaining(), body.length - bodyPosition);
+          buffer.put(body, bodyPosition, bytesToCopy);
+          bodyPosition += bytesToCopy;
+          readInFlight.set(false);
+          try {
+            if (bytesToCopy == 0) {
+              done.set(true);
+              callback.onSucceeded(this, responseInfo);
+              reportRequestFinished(RequestFinishedInfo.SUCCEEDED);
+            } else {
+              callback.onReadCompleted(this, responseInfo, buffer);
+            }
+          } catch (Exception e) {
+            throw new IllegalStateException(e);
+          }
+        });
+  }
+
+  @Override
+  public void cancel() {
+    networkExecutor.execute(
+        () -> {
+          if (!done.getAndSet(true)) {
+            readInFlight.set(false);
+            callback.onCanceled(this, responseInfo);
+            reportRequestFinished(RequestFinishedInfo.CANCELED);
+          }
+        });
+  }
+
+  private void reportRequestFinished(int finishedReason) {
+    if (requestFinishedListener == null) {
+      return;
+    }
+    RequestFinishedInfo requestFinishedInfo =
+        new FakeRequestFinishedInfo(url, finishedReason, responseInfo, bodyPosition);
+    requestFinishedListener
+        .getExecutor()
+        .execute(() -> requestFinishedListener.onRequestFinished(requestFinishedInfo));
+  }
+
+  @Override
+  public boolean isDone() {
+    return done.get();
+  }
+
+  @Override
+  public void getStatus(StatusListener listener) {
+    throw new UnsupportedOperationException();
+  }
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import com.google.common.collect.ImmutableList;
+import java.util.AbstractMap.SimpleImmutableEntry;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+
+/** A simple, immutable {@link org.chromium.net.UrlResponseInfo} for tests. */
+final class FakeUrlResponseInfo extends org.chromium.net.UrlResponseInfo {
+
+  private final List<String> urlChain;
+  private final int httpStatusCode;
+  private final List<Entry<String, String>> headers;
+
+  private FakeUrlResponseInfo(
+      List<String> urlChain, int httpStatusCode, List<Entry<String, String>> headers) {
+    this.urlChain = urlChain;
+    this.httpStatusCode = httpStatusCode;
+    this.headers = headers;
+  }
+
+  /** Creates a response info with the given status code and alternating header names and values. */
+  static FakeUrlResponseInfo create(String url, int httpStatusCode, String... namesAndValues) {
+    return create(ImmutableList.of(url), httpStatusCode, namesAndValues);
+  }
+
+  /** Same as {@link #create(String, int, String...)}, with the given URL (redirect) chain. */
+  static FakeUrlResponseInfo create(
+      List<String> urlChain, int httpStatusCode, String... namesAndValues) {
+    ImmutableList.Builder<Entry<String, String>> headers = ImmutableList.builder();
+    for (int i = 0; i < namesAndValues.length; i += 2) {
+      headers.add(new SimpleImmutableEntry<>(namesAndValues[i], namesAndValues[i + 1]));
+    }
+    return new FakeUrlResponseInfo(ImmutableList.copyOf(urlChain), httpStatusCode, headers.build());
+  }
+
+  @Override
+  public String getUrl() {
+    return urlChain.get(urlChain.size() - 1);
+  }
+
+  @Override
+  public List<String> getUrlChain() {
+    return urlChain;
+  }
+
+  @Override
+  public int getHttpStatusCode() {
+    return httpStatusCode;
+  }
+
+  @Override
+  public String getHttpStatusText() {
+    return "";
+  }
+
+  @Override
+  public List<Entry<String, String>> getAllHeadersAsList() {
+    return headers;
+  }
+
+  @Override
+  public Map<String, List<String>> getAllHeaders() {
+    Map<String, List<String>> map = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    for (Entry<String, String> header : headers) {
+      List<String> values = map.get(header.getKey());
+      if (values == null) {
+        values = new ArrayList<>();
+        map.put(header.getKey(), values);
+      }
+      values.add(header.getValue());
+    }
+    return map;
+  }
+
+  @Override
+  public boolean wasCached() {
+    return false;
+  }
+
+  @Override
+  public String getNegotiatedProtocol() {
+    return "h2";
+  }
+
+  @Override
+  public String getProxyServer() {
+    return ":0";
+  }
+
+  @Override
+  public long getReceivedByteCount() {
+    return 0;
+  }
+}
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import java.net.ProtocolException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.concurrent.ExecutionException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import okio.Buffer;
+import okio.BufferedSource;
+import okio.Okio;
+import org.chromium.net.UrlResponseInfo;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.Timeout;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class OkHttpBridgeRequestCallbackTest {
+  // ~110 KiB, doesn't fit a single buffer
+  private static final String LONG_BODY =
+      Strings.repeat("Lorem ipsum dolor sit amet, consectetur adipiscing elit.", 2000);
+  private static final UrlResponseInfo RESPONSE_INFO =
+      FakeUrlResponseInfo.create("https://www.google.com", 200);
+  private static final UrlResponseInfo REDIRECT_INFO =
+      FakeUrlResponseInfo.create(
+          "http://www.google.com", 301, "Location", "https://www.google.com");
+
+  @Rule public Timeout globalTimeout = Timeout.seconds(5);
+
+  private final ExecutorService networkExecutor = Executors.newSingleThreadExecutor();
+  private final ResponseBodyBufferPool bufferPool = ResponseBodyBufferPool.create(4);
+
+  @After
+  public void tearDown() {
+    networkExecutor.shutdownNow();
+  }
+
+  @Test
+  public void testBody_noReadAhead() throws Exception {
+    OkHttpBridgeRequestCallback underTest = createCallback(/* readAheadBufferCount= */ 1);
+    FakeUrlRequest request = startRequest(underTest, LONG_BODY);
+
+    try (BufferedSource source = Okio.buffer(underTest.getBodySource().get())) {
+      assertThat(source.readString(UTF_8)).isEqualTo(LONG_BODY);
+    }
+
+    assertThat(bufferPool.getMissCount()).isEqualTo(1);
+    assertThat(bufferPool.getPooledBufferCount()).isEqualTo(1);
+    // Reads grow from 8 KiB to the 32 KiB buffer capacity: 8, 16, 32, 32 and 32 KiB, followed by
+    // the final read reporting the end of the body.
+    assertThat(request.getReadCount()).isEqualTo(6);
+  }
+
+  @Test
+  public void testBody_contentLengthHint_readsWholeBodyAtOnce() throws Exception {
+    ResponseBodyBufferPool largeBufferPool = ResponseBodyBufferPool.create(1, 256 * 1024);
+    OkHttpBridgeRequestCallback underTest =
+        new OkHttpBridgeRequestCallback(0, RedirectStrategy.defaultStrategy(), largeBufferPool, 1);
+    FakeUrlRequest request =
+        new FakeUrlRequest(
+            underTest,
+            FakeUrlResponseInfo.create(
+                "https://www.google.com",
+                200,
+                "Content-Length",
+                String.valueOf(LONG_BODY.length())),
+            LONG_BODY.getBytes(UTF_8),
+            networkExecutor);
+    request.start();
+
+    try (BufferedSource source = Okio.buffer(underTest.getBodySource().get())) {
+      assertThat(source.readString(UTF_8)).isEqualTo(LONG_BODY);
+    }
+
+    assertThat(request.getReadCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testBody_readAhead() throws Exception {
+    OkHttpBridgeRequestCallback underTest = createCallback(/* readAheadBufferCount= */ 3);
+    startRequest(underTest, LONG_BODY);
+
+    try (BufferedSource source = Okio.buffer(underTest.getBodySource().get())) {
+      assertThat(source.readString(UTF_8)).isEqualTo(LONG_BODY);
+    }
+
+    assertThat(bufferPool.getMissCount()).isAtMost(3);
+    assertThat(bufferPool.getPooledBufferCount()).isEqualTo(bufferPool.getMissCount());
+  }
+
+  @Test
+  public void testBody_readAhead_closedEarly_buffersReturned() throws Exception {
+    OkHttpBridgeRequestCallback underTest = createCallback(/* readAheadBufferCount= */ 3);
+    startRequest(underTest, LONG_BODY);
+
+    BufferedSource source = Okio.buffer(underTest.getBodySource().get());
+    assertThat(source.readString(10, UTF_8)).isEqualTo(LONG_BODY.substring(0, 10));
+    source.close();
+
+    // Wait for the cancellation to be processed
+    networkExecutor.submit(() -> {}).get();
+    assertThat(bufferPool.getPooledBufferCount()).isEqualTo(bufferPool.getMissCount());
+  }
+
+  @Test
+  public void testBody_byteChannel_directBuffer_noIntermediateBuffers() throws Exception {
+    OkHttpBridgeRequestCallback underTest = createCallback(/* readAheadBufferCount= */ 1);
+    startRequest(underTest, LONG_BODY);
+
+    ReadableByteChannel channel = (ReadableByteChannel) underTest.getBodySource().get();
+    ByteBuffer dst = ByteBuffer.allocateDirect(LONG_BODY.length() + 1);
+    while (channel.read(dst) != -1) {}
+    channel.close();
+
+    dst.flip();
+    assertThat(UTF_8.decode(dst).toString()).isEqualTo(LONG_BODY);
+    assertThat(bufferPool.getMissCount()).isEqualTo(0);
+    assertThat(bufferPool.getHitCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testBody_byteChannel_directBuffer_withReadAhead() throws Exception {
+    OkHttpBridgeRequestCallback underTest = createCallback(/* readAheadBufferCount= */ 2);
+    startRequest(underTest, LONG_BODY);
+
+    ReadableByteChannel channel = (ReadableByteChannel) underTest.getBodySource().get();
+    ByteBuffer dst = ByteBuffer.allocateDirect(4096);
+    Buffer result = new Buffer();
+    while (channel.read(dst) != -1) {
+      dst.flip();
+      result.write(dst);
+      dst.clear();
+    }
+    channel.close();
+
+    assertThat(result.readUtf8()).isEqualTo(LONG_BODY);
+  }
+
+  @Test
+  public void testBody_byteChannel_heapBuffer_copiesThroughPooledBuffer() throws Exception {
+    OkHttpBridgeRequestCallback underTest = createCallback(/* readAheadBufferCount= */ 1);
+    startRequest(underTest, LONG_BODY);
+
+    ReadableByteChannel channel = (ReadableByteChannel) underTest.getBodySource().get();
+    ByteBuffer dst = ByteBuffer.allocate(LONG_BODY.length() + 1);
+    while (channel.read(dst) != -1) {}
+    channel.close();
+
+    dst.flip();
+    assertThat(UTF_8.decode(dst).toString()).isEqualTo(LONG_BODY);
+    assertThat(bufferPool.getMissCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testBody_empty() throws Exception {
+    OkHttpBridgeRequestCallback underTest = createCallback(/* readAheadBufferCount= */ 2);
+    startRequest(underTest, "");
+
+    try (BufferedSource source = Okio.buffer(underTest.getBodySource().get())) {
+      assertThat(source.exhausted()).isTrue();
+    }
+  }
+
+  @Test
+  public void testRedirect_policyFollows() throws Exception {
+    List<RedirectStrategy.Redirect> redirects = new ArrayList<>();
+    OkHttpBridgeRequestCallback underTest =
+        createCallback(
+            RedirectStrategy.withPolicy(
+                redirect -> {
+                  redirects.add(redirect);
+                  return RedirectStrategy.Decision.FOLLOW;
+                }));
+    FakeUrlRequest request = newRequest(underTest);
+
+    underTest.onRedirectReceived(request, REDIRECT_INFO, "https://www.google.com");
+
+    assertThat(request.getFollowRedirectCount()).isEqualTo(1);
+    assertThat(redirects).hasSize(1);
+    assertThat(redirects.get(0).getResponseInfo()).isSameInstanceAs(REDIRECT_INFO);
+    assertThat(redirects.get(0).getNewLocationUrl()).isEqualTo("https://www.google.com");
+    assertThat(underTest.getUrlResponseInfoChain()).containsExactly(REDIRECT_INFO);
+    assertThat(underTest.getRedirectDurationsMillis()).hasSize(1);
+  }
+
+  @Test
+  public void testRedirect_policyStops_redirectReturned() throws Exception {
+    OkHttpBridgeRequestCallback underTest =
+        createCallback(RedirectStrategy.withPolicy(redirect -> RedirectStrategy.Decision.STOP));
+    FakeUrlRequest request = newRequest(underTest);
+
+    underTest.onRedirectReceived(request, REDIRECT_INFO, "https://www.google.com");
+
+    assertThat(request.getFollowRedirectCount()).isEqualTo(0);
+    assertThat(underTest.getUrlResponseInfo().get()).isSameInstanceAs(REDIRECT_INFO);
+    assertThat(underTest.getUrlResponseInfoChain()).isEmpty();
+    try (BufferedSource source = Okio.buffer(underTest.getBodySource().get())) {
+      assertThat(source.exhausted()).isTrue();
+    }
+  }
+
+  @Test
+  public void testRedirect_policyRefuses_fails() throws Exception {
+    OkHttpBridgeRequestCallback underTest =
+        createCallback(RedirectStrategy.withPolicy(redirect -> RedirectStrategy.Decision.REFUSE));
+    FakeUrlRequest request = newRequest(underTest);
+
+    underTest.onRedirectReceived(request, REDIRECT_INFO, "https://www.google.com");
+
+    assertThat(request.getFollowRedirectCount()).isEqualTo(0);
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> underTest.getUrlResponseInfo().get());
+    assertThat(e).hasCauseThat().isInstanceOf(ProtocolException.class);
+  }
+
+  @Test
+  public void testRedirect_capReached_policyNotConsulted() throws Exception {
+    OkHttpBridgeRequestCallback underTest =
+        createCallback(
+            RedirectStrategy.withPolicy(
+                /* maxRedirects= */ 1,
+                redirect -> {
+                  throw new AssertionError("Unexpected redirect");
+                }));
+    FakeUrlRequest request = newRequest(underTest);
+
+    underTest.onRedirectReceived(
+        request,
+        FakeUrlResponseInfo.create(
+            ImmutableList.of("http://www.google.com", "http://google.com"), 301),
+        "https://www.google.com");
+
+    ExecutionException e =
+        assertThrows(ExecutionException.class, () -> underTest.getUrlResponseInfo().get());
+    assertThat(e).hasCauseThat().hasMessageThat().isEqualTo("Too many follow-up requests: 2");
+  }
+
+  private OkHttpBridgeRequestCallback createCallback(RedirectStrategy redirectStrategy) {
+    return new OkHttpBridgeRequestCallback(0, redirectStrategy, bufferPool, 1);
+  }
+
+  private OkHttpBridgeRequestCallback createCallback(int readAheadBufferCount) {
+    return new OkHttpBridgeRequestCallback(
+        0, RedirectStrategy.defaultStrategy(), bufferPool, readAheadBufferCount);
+  }
+
+  /** Creates a request which isn't started, the tests report the callbacks themselves. */
+  private FakeUrlRequest newRequest(OkHttpBridgeRequestCallback callback) {
+    return new FakeUrlRequest(callback, RESPONSE_INFO, new byte[0], networkExecutor);
+  }
+
+  private FakeUrlRequest startRequest(OkHttpBridgeRequestCallback callback, String body) {
+    FakeUrlRequest request =
+        new FakeUrlRequest(callback, RESPONSE_INFO, body.getBytes(UTF_8), networkExecutor);
+    request.start();
+    return request;
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class RedirectStrategyTest {
+
+  @Test
+  public void testWithPolicy_decisionFromPolicy() {
+    RedirectStrategy underTest =
+        RedirectStrategy.withPolicy(
+            /* maxRedirects= */ 3,
+            redirect ->
+                redirect.isDowngrade()
+                    ? RedirectStrategy.Decision.REFUSE
+                    : RedirectStrategy.Decision.FOLLOW);
+
+    assertThat(underTest.followRedirects()).isTrue();
+    assertThat(underTest.numberOfRedirectsToFollow()).isEqualTo(3);
+    assertThat(underTest.decide(redirect("https://example.com", "http://example.com")))
+        .isEqualTo(RedirectStrategy.Decision.REFUSE);
+    assertThat(underTest.decide(redirect("http://example.com", "https://example.com")))
+        .isEqualTo(RedirectStrategy.Decision.FOLLOW);
+  }
+
+  @Test
+  public void testWithPolicy_invalidCap_throws() {
+    assertThrows(
+        IllegalArgumentException.class,
+        () -> RedirectStrategy.withPolicy(0, redirect -> RedirectStrategy.Decision.FOLLOW));
+  }
+
+  @Test
+  public void testDefaultStrategy_follows() {
+    assertThat(
+            RedirectStrategy.defaultStrategy()
+                .decide(redirect("https://example.com", "http://example.com")))
+        .isEqualTo(RedirectStrategy.Decision.FOLLOW);
+  }
+
+  @Test
+  public void testRedirect_isDowngrade() {
+    assertThat(redirect("https://example.com", "http://example.com").isDowngrade()).isTrue();
+    assertThat(redirect("https://example.com", "https://example.com/a").isDowngrade()).isFalse();
+    assertThat(redirect("http://example.com", "http://example.com/a").isDowngrade()).isFalse();
+  }
+
+  @Test
+  public void testRedirect_isCrossOrigin() {
+    assertThat(redirect("https://example.com/a", "https://example.com/b").isCrossOrigin())
+        .isFalse();
+    assertThat(redirect("https://example.com", "https://mirror.example.com").isCrossOrigin())
+        .isTrue();
+    assertThat(redirect("https://example.com", "https://example.com:8443").isCrossOrigin())
+        .isTrue();
+    assertThat(redirect("http://example.com", "https://example.com").isCrossOrigin()).isTrue();
+  }
+
+  @Test
+  public void testRedirect_getRedirectCountToHost() {
+    RedirectStrategy.Redirect redirect =
+        new RedirectStrategy.Redirect(
+            FakeUrlResponseInfo.create(
+                ImmutableList.of(
+                    "https://example.com", "https://a.example.com", "https://b.example.com/1"),
+                302),
+            "https://b.example.com/2",
+            /* hopDurationMillis= */ 0);
+
+    assertThat(redirect.getRedirectCount()).isEqualTo(3);
+    assertThat(redirect.getRedirectCountToHost("b.example.com")).isEqualTo(2);
+    assertThat(redirect.getRedirectCountToHost("a.example.com")).isEqualTo(1);
+    // The original request isn't a redirect.
+    assertThat(redirect.getRedirectCountToHost("example.com")).isEqualTo(0);
+  }
+
+  private static RedirectStrategy.Redirect redirect(String url, String newLocationUrl) {
+    return new RedirectStrategy.Redirect(
+        FakeUrlResponseInfo.create(url, 301, "Location", newLocationUrl),
+        newLocationUrl,
+        /* hopDurationMillis= */ 0);
+  }
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class RequestBodyBufferPoolTest {
+
+  @Test
+  public void testAcquire_emptyPool_allocatesChunk() {
+    RequestBodyBufferPool underTest = new RequestBodyBufferPool(2);
+
+    byte[] chunk = underTest.acquire();
+
+    assertThat(chunk).hasLength(RequestBodyBufferPool.CHUNK_SIZE);
+    assertThat(underTest.getMissCount()).isEqualTo(1);
+    assertThat(underTest.getHitCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRelease_chunkIsReused() {
+    RequestBodyBufferPool underTest = new RequestBodyBufferPool(2);
+    byte[] chunk = underTest.acquire();
+
+    underTest.release(chunk);
+    byte[] reused = underTest.acquire();
+
+    assertThat(reused).isSameInstanceAs(chunk);
+    assertThat(underTest.getHitCount()).isEqualTo(1);
+    assertThat(underTest.getMissCount()).isEqualTo(1);
+    assertThat(underTest.getPooledChunkCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRelease_poolFull_chunkDropped() {
+    RequestBodyBufferPool underTest = new RequestBodyBufferPool(1);
+    byte[] first = underTest.acquire();
+    byte[] second = underTest.acquire();
+
+    underTest.release(first);
+    underTest.release(second);
+
+    assertThat(underTest.getPooledChunkCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testRelease_foreignChunk_ignored() {
+    RequestBodyBufferPool underTest = new RequestBodyBufferPool(1);
+
+    underTest.release(new byte[16]);
+
+    assertThat(underTest.getPooledChunkCount()).isEqualTo(0);
+  }
+}
@@ -18,18 +18,32 @@ package com.google.net.cronet.okhttptransport;
 
 import static com.google.common.truth.Truth.assertThat;
 import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.HOURS;
 import static org.junit.Assert.assertThrows;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 import com.google.common.base.Strings;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import okhttp3.MediaType;
+import okhttp3.Request;
 import okhttp3.RequestBody;
+import okio.Buffer;
 import okio.BufferedSink;
 import okio.ByteString;
+import okio.Okio;
+import org.chromium.net.UploadDataProvider;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.junit.rules.Timeout;
 import org.junit.runner.RunWith;
 
@@ -56,6 +70,7 @@ public class RequestBodyConverterTest {
       };
 
   @Rule public Timeout globalTimeout = Timeout.seconds(5);
+  @Rule public TemporaryFolder temporaryFolder = new TemporaryFolder();
 
   @Test
   public void testInMemory_knownLength() throws Exception {
@@ -67,6 +82,18 @@ public class RequestBodyConverterTest {
     assertThat(new String(testReader.readAll().getBody(), UTF_8)).isEqualTo(BODY_CONTENT);
   }
 
+  @Test
+  public void testInMemory_rewind() throws Exception {
+    RequestBodyConverter underTest = new RequestBodyConverterImpl.InMemoryRequestBodyConverter();
+    RequestBodyTestReader testReader =
+        new RequestBodyTestReader(
+            underTest.convertRequestBody(KNOWN_LENGTH_REQUEST_BODY, NO_TIMEOUT));
+
+    testReader.readAll().rewind();
+
+    assertThat(new String(testReader.readAll().getBody(), UTF_8)).isEqualTo(BODY_CONTENT);
+  }
+
   @Test
   public void testInMemory_knownLength_actualBodyTooShort() throws Exception {
     RequestBody requestBody =
@@ -141,6 +168,33 @@ public class RequestBodyConverterTest {
     assertThat(new String(testReader.readAll().getBody(), UTF_8)).isEqualTo(BODY_CONTENT);
   }
 
+  @Test
+  public void testStreaming_rewindAfterFullRead() throws Exception {
+    RequestBodyConverter underTest =
+        new RequestBodyConverterImpl.StreamingRequestBodyConverter(
+            Executors.newSingleThreadExecutor());
+    RequestBodyTestReader testReader =
+        new RequestBodyTestReader(
+            underTest.convertRequestBody(KNOWN_LENGTH_REQUEST_BODY, NO_TIMEOUT));
+
+    testReader.readAll().rewind();
+
+    assertThat(new String(testReader.readAll().getBody(), UTF_8)).isEqualTo(BODY_CONTENT);
+  }
+
+  @Test
+  public void testStreaming_rewindMidBody() throws Exception {
+    RequestBodyConverter underTest =
+        new RequestBodyConverterImpl.StreamingRequestBodyConverter(
+            Executors.newCachedThreadPool());
+    RequestBodyTestReader testReader =
+        new RequestBodyTestReader(underTest.convertRequestBody(VERY_LONG_REQUEST_BODY, NO_TIMEOUT));
+
+    testReader.readChunk().rewind();
+
+    assertThat(new String(testReader.readAll().getBody(), UTF_8)).isEqualTo(VERY_LONG_BODY_CONTENT);
+  }
+
   @Test
   public void testStreaming_knownLength_actualBodyTooShort() throws Exception {
     RequestBody requestBody =
@@ -189,6 +243,137 @@ public class RequestBodyConverterTest {
                 + KNOWN_LENGTH_REQUEST_BODY.contentLength());
   }
 
+  @Test
+  public void testStreaming_smallWrites_coalesced() throws Exception {
+    RequestBody requestBody =
+        new ArbitraryContentLengthRequestBody() {
+          @Override
+          public long contentLength() {
+            return -1;
+          }
+
+          @Override
+          public void writeTo(BufferedSink sink) throws IOException {
+            for (int i = 0; i < 1000; i++) {
+              sink.writeUtf8("0123456789");
+              // Hands the bytes over to the broker without flushing.
+              sink.emit();
+            }
+          }
+        };
+    RequestBodyConverter underTest =
+        new RequestBodyConverterImpl.StreamingRequestBodyConverter(
+            Executors.newSingleThreadExecutor(),
+            /* spinBeforeParking= */ true,
+            /* coalescingDelayMillis= */ HOURS.toMillis(1));
+    RequestBodyTestReader testReader =
+        new RequestBodyTestReader(underTest.convertRequestBody(requestBody, NO_TIMEOUT));
+
+    assertThat(new String(testReader.readAll().getBody(), UTF_8))
+        .isEqualTo(Strings.repeat("0123456789", 1000));
+    // All the data fits the buffer, and the end of the body is signaled separately.
+    assertThat(testReader.getReadCount()).isEqualTo(2);
+  }
+
+  @Test
+  public void testStreaming_flush_handedOverRightAway() throws Exception {
+    CountDownLatch firstPartRead = new CountDownLatch(1);
+    RequestBodyConverter underTest =
+        new RequestBodyConverterImpl.StreamingRequestBodyConverter(
+            Executors.newSingleThreadExecutor(),
+            /* spinBeforeParking= */ true,
+            /* coalescingDelayMillis= */ HOURS.toMillis(1));
+    RequestBodyTestReader testReader =
+        new RequestBodyTestReader(
+            underTest.convertRequestBody(
+                new TwoPartRequestBody(firstPartRead, /* flush= */ true), NO_TIMEOUT));
+
+    assertThat(new String(testReader.readChunk().getBody(), UTF_8)).isEqualTo("a");
+    firstPartRead.countDown();
+    assertThat(new String(testReader.readAll().getBody(), UTF_8)).isEqualTo("ab");
+  }
+
+  @Test
+  public void testStreaming_coalescingDelayPassed_handedOver() throws Exception {
+    CountDownLatch firstPartRead = new CountDownLatch(1);
+    RequestBodyConverter underTest =
+        new RequestBodyConverterImpl.StreamingRequestBodyConverter(
+            Executors.newSingleThreadExecutor(),
+            /* spinBeforeParking= */ true,
+            /* coalescingDelayMillis= */ 50);
+    RequestBodyTestReader testReader =
+        new RequestBodyTestReader(
+            underTest.convertRequestBody(
+                new TwoPartRequestBody(firstPartRead, /* flush= */ false), NO_TIMEOUT));
+
+    assertThat(new String(testReader.readChunk().getBody(), UTF_8)).isEqualTo("a");
+    firstPartRead.countDown();
+    assertThat(new String(testReader.readAll().getBody(), UTF_8)).isEqualTo("ab");
+  }
+
+  @Test
+  public void testStreaming_writerLimitReached_excessUploadsFailFast() throws Exception {
+    int writerThreads = 2;
+    int uploadDataProviderThreads = 2;
+    TransportExecutors executors =
+        TransportExecutors.acquire(
+            new FakeCronetEngine(
+                FakeUrlResponseInfo.create("https://www.example.com", 200),
+                new byte[0],
+                MoreExecutors.directExecutor()),
+            uploadDataProviderThreads,
+            writerThreads,
+            /* useVirtualThreads= */ false);
+    // Plays the role of Cronet, which calls the upload data providers on this executor.
+    ExecutorService providerExecutor = executors.getUploadDataProviderExecutor();
+    RequestBodyConverter streamingConverter =
+        new RequestBodyConverterImpl.StreamingRequestBodyConverter(
+            executors.getRequestBodyExecutor());
+    CountDownLatch firstPartsRead = new CountDownLatch(1);
+    try {
+      // These uploads occupy all the writers until the latch is released.
+      List<RequestBodyTestReader> runningUploads = new ArrayList<>();
+      for (int i = 0; i < writerThreads; i++) {
+        RequestBodyTestReader testReader =
+            new RequestBodyTestReader(
+                streamingConverter.convertRequestBody(
+                    new TwoPartRequestBody(firstPartsRead, /* flush= */ true), NO_TIMEOUT));
+        providerExecutor.submit(testReader::readChunk).get();
+        runningUploads.add(testReader);
+      }
+
+      // Enough excess uploads to take all the provider threads if they waited for a writer.
+      List<Future<RequestBodyTestReader>> excessUploads = new ArrayList<>();
+      for (int i = 0; i < uploadDataProviderThreads + 1; i++) {
+        RequestBodyTestReader testReader =
+            new RequestBodyTestReader(
+                streamingConverter.convertRequestBody(KNOWN_LENGTH_REQUEST_BODY, NO_TIMEOUT));
+        excessUploads.add(providerExecutor.submit(testReader::readAll));
+      }
+      for (Future<RequestBodyTestReader> excessUpload : excessUploads) {
+        ExecutionException e = assertThrows(ExecutionException.class, excessUpload::get);
+        assertThat(e).hasCauseThat().hasCauseThat().isInstanceOf(IOException.class);
+      }
+
+      // Uploads not needing a writer aren't held up.
+      RequestBodyTestReader inMemoryUpload =
+          new RequestBodyTestReader(
+              new RequestBodyConverterImpl.InMemoryRequestBodyConverter()
+                  .convertRequestBody(KNOWN_LENGTH_REQUEST_BODY, NO_TIMEOUT));
+      providerExecutor.submit(inMemoryUpload::readAll).get();
+      assertThat(new String(inMemoryUpload.getBody(), UTF_8)).isEqualTo(BODY_CONTENT);
+
+      firstPartsRead.countDown();
+      for (RequestBodyTestReader testReader : runningUploads) {
+        providerExecutor.submit(testReader::readAll).get();
+        assertThat(new String(testReader.getBody(), UTF_8)).isEqualTo("ab");
+      }
+    } finally {
+      firstPartsRead.countDown();
+      executors.release();
+    }
+  }
+
   @Test
   public void testDelegating_long_handledByStreaming() throws Exception {
     RequestBodyConverterImpl underTest =
@@ -216,6 +401,79 @@ public class RequestBodyConverterTest {
     assertThat(new String(testReader.readAll().getBody(), UTF_8)).isEqualTo(BODY_CONTENT);
   }
 
+  @Test
+  public void testDelegating_shortButAboveCustomThreshold_handledByStreaming() throws Exception {
+    RequestBodyConverterImpl underTest =
+        RequestBodyConverterImpl.create(
+            Executors.newSingleThreadExecutor(), /* inMemoryBodyLengthThresholdBytes= */ 16, null);
+
+    UploadDataProvider provider =
+        underTest.convertRequestBody(KNOWN_LENGTH_REQUEST_BODY, NO_TIMEOUT);
+
+    assertThat(provider.getClass().getSimpleName()).isEqualTo("StreamingUploadDataProvider");
+    assertThat(new String(new RequestBodyTestReader(provider).readAll().getBody(), UTF_8))
+        .isEqualTo(BODY_CONTENT);
+  }
+
+  @Test
+  public void testDelegating_policyDeclinesInMemory_handledByStreaming() throws Exception {
+    RequestBodyConverterImpl underTest =
+        new RequestBodyConverterImpl(
+            new RequestBodyConverterImpl.InMemoryRequestBodyConverter(),
+            new RequestBodyConverterImpl.StreamingRequestBodyConverter(
+                Executors.newSingleThreadExecutor()),
+            RequestBodyConverterImpl.DEFAULT_IN_MEMORY_BODY_LENGTH_THRESHOLD_BYTES,
+            request -> !"application/json".equals(request.header("Content-Type")));
+    Request request =
+        new Request.Builder()
+            .url("https://www.example.com")
+            .header("Content-Type", "application/json")
+            .post(KNOWN_LENGTH_REQUEST_BODY)
+            .build();
+
+    UploadDataProvider provider = underTest.convertRequestBody(request, NO_TIMEOUT);
+
+    assertThat(provider.getClass().getSimpleName()).isEqualTo("StreamingUploadDataProvider");
+    assertThat(new String(new RequestBodyTestReader(provider).readAll().getBody(), UTF_8))
+        .isEqualTo(BODY_CONTENT);
+  }
+
+  @Test
+  public void testInMemory_rewindMidBody() throws Exception {
+    RequestBodyConverter underTest =
+        new RequestBodyConverterImpl.InMemoryRequestBodyConverter(4 * 1024 * 1024);
+    UploadDataProvider provider =
+        underTest.convertRequestBody(VERY_LONG_REQUEST_BODY, NO_TIMEOUT);
+    RequestBodyTestReader testReader = new RequestBodyTestReader(provider);
+
+    testReader.readChunk().rewind();
+
+    assertThat(new String(testReader.readAll().getBody(), UTF_8)).isEqualTo(VERY_LONG_BODY_CONTENT);
+    provider.close();
+  }
+
+  @Test
+  public void testInMemory_closed_chunksReusedByNextBody() throws Exception {
+    RequestBodyConverterImpl.InMemoryRequestBodyConverter underTest =
+        new RequestBodyConverterImpl.InMemoryRequestBodyConverter();
+    RequestBodyBufferPool pool = underTest.getBufferPool();
+    UploadDataProvider first = underTest.convertRequestBody(KNOWN_LENGTH_REQUEST_BODY, NO_TIMEOUT);
+    new RequestBodyTestReader(first).readAll();
+    long chunkCount = pool.getMissCount();
+    first.close();
+
+    UploadDataProvider second =
+        underTest.convertRequestBody(KNOWN_LENGTH_REQUEST_BODY, NO_TIMEOUT);
+    RequestBodyTestReader testReader = new RequestBodyTestReader(second);
+
+    assertThat(new String(testReader.readAll().getBody(), UTF_8)).isEqualTo(BODY_CONTENT);
+    assertThat(chunkCount).isGreaterThan(1);
+    assertThat(pool.getHitCount()).isEqualTo(chunkCount);
+    assertThat(pool.getMissCount()).isEqualTo(chunkCount);
+    second.close();
+    assertThat(pool.getPooledChunkCount()).isEqualTo(chunkCount);
+  }
+
   @Test
   public void testDelegating_unknownLength_handledByStreaming() throws Exception {
     RequestBodyConverterImpl underTest =
@@ -231,6 +489,87 @@ public class RequestBodyConverterTest {
     assertThat(new String(testReader.readAll().getBody(), UTF_8)).isEqualTo(BODY_CONTENT);
   }
 
+  @Test
+  public void testFile_readAndRewind() throws Exception {
+    RequestBodyConverter underTest = new RequestBodyConverterImpl.FileRequestBodyConverter();
+    RequestBodyTestReader testReader =
+        new RequestBodyTestReader(
+            underTest.convertRequestBody(
+                FileRequestBody.create(UTF_8_TEXT, writeTemporaryFile(VERY_LONG_BODY_CONTENT)),
+                NO_TIMEOUT));
+
+    testReader.readChunk().rewind();
+
+    assertThat(new String(testReader.readAll().getBody(), UTF_8)).isEqualTo(VERY_LONG_BODY_CONTENT);
+  }
+
+  @Test
+  public void testDelegating_file_handledByFile() throws Exception {
+    RequestBodyConverter underTest =
+        new RequestBodyConverterImpl(
+            new RequestBodyConverterImpl.InMemoryRequestBodyConverter(),
+            new RequestBodyConverterImpl.StreamingRequestBodyConverter(
+                Executors.newSingleThreadExecutor()));
+
+    UploadDataProvider provider =
+        underTest.convertRequestBody(
+            FileRequestBody.create(UTF_8_TEXT, writeTemporaryFile(BODY_CONTENT)), NO_TIMEOUT);
+
+    assertThat(provider.getClass().getSimpleName()).isEqualTo("FileUploadDataProvider");
+  }
+
+  @Test
+  public void testFileRequestBody_writeTo() throws Exception {
+    FileRequestBody body = FileRequestBody.create(UTF_8_TEXT, writeTemporaryFile(BODY_CONTENT));
+    Buffer sink = new Buffer();
+
+    body.writeTo(sink);
+
+    assertThat(body.contentLength()).isEqualTo(BODY_CONTENT.length());
+    assertThat(sink.readUtf8()).isEqualTo(BODY_CONTENT);
+  }
+
+  private File writeTemporaryFile(String content) throws IOException {
+    File file = temporaryFolder.newFile();
+    try (BufferedSink sink = Okio.buffer(Okio.sink(file))) {
+      sink.writeString(content, UTF_8);
+    }
+    return file;
+  }
+
+  /** Writes "a", then waits for the latch before writing "b". */
+  private static final class TwoPartRequestBody extends ArbitraryContentLengthRequestBody {
+    private final CountDownLatch firstPartRead;
+    private final boolean flush;
+
+    TwoPartRequestBody(CountDownLatch firstPartRead, boolean flush) {
+      this.firstPartRead = firstPartRead;
+      this.flush = flush;
+    }
+
+    @Override
+    public long contentLength() {
+      return 2;
+    }
+
+    @Override
+    public void writeTo(BufferedSink sink) throws IOException {
+      sink.writeUtf8("a");
+      if (flush) {
+        sink.flush();
+      } else {
+        sink.emit();
+      }
+      try {
+        firstPartRead.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IOException(e);
+      }
+      sink.writeUtf8("b");
+    }
+  }
+
   private abstract static class ArbitraryContentLengthRequestBody extends RequestBody {
     @Override
     public abstract long contentLength() throws IOException;
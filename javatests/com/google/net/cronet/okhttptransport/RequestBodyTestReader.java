@@ -33,6 +33,7 @@ final class RequestBodyTestReader {
   private final ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
   private final ByteArrayOutputStream bodyBytesRead = new ByteArrayOutputStream();
   private final WritableByteChannel bodyBytesChannel = Channels.newChannel(bodyBytesRead);
+  private int readCount;
 
   RequestBodyTestReader(UploadDataProvider providerUnderTest) {
     this.providerUnderTest = providerUnderTest;
@@ -47,10 +48,24 @@ final class RequestBodyTestReader {
     return this;
   }
 
+  /** Rewinds the provider and discards the body read so far. */
+  RequestBodyTestReader rewind() throws Exception {
+    TestReadDataSink sink = new TestReadDataSink();
+    providerUnderTest.rewind(sink);
+    sink.waitForResult();
+    bodyBytesRead.reset();
+    return this;
+  }
+
   byte[] getBody() {
     return bodyBytesRead.toByteArray();
   }
 
+  /** Returns the number of read calls made to the provider. */
+  int getReadCount() {
+    return readCount;
+  }
+
   private void readAllUnknownBodyLength() throws Exception {
     boolean interrupted = false;
 
@@ -58,6 +73,7 @@ final class RequestBodyTestReader {
       buffer.clear();
       TestReadDataSink sink = new TestReadDataSink();
 
+      readCount++;
       providerUnderTest.read(sink, buffer);
       interrupted = sink.waitForResult();
 
@@ -67,21 +83,32 @@ final class RequestBodyTestReader {
   }
 
   private void readAllKnownBodyLength() throws Exception {
-    long remainingBodyLength = providerUnderTest.getLength();
+    long remainingBodyLength = providerUnderTest.getLength() - bodyBytesRead.size();
 
     while (remainingBodyLength > 0) {
-      buffer.clear();
-      int chunkSize = (int) Math.min(remainingBodyLength, buffer.capacity());
-      buffer.limit(chunkSize);
-      TestReadDataSink sink = new TestReadDataSink();
+      remainingBodyLength -= readKnownBodyLengthChunk(remainingBodyLength);
+    }
+  }
 
-      providerUnderTest.read(sink, buffer);
-      Verify.verify(!sink.waitForResult());
+  /** Reads a single chunk of a body of known length. */
+  RequestBodyTestReader readChunk() throws Exception {
+    readKnownBodyLengthChunk(providerUnderTest.getLength() - bodyBytesRead.size());
+    return this;
+  }
 
-      buffer.flip();
-      bodyBytesChannel.write(buffer);
-      remainingBodyLength -= buffer.limit();
-    }
+  private int readKnownBodyLengthChunk(long remainingBodyLength) throws Exception {
+    buffer.clear();
+    int chunkSize = (int) Math.min(remainingBodyLength, buffer.capacity());
+    buffer.limit(chunkSize);
+    TestReadDataSink sink = new TestReadDataSink();
+
+    readCount++;
+    providerUnderTest.read(sink, buffer);
+    Verify.verify(!sink.waitForResult());
+
+    buffer.flip();
+    bodyBytesChannel.write(buffer);
+    return buffer.limit();
   }
 
   private static class TestReadDataSink extends UploadDataSink {
@@ -104,13 +131,12 @@ final class RequestBodyTestReader {
 
     @Override
     public void onRewindSucceeded() {
-      throw new UnsupportedOperationException();
-
+      result.set(false);
     }
 
     @Override
     public void onRewindError(Exception e) {
-      throw new UnsupportedOperationException();
+      result.setException(e);
     }
   }
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.nio.ByteBuffer;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class ResponseBodyBufferPoolTest {
+
+  @Test
+  public void testAcquire_emptyPool_allocatesDirectBuffer() {
+    ResponseBodyBufferPool underTest = ResponseBodyBufferPool.create(2);
+
+    ByteBuffer buffer = underTest.acquire();
+
+    assertThat(buffer.isDirect()).isTrue();
+    assertThat(buffer.capacity()).isEqualTo(ResponseBodyBufferPool.DEFAULT_BUFFER_CAPACITY);
+    assertThat(underTest.getMissCount()).isEqualTo(1);
+    assertThat(underTest.getHitCount()).isEqualTo(0);
+  }
+
+  @Test
+  public void testRelease_bufferIsReusedCleared() {
+    ResponseBodyBufferPool underTest = ResponseBodyBufferPool.create(2);
+    ByteBuffer buffer = underTest.acquire();
+    buffer.put((byte) 42).limit(10);
+
+    underTest.release(buffer);
+    ByteBuffer reused = underTest.acquire();
+
+    assertThat(reused).isSameInstanceAs(buffer);
+    assertThat(reused.position()).isEqualTo(0);
+    assertThat(reused.limit()).isEqualTo(reused.capacity());
+    assertThat(underTest.getHitCount()).isEqualTo(1);
+    assertThat(underTest.getMissCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testRelease_poolFull_bufferDropped() {
+    ResponseBodyBufferPool underTest = ResponseBodyBufferPool.create(1);
+    ByteBuffer first = underTest.acquire();
+    ByteBuffer second = underTest.acquire();
+
+    underTest.release(first);
+    underTest.release(second);
+
+    assertThat(underTest.getPooledBufferCount()).isEqualTo(1);
+  }
+
+  @Test
+  public void testRelease_foreignBuffer_ignored() {
+    ResponseBodyBufferPool underTest = ResponseBodyBufferPool.create(1);
+
+    underTest.release(ByteBuffer.allocate(ResponseBodyBufferPool.DEFAULT_BUFFER_CAPACITY));
+    underTest.release(ByteBuffer.allocateDirect(16));
+
+    assertThat(underTest.getPooledBufferCount()).isEqualTo(0);
+  }
+}
@@ -160,6 +160,111 @@ public class ResponseConverterTest {
     assertThat(actualResponse.body().string()).isEqualTo(GOOGLE_COM_BODY);
   }
 
+  @Test
+  public void testContentEncoding_decodedByCronet_encodingAffectedHeadersRemoved()
+      throws Exception {
+    UrlResponseInfo responseInfo =
+        new GoogleComResponseInfo() {
+          @Override
+          void customizeHeadersMultimap(ListMultimap<String, String> multimap) {
+            multimap.removeAll("content-encoding");
+            multimap.put("Content-Encoding", "gzip, br");
+            multimap.put("Content-Encoding", "deflate");
+          }
+        };
+
+    mockRequestCallback = createMockCallback(responseInfo, createGoogleComBodySource());
+
+    Response actualResponse = underTest.toResponse(GOOGLE_COM_REQUEST, mockRequestCallback);
+    assertThat(actualResponse.headers("content-encoding")).isEmpty();
+    assertThat(actualResponse.headers("content-length")).isEmpty();
+    assertThat(actualResponse.header("x-random-header")).isEqualTo("FooBar");
+    assertThat(actualResponse.body().contentLength()).isEqualTo(-1);
+    assertThat(actualResponse.body().contentType()).isEqualTo(GOOGLE_COM_MEDIA_TYPE);
+    assertThat(actualResponse.body().string()).isEqualTo(GOOGLE_COM_BODY);
+  }
+
+  @Test
+  public void testHeaders_convertedFromListOnly() throws Exception {
+    UrlResponseInfo responseInfo =
+        new GoogleComResponseInfo() {
+          @Override
+          public Map<String, List<String>> getAllHeaders() {
+            throw new UnsupportedOperationException("The map shouldn't be needed");
+          }
+        };
+
+    mockRequestCallback = createMockCallback(responseInfo, createGoogleComBodySource());
+
+    Response actualResponse = underTest.toResponse(GOOGLE_COM_REQUEST, mockRequestCallback);
+    assertThat(actualResponse.headers().size()).isEqualTo(5);
+    assertThat(actualResponse.header("content-encoding"))
+        .isEqualTo("encoding-not-handled-by-cronet");
+    assertThat(actualResponse.body().contentLength()).isEqualTo(GOOGLE_COM_BODY.length());
+    assertThat(actualResponse.body().contentType()).isEqualTo(GOOGLE_COM_MEDIA_TYPE);
+  }
+
+  @Test
+  public void testRedirects_priorResponsesEnabled() throws Exception {
+    Response actualResponse =
+        underTest.toResponse(
+            GOOGLE_COM_REQUEST,
+            new GoogleComResponseInfo(),
+            ImmutableList.of(new GoogleComRedirectResponseInfo()),
+            ImmutableList.of(42L),
+            createGoogleComBodySource());
+
+    assertThat(actualResponse.request().url().toString()).isEqualTo("https://www.google.com/");
+    assertThat(actualResponse.priorResponse().code()).isEqualTo(301);
+    assertThat(actualResponse.priorResponse().request().url().toString())
+        .isEqualTo("http://www.google.com/");
+    assertThat(actualResponse.priorResponse().priorResponse()).isNull();
+    assertThat(RedirectHistory.fromResponse(actualResponse).getPriorResponse())
+        .isSameInstanceAs(actualResponse.priorResponse());
+  }
+
+  @Test
+  public void testRedirects_priorResponsesDisabled_builtOnDemand() throws Exception {
+    ResponseConverter underTest = new ResponseConverter(/* priorResponsesEnabled= */ false);
+
+    Response actualResponse =
+        underTest.toResponse(
+            GOOGLE_COM_REQUEST,
+            new GoogleComResponseInfo(),
+            ImmutableList.of(new GoogleComRedirectResponseInfo()),
+            ImmutableList.of(42L),
+            createGoogleComBodySource());
+
+    assertThat(actualResponse.priorResponse()).isNull();
+    assertThat(actualResponse.request().url().toString()).isEqualTo("https://www.google.com/");
+
+    RedirectHistory redirectHistory = RedirectHistory.fromResponse(actualResponse);
+    assertThat(redirectHistory.getRedirectCount()).isEqualTo(1);
+    assertThat(redirectHistory.getRedirectDurationsMillis()).containsExactly(42L);
+    assertThat(redirectHistory.getUrlChain())
+        .containsExactly("http://www.google.com", "https://www.google.com")
+        .inOrder();
+    Response priorResponse = redirectHistory.getPriorResponse();
+    assertThat(priorResponse.code()).isEqualTo(301);
+    assertThat(priorResponse.header("location")).isEqualTo("https://www.google.com");
+    assertThat(priorResponse.request().url().toString()).isEqualTo("http://www.google.com/");
+    assertThat(redirectHistory.getPriorResponse()).isSameInstanceAs(priorResponse);
+  }
+
+  @Test
+  public void testNoRedirects_noRedirectHistory() throws Exception {
+    Response actualResponse =
+        underTest.toResponse(
+            GOOGLE_COM_REQUEST,
+            new GoogleComResponseInfo(),
+            ImmutableList.of(),
+            ImmutableList.of(),
+            createGoogleComBodySource());
+
+    assertThat(actualResponse.priorResponse()).isNull();
+    assertThat(RedirectHistory.fromResponse(actualResponse)).isNull();
+  }
+
   @Test
   public void testNegotiatedProtocol_unknownValue_fallsBackToHttp1() throws Exception {
     UrlResponseInfo responseInfo =
@@ -255,12 +360,36 @@ public class ResponseConverterTest {
     }
   }
 
+  private static class GoogleComRedirectResponseInfo extends GoogleComResponseInfo {
+    @Override
+    public String getUrl() {
+      return "http://www.google.com";
+    }
+
+    @Override
+    public List<String> getUrlChain() {
+      return ImmutableList.of("http://www.google.com");
+    }
+
+    @Override
+    public int getHttpStatusCode() {
+      return 301;
+    }
+
+    @Override
+    void customizeHeadersMultimap(ListMultimap<String, String> multimap) {
+      multimap.removeAll("content-length");
+      multimap.put("location", "https://www.google.com");
+    }
+  }
+
   private static OkHttpBridgeRequestCallback createMockCallback(
       UrlResponseInfo responseInfo, Source bodySource) {
     ListenableFuture<UrlResponseInfo> responseInfoFuture = Futures.immediateFuture(responseInfo);
     ListenableFuture<Source> bodySourceFuture = Futures.immediateFuture(bodySource);
 
-    return new OkHttpBridgeRequestCallback(0, RedirectStrategy.defaultStrategy()) {
+    return new OkHttpBridgeRequestCallback(
+        0, RedirectStrategy.defaultStrategy(), ResponseBodyBufferPool.create(0), 1) {
       @Override
       ListenableFuture<UrlResponseInfo> getUrlResponseInfo() {
         return responseInfoFuture;
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class SpscHandoffTest {
+
+  private final ExecutorService producerExecutor = Executors.newSingleThreadExecutor();
+
+  @After
+  public void tearDown() {
+    producerExecutor.shutdownNow();
+  }
+
+  @Test
+  public void testOfferAndPoll_fifo() {
+    SpscHandoff<String> underTest = new SpscHandoff<>(2);
+
+    assertThat(underTest.offer("a")).isTrue();
+    assertThat(underTest.offer("b")).isTrue();
+
+    assertThat(underTest.poll()).isEqualTo("a");
+    assertThat(underTest.poll()).isEqualTo("b");
+    assertThat(underTest.poll()).isNull();
+    assertThat(underTest.isEmpty()).isTrue();
+  }
+
+  @Test
+  public void testOffer_full_rejected() {
+    SpscHandoff<String> underTest = new SpscHandoff<>(1);
+
+    assertThat(underTest.offer("a")).isTrue();
+    assertThat(underTest.offer("b")).isFalse();
+    underTest.poll();
+    assertThat(underTest.offer("c")).isTrue();
+
+    assertThat(underTest.poll()).isEqualTo("c");
+  }
+
+  @Test
+  public void testPoll_timeout_returnsNull() throws Exception {
+    SpscHandoff<String> underTest = new SpscHandoff<>(1);
+
+    assertThat(underTest.poll(10, MILLISECONDS)).isNull();
+    assertThat(underTest.isClosed()).isFalse();
+  }
+
+  @Test
+  public void testPoll_closed_drainsRemainingElements() throws Exception {
+    SpscHandoff<String> underTest = new SpscHandoff<>(2);
+    underTest.offer("a");
+    underTest.close();
+
+    assertThat(underTest.poll(1, SECONDS)).isEqualTo("a");
+    assertThat(underTest.poll(1, SECONDS)).isNull();
+    assertThat(underTest.isClosed()).isTrue();
+  }
+
+  @Test
+  public void testPoll_wokenUpByClose() throws Exception {
+    SpscHandoff<String> underTest = new SpscHandoff<>(1);
+
+    producerExecutor.execute(
+        () -> {
+          sleepUninterruptibly(50);
+          underTest.close();
+        });
+
+    assertThat(underTest.poll(10, SECONDS)).isNull();
+    assertThat(underTest.isClosed()).isTrue();
+  }
+
+  @Test
+  public void testHandoffAcrossThreads_allElementsInOrder() throws Exception {
+    int elementCount = 100_000;
+    SpscHandoff<Integer> underTest = new SpscHandoff<>(4);
+
+    Future<?> producer =
+        producerExecutor.submit(
+            () -> {
+              for (int i = 0; i < elementCount; i++) {
+                while (!underTest.offer(i)) {
+                  Thread.yield();
+                }
+              }
+              underTest.close();
+            });
+
+    int expected = 0;
+    Integer element;
+    while ((element = underTest.poll(10, SECONDS)) != null) {
+      assertThat(element).isEqualTo(expected++);
+    }
+    producer.get();
+    assertThat(expected).isEqualTo(elementCount);
+  }
+
+  @Test
+  public void testHandoffAcrossThreads_withoutSpinning_allElementsInOrder() throws Exception {
+    int elementCount = 10_000;
+    SpscHandoff<Integer> underTest = new SpscHandoff<>(1, /* spinBeforeParking= */ false);
+
+    Future<?> producer =
+        producerExecutor.submit(
+            () -> {
+              for (int i = 0; i < elementCount; i++) {
+                while (!underTest.offer(i)) {
+                  Thread.yield();
+                }
+              }
+              underTest.close();
+            });
+
+    int expected = 0;
+    Integer element;
+    while ((element = underTest.poll(10, SECONDS)) != null) {
+      assertThat(element).isEqualTo(expected++);
+    }
+    producer.get();
+    assertThat(expected).isEqualTo(elementCount);
+  }
+
+  private static void sleepUninterruptibly(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
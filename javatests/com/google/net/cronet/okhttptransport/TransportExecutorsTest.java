@@ -0,0 +1,207 @@
+/*
+ * Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.net.cronet.okhttptransport;
+
+import static com.google.common.truth.Truth.assertThat;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.junit.Assert.assertThrows;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.common.util.concurrent.MoreExecutors;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+@RunWith(AndroidJUnit4.class)
+public class TransportExecutorsTest {
+
+  private final FakeCronetEngine engine =
+      new FakeCronetEngine(
+          FakeUrlResponseInfo.create("https://www.example.com", 200),
+          new byte[0],
+          MoreExecutors.directExecutor());
+
+  @Test
+  public void testAcquire_sameEngineAndConfig_shared() {
+    TransportExecutors first = TransportExecutors.acquire(engine, 4, 64, false);
+    TransportExecutors second = TransportExecutors.acquire(engine, 4, 64, false);
+    TransportExecutors otherConfig = TransportExecutors.acquire(engine, 8, 64, false);
+
+    try {
+      assertThat(second).isSameInstanceAs(first);
+      assertThat(otherConfig).isNotSameInstanceAs(first);
+    } finally {
+      first.release();
+      second.release();
+      otherConfig.release();
+    }
+  }
+
+  @Test
+  public void testRelease_shutsDownAfterLastRelease() {
+    TransportExecutors first = TransportExecutors.acquire(engine, 4, 64, false);
+    TransportExecutors second = TransportExecutors.acquire(engine, 4, 64, false);
+
+    first.release();
+    assertThat(second.getCallbackExecutor().isShutdown()).isFalse();
+
+    second.release();
+    assertThat(second.getUploadDataProviderExecutor().isShutdown()).isTrue();
+    assertThat(second.getRequestBodyExecutor().isShutdown()).isTrue();
+    assertThat(second.getCallbackExecutor().isShutdown()).isTrue();
+    assertThrows(IllegalStateException.class, second::release);
+
+    TransportExecutors third = TransportExecutors.acquire(engine, 4, 64, false);
+    assertThat(third).isNotSameInstanceAs(second);
+    third.release();
+  }
+
+  @Test
+  public void testAcquire_executorsCreatedOnFirstUse() {
+    TransportExecutors executors = TransportExecutors.acquire(engine, 4, 64, false);
+    try {
+      assertThat(executors.isAnyExecutorCreated()).isFalse();
+
+      executors.getCallbackExecutor();
+
+      assertThat(executors.isAnyExecutorCreated()).isTrue();
+    } finally {
+      executors.release();
+    }
+  }
+
+  @Test
+  public void testBuild_callFactory_noExecutorCreated() {
+    CronetCallFactory factory = CronetCallFactory.newBuilder(engine).build();
+    try {
+      TransportExecutors executors =
+          TransportExecutors.acquire(
+              engine,
+              TransportExecutors.DEFAULT_UPLOAD_DATA_PROVIDER_THREADS,
+              TransportExecutors.DEFAULT_REQUEST_BODY_THREADS,
+              false);
+      try {
+        assertThat(executors.isAnyExecutorCreated()).isFalse();
+      } finally {
+        executors.release();
+      }
+    } finally {
+      factory.close();
+    }
+  }
+
+  @Test
+  public void testRequestBodyExecutor_limitReached_rejects() throws Exception {
+    TransportExecutors executors = TransportExecutors.acquire(engine, 4, 1, false);
+    CountDownLatch blocker = new CountDownLatch(1);
+    try {
+      executors.getRequestBodyExecutor().execute(() -> awaitUninterruptibly(blocker));
+
+      assertThrows(
+          RejectedExecutionException.class,
+          () -> executors.getRequestBodyExecutor().execute(() -> {}));
+    } finally {
+      blocker.countDown();
+      executors.release();
+    }
+  }
+
+  @Test
+  public void testRequestBodyExecutor_noLimitByDefault_writersRunConcurrently() throws Exception {
+    int writerCount = 100;
+    TransportExecutors executors =
+        TransportExecutors.acquire(
+            engine,
+            TransportExecutors.DEFAULT_UPLOAD_DATA_PROVIDER_THREADS,
+            TransportExecutors.DEFAULT_REQUEST_BODY_THREADS,
+            false);
+    CountDownLatch allRunning = new CountDownLatch(writerCount);
+    CountDownLatch blocker = new CountDownLatch(1);
+    try {
+      for (int i = 0; i < writerCount; i++) {
+        executors
+            .getRequestBodyExecutor()
+            .execute(
+                () -> {
+                  allRunning.countDown();
+                  awaitUninterruptibly(blocker);
+                });
+      }
+
+      assertThat(allRunning.await(5, SECONDS)).isTrue();
+    } finally {
+      blocker.countDown();
+      executors.release();
+    }
+  }
+
+  @Test
+  public void testCallbackExecutor_limitReached_queues() throws Exception {
+    TransportExecutors executors = TransportExecutors.acquire(engine, 4, 64, false);
+    CountDownLatch blocker = new CountDownLatch(1);
+    CountDownLatch done = new CountDownLatch(1);
+    try {
+      for (int i = 0; i < TransportExecutors.DEFAULT_CALLBACK_THREADS; i++) {
+        executors.getCallbackExecutor().execute(() -> awaitUninterruptibly(blocker));
+      }
+      executors.getCallbackExecutor().execute(done::countDown);
+
+      assertThat(done.await(100, MILLISECONDS)).isFalse();
+      blocker.countDown();
+      assertThat(done.await(5, SECONDS)).isTrue();
+    } finally {
+      blocker.countDown();
+      executors.release();
+    }
+  }
+
+  @Test
+  public void testAcquire_virtualThreads_usedOnlyIfSupported() throws Exception {
+    boolean supported = isVirtualThreadSupported();
+    TransportExecutors executors = TransportExecutors.acquire(engine, 4, 1, true);
+    try {
+      assertThat(executors.usesVirtualThreads()).isEqualTo(supported);
+      if (supported) {
+        // Unbounded, the limit for platform threads doesn't apply.
+        CountDownLatch blocker = new CountDownLatch(1);
+        executors.getRequestBodyExecutor().execute(() -> awaitUninterruptibly(blocker));
+        executors.getRequestBodyExecutor().execute(() -> {});
+        blocker.countDown();
+      }
+    } finally {
+      executors.release();
+    }
+  }
+
+  private static boolean isVirtualThreadSupported() {
+    try {
+      Thread.class.getMethod("isVirtual");
+      return true;
+    } catch (NoSuchMethodException e) {
+      return false;
+    }
+  }
+
+  private static void awaitUninterruptibly(CountDownLatch latch) {
+    try {
+      latch.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}